@@ -15,17 +15,31 @@ import org.bitseal.tests.core.Test_ExtractMessageFromUnencryptedMsg;
 import org.bitseal.tests.core.Test_ExtractRipeHashFromAddressString;
 import org.bitseal.tests.core.Test_RetrievePubkeyByAddressString;
 import org.bitseal.tests.core.Test_ValidatePubkey;
+import org.bitseal.tests.crypt.Test_BatchSignatureVerification;
+import org.bitseal.tests.crypt.Test_CryptoBackend;
+import org.bitseal.tests.crypt.Test_DecodedKeyCache;
 import org.bitseal.tests.crypt.Test_DecryptionBasic;
 import org.bitseal.tests.crypt.Test_DecryptionSpecific;
+import org.bitseal.tests.crypt.Test_ECDSAProcessor;
 import org.bitseal.tests.crypt.Test_EncodePrivateKeysInWIF;
+import org.bitseal.tests.crypt.Test_EncryptedPayloadView;
+import org.bitseal.tests.crypt.Test_EphemeralKeyPool;
 import org.bitseal.tests.crypt.Test_EncryptPubkeySpecific;
 import org.bitseal.tests.crypt.Test_EncryptionBasic;
+import org.bitseal.tests.crypt.Test_ECIESProcessor;
 import org.bitseal.tests.crypt.Test_EncryptionSpecific;
+import org.bitseal.tests.crypt.Test_FixedBaseMultiplier;
 import org.bitseal.tests.crypt.Test_GenerateAddress;
 import org.bitseal.tests.crypt.Test_GeneratePubkey;
+import org.bitseal.tests.crypt.Test_GLVMultiplier;
+import org.bitseal.tests.crypt.Test_Hasher;
+import org.bitseal.tests.crypt.Test_HmacKey;
+import org.bitseal.tests.crypt.Test_JointMultiplier;
 import org.bitseal.tests.crypt.Test_RecreateAddressString;
+import org.bitseal.tests.crypt.Test_Secp256k1Field;
 import org.bitseal.tests.crypt.Test_SignatureBasic;
 import org.bitseal.tests.crypt.Test_SignatureSpecific;
+import org.bitseal.tests.crypt.Test_TrialDecryptor;
 import org.bitseal.tests.database.Test_AddressBookRecordProvider;
 import org.bitseal.tests.database.Test_AddressProvider;
 import org.bitseal.tests.database.Test_MessageProvider;
@@ -40,7 +54,16 @@ import org.bitseal.tests.network.Test_DisseminatePubkey;
 import org.bitseal.tests.network.Test_RequestEncryptedPubkeyFromServer;
 import org.bitseal.tests.network.Test_RequestMessagesFromServer;
 import org.bitseal.tests.network.Test_RequestPubkeyFromServer;
+import org.bitseal.tests.pow.Test_AdaptivePOWController;
+import org.bitseal.tests.pow.Test_BatchPOWVerification;
 import org.bitseal.tests.pow.Test_CalculateAndVerifyPOW;
+import org.bitseal.tests.pow.Test_POWCostEstimator;
+import org.bitseal.tests.pow.Test_POWProgress;
+import org.bitseal.tests.pow.Test_POWScheduler;
+import org.bitseal.tests.pow.Test_POWTrialEngine;
+import org.bitseal.tests.pow.Test_ParallelPOW;
+import org.bitseal.tests.pow.Test_RemotePOW;
+import org.bitseal.tests.pow.Test_ResumablePOW;
 import org.bitseal.tests.services.Test_SortQueueRecords;
 import org.bitseal.tests.util.Test_ColourCalculator;
 import org.bitseal.tests.util.Test_ConcatenateByteArrays;
@@ -90,6 +113,20 @@ public class Test_RunAllTests
 		suite.addTestSuite(Test_RecreateAddressString.class);
 		suite.addTestSuite(Test_SignatureBasic.class);
 		suite.addTestSuite(Test_SignatureSpecific.class);
+		suite.addTestSuite(Test_FixedBaseMultiplier.class);
+		suite.addTestSuite(Test_GLVMultiplier.class);
+		suite.addTestSuite(Test_JointMultiplier.class);
+		suite.addTestSuite(Test_ECIESProcessor.class);
+		suite.addTestSuite(Test_EncryptedPayloadView.class);
+		suite.addTestSuite(Test_TrialDecryptor.class);
+		suite.addTestSuite(Test_EphemeralKeyPool.class);
+		suite.addTestSuite(Test_ECDSAProcessor.class);
+		suite.addTestSuite(Test_BatchSignatureVerification.class);
+		suite.addTestSuite(Test_DecodedKeyCache.class);
+		suite.addTestSuite(Test_CryptoBackend.class);
+		suite.addTestSuite(Test_Hasher.class);
+		suite.addTestSuite(Test_HmacKey.class);
+		suite.addTestSuite(Test_Secp256k1Field.class);
 		
 		// Tests from "database" package:
 		suite.addTestSuite(Test_AddressBookRecordProvider.class);
@@ -111,6 +148,15 @@ public class Test_RunAllTests
 				
 		// Tests from "pow" package
 		suite.addTestSuite(Test_CalculateAndVerifyPOW.class);
+		suite.addTestSuite(Test_POWTrialEngine.class);
+		suite.addTestSuite(Test_POWScheduler.class);
+		suite.addTestSuite(Test_ParallelPOW.class);
+		suite.addTestSuite(Test_ResumablePOW.class);
+		suite.addTestSuite(Test_POWCostEstimator.class);
+		suite.addTestSuite(Test_BatchPOWVerification.class);
+		suite.addTestSuite(Test_RemotePOW.class);
+		suite.addTestSuite(Test_AdaptivePOWController.class);
+		suite.addTestSuite(Test_POWProgress.class);
 		
 		// Tests from "services" package
 		suite.addTestSuite(Test_SortQueueRecords.class);
@@ -1,5 +1,7 @@
 package org.bitseal.tests.concept;
 
+import java.math.BigInteger;
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collections;
 
@@ -16,7 +18,13 @@ import org.bitseal.data.Payload;
 import org.bitseal.data.Pubkey;
 import org.bitseal.database.AddressProvider;
 import org.bitseal.database.PubkeyProvider;
+import org.bitseal.tests.crypt.ECIESProcessor;
+import org.bitseal.tests.crypt.FixedBaseMultiplier;
+import org.bitseal.tests.crypt.GLVMultiplier;
+import org.bitseal.tests.crypt.Secp256k1;
+import org.bitseal.tests.crypt.Secp256k1Point;
 
+import android.os.Debug;
 import android.util.Log;
 
 /**
@@ -43,6 +51,12 @@ public class Test_BruteForce extends TestCase
 	
 	private static final long TEST_MSG_TIME_TO_LIVE = 600;
 	
+	/** 
+	 * The maximum average number of bytes that may be allocated to reject a msg. Rejecting a msg
+	 * allocated about 8 KB when the point multiplication built new tables for each msg.
+	 */
+	private static final long MAX_REJECTION_ALLOCATION_SIZE = 2048;
+	
 	private static final String TAG = "TEST_BRUTE_FORCE";
 	
 	protected void setUp() throws Exception
@@ -185,4 +199,76 @@ public class Test_BruteForce extends TestCase
 		pubProv.deletePubkey(toPubkey);
 		pubProv.deletePubkey(fromPubkey);
 	}
+	
+	/**
+	 * Measures the cost of rejecting msgs that are not addressed to us when
+	 * using ECIESProcessor.tryDecrypt(), which checks the MAC before doing any
+	 * AES and does not throw exceptions. Rejecting a msg should cost about one
+	 * point multiplication plus one HMAC, so the average time per rejection is
+	 * logged next to the time for a point multiplication on its own.
+	 */
+	public void testMacFirstRejection()
+	{
+		SecureRandom secRand = new SecureRandom();
+		ECIESProcessor eciesProc = new ECIESProcessor();
+		BigInteger k = Secp256k1.generatePrivateKey(secRand);
+		Secp256k1Point K = FixedBaseMultiplier.multiplyG(k);
+		
+		// Create the 'valid' msgs, encrypted to our key, and the 'invalid' msgs, encrypted to other keys
+		ArrayList<byte[]> allMsgs = new ArrayList<byte[]>();
+		for (int i = 0; i < NUMBER_OF_VALID_MESSAGES; i++)
+		{
+			allMsgs.add(eciesProc.encrypt((VALID_MESSAGE_BODY + i).getBytes(), K));
+		}
+		Secp256k1Point[] otherKeys = new Secp256k1Point[NUMBER_OF_INVALID_MESSAGES];
+		for (int i = 0; i < NUMBER_OF_INVALID_MESSAGES; i++)
+		{
+			otherKeys[i] = FixedBaseMultiplier.multiplyG(Secp256k1.generatePrivateKey(secRand));
+			allMsgs.add(eciesProc.encrypt((INVALID_MESSAGE_BODY + i).getBytes(), otherKeys[i]));
+		}
+		Collections.shuffle(allMsgs);
+		
+		// Check one msg before measuring, so that the one-off setup of the thread's hashers is not counted
+		eciesProc.tryDecrypt(eciesProc.encrypt(INVALID_MESSAGE_BODY.getBytes(), otherKeys[0]), k);
+		
+		long rejectionTime = 0;
+		long rejectionAllocationSize = 0;
+		int numberOfRejections = 0;
+		Debug.startAllocCounting();
+		for (byte[] msg : allMsgs)
+		{
+			Debug.resetThreadAllocSize();
+			long startTime = System.nanoTime();
+			
+			byte[] plainText = eciesProc.tryDecrypt(msg, k);
+			
+			long timeTaken = System.nanoTime() - startTime;
+			long allocationSize = Debug.getThreadAllocSize();
+			if (plainText == null)
+			{
+				rejectionTime += timeTaken;
+				rejectionAllocationSize += allocationSize;
+				numberOfRejections ++;
+			}
+			else
+			{
+				assertTrue(new String(plainText).startsWith(VALID_MESSAGE_BODY));
+			}
+		}
+		Debug.stopAllocCounting();
+		assertEquals(NUMBER_OF_INVALID_MESSAGES, numberOfRejections);
+		
+		// For comparison, time the point multiplication on its own
+		long multiplicationStartTime = System.nanoTime();
+		for (Secp256k1Point otherKey : otherKeys)
+		{
+			GLVMultiplier.multiply(otherKey, k);
+		}
+		long multiplicationTime = System.nanoTime() - multiplicationStartTime;
+		
+		Log.i(TAG, "Average time taken to reject a msg in microseconds:              " + (rejectionTime / numberOfRejections / 1000));
+		Log.i(TAG, "Average time taken for one point multiplication in microseconds: " + (multiplicationTime / NUMBER_OF_INVALID_MESSAGES / 1000));
+		Log.i(TAG, "Average number of bytes allocated to reject a msg:               " + (rejectionAllocationSize / numberOfRejections));
+		assertTrue(rejectionAllocationSize / numberOfRejections <= MAX_REJECTION_ALLOCATION_SIZE);
+	}
 }
\ No newline at end of file
@@ -8,7 +8,6 @@ import junit.framework.TestCase;
 import org.bitseal.core.App;
 import org.bitseal.core.OutgoingMessageProcessor;
 import org.bitseal.crypt.AddressGenerator;
-import org.bitseal.crypt.KeyConverter;
 import org.bitseal.crypt.PubkeyGenerator;
 import org.bitseal.data.Address;
 import org.bitseal.data.Message;
@@ -16,6 +15,7 @@ import org.bitseal.data.Payload;
 import org.bitseal.data.Pubkey;
 import org.bitseal.database.AddressProvider;
 import org.bitseal.database.PubkeyProvider;
+import org.bitseal.tests.crypt.DecodedKeyCache;
 import org.bitseal.util.ArrayCopier;
 import org.bitseal.util.ByteUtils;
 import org.spongycastle.jce.interfaces.ECPrivateKey;
@@ -119,8 +119,8 @@ public class Test_CalculateKeyM extends TestCase
  		for (ECPublicKey R : rValues)
  		{
  			// Create the ECPrivateKey object that we will use to calcualate the key_m
- 			KeyConverter keyConv = new KeyConverter();
- 			ECPrivateKey k = keyConv.decodePrivateKeyFromWIF(toAddress.getPrivateEncryptionKey());
+ 			// The decoded key is cached, so it is only decoded once however many R values there are
+ 			ECPrivateKey k = DecodedKeyCache.get().decodePrivateKeyFromWIF(toAddress.getPrivateEncryptionKey());
  			
  			// Initialize time values
  			long startTime = 0;
@@ -157,6 +157,10 @@ public class Test_CalculateKeyM extends TestCase
  		
 		// Cleaning up - delete the addresses and pubkeys we created from the database
 		AddressProvider addProv = AddressProvider.get(App.getContext());
+		// Remove the decoded keys of the addresses from the cache before they are deleted
+		DecodedKeyCache keyCache = DecodedKeyCache.get();
+		keyCache.invalidate(toAddress);
+		keyCache.invalidate(fromAddress);
 		addProv.deleteAddress(toAddress);
 		addProv.deleteAddress(fromAddress);
 		PubkeyProvider pubProv = PubkeyProvider.get(App.getContext());
@@ -10,9 +10,7 @@ import org.bitseal.core.App;
 import org.bitseal.core.IncomingMessageProcessor;
 import org.bitseal.core.OutgoingMessageProcessor;
 import org.bitseal.crypt.AddressGenerator;
-import org.bitseal.crypt.KeyConverter;
 import org.bitseal.crypt.PubkeyGenerator;
-import org.bitseal.crypt.SHA256;
 import org.bitseal.data.Address;
 import org.bitseal.data.EncryptedPayload;
 import org.bitseal.data.Message;
@@ -20,6 +18,8 @@ import org.bitseal.data.Payload;
 import org.bitseal.data.Pubkey;
 import org.bitseal.database.AddressProvider;
 import org.bitseal.database.PubkeyProvider;
+import org.bitseal.tests.crypt.DecodedKeyCache;
+import org.bitseal.tests.crypt.HmacKey;
 import org.bitseal.util.ArrayCopier;
 import org.bitseal.util.ByteFormatter;
 import org.bitseal.util.ByteUtils;
@@ -161,8 +161,8 @@ public class Test_MessageIdentification extends TestCase
  		for (ECPublicKey R : rValues)
  		{
  			// Create the ECPrivateKey object that we will use to calcualate the key_m
- 			KeyConverter keyConv = new KeyConverter();
- 			ECPrivateKey k = keyConv.decodePrivateKeyFromWIF(toAddress.getPrivateEncryptionKey());
+ 			// The decoded key is cached, so it is only decoded once however many R values there are
+ 			ECPrivateKey k = DecodedKeyCache.get().decodePrivateKeyFromWIF(toAddress.getPrivateEncryptionKey());
  			
  			// Do a point multiplication to get the ECPoint that they key_m will be derived from
  			ECPoint point = R.getQ().multiply(k.getD());
@@ -189,6 +189,13 @@ public class Test_MessageIdentification extends TestCase
  		int counter = 0;
  		ArrayList<Payload> matchingPayloads = new ArrayList<Payload>();
  		
+ 		// Calculate the HMAC pad states for each key_m once, rather than once for every msg it is checked against
+ 		ArrayList<HmacKey> hmacKeys = new ArrayList<HmacKey>();
+ 		for (int i = 0; i < numberOfKeyMValues; i++)
+ 		{
+ 			hmacKeys.add(new HmacKey(keyMValues, i * 32, 32));
+ 		}
+ 		
  		// Loop through all the msgs and check for any matches
 		for (Payload p : allMsgs)
 		{
@@ -198,8 +205,6 @@ public class Test_MessageIdentification extends TestCase
  			{
  				readPositionStart = i *32;
  				readPositionEnd = readPositionStart + 32;
-				byte[] key_m = ArrayCopier.copyOfRange(keyMValues, readPositionStart, readPositionEnd);
- 				
  				// Skip over the pow nonce, time, and stream number
  	 			byte[] fullPayload = p.getPayload();
  	 			byte[] encryptedPayload = ArrayCopier.copyOfRange(fullPayload, 17, fullPayload.length);
@@ -209,7 +214,7 @@ public class Test_MessageIdentification extends TestCase
  				byte[] actualMac = encPay.getMac();
  				
  				// Calculate the mac for the cipher text and the supplied key_m value
- 				byte[] calculatedMac = SHA256.hmacSHA256(cipherText, key_m);
+ 				byte[] calculatedMac = hmacKeys.get(i).calculateMac(cipherText);
  				
  				if (Arrays.equals(actualMac, calculatedMac))
  				{
@@ -223,6 +228,7 @@ public class Test_MessageIdentification extends TestCase
  					
  					// We have found a match for this key_m, so we don't need to check for it anymore
  					keyMValues = ByteUtils.removeBytesFromArray(keyMValues, readPositionStart, readPositionEnd);
+ 					hmacKeys.remove(i);
  					numberOfKeyMValues -= 1;
  					
  					// We have found a match for this msg, so we don't need to check for it anymore
@@ -265,6 +271,11 @@ public class Test_MessageIdentification extends TestCase
  		
 		// Cleaning up - delete the addresses and pubkeys we created from the database
 		AddressProvider addProv = AddressProvider.get(App.getContext());
+		// Remove the decoded keys of the addresses from the cache before they are deleted
+		DecodedKeyCache keyCache = DecodedKeyCache.get();
+		keyCache.invalidate(toAddress);
+		keyCache.invalidate(fromAddress);
+		keyCache.invalidate(otherAddress);
 		addProv.deleteAddress(toAddress);
 		addProv.deleteAddress(fromAddress);
 		addProv.deleteAddress(otherAddress);
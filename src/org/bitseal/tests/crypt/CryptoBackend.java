@@ -0,0 +1,80 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+
+/**
+ * The symmetric and hashing primitives used by Bitmessage, together with
+ * ECDSA, behind one interface so that the implementation can be swapped.
+ * <br><br>
+ * 
+ * Implementations must be safe to use from more than one thread at once.
+ * 
+ * @author Jonathan Coe
+ */
+public interface CryptoBackend
+{
+	/**
+	 * Returns a short name for the backend, for use in log messages.
+	 */
+	String getName();
+	
+	byte[] sha256(byte[] data);
+	
+	byte[] sha512(byte[] data);
+	
+	byte[] ripemd160(byte[] data);
+	
+	/**
+	 * Calculates the HMAC-SHA256 of some data.
+	 * 
+	 * @param data - The data to calculate the MAC of
+	 * @param key - The key, for example key_m
+	 * 
+	 * @return A byte[] containing the 32 byte MAC
+	 */
+	byte[] hmacSHA256(byte[] data, byte[] key);
+	
+	/**
+	 * Encrypts data with AES-256-CBC and PKCS#7 padding.
+	 * 
+	 * @param plainText - The data to encrypt
+	 * @param key - The 32 byte key, for example key_e
+	 * @param iv - The 16 byte IV
+	 * 
+	 * @return A byte[] containing the cipher text
+	 */
+	byte[] encryptAES(byte[] plainText, byte[] key, byte[] iv);
+	
+	/**
+	 * Decrypts data encrypted with AES-256-CBC and PKCS#7 padding.
+	 * 
+	 * @param cipherText - The data to decrypt
+	 * @param key - The 32 byte key, for example key_e
+	 * @param iv - The 16 byte IV
+	 * 
+	 * @return A byte[] containing the plain text
+	 */
+	byte[] decryptAES(byte[] cipherText, byte[] key, byte[] iv);
+	
+	/**
+	 * Signs some data with ECDSA over secp256k1, using SHA-1 as the hash
+	 * function, as Bitmessage does.
+	 * 
+	 * @param data - The data to sign
+	 * @param privateKey - The private signing key
+	 * 
+	 * @return A byte[] containing the DER encoded signature
+	 */
+	byte[] sign(byte[] data, BigInteger privateKey);
+	
+	/**
+	 * Verifies an ECDSA signature made by sign().
+	 * 
+	 * @param data - The data that was signed
+	 * @param signature - The DER encoded signature
+	 * @param publicKey - The public signing key, in the 65 byte encoding stored in a Pubkey
+	 * 
+	 * @return True if the signature is valid, otherwise false
+	 */
+	boolean verify(byte[] data, byte[] signature, byte[] publicKey);
+}
\ No newline at end of file
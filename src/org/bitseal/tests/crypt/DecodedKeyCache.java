@@ -0,0 +1,275 @@
+package org.bitseal.tests.crypt;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bitseal.crypt.KeyConverter;
+import org.bitseal.data.Address;
+import org.spongycastle.jce.interfaces.ECPrivateKey;
+import org.spongycastle.jce.interfaces.ECPublicKey;
+
+/**
+ * A bounded cache of decoded keys, which sits in front of KeyConverter. <br><br>
+ * 
+ * Decoding a private key from WIF means a Base58 decode, two SHA-256 hashes
+ * and a KeyFactory lookup, and reconstructing a public key means decoding a
+ * point and checking that it is on the curve. The same few keys are decoded
+ * over and over again, for example once for every msg that is checked
+ * against an address, so the decoded objects are kept and reused. <br><br>
+ * 
+ * The least recently used keys are evicted once the cache is full. Entries
+ * for an address must be removed with invalidate() when the address is
+ * deleted, so that its private keys do not stay in memory. Each map has a
+ * generation number which is increased whenever keys are removed from it,
+ * so that a decode which was already running when a key was invalidated
+ * cannot put the key back afterwards.
+ * 
+ * @author Jonathan Coe
+ */
+public class DecodedKeyCache
+{
+	public static final int DEFAULT_CAPACITY = 64;
+	
+	private static final DecodedKeyCache INSTANCE = new DecodedKeyCache(DEFAULT_CAPACITY);
+	
+	private final KeyConverter keyConv;
+	
+	private final LruMap<String, ECPrivateKey> privateKeys;
+	private final LruMap<ByteBuffer, ECPublicKey> publicKeys;
+	
+	/** Increased whenever keys are removed from privateKeys. Guarded by privateKeys. */
+	private long privateKeysGeneration = 0;
+	
+	/** Increased whenever keys are removed from publicKeys. Guarded by publicKeys. */
+	private long publicKeysGeneration = 0;
+	
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+	
+	/**
+	 * Creates a new DecodedKeyCache. Most callers should use the shared
+	 * instance returned by get() instead, so that invalidate() reaches it.
+	 * 
+	 * @param capacity - The maximum number of private keys to hold. The same
+	 * number of public keys is held separately.
+	 */
+	public DecodedKeyCache(int capacity)
+	{
+		this(capacity, new KeyConverter());
+	}
+	
+	/**
+	 * Creates a new DecodedKeyCache which decodes keys with the given
+	 * KeyConverter.
+	 * 
+	 * @param capacity - The maximum number of private keys to hold
+	 * @param keyConv - The KeyConverter to decode keys with
+	 */
+	DecodedKeyCache(int capacity, KeyConverter keyConv)
+	{
+		if (capacity < 1)
+		{
+			throw new IllegalArgumentException("The capacity of a decoded key cache must be at least 1");
+		}
+		this.keyConv = keyConv;
+		privateKeys = new LruMap<String, ECPrivateKey>(capacity);
+		publicKeys = new LruMap<ByteBuffer, ECPublicKey>(capacity);
+	}
+	
+	/**
+	 * Returns the shared DecodedKeyCache.
+	 */
+	public static DecodedKeyCache get()
+	{
+		return INSTANCE;
+	}
+	
+	/**
+	 * Decodes a private key from Wallet Import Format, or returns the key
+	 * that was decoded from the same String before.
+	 * 
+	 * @param wifPrivateKey - The private key in Wallet Import Format
+	 * 
+	 * @return An ECPrivateKey object containing the decoded key
+	 */
+	public ECPrivateKey decodePrivateKeyFromWIF(String wifPrivateKey)
+	{
+		long generation;
+		synchronized (privateKeys)
+		{
+			ECPrivateKey privateKey = privateKeys.get(wifPrivateKey);
+			if (privateKey != null)
+			{
+				hits.incrementAndGet();
+				return privateKey;
+			}
+			generation = privateKeysGeneration;
+		}
+		
+		// Decode the key outside the lock, so that a slow decode does not hold up other threads
+		misses.incrementAndGet();
+		ECPrivateKey privateKey = keyConv.decodePrivateKeyFromWIF(wifPrivateKey);
+		synchronized (privateKeys)
+		{
+			// If keys were invalidated while we were decoding, this key may be one of them
+			if (generation == privateKeysGeneration)
+			{
+				privateKeys.put(wifPrivateKey, privateKey);
+			}
+		}
+		return privateKey;
+	}
+	
+	/**
+	 * Reconstructs a public key from its encoded form, or returns the key
+	 * that was reconstructed from the same bytes before.
+	 * 
+	 * @param publicKey - The encoded public key
+	 * 
+	 * @return An ECPublicKey object containing the reconstructed key
+	 */
+	public ECPublicKey reconstructPublicKey(byte[] publicKey)
+	{
+		// Copy the bytes, so that the key cannot be changed by the caller after it is stored
+		ByteBuffer cacheKey = ByteBuffer.wrap(publicKey.clone());
+		long generation;
+		synchronized (publicKeys)
+		{
+			ECPublicKey ecPublicKey = publicKeys.get(cacheKey);
+			if (ecPublicKey != null)
+			{
+				hits.incrementAndGet();
+				return ecPublicKey;
+			}
+			generation = publicKeysGeneration;
+		}
+		
+		misses.incrementAndGet();
+		ECPublicKey ecPublicKey = keyConv.reconstructPublicKey(publicKey);
+		synchronized (publicKeys)
+		{
+			if (generation == publicKeysGeneration)
+			{
+				publicKeys.put(cacheKey, ecPublicKey);
+			}
+		}
+		return ecPublicKey;
+	}
+	
+	/**
+	 * Removes the keys of an address from the cache. This must be called
+	 * when an address is deleted.
+	 * 
+	 * @param address - The address whose keys should be removed
+	 */
+	public void invalidate(Address address)
+	{
+		invalidatePrivateKey(address.getPrivateSigningKey());
+		invalidatePrivateKey(address.getPrivateEncryptionKey());
+	}
+	
+	/**
+	 * Removes a private key from the cache, along with the public key that
+	 * belongs to it. The public key is removed even if the private key was
+	 * not in the cache.
+	 * 
+	 * @param wifPrivateKey - The private key in Wallet Import Format
+	 */
+	public void invalidatePrivateKey(String wifPrivateKey)
+	{
+		if (wifPrivateKey == null)
+		{
+			return;
+		}
+		ECPrivateKey privateKey;
+		synchronized (privateKeys)
+		{
+			privateKeysGeneration++;
+			privateKey = privateKeys.remove(wifPrivateKey);
+		}
+		if (privateKey == null)
+		{
+			privateKey = keyConv.decodePrivateKeyFromWIF(wifPrivateKey);
+		}
+		
+		// Derive the encoded public key, so that the entry for it can be removed as well
+		ByteBuffer cacheKey = ByteBuffer.wrap(FixedBaseMultiplier.calculatePublicKey(privateKey.getD()));
+		synchronized (publicKeys)
+		{
+			publicKeysGeneration++;
+			publicKeys.remove(cacheKey);
+		}
+	}
+	
+	/**
+	 * Removes every key from the cache.
+	 */
+	public void clear()
+	{
+		synchronized (privateKeys)
+		{
+			privateKeysGeneration++;
+			privateKeys.clear();
+		}
+		synchronized (publicKeys)
+		{
+			publicKeysGeneration++;
+			publicKeys.clear();
+		}
+	}
+	
+	/**
+	 * Returns the number of keys that were found in the cache.
+	 */
+	public long getHits()
+	{
+		return hits.get();
+	}
+	
+	/**
+	 * Returns the number of keys that had to be decoded because they were not in the cache.
+	 */
+	public long getMisses()
+	{
+		return misses.get();
+	}
+	
+	/**
+	 * Returns the number of private and public keys currently in the cache.
+	 */
+	public int getSize()
+	{
+		synchronized (privateKeys)
+		{
+			synchronized (publicKeys)
+			{
+				return privateKeys.size() + publicKeys.size();
+			}
+		}
+	}
+	
+	/**
+	 * A LinkedHashMap in access order, which removes its least recently used
+	 * entry when it grows beyond its capacity. It is not thread-safe by itself.
+	 */
+	private static final class LruMap<K, V> extends LinkedHashMap<K, V>
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final int capacity;
+		
+		LruMap(int capacity)
+		{
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+		{
+			return size() > capacity;
+		}
+	}
+}
\ No newline at end of file
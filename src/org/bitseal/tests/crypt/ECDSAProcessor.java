@@ -0,0 +1,404 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bitseal.util.ArrayCopier;
+
+/**
+ * Creates and verifies the ECDSA signatures used by Bitmessage, doing all of
+ * the elliptic curve arithmetic with the secp256k1 specific multipliers.
+ * Signatures use SHA-1 as the hash function and are DER encoded, in the
+ * same way as PyBitmessage. <br><br>
+ * 
+ * Almost all of the cost of making a signature is the point multiplication
+ * k * G, which does not depend on the data being signed. When an ECDSAProcessor
+ * is given a SigningNoncePool, the nonces are generated in advance (offline),
+ * and signing itself (online) only takes a few operations modulo N.
+ * 
+ * @author Jonathan Coe
+ */
+public class ECDSAProcessor
+{
+	private static final int DER_SEQUENCE = 0x30;
+	private static final int DER_INTEGER = 0x02;
+	
+	/** The number of checks in each part of a batch that is claimed by a verification worker */
+	private static final int VERIFICATION_CHUNK_SIZE = 8;
+	
+	private final SecureRandom secRand = new SecureRandom();
+	
+	/** The pool to take signing nonces from, or null if they are always generated inline */
+	private final SigningNoncePool noncePool;
+	
+	public ECDSAProcessor()
+	{
+		this(null);
+	}
+	
+	/**
+	 * Creates an ECDSAProcessor which takes the nonce for each signature from
+	 * the given pool.
+	 * 
+	 * @param noncePool - The SigningNoncePool to use, or null to generate nonces inline
+	 */
+	public ECDSAProcessor(SigningNoncePool noncePool)
+	{
+		this.noncePool = noncePool;
+	}
+	
+	/**
+	 * Signs some data.
+	 * 
+	 * @param data - The data to sign
+	 * @param privateKey - The private signing key
+	 * 
+	 * @return A byte[] containing the DER encoded signature
+	 */
+	public byte[] sign(byte[] data, BigInteger privateKey)
+	{
+		if (privateKey.signum() <= 0 || privateKey.compareTo(Secp256k1.N) >= 0)
+		{
+			throw new IllegalArgumentException("A private key must be between 1 and N - 1");
+		}
+		BigInteger e = calculateHash(data);
+		while (true)
+		{
+			SigningNonce nonce = (noncePool != null) ? noncePool.take() : SigningNonce.generate(secRand);
+			BigInteger r = nonce.getR();
+			
+			// s = k^-1 * (e + r * d) mod N
+			BigInteger s = r.multiply(privateKey).add(e).mod(Secp256k1.N).multiply(nonce.getKInverse()).mod(Secp256k1.N);
+			if (s.signum() != 0)
+			{
+				return encodeSignature(r, s);
+			}
+		}
+	}
+	
+	/**
+	 * Verifies a signature.
+	 * 
+	 * @param data - The data that was signed
+	 * @param signature - The DER encoded signature
+	 * @param publicKey - The public signing key
+	 * 
+	 * @return A boolean indicating whether or not the signature is valid
+	 */
+	public boolean verify(byte[] data, byte[] signature, Secp256k1Point publicKey)
+	{
+		if (publicKey.isInfinity())
+		{
+			return false;
+		}
+		JacobianPoint.Scratch scratch = new JacobianPoint.Scratch();
+		JointMultiplier.PointTable table = JointMultiplier.PointTable.create(new Secp256k1Point[]{publicKey}, scratch)[0];
+		return verify(data, signature, table, new JacobianPoint(), scratch);
+	}
+	
+	/**
+	 * Verifies a batch of signatures, in parallel. <br><br>
+	 * 
+	 * Each distinct public key in the batch is decoded only once, and the
+	 * tables of multiples of all of the keys are built together with a
+	 * single field inversion. Checks of signatures made by the same key then
+	 * share that key's table. This is intended for the backlogs of pubkeys
+	 * and msgs that arrive when many objects are downloaded at once.
+	 * 
+	 * @param checks - A List<SignatureCheck> containing the signatures to verify
+	 * 
+	 * @return A BitSet in which the bit for each valid signature is set. Checks which
+	 * are null, which are missing their data, signature or public key, or whose public
+	 * key is malformed or not on the curve are treated as invalid.
+	 */
+	public BitSet verifyBatch(List<SignatureCheck> checks)
+	{
+		return verifyBatch(checks, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Verifies a batch of signatures, using the given number of worker threads.
+	 * 
+	 * @param checks - A List<SignatureCheck> containing the signatures to verify
+	 * @param numberOfWorkers - The maximum number of worker threads to use
+	 * 
+	 * @return A BitSet in which the bit for each valid signature is set
+	 */
+	public BitSet verifyBatch(List<SignatureCheck> checks, int numberOfWorkers)
+	{
+		if (numberOfWorkers < 1)
+		{
+			throw new IllegalArgumentException("The number of verification workers must be at least 1. The value supplied was " + numberOfWorkers);
+		}
+		SignatureVerification verification = new SignatureVerification(checks);
+		
+		int numberOfChunks = (checks.size() + VERIFICATION_CHUNK_SIZE - 1) / VERIFICATION_CHUNK_SIZE;
+		int numberOfVerificationWorkers = Math.min(numberOfWorkers, numberOfChunks);
+		if (numberOfVerificationWorkers <= 1)
+		{
+			// Not worth starting any threads
+			new SignatureVerificationWorker(verification).run();
+		}
+		else
+		{
+			ExecutorService executor = Executors.newFixedThreadPool(numberOfVerificationWorkers);
+			try
+			{
+				List<Future<?>> futures = new ArrayList<Future<?>>();
+				for (int i = 0; i < numberOfVerificationWorkers; i++)
+				{
+					futures.add(executor.submit(new SignatureVerificationWorker(verification)));
+				}
+				for (Future<?> f : futures)
+				{
+					f.get();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting for the signature verification workers to finish", e);
+			}
+			catch (ExecutionException e)
+			{
+				throw new RuntimeException("ExecutionException occurred in ECDSAProcessor.verifyBatch()", e);
+			}
+			finally
+			{
+				executor.shutdownNow();
+			}
+		}
+		
+		BitSet valid = new BitSet(checks.size());
+		for (int i = 0; i < verification.results.length; i++)
+		{
+			if (verification.results[i])
+			{
+				valid.set(i);
+			}
+		}
+		return valid;
+	}
+	
+	/**
+	 * Verifies a signature using a table of multiples of the public key.
+	 */
+	private static boolean verify(byte[] data, byte[] signature, JointMultiplier.PointTable table, JacobianPoint result, JacobianPoint.Scratch scratch)
+	{
+		BigInteger[] rs = decodeSignature(signature);
+		if (rs == null)
+		{
+			return false;
+		}
+		BigInteger r = rs[0];
+		BigInteger s = rs[1];
+		if (r.signum() <= 0 || r.compareTo(Secp256k1.N) >= 0 || s.signum() <= 0 || s.compareTo(Secp256k1.N) >= 0)
+		{
+			return false;
+		}
+		
+		BigInteger w = s.modInverse(Secp256k1.N);
+		BigInteger u1 = calculateHash(data).multiply(w).mod(Secp256k1.N);
+		BigInteger u2 = r.multiply(w).mod(Secp256k1.N);
+		JointMultiplier.multiply(u1, u2, table, result, scratch);
+		if (result.isInfinity())
+		{
+			return false;
+		}
+		return xCoordinateMatches(result, r, scratch);
+	}
+	
+	/**
+	 * Checks whether the affine X coordinate of a Jacobian point is equal to
+	 * r modulo N, without converting the point to affine coordinates. Since
+	 * X / Z^2 is less than P, and P is less than 2 * N, it is either r or r + N.
+	 */
+	private static boolean xCoordinateMatches(JacobianPoint point, BigInteger r, JacobianPoint.Scratch scratch)
+	{
+		int[] zSquared = Secp256k1Field.create();
+		int[] candidate = Secp256k1Field.create();
+		Secp256k1Field.square(point.z, zSquared, scratch.wide);
+		Secp256k1Field.multiply(Secp256k1Field.fromBigInteger(r), zSquared, candidate, scratch.wide);
+		if (Secp256k1Field.equals(candidate, point.x))
+		{
+			return true;
+		}
+		BigInteger rPlusN = r.add(Secp256k1.N);
+		if (rPlusN.compareTo(Secp256k1.P) >= 0)
+		{
+			return false;
+		}
+		Secp256k1Field.multiply(Secp256k1Field.fromBigInteger(rPlusN), zSquared, candidate, scratch.wide);
+		return Secp256k1Field.equals(candidate, point.x);
+	}
+	
+	/**
+	 * Hashes the data to be signed with SHA-1, and converts the hash to an integer.
+	 */
+	static BigInteger calculateHash(byte[] data)
+	{
+		return new BigInteger(1, Hasher.sha1().update(data).doFinal());
+	}
+	
+	/**
+	 * DER encodes a signature as a sequence of the two integers r and s.
+	 */
+	static byte[] encodeSignature(BigInteger r, BigInteger s)
+	{
+		byte[] rBytes = r.toByteArray();
+		byte[] sBytes = s.toByteArray();
+		byte[] signature = new byte[6 + rBytes.length + sBytes.length];
+		signature[0] = DER_SEQUENCE;
+		signature[1] = (byte) (signature.length - 2);
+		signature[2] = DER_INTEGER;
+		signature[3] = (byte) rBytes.length;
+		System.arraycopy(rBytes, 0, signature, 4, rBytes.length);
+		int sOffset = 4 + rBytes.length;
+		signature[sOffset] = DER_INTEGER;
+		signature[sOffset + 1] = (byte) sBytes.length;
+		System.arraycopy(sBytes, 0, signature, sOffset + 2, sBytes.length);
+		return signature;
+	}
+	
+	/**
+	 * Decodes a DER encoded signature.
+	 * 
+	 * @return A BigInteger[] containing r and s, or null if the signature is malformed
+	 */
+	static BigInteger[] decodeSignature(byte[] signature)
+	{
+		if (signature == null || signature.length < 8 || signature[0] != DER_SEQUENCE || (signature[1] & 0xFF) != signature.length - 2)
+		{
+			return null;
+		}
+		int rLength = signature[3] & 0xFF;
+		int sOffset = 4 + rLength;
+		if (signature[2] != DER_INTEGER || rLength == 0 || sOffset + 2 > signature.length)
+		{
+			return null;
+		}
+		int sLength = signature[sOffset + 1] & 0xFF;
+		if (signature[sOffset] != DER_INTEGER || sLength == 0 || sOffset + 2 + sLength != signature.length)
+		{
+			return null;
+		}
+		BigInteger r = new BigInteger(ArrayCopier.copyOfRange(signature, 4, sOffset));
+		BigInteger s = new BigInteger(ArrayCopier.copyOfRange(signature, sOffset + 2, signature.length));
+		return new BigInteger[]{r, s};
+	}
+	
+	/**
+	 * The shared state of a batch verification. The public keys are decoded
+	 * and their tables built before any worker starts.
+	 */
+	private static class SignatureVerification
+	{
+		private final List<SignatureCheck> checks;
+		
+		/** The table for the public key of each check, or null if the key is invalid */
+		private final JointMultiplier.PointTable[] tables;
+		
+		/** Each worker only writes the results for the checks it has claimed */
+		private final boolean[] results;
+		
+		private final AtomicInteger nextChunk = new AtomicInteger(0);
+		
+		private SignatureVerification(List<SignatureCheck> checks)
+		{
+			this.checks = checks;
+			this.tables = new JointMultiplier.PointTable[checks.size()];
+			this.results = new boolean[checks.size()];
+			
+			// Decode each distinct public key once
+			HashMap<ByteBuffer, Integer> keyIndexes = new HashMap<ByteBuffer, Integer>();
+			ArrayList<Secp256k1Point> keys = new ArrayList<Secp256k1Point>();
+			int[] checkKeyIndexes = new int[checks.size()];
+			for (int i = 0; i < checks.size(); i++)
+			{
+				// A check that is incomplete or has a key of the wrong length gets no table, so it fails without stopping the batch
+				SignatureCheck check = checks.get(i);
+				if (check == null || check.getData() == null || check.getSignature() == null || check.getPublicSigningKey() == null
+						|| check.getPublicSigningKey().length != Secp256k1Point.ENCODED_LENGTH)
+				{
+					checkKeyIndexes[i] = -1;
+					continue;
+				}
+				
+				ByteBuffer encodedKey = ByteBuffer.wrap(check.getPublicSigningKey());
+				Integer keyIndex = keyIndexes.get(encodedKey);
+				if (keyIndex == null)
+				{
+					keyIndex = -1;
+					try
+					{
+						keys.add(Secp256k1Point.decode(check.getPublicSigningKey()));
+						keyIndex = keys.size() - 1;
+					}
+					catch (IllegalArgumentException e)
+					{
+						// The key is malformed or not on the curve, so every check that uses it fails
+					}
+					keyIndexes.put(encodedKey, keyIndex);
+				}
+				checkKeyIndexes[i] = keyIndex;
+			}
+			
+			JointMultiplier.PointTable[] keyTables = JointMultiplier.PointTable.create(keys.toArray(new Secp256k1Point[keys.size()]), new JacobianPoint.Scratch());
+			for (int i = 0; i < checks.size(); i++)
+			{
+				if (checkKeyIndexes[i] >= 0)
+				{
+					tables[i] = keyTables[checkKeyIndexes[i]];
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Repeatedly claims the next unchecked chunk of a batch of signatures and
+	 * verifies each signature in it, until the whole batch has been verified.
+	 */
+	private static class SignatureVerificationWorker implements Runnable
+	{
+		private final SignatureVerification verification;
+		
+		private final JacobianPoint result = new JacobianPoint();
+		private final JacobianPoint.Scratch scratch = new JacobianPoint.Scratch();
+		
+		private SignatureVerificationWorker(SignatureVerification verification)
+		{
+			this.verification = verification;
+		}
+		
+		@Override
+		public void run()
+		{
+			int numberOfChecks = verification.results.length;
+			int chunkStart = verification.nextChunk.getAndIncrement() * VERIFICATION_CHUNK_SIZE;
+			while (chunkStart < numberOfChecks)
+			{
+				int chunkEnd = Math.min(chunkStart + VERIFICATION_CHUNK_SIZE, numberOfChecks);
+				for (int i = chunkStart; i < chunkEnd; i++)
+				{
+					JointMultiplier.PointTable table = verification.tables[i];
+					if (table != null)
+					{
+						SignatureCheck check = verification.checks.get(i);
+						verification.results[i] = verify(check.getData(), check.getSignature(), table, result, scratch);
+					}
+				}
+				chunkStart = verification.nextChunk.getAndIncrement() * VERIFICATION_CHUNK_SIZE;
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,444 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encrypts and decrypts data using the ECIES scheme used by Bitmessage,
+ * doing all of the elliptic curve arithmetic with the secp256k1 specific
+ * multipliers. <br><br>
+ * 
+ * An encrypted payload is laid out as follows: <br>
+ * IV (16 bytes), curve type (2 bytes), X length (2 bytes), X, Y length (2 bytes), Y,
+ * cipher text, MAC (32 bytes) <br><br>
+ * 
+ * where (X, Y) is the ephemeral public key R. The shared secret is the X
+ * coordinate of k * R, and SHA-512 of it gives key_e (the first 32 bytes)
+ * and key_m (the last 32 bytes). The cipher text is AES-256-CBC under key_e,
+ * and the MAC is HMAC-SHA256 under key_m of everything that comes before it.
+ * <br><br>
+ * 
+ * An ECIESProcessor keeps the tables and buffers used to check payloads
+ * with matches() and tryDecrypt(), so that rejecting a payload meant for
+ * someone else allocates almost nothing. An instance must therefore not be
+ * used by more than one thread at a time.
+ * 
+ * See https://bitmessage.org/wiki/Encryption
+ * 
+ * @author Jonathan Coe
+ */
+public class ECIESProcessor
+{
+	static final int IV_LENGTH = 16;
+	static final int CURVE_TYPE = 714;
+	static final int MAC_LENGTH = 32;
+	static final int KEY_LENGTH = 32;
+	
+	/** The length of the IV and curve type, which come before the X length field */
+	static final int HEADER_LENGTH = IV_LENGTH + 2;
+	
+	/** The length of the shortest possible payload: a header, one byte coordinates, one AES block and a MAC */
+	static final int MINIMUM_PAYLOAD_LENGTH = HEADER_LENGTH + 2 + 1 + 2 + 1 + 16 + MAC_LENGTH;
+	
+	private static final String CIPHER_TRANSFORMATION = "AES/CBC/PKCS5Padding";
+	
+	private final SecureRandom secRand = new SecureRandom();
+	
+	/** The pool to take ephemeral keys from, or null if they are always generated inline */
+	private final EphemeralKeyPool keyPool;
+	
+	/** Reused by deriveMatchingKey() for every payload checked */
+	private final GLVMultiplier.Workspace multiplierWorkspace = new GLVMultiplier.Workspace();
+	private final byte[] sharedSecretX = new byte[Secp256k1.FIELD_ELEMENT_LENGTH];
+	private final byte[] matchingKey = new byte[2 * KEY_LENGTH];
+	
+	public ECIESProcessor()
+	{
+		this(null);
+	}
+	
+	/**
+	 * Creates an ECIESProcessor which takes the ephemeral key pair and IV for
+	 * each encryption from the given pool.
+	 * 
+	 * @param keyPool - The EphemeralKeyPool to use, or null to generate them inline
+	 */
+	public ECIESProcessor(EphemeralKeyPool keyPool)
+	{
+		this.keyPool = keyPool;
+	}
+	
+	/**
+	 * Encrypts some data so that it can only be decrypted by the holder of
+	 * the private key matching the given public key.
+	 * 
+	 * @param plainText - The data to encrypt
+	 * @param K - The public key of the recipient
+	 * 
+	 * @return A byte[] containing the encrypted payload
+	 */
+	public byte[] encrypt(byte[] plainText, Secp256k1Point K)
+	{
+		EphemeralKey ephemeralKey = (keyPool != null) ? keyPool.take() : EphemeralKey.generate(secRand);
+		BigInteger r = ephemeralKey.getPrivateKey();
+		byte[] R = ephemeralKey.getPublicKey().getEncoded();
+		byte[] iv = ephemeralKey.getIV();
+		
+		byte[] key = deriveKey(K, r);
+		byte[] cipherText = doAES(ByteBuffer.wrap(plainText), key, iv, Cipher.ENCRYPT_MODE);
+		
+		int macOffset = HEADER_LENGTH + 2 + KEY_LENGTH + 2 + KEY_LENGTH + cipherText.length;
+		byte[] payload = new byte[macOffset + MAC_LENGTH];
+		System.arraycopy(iv, 0, payload, 0, IV_LENGTH);
+		writeShort(payload, IV_LENGTH, CURVE_TYPE);
+		writeShort(payload, HEADER_LENGTH, KEY_LENGTH);
+		System.arraycopy(R, 1, payload, HEADER_LENGTH + 2, KEY_LENGTH);
+		writeShort(payload, HEADER_LENGTH + 2 + KEY_LENGTH, KEY_LENGTH);
+		System.arraycopy(R, 1 + KEY_LENGTH, payload, HEADER_LENGTH + 4 + KEY_LENGTH, KEY_LENGTH);
+		System.arraycopy(cipherText, 0, payload, HEADER_LENGTH + 4 + 2 * KEY_LENGTH, cipherText.length);
+		
+		byte[] mac = calculateMac(ByteBuffer.wrap(payload, 0, macOffset), key);
+		System.arraycopy(mac, 0, payload, macOffset, MAC_LENGTH);
+		return payload;
+	}
+	
+	/**
+	 * Decrypts an encrypted payload.
+	 * 
+	 * @param encryptedPayload - A byte[] containing the encrypted payload
+	 * @param k - The private key to decrypt the payload with
+	 * 
+	 * @return A byte[] containing the decrypted data
+	 */
+	public byte[] decrypt(byte[] encryptedPayload, BigInteger k)
+	{
+		return decrypt(EncryptedPayloadView.parse(encryptedPayload, 0, encryptedPayload.length), k);
+	}
+	
+	/**
+	 * Decrypts an encrypted payload that has already been parsed.
+	 * 
+	 * @param encryptedPayload - An EncryptedPayloadView of the encrypted payload
+	 * @param k - The private key to decrypt the payload with
+	 * 
+	 * @return A byte[] containing the decrypted data
+	 */
+	public byte[] decrypt(EncryptedPayloadView encryptedPayload, BigInteger k)
+	{
+		byte[] key = deriveKey(encryptedPayload.getR(), k);
+		if (macMatches(encryptedPayload, key) == false)
+		{
+			throw new RuntimeException("The MAC of the encrypted payload did not match the calculated MAC");
+		}
+		return decryptCipherText(encryptedPayload, key);
+	}
+	
+	/**
+	 * Checks whether an encrypted payload was encrypted to the given private
+	 * key, without decrypting it. <br><br>
+	 * 
+	 * Only the IV, R and MAC are read. key_m is derived and the MAC is checked,
+	 * which costs one point multiplication and one HMAC. No AES is done, and
+	 * no exceptions are thrown, so rejecting a payload meant for someone else
+	 * is as cheap as possible. Malformed payloads are also rejected.
+	 * 
+	 * @param encryptedPayload - A byte[] containing the encrypted payload
+	 * @param k - The private key to check the payload against
+	 * 
+	 * @return True if the payload was encrypted to k, otherwise false
+	 */
+	public boolean matches(byte[] encryptedPayload, BigInteger k)
+	{
+		EncryptedPayloadView view = EncryptedPayloadView.tryParse(ByteBuffer.wrap(encryptedPayload));
+		return view != null && matches(view, k);
+	}
+	
+	/**
+	 * Checks whether a parsed encrypted payload was encrypted to the given
+	 * private key, without decrypting it.
+	 * 
+	 * @param encryptedPayload - An EncryptedPayloadView of the encrypted payload
+	 * @param k - The private key to check the payload against
+	 * 
+	 * @return True if the payload was encrypted to k, otherwise false
+	 */
+	public boolean matches(EncryptedPayloadView encryptedPayload, BigInteger k)
+	{
+		return deriveMatchingKey(encryptedPayload, k) != null;
+	}
+	
+	/**
+	 * Attempts to decrypt an encrypted payload. This does the same checks as
+	 * matches(), and only does the AES decryption if the MAC matches.
+	 * 
+	 * @param encryptedPayload - A byte[] containing the encrypted payload
+	 * @param k - The private key to decrypt the payload with
+	 * 
+	 * @return A byte[] containing the decrypted data, or null if the payload
+	 * was not encrypted to k or is malformed
+	 */
+	public byte[] tryDecrypt(byte[] encryptedPayload, BigInteger k)
+	{
+		EncryptedPayloadView view = EncryptedPayloadView.tryParse(ByteBuffer.wrap(encryptedPayload));
+		if (view == null)
+		{
+			return null;
+		}
+		return tryDecrypt(view, k);
+	}
+	
+	/**
+	 * Attempts to decrypt a parsed encrypted payload, returning null rather
+	 * than throwing an exception if it was not encrypted to k. <br><br>
+	 * 
+	 * Anyone who knows the public key can make a payload whose MAC matches but
+	 * whose cipher text is not a whole number of blocks or has bad padding, so
+	 * such a payload is also rejected with null.
+	 * 
+	 * @param encryptedPayload - An EncryptedPayloadView of the encrypted payload
+	 * @param k - The private key to decrypt the payload with
+	 * 
+	 * @return A byte[] containing the decrypted data, or null if the payload
+	 * was not encrypted to k or its cipher text could not be decrypted
+	 */
+	public byte[] tryDecrypt(EncryptedPayloadView encryptedPayload, BigInteger k)
+	{
+		byte[] key = deriveMatchingKey(encryptedPayload, k);
+		if (key == null)
+		{
+			return null;
+		}
+		return tryDecryptCipherText(encryptedPayload, key);
+	}
+	
+	/**
+	 * Derives the 64 byte key used for a payload: key_e followed by key_m.
+	 * 
+	 * @param publicKey - The other party's public key
+	 * @param privateKey - Our private key
+	 * 
+	 * @return A byte[] containing key_e and key_m
+	 */
+	public byte[] deriveKey(Secp256k1Point publicKey, BigInteger privateKey)
+	{
+		Secp256k1Point sharedSecret = GLVMultiplier.multiply(publicKey, privateKey);
+		if (sharedSecret.isInfinity())
+		{
+			throw new IllegalArgumentException("The shared secret is the point at infinity");
+		}
+		return deriveKey(sharedSecret.getEncodedX());
+	}
+	
+	/**
+	 * Derives the 64 byte keys for many public keys with the same private key.
+	 * All of the shared secrets are calculated together, with one inversion
+	 * for the whole batch instead of one per public key.
+	 * 
+	 * @param publicKeys - The other parties' public keys
+	 * @param privateKey - Our private key
+	 * 
+	 * @return A byte[][] containing key_e and key_m for each public key, in the same
+	 * order. The entry is null if the shared secret is the point at infinity.
+	 */
+	public byte[][] deriveKeys(Secp256k1Point[] publicKeys, BigInteger privateKey)
+	{
+		Secp256k1Point[] sharedSecrets = GLVMultiplier.multiply(publicKeys, privateKey);
+		byte[][] keys = new byte[sharedSecrets.length][];
+		for (int i = 0; i < sharedSecrets.length; i++)
+		{
+			if (sharedSecrets[i].isInfinity() == false)
+			{
+				keys[i] = deriveKey(sharedSecrets[i].getEncodedX());
+			}
+		}
+		return keys;
+	}
+	
+	/**
+	 * Attempts to decrypt a backlog of encrypted payloads with one private key,
+	 * for example all of the msgs received since the app was last connected.
+	 * The shared secrets for the whole backlog are calculated together using
+	 * deriveKeys(). <br><br>
+	 * 
+	 * Payloads which were not encrypted to this key, or which are malformed,
+	 * are expected in a backlog, so they do not cause an exception. Their
+	 * entries in the result are null.
+	 * 
+	 * @param encryptedPayloads - The encrypted payloads
+	 * @param k - The private key to decrypt the payloads with
+	 * 
+	 * @return An ArrayList<byte[]> containing the decrypted data for each payload,
+	 * in the same order, or null for each payload that could not be decrypted
+	 */
+	public ArrayList<byte[]> decryptAll(List<byte[]> encryptedPayloads, BigInteger k)
+	{
+		// Parse every payload first, so that the shared secrets can be calculated in one batch
+		EncryptedPayloadView[] views = new EncryptedPayloadView[encryptedPayloads.size()];
+		ArrayList<Secp256k1Point> publicKeys = new ArrayList<Secp256k1Point>();
+		for (int i = 0; i < views.length; i++)
+		{
+			views[i] = EncryptedPayloadView.tryParse(ByteBuffer.wrap(encryptedPayloads.get(i)));
+			if (views[i] != null)
+			{
+				publicKeys.add(views[i].getR());
+			}
+		}
+		byte[][] keys = deriveKeys(publicKeys.toArray(new Secp256k1Point[publicKeys.size()]), k);
+		
+		ArrayList<byte[]> plainTexts = new ArrayList<byte[]>(views.length);
+		int keyIndex = 0;
+		for (int i = 0; i < views.length; i++)
+		{
+			EncryptedPayloadView view = views[i];
+			byte[] key = (view == null) ? null : keys[keyIndex++];
+			if (key != null && macMatches(view, key))
+			{
+				plainTexts.add(tryDecryptCipherText(view, key));
+			}
+			else
+			{
+				plainTexts.add(null);
+			}
+		}
+		return plainTexts;
+	}
+	
+	/**
+	 * Derives the 64 byte key from the X coordinate of the shared secret.
+	 */
+	static byte[] deriveKey(byte[] sharedSecretX)
+	{
+		return Hasher.sha512().update(sharedSecretX).doFinal();
+	}
+	
+	/**
+	 * Derives the key for a parsed payload, and checks the payload's MAC with it.
+	 * The shared secret and key are calculated in this processor's reusable
+	 * buffers, and only copied out if the MAC matches.
+	 * 
+	 * @return The 64 byte key, or null if the MAC does not match
+	 */
+	private byte[] deriveMatchingKey(EncryptedPayloadView view, BigInteger k)
+	{
+		GLVMultiplier.multiply(view.getR(), k, multiplierWorkspace);
+		JacobianPoint sharedSecret = multiplierWorkspace.result;
+		if (sharedSecret.isInfinity())
+		{
+			return null;
+		}
+		Secp256k1Field.toBytes(sharedSecret.x, sharedSecretX, 0);
+		Hasher.sha512().update(sharedSecretX).doFinal(matchingKey, 0);
+		if (macMatches(view, matchingKey) == false)
+		{
+			return null;
+		}
+		return matchingKey.clone();
+	}
+	
+	/**
+	 * Checks the MAC stored at the end of a payload, using key_m from the
+	 * second half of the given key. This uses HmacKey, which calculates the MAC
+	 * into a buffer kept by each thread.
+	 */
+	static boolean macMatches(EncryptedPayloadView view, byte[] key)
+	{
+		return new HmacKey(key, KEY_LENGTH, KEY_LENGTH).macMatches(view);
+	}
+	
+	static byte[] decryptCipherText(EncryptedPayloadView view, byte[] key)
+	{
+		byte[] iv = new byte[IV_LENGTH];
+		view.copyIV(iv);
+		return doAES(view.getCipherTextForDecryption(), key, iv, Cipher.DECRYPT_MODE);
+	}
+	
+	/**
+	 * Decrypts the cipher text of a payload whose MAC has already been checked,
+	 * as decryptCipherText() does, but returns null if the cipher text is not a
+	 * whole number of blocks or its padding is invalid.
+	 * 
+	 * @return A byte[] containing the decrypted data, or null if the cipher text could not be decrypted
+	 */
+	static byte[] tryDecryptCipherText(EncryptedPayloadView view, byte[] key)
+	{
+		byte[] iv = new byte[IV_LENGTH];
+		view.copyIV(iv);
+		try
+		{
+			return runAES(view.getCipherTextForDecryption(), key, iv, Cipher.DECRYPT_MODE);
+		}
+		catch (IllegalBlockSizeException e)
+		{
+			return null;
+		}
+		catch (BadPaddingException e)
+		{
+			return null;
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new RuntimeException("GeneralSecurityException occurred in ECIESProcessor.tryDecryptCipherText()", e);
+		}
+	}
+	
+	/**
+	 * Calculates the HMAC-SHA256 of some data.
+	 * 
+	 * @param data - A ByteBuffer holding the data between its position and its limit
+	 * @param key - The 64 byte key. key_m is read from its second half, without copying it.
+	 */
+	static byte[] calculateMac(ByteBuffer data, byte[] key)
+	{
+		return Hasher.hmacSHA256(key, KEY_LENGTH, KEY_LENGTH).update(data).doFinal();
+	}
+	
+	/**
+	 * Does AES-256-CBC, using key_e from the first half of the given 64 byte key.
+	 * 
+	 * @param input - A ByteBuffer holding the input between its position and its limit
+	 */
+	private static byte[] doAES(ByteBuffer input, byte[] key, byte[] iv, int mode)
+	{
+		try
+		{
+			return runAES(input, key, iv, mode);
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new RuntimeException("GeneralSecurityException occurred in ECIESProcessor.doAES()", e);
+		}
+	}
+	
+	private static byte[] runAES(ByteBuffer input, byte[] key, byte[] iv, int mode) throws GeneralSecurityException
+	{
+		Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+		cipher.init(mode, new SecretKeySpec(key, 0, KEY_LENGTH, "AES"), new IvParameterSpec(iv));
+		if (input.hasArray())
+		{
+			// Work on the backing array directly, so that the output is exactly the right length
+			return cipher.doFinal(input.array(), input.arrayOffset() + input.position(), input.remaining());
+		}
+		ByteBuffer output = ByteBuffer.allocate(cipher.getOutputSize(input.remaining()));
+		cipher.doFinal(input, output);
+		byte[] result = new byte[output.position()];
+		output.flip();
+		output.get(result);
+		return result;
+	}
+	
+	private static void writeShort(byte[] data, int offset, int value)
+	{
+		data[offset] = (byte) (value >>> 8);
+		data[offset + 1] = (byte) value;
+	}
+}
\ No newline at end of file
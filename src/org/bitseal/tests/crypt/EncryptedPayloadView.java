@@ -0,0 +1,236 @@
+package org.bitseal.tests.crypt;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A view of an encrypted payload, backed by a ByteBuffer. <br><br>
+ * 
+ * Parsing a payload only records the offsets of its fields within the
+ * buffer. Nothing is copied out of it, apart from the coordinates of R,
+ * which are read straight into field elements. This means an encrypted
+ * payload can be parsed where it sits inside a larger msg payload, without
+ * first slicing it out with ArrayCopier.copyOfRange(). <br><br>
+ * 
+ * The fields are returned as read-only ByteBuffers that share the backing
+ * data. The backing data must not be changed while the view is in use.
+ * 
+ * @author Jonathan Coe
+ */
+public final class EncryptedPayloadView
+{
+	private final ByteBuffer buffer;
+	
+	// The absolute positions of the fields within the buffer
+	private final int start;
+	private final int xOffset;
+	private final int xLength;
+	private final int yOffset;
+	private final int yLength;
+	private final int cipherTextOffset;
+	private final int macOffset;
+	private final int end;
+	
+	private final Secp256k1Point R;
+	
+	private EncryptedPayloadView(ByteBuffer buffer, int start, int xOffset, int xLength, int yOffset, int yLength, int end, Secp256k1Point R)
+	{
+		this.buffer = buffer;
+		this.start = start;
+		this.xOffset = xOffset;
+		this.xLength = xLength;
+		this.yOffset = yOffset;
+		this.yLength = yLength;
+		this.cipherTextOffset = yOffset + yLength;
+		this.macOffset = end - ECIESProcessor.MAC_LENGTH;
+		this.end = end;
+		this.R = R;
+	}
+	
+	/**
+	 * Parses an encrypted payload which starts at the given offset in a byte[],
+	 * for example just after the header of a msg payload.
+	 * 
+	 * @param data - The byte[] containing the encrypted payload
+	 * @param offset - The offset at which the encrypted payload starts
+	 * @param length - The length of the encrypted payload
+	 * 
+	 * @return An EncryptedPayloadView over the given part of the byte[]
+	 */
+	public static EncryptedPayloadView parse(byte[] data, int offset, int length)
+	{
+		return parse(ByteBuffer.wrap(data, offset, length));
+	}
+	
+	/**
+	 * Parses the encrypted payload held between the position and the limit
+	 * of a ByteBuffer. The position and limit of the buffer are not changed.
+	 * 
+	 * @param buffer - The ByteBuffer containing the encrypted payload
+	 * 
+	 * @return An EncryptedPayloadView over the encrypted payload
+	 */
+	public static EncryptedPayloadView parse(ByteBuffer buffer)
+	{
+		EncryptedPayloadView view = tryParse(buffer);
+		if (view == null)
+		{
+			throw new IllegalArgumentException("The encrypted payload is malformed, or its public key R is not a valid point");
+		}
+		return view;
+	}
+	
+	/**
+	 * Parses the encrypted payload held between the position and the limit
+	 * of a ByteBuffer, without throwing an exception if it is malformed.
+	 * 
+	 * @param buffer - The ByteBuffer containing the encrypted payload
+	 * 
+	 * @return An EncryptedPayloadView, or null if the payload is malformed
+	 */
+	public static EncryptedPayloadView tryParse(ByteBuffer buffer)
+	{
+		int start = buffer.position();
+		int end = buffer.limit();
+		if (end - start < ECIESProcessor.MINIMUM_PAYLOAD_LENGTH || readShort(buffer, start + ECIESProcessor.IV_LENGTH) != ECIESProcessor.CURVE_TYPE)
+		{
+			return null;
+		}
+		int readPosition = start + ECIESProcessor.HEADER_LENGTH;
+		int xLength = readShort(buffer, readPosition);
+		readPosition += 2;
+		int xOffset = readPosition;
+		if (xLength > ECIESProcessor.KEY_LENGTH || xOffset + xLength + 2 > end)
+		{
+			return null;
+		}
+		readPosition += xLength;
+		int yLength = readShort(buffer, readPosition);
+		readPosition += 2;
+		int yOffset = readPosition;
+		if (yLength > ECIESProcessor.KEY_LENGTH)
+		{
+			return null;
+		}
+		
+		// The cipher text must be a whole number of AES blocks, and there is always at least one block of padding
+		int cipherTextLength = end - ECIESProcessor.MAC_LENGTH - (yOffset + yLength);
+		if (cipherTextLength <= 0 || cipherTextLength % ECIESProcessor.IV_LENGTH != 0)
+		{
+			return null;
+		}
+		
+		int[] x = Secp256k1Field.create();
+		int[] y = Secp256k1Field.create();
+		Secp256k1Field.fromBytes(buffer, xOffset, xLength, x);
+		Secp256k1Field.fromBytes(buffer, yOffset, yLength, y);
+		Secp256k1Point R = Secp256k1Point.tryCreate(x, y);
+		if (R == null)
+		{
+			return null;
+		}
+		return new EncryptedPayloadView(buffer.duplicate(), start, xOffset, xLength, yOffset, yLength, end, R);
+	}
+	
+	public ByteBuffer getIV()
+	{
+		return slice(start, start + ECIESProcessor.IV_LENGTH).asReadOnlyBuffer();
+	}
+	
+	public int getCurveType()
+	{
+		return readShort(buffer, start + ECIESProcessor.IV_LENGTH);
+	}
+	
+	public ByteBuffer getX()
+	{
+		return slice(xOffset, xOffset + xLength).asReadOnlyBuffer();
+	}
+	
+	public ByteBuffer getY()
+	{
+		return slice(yOffset, yOffset + yLength).asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Returns the ephemeral public key R, which was checked to be on the
+	 * curve when the payload was parsed.
+	 */
+	public Secp256k1Point getR()
+	{
+		return R;
+	}
+	
+	public ByteBuffer getCipherText()
+	{
+		return slice(cipherTextOffset, macOffset).asReadOnlyBuffer();
+	}
+	
+	public ByteBuffer getMac()
+	{
+		return slice(macOffset, end).asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Returns the length of the whole encrypted payload.
+	 */
+	public int getLength()
+	{
+		return end - start;
+	}
+	
+	/**
+	 * Returns the cipher text as a writable buffer. Unlike a read-only
+	 * buffer, this gives the JCA direct access to a backing array.
+	 */
+	ByteBuffer getCipherTextForDecryption()
+	{
+		return slice(cipherTextOffset, macOffset);
+	}
+	
+	/**
+	 * Calculates the MAC of everything that comes before the MAC, reading it
+	 * straight from the backing buffer, and writes it into the given array.
+	 */
+	void calculateMac(HmacKey hmacKey, byte[] output)
+	{
+		hmacKey.calculateMac(buffer, start, macOffset - start, output, 0);
+	}
+	
+	/**
+	 * Compares a calculated MAC with the MAC at the end of the payload,
+	 * taking the same time whether or not they match.
+	 */
+	boolean macEquals(byte[] calculatedMac)
+	{
+		int difference = 0;
+		for (int i = 0; i < ECIESProcessor.MAC_LENGTH; i++)
+		{
+			difference |= calculatedMac[i] ^ buffer.get(macOffset + i);
+		}
+		return difference == 0;
+	}
+	
+	/**
+	 * Copies the IV into the given array.
+	 */
+	void copyIV(byte[] iv)
+	{
+		for (int i = 0; i < ECIESProcessor.IV_LENGTH; i++)
+		{
+			iv[i] = buffer.get(start + i);
+		}
+	}
+	
+	private ByteBuffer slice(int from, int to)
+	{
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.limit(to);
+		duplicate.position(from);
+		return duplicate.slice();
+	}
+	
+	private static int readShort(ByteBuffer buffer, int index)
+	{
+		return ((buffer.get(index) & 0xFF) << 8) | (buffer.get(index + 1) & 0xFF);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,70 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single-use ephemeral key pair (r, R) and IV for one ECIES encryption.
+ * 
+ * @author Jonathan Coe
+ */
+public final class EphemeralKey
+{
+	private final BigInteger r;
+	private final Secp256k1Point R;
+	private final byte[] iv;
+	
+	private final AtomicBoolean used = new AtomicBoolean(false);
+	
+	private EphemeralKey(BigInteger r, Secp256k1Point R, byte[] iv)
+	{
+		this.r = r;
+		this.R = R;
+		this.iv = iv;
+	}
+	
+	/**
+	 * Generates a new ephemeral key pair and IV.
+	 * 
+	 * @param secRand - The SecureRandom to generate the private key and IV with
+	 * 
+	 * @return A new EphemeralKey
+	 */
+	static EphemeralKey generate(SecureRandom secRand)
+	{
+		BigInteger r = Secp256k1.generatePrivateKey(secRand);
+		Secp256k1Point R = FixedBaseMultiplier.multiplyG(r);
+		byte[] iv = new byte[ECIESProcessor.IV_LENGTH];
+		secRand.nextBytes(iv);
+		return new EphemeralKey(r, R, iv);
+	}
+	
+	/**
+	 * Marks this key as used. Each key may only be handed out once.
+	 * 
+	 * @throws IllegalStateException if the key has already been used
+	 */
+	void markUsed()
+	{
+		if (used.compareAndSet(false, true) == false)
+		{
+			throw new IllegalStateException("An ephemeral key must never be used for more than one encryption");
+		}
+	}
+	
+	public BigInteger getPrivateKey()
+	{
+		return r;
+	}
+	
+	public Secp256k1Point getPublicKey()
+	{
+		return R;
+	}
+	
+	public byte[] getIV()
+	{
+		return iv.clone();
+	}
+}
\ No newline at end of file
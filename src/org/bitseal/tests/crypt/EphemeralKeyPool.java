@@ -0,0 +1,57 @@
+package org.bitseal.tests.crypt;
+
+import java.security.SecureRandom;
+
+/**
+ * A bounded pool of pre-generated ephemeral keys for ECIES encryption. <br><br>
+ * 
+ * Every outgoing msg, ack and pubkey encryption needs a fresh ephemeral key
+ * pair (r, R) and IV. Generating them is a point multiplication, and it sits
+ * on the latency path of sending a message. The pool lets them be generated
+ * in advance. Each key is also marked as used when it is taken, so that it
+ * can never be used for a second encryption.
+ * 
+ * @author Jonathan Coe
+ */
+public class EphemeralKeyPool extends PrecomputedPool<EphemeralKey>
+{
+	public static final int DEFAULT_CAPACITY = 16;
+	
+	private final SecureRandom secRand = new SecureRandom();
+	
+	public EphemeralKeyPool()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * Creates a new EphemeralKeyPool. The pool is empty until start() or
+	 * fill() is called.
+	 * 
+	 * @param capacity - The maximum number of keys to hold
+	 */
+	public EphemeralKeyPool(int capacity)
+	{
+		super(capacity, "EphemeralKeyPoolFiller");
+	}
+	
+	/**
+	 * Takes an ephemeral key from the pool, or generates one inline if the
+	 * pool is empty. The key must only be used for one encryption.
+	 * 
+	 * @return An EphemeralKey that has never been handed out before
+	 */
+	@Override
+	public EphemeralKey take()
+	{
+		EphemeralKey key = super.take();
+		key.markUsed();
+		return key;
+	}
+	
+	@Override
+	protected EphemeralKey generate()
+	{
+		return EphemeralKey.generate(secRand);
+	}
+}
\ No newline at end of file
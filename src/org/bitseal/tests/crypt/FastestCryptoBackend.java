@@ -0,0 +1,218 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.EnumMap;
+
+import android.util.Log;
+
+/**
+ * A CryptoBackend which times each primitive on a set of candidate
+ * backends, and then uses the fastest candidate for each primitive. <br><br>
+ * 
+ * Which backend is faster depends on the device: the JCA may be backed by
+ * native code, or it may be a slower Java provider with a lookup on every
+ * call. The benchmark takes a few hundred milliseconds, so it should be run
+ * once, for example in a background task when the app starts, and the
+ * result kept.
+ * 
+ * @author Jonathan Coe
+ */
+public class FastestCryptoBackend implements CryptoBackend
+{
+	/** The number of untimed calls of each primitive, made so that the JIT has compiled the code being timed */
+	private static final int WARM_UP_ITERATIONS = 10;
+	
+	private static final int BENCHMARK_ITERATIONS = 20;
+	
+	/** The length of the data used for the benchmark, which is about the size of a typical msg */
+	private static final int BENCHMARK_DATA_LENGTH = 1024;
+	
+	private static final String TAG = "FASTEST_CRYPTO_BACKEND";
+	
+	/**
+	 * The primitives offered by a CryptoBackend, each of which is timed separately.
+	 */
+	public enum Primitive
+	{
+		SHA256, SHA512, RIPEMD160, HMAC_SHA256, ENCRYPT_AES, DECRYPT_AES, SIGN, VERIFY
+	}
+	
+	private final EnumMap<Primitive, CryptoBackend> choices;
+	
+	private FastestCryptoBackend(EnumMap<Primitive, CryptoBackend> choices)
+	{
+		this.choices = choices;
+	}
+	
+	/**
+	 * Times each primitive on each of the candidate backends.
+	 * 
+	 * @param candidates - The backends to choose between
+	 * 
+	 * @return A FastestCryptoBackend which uses the fastest candidate for each primitive
+	 */
+	public static FastestCryptoBackend select(CryptoBackend... candidates)
+	{
+		if (candidates.length == 0)
+		{
+			throw new IllegalArgumentException("At least one candidate backend must be supplied");
+		}
+		BenchmarkData data = new BenchmarkData(candidates[0]);
+		EnumMap<Primitive, CryptoBackend> choices = new EnumMap<Primitive, CryptoBackend>(Primitive.class);
+		for (Primitive primitive : Primitive.values())
+		{
+			long fastestTime = Long.MAX_VALUE;
+			for (CryptoBackend candidate : candidates)
+			{
+				for (int i = 0; i < WARM_UP_ITERATIONS; i++)
+				{
+					run(candidate, primitive, data);
+				}
+				long startTime = System.nanoTime();
+				for (int i = 0; i < BENCHMARK_ITERATIONS; i++)
+				{
+					run(candidate, primitive, data);
+				}
+				long time = System.nanoTime() - startTime;
+				Log.i(TAG, primitive + " using the " + candidate.getName() + " backend took " + (time / BENCHMARK_ITERATIONS / 1000) + " microseconds per call");
+				if (time < fastestTime)
+				{
+					fastestTime = time;
+					choices.put(primitive, candidate);
+				}
+			}
+		}
+		return new FastestCryptoBackend(choices);
+	}
+	
+	/**
+	 * Returns the backend which was chosen for a primitive.
+	 */
+	public CryptoBackend getChoice(Primitive primitive)
+	{
+		return choices.get(primitive);
+	}
+	
+	@Override
+	public String getName()
+	{
+		StringBuilder name = new StringBuilder("Fastest (");
+		for (Primitive primitive : Primitive.values())
+		{
+			if (primitive.ordinal() > 0)
+			{
+				name.append(", ");
+			}
+			name.append(primitive).append(": ").append(choices.get(primitive).getName());
+		}
+		return name.append(")").toString();
+	}
+	
+	@Override
+	public byte[] sha256(byte[] data)
+	{
+		return choices.get(Primitive.SHA256).sha256(data);
+	}
+	
+	@Override
+	public byte[] sha512(byte[] data)
+	{
+		return choices.get(Primitive.SHA512).sha512(data);
+	}
+	
+	@Override
+	public byte[] ripemd160(byte[] data)
+	{
+		return choices.get(Primitive.RIPEMD160).ripemd160(data);
+	}
+	
+	@Override
+	public byte[] hmacSHA256(byte[] data, byte[] key)
+	{
+		return choices.get(Primitive.HMAC_SHA256).hmacSHA256(data, key);
+	}
+	
+	@Override
+	public byte[] encryptAES(byte[] plainText, byte[] key, byte[] iv)
+	{
+		return choices.get(Primitive.ENCRYPT_AES).encryptAES(plainText, key, iv);
+	}
+	
+	@Override
+	public byte[] decryptAES(byte[] cipherText, byte[] key, byte[] iv)
+	{
+		return choices.get(Primitive.DECRYPT_AES).decryptAES(cipherText, key, iv);
+	}
+	
+	@Override
+	public byte[] sign(byte[] data, BigInteger privateKey)
+	{
+		return choices.get(Primitive.SIGN).sign(data, privateKey);
+	}
+	
+	@Override
+	public boolean verify(byte[] data, byte[] signature, byte[] publicKey)
+	{
+		return choices.get(Primitive.VERIFY).verify(data, signature, publicKey);
+	}
+	
+	private static void run(CryptoBackend backend, Primitive primitive, BenchmarkData data)
+	{
+		switch (primitive)
+		{
+			case SHA256:
+				backend.sha256(data.data);
+				break;
+			case SHA512:
+				backend.sha512(data.data);
+				break;
+			case RIPEMD160:
+				backend.ripemd160(data.data);
+				break;
+			case HMAC_SHA256:
+				backend.hmacSHA256(data.data, data.key);
+				break;
+			case ENCRYPT_AES:
+				backend.encryptAES(data.data, data.key, data.iv);
+				break;
+			case DECRYPT_AES:
+				backend.decryptAES(data.cipherText, data.key, data.iv);
+				break;
+			case SIGN:
+				backend.sign(data.data, data.privateKey);
+				break;
+			case VERIFY:
+				backend.verify(data.data, data.signature, data.publicKey);
+				break;
+		}
+	}
+	
+	/**
+	 * The inputs used for the benchmark. The cipher text and signature are
+	 * made with one of the candidates, so that every candidate decrypts and
+	 * verifies exactly the same input.
+	 */
+	private static class BenchmarkData
+	{
+		private final byte[] data = new byte[BENCHMARK_DATA_LENGTH];
+		private final byte[] key = new byte[32];
+		private final byte[] iv = new byte[16];
+		private final BigInteger privateKey;
+		private final byte[] publicKey;
+		private final byte[] cipherText;
+		private final byte[] signature;
+		
+		private BenchmarkData(CryptoBackend backend)
+		{
+			SecureRandom secRand = new SecureRandom();
+			secRand.nextBytes(data);
+			secRand.nextBytes(key);
+			secRand.nextBytes(iv);
+			privateKey = Secp256k1.generatePrivateKey(secRand);
+			publicKey = FixedBaseMultiplier.calculatePublicKey(privateKey);
+			cipherText = backend.encryptAES(data, key, iv);
+			signature = backend.sign(data, privateKey);
+		}
+	}
+}
\ No newline at end of file
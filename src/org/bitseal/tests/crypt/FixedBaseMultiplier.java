@@ -0,0 +1,172 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+
+/**
+ * Multiplies the secp256k1 generator point G by a scalar, using a table of
+ * precomputed multiples of G. <br><br>
+ * 
+ * Key generation, pubkey generation and ECIES encryption all multiply G by
+ * a fresh scalar. Because G never changes, all of the doublings in a normal
+ * double-and-add multiplication can be done once and stored. The scalar is
+ * split into 64 windows of 4 bits, and the table holds j * 16^i * G for
+ * every window i and every non-zero window value j. A multiplication is
+ * then at most 64 point additions, with no doublings. <br><br>
+ * 
+ * The table holds 960 affine points, as field elements. It is built the first time it is needed
+ * and is then shared by every thread in the process.
+ * 
+ * @author Jonathan Coe
+ */
+public final class FixedBaseMultiplier
+{
+	/** The number of bits of the scalar handled by each window */
+	static final int WINDOW_WIDTH = 4;
+	
+	/** The number of windows needed to cover a 256 bit scalar */
+	static final int NUMBER_OF_WINDOWS = 256 / WINDOW_WIDTH;
+	
+	/** The number of non-zero values a window can take */
+	static final int POINTS_PER_WINDOW = (1 << WINDOW_WIDTH) - 1;
+	
+	private FixedBaseMultiplier()
+	{
+		// Not instantiable
+	}
+	
+	/**
+	 * Lazily builds the precomputed table. The JVM guarantees that the table
+	 * is built exactly once, and that every thread sees the finished table,
+	 * without any locking on the multiplication path.
+	 */
+	private static final class TableHolder
+	{
+		static final int[][][] TABLE_X = new int[NUMBER_OF_WINDOWS][POINTS_PER_WINDOW][];
+		static final int[][][] TABLE_Y = new int[NUMBER_OF_WINDOWS][POINTS_PER_WINDOW][];
+		
+		static
+		{
+			JacobianPoint.Scratch scratch = new JacobianPoint.Scratch();
+			JacobianPoint windowBase = JacobianPoint.fromAffine(Secp256k1.G);
+			JacobianPoint[] multiples = new JacobianPoint[NUMBER_OF_WINDOWS * POINTS_PER_WINDOW];
+			for (int i = 0; i < NUMBER_OF_WINDOWS; i++)
+			{
+				// Calculate j * 16^i * G for j = 1 to 15
+				for (int j = 0; j < POINTS_PER_WINDOW; j++)
+				{
+					JacobianPoint multiple = new JacobianPoint();
+					if (j == 0)
+					{
+						multiple.set(windowBase);
+					}
+					else
+					{
+						multiple.set(multiples[i * POINTS_PER_WINDOW + j - 1]);
+						multiple.add(windowBase, false, scratch);
+					}
+					multiples[i * POINTS_PER_WINDOW + j] = multiple;
+				}
+				
+				// The base for the next window is 16^(i + 1) * G
+				for (int k = 0; k < WINDOW_WIDTH; k++)
+				{
+					windowBase.twice(scratch);
+				}
+			}
+			
+			// Convert the whole table to affine coordinates with a single inversion
+			JacobianPoint.normalise(multiples, scratch);
+			for (int i = 0; i < NUMBER_OF_WINDOWS; i++)
+			{
+				for (int j = 0; j < POINTS_PER_WINDOW; j++)
+				{
+					TABLE_X[i][j] = multiples[i * POINTS_PER_WINDOW + j].x;
+					TABLE_Y[i][j] = multiples[i * POINTS_PER_WINDOW + j].y;
+				}
+			}
+		}
+		
+		/** Does nothing, but calling it causes the table to be built */
+		static void load()
+		{
+		}
+	}
+	
+	/**
+	 * Builds the precomputed table if it has not been built yet. Calling this
+	 * is optional, but it lets the one-off cost of building the table be paid
+	 * at a convenient time, for example while the app is starting up.
+	 */
+	public static void initialise()
+	{
+		TableHolder.load();
+	}
+	
+	/**
+	 * Calculates k * G.
+	 * 
+	 * @param k - The scalar to multiply G by. It is reduced modulo the order of G.
+	 * 
+	 * @return A Secp256k1Point containing the result
+	 */
+	public static Secp256k1Point multiplyG(BigInteger k)
+	{
+		JacobianPoint.Scratch scratch = new JacobianPoint.Scratch();
+		JacobianPoint result = new JacobianPoint();
+		multiplyG(k, result, scratch);
+		return result.toAffine(scratch);
+	}
+	
+	/**
+	 * Calculates the public key for a private key, in the same 65 byte
+	 * encoding returned by ECKeyPair.getPubKey().
+	 * 
+	 * @param privateKey - The private key. It must be between 1 and N - 1.
+	 * 
+	 * @return A byte[] containing the encoded public key
+	 */
+	public static byte[] calculatePublicKey(BigInteger privateKey)
+	{
+		if (privateKey.signum() <= 0 || privateKey.compareTo(Secp256k1.N) >= 0)
+		{
+			throw new IllegalArgumentException("A private key must be between 1 and N - 1");
+		}
+		return multiplyG(privateKey).getEncoded();
+	}
+	
+	/**
+	 * Calculates k * G, leaving the result in Jacobian coordinates so that
+	 * callers which go on to do more arithmetic do not pay for an inversion.
+	 * 
+	 * @param k - The scalar to multiply G by
+	 * @param result - The point to write the result into
+	 * @param scratch - The temporary values to use
+	 */
+	static void multiplyG(BigInteger k, JacobianPoint result, JacobianPoint.Scratch scratch)
+	{
+		BigInteger scalar = k.mod(Secp256k1.N);
+		int[][][] tableX = TableHolder.TABLE_X;
+		int[][][] tableY = TableHolder.TABLE_Y;
+		
+		result.setInfinity();
+		for (int i = 0; i < NUMBER_OF_WINDOWS; i++)
+		{
+			int windowValue = getWindowValue(scalar, i);
+			if (windowValue != 0)
+			{
+				result.addAffine(tableX[i][windowValue - 1], tableY[i][windowValue - 1], false, scratch);
+			}
+		}
+	}
+	
+	private static int getWindowValue(BigInteger scalar, int window)
+	{
+		int firstBit = window * WINDOW_WIDTH;
+		int value = 0;
+		for (int bit = WINDOW_WIDTH - 1; bit >= 0; bit--)
+		{
+			value = (value << 1) | (scalar.testBit(firstBit + bit) ? 1 : 0);
+		}
+		return value;
+	}
+}
\ No newline at end of file
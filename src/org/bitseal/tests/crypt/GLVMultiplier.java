@@ -0,0 +1,385 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+
+/**
+ * Multiplies an arbitrary secp256k1 point by a scalar, using the GLV
+ * endomorphism and width-w NAF. <br><br>
+ * 
+ * secp256k1 has an efficiently computable endomorphism phi(x, y) = (beta * x, y),
+ * which is the same as multiplying the point by a constant lambda. A 256 bit
+ * scalar k is split into two scalars k1 and k2 of about 128 bits each, such
+ * that k = k1 + k2 * lambda (mod N). k * P is then calculated as
+ * k1 * P + k2 * phi(P), with both halves sharing the same chain of doublings.
+ * This halves the number of doublings. <br><br>
+ * 
+ * Each half scalar is written in width-w NAF, in which every non-zero digit
+ * is odd and is followed by at least w - 1 zero digits. This reduces the
+ * number of additions to about one in every w + 1 bits, using a small table
+ * of odd multiples of the point.
+ * 
+ * @author Jonathan Coe
+ */
+public final class GLVMultiplier
+{
+	/** The width of the NAF used for the half scalars */
+	static final int WNAF_WIDTH = 5;
+	
+	/** The number of odd multiples of the point held in each table: P, 3P, 5P ... 15P */
+	static final int TABLE_SIZE = 1 << (WNAF_WIDTH - 2);
+	
+	/** A cube root of unity modulo P. phi(x, y) = (BETA * x, y) */
+	static final BigInteger BETA = new BigInteger("7ae96a2b657c07106e64479eac3434e99cf0497512f58995c1396c28719501ee", 16);
+	static final int[] BETA_ELEMENT = Secp256k1Field.fromBigInteger(BETA);
+	
+	/** A cube root of unity modulo N. For every point Q, phi(Q) = LAMBDA * Q */
+	static final BigInteger LAMBDA = new BigInteger("5363ad4cc05c30e0a5261c028812645a122e22ea20816678df02967c1b23bd72", 16);
+	
+	// A short basis of the lattice of pairs (a, b) with a + b * LAMBDA = 0 (mod N), used to split the scalar
+	private static final BigInteger A1 = new BigInteger("3086d221a7d46bcde86c90e49284eb15", 16);
+	private static final BigInteger B1 = new BigInteger("-e4437ed6010e88286f547fa90abfe4c3", 16);
+	private static final BigInteger A2 = new BigInteger("114ca50f7a8e2f3f657c1108d9d44cfd8", 16);
+	private static final BigInteger B2 = A1;
+	
+	private static final BigInteger HALF_N = Secp256k1.N.shiftRight(1);
+	
+	private GLVMultiplier()
+	{
+		// Not instantiable
+	}
+	
+	/**
+	 * The table and temporary values needed to multiply one point at a time.
+	 * Multiplying with a Workspace that is kept and reused means that no
+	 * points or tables are allocated for each multiplication. The split and
+	 * recoded form of the last scalar is kept as well, since the same private
+	 * key is usually checked against many payloads in a row. A Workspace
+	 * must not be used by more than one thread at a time.
+	 */
+	static final class Workspace
+	{
+		final JacobianPoint.Scratch scratch = new JacobianPoint.Scratch();
+		
+		/** Holds the result of the last multiplication, in affine coordinates unless it is the point at infinity */
+		final JacobianPoint result = new JacobianPoint();
+		
+		private final JacobianPoint[] results = new JacobianPoint[]{result};
+		private final JacobianPoint[] multiples = new JacobianPoint[TABLE_SIZE];
+		private final JacobianPoint twiceBase = new JacobianPoint();
+		private final int[][] endomorphismX = new int[TABLE_SIZE][Secp256k1Field.LIMBS];
+		private final int[][] prefixProducts = new int[TABLE_SIZE][Secp256k1Field.LIMBS];
+		
+		/** The last scalar multiplied by, and the NAFs of its two halves. The NAFs are null if it is 0 modulo N. */
+		private BigInteger scalar;
+		private byte[] naf1;
+		private byte[] naf2;
+		private boolean negate1;
+		private boolean negate2;
+		
+		Workspace()
+		{
+			for (int i = 0; i < TABLE_SIZE; i++)
+			{
+				multiples[i] = new JacobianPoint();
+			}
+		}
+	}
+	
+	/**
+	 * Calculates k * point.
+	 * 
+	 * @param point - The point to multiply
+	 * @param k - The scalar to multiply the point by. It is reduced modulo N.
+	 * 
+	 * @return A Secp256k1Point containing the result
+	 */
+	public static Secp256k1Point multiply(Secp256k1Point point, BigInteger k)
+	{
+		return multiply(new Secp256k1Point[]{point}, k)[0];
+	}
+	
+	/**
+	 * Multiplies many points by the same scalar. This is the operation needed
+	 * to trial-decrypt a backlog of payloads with one private key. <br><br>
+	 * 
+	 * The scalar is split and recoded only once, the tables of odd multiples
+	 * for all of the points are converted to affine coordinates together, and
+	 * so are the results. Each of those conversions needs only one field
+	 * inversion however many points there are, and affine tables let the main
+	 * loop use the cheaper mixed additions.
+	 * 
+	 * @param points - The points to multiply
+	 * @param k - The scalar to multiply the points by. It is reduced modulo N.
+	 * 
+	 * @return A Secp256k1Point[] containing k * points[i] for each point, in the same order
+	 */
+	public static Secp256k1Point[] multiply(Secp256k1Point[] points, BigInteger k)
+	{
+		JacobianPoint.Scratch scratch = new JacobianPoint.Scratch();
+		JacobianPoint[] results = multiply(points, k, scratch);
+		return JacobianPoint.toAffine(results, scratch);
+	}
+	
+	/**
+	 * Multiplies many points by the same scalar, leaving the results in
+	 * Jacobian coordinates.
+	 * 
+	 * @param points - The points to multiply
+	 * @param k - The scalar to multiply the points by
+	 * @param scratch - The temporary values to use
+	 * 
+	 * @return A JacobianPoint[] containing the results
+	 */
+	static JacobianPoint[] multiply(Secp256k1Point[] points, BigInteger k, JacobianPoint.Scratch scratch)
+	{
+		JacobianPoint[] results = new JacobianPoint[points.length];
+		for (int i = 0; i < points.length; i++)
+		{
+			results[i] = new JacobianPoint();
+		}
+		BigInteger scalar = k.mod(Secp256k1.N);
+		if (scalar.signum() == 0)
+		{
+			return results;
+		}
+		
+		BigInteger[] halves = splitScalar(scalar);
+		byte[] naf1 = calculateWNAF(halves[0].abs(), WNAF_WIDTH);
+		byte[] naf2 = calculateWNAF(halves[1].abs(), WNAF_WIDTH);
+		boolean negate1 = halves[0].signum() < 0;
+		boolean negate2 = halves[1].signum() < 0;
+		
+		// Build the tables of odd multiples of every point, and normalise them all together
+		JacobianPoint[] multiples = calculateOddMultiples(points, TABLE_SIZE, scratch);
+		JacobianPoint.normalise(multiples, scratch);
+		
+		// The images of the table entries under phi only differ in X
+		int[][] endomorphismX = new int[multiples.length][Secp256k1Field.LIMBS];
+		for (int i = 0; i < multiples.length; i++)
+		{
+			Secp256k1Field.multiply(multiples[i].x, BETA_ELEMENT, endomorphismX[i], scratch.wide);
+		}
+		
+		for (int p = 0; p < points.length; p++)
+		{
+			if (points[p].isInfinity() == false)
+			{
+				multiplyWithTable(results[p], multiples, endomorphismX, p * TABLE_SIZE, naf1, negate1, naf2, negate2, scratch);
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Calculates k * point using the tables held in a Workspace, without
+	 * allocating any points or tables. This is meant for checking one payload
+	 * at a time, where most payloads are rejected and a fresh table for each
+	 * one would be garbage straight away.
+	 * 
+	 * @param point - The point to multiply
+	 * @param k - The scalar to multiply the point by. It is reduced modulo N.
+	 * @param workspace - The Workspace to use. The result is left in its result field,
+	 * with Z = 1 unless it is the point at infinity.
+	 */
+	static void multiply(Secp256k1Point point, BigInteger k, Workspace workspace)
+	{
+		JacobianPoint result = workspace.result;
+		result.setInfinity();
+		if (k.equals(workspace.scalar) == false)
+		{
+			workspace.scalar = k;
+			BigInteger reducedScalar = k.mod(Secp256k1.N);
+			if (reducedScalar.signum() == 0)
+			{
+				workspace.naf1 = null;
+				workspace.naf2 = null;
+			}
+			else
+			{
+				BigInteger[] halves = splitScalar(reducedScalar);
+				workspace.naf1 = calculateWNAF(halves[0].abs(), WNAF_WIDTH);
+				workspace.naf2 = calculateWNAF(halves[1].abs(), WNAF_WIDTH);
+				workspace.negate1 = halves[0].signum() < 0;
+				workspace.negate2 = halves[1].signum() < 0;
+			}
+		}
+		if (point.isInfinity() || workspace.naf1 == null)
+		{
+			return;
+		}
+		
+		JacobianPoint.Scratch scratch = workspace.scratch;
+		JacobianPoint[] multiples = workspace.multiples;
+		multiples[0].setAffine(point.x, point.y);
+		calculateOddMultiples(multiples, 0, TABLE_SIZE, workspace.twiceBase, scratch);
+		JacobianPoint.normalise(multiples, workspace.prefixProducts, scratch);
+		for (int i = 0; i < TABLE_SIZE; i++)
+		{
+			Secp256k1Field.multiply(multiples[i].x, BETA_ELEMENT, workspace.endomorphismX[i], scratch.wide);
+		}
+		
+		multiplyWithTable(result, multiples, workspace.endomorphismX, 0, workspace.naf1, workspace.negate1, workspace.naf2, workspace.negate2, scratch);
+		JacobianPoint.normalise(workspace.results, workspace.prefixProducts, scratch);
+	}
+	
+	/**
+	 * Runs the shared chain of doublings for one point, adding the table entries
+	 * given by the NAF digits of both half scalars.
+	 */
+	private static void multiplyWithTable(JacobianPoint result, JacobianPoint[] multiples, int[][] endomorphismX, int tableStart,
+			byte[] naf1, boolean negate1, byte[] naf2, boolean negate2, JacobianPoint.Scratch scratch)
+	{
+		for (int i = Math.max(naf1.length, naf2.length) - 1; i >= 0; i--)
+		{
+			result.twice(scratch);
+			if (i < naf1.length && naf1[i] != 0)
+			{
+				int index = tableStart + ((Math.abs(naf1[i]) - 1) >> 1);
+				result.addAffine(multiples[index].x, multiples[index].y, (naf1[i] < 0) != negate1, scratch);
+			}
+			if (i < naf2.length && naf2[i] != 0)
+			{
+				int index = tableStart + ((Math.abs(naf2[i]) - 1) >> 1);
+				result.addAffine(endomorphismX[index], multiples[index].y, (naf2[i] < 0) != negate2, scratch);
+			}
+		}
+	}
+	
+	/**
+	 * Calculates the odd multiples P, 3P, 5P ... of each of the given points.
+	 * 
+	 * @param points - The points
+	 * @param tableSize - The number of odd multiples to calculate for each point
+	 * @param scratch - The temporary values to use
+	 * 
+	 * @return A JacobianPoint[] holding the multiples of each point in turn, in Jacobian coordinates
+	 */
+	static JacobianPoint[] calculateOddMultiples(Secp256k1Point[] points, int tableSize, JacobianPoint.Scratch scratch)
+	{
+		JacobianPoint[] multiples = new JacobianPoint[points.length * tableSize];
+		JacobianPoint twiceBase = new JacobianPoint();
+		for (int i = 0; i < points.length; i++)
+		{
+			int tableStart = i * tableSize;
+			multiples[tableStart] = JacobianPoint.fromAffine(points[i]);
+			for (int j = 1; j < tableSize; j++)
+			{
+				multiples[tableStart + j] = new JacobianPoint();
+			}
+			calculateOddMultiples(multiples, tableStart, tableSize, twiceBase, scratch);
+		}
+		return multiples;
+	}
+	
+	/**
+	 * Fills in the odd multiples 3P, 5P ... of a point P, writing them into
+	 * points which have already been created.
+	 * 
+	 * @param multiples - The JacobianPoint[] to fill in. P must already be at tableStart.
+	 * @param tableStart - The index of P
+	 * @param tableSize - The number of odd multiples to calculate, including P
+	 * @param twiceBase - A JacobianPoint to hold 2P
+	 * @param scratch - The temporary values to use
+	 */
+	private static void calculateOddMultiples(JacobianPoint[] multiples, int tableStart, int tableSize, JacobianPoint twiceBase, JacobianPoint.Scratch scratch)
+	{
+		twiceBase.set(multiples[tableStart]);
+		twiceBase.twice(scratch);
+		for (int j = 1; j < tableSize; j++)
+		{
+			multiples[tableStart + j].set(multiples[tableStart + j - 1]);
+			multiples[tableStart + j].add(twiceBase, false, scratch);
+		}
+	}
+	
+	/**
+	 * Splits a scalar k into two half-length scalars k1 and k2, such that
+	 * k = k1 + k2 * LAMBDA (mod N).
+	 * 
+	 * @param k - The scalar to split, between 0 and N - 1
+	 * 
+	 * @return A BigInteger[] containing k1 and k2. Either may be negative.
+	 */
+	static BigInteger[] splitScalar(BigInteger k)
+	{
+		BigInteger c1 = B2.multiply(k).add(HALF_N).divide(Secp256k1.N);
+		BigInteger c2 = B1.negate().multiply(k).add(HALF_N).divide(Secp256k1.N);
+		BigInteger k1 = k.subtract(c1.multiply(A1)).subtract(c2.multiply(A2));
+		BigInteger k2 = c1.multiply(B1).add(c2.multiply(B2)).negate();
+		return new BigInteger[]{k1, k2};
+	}
+	
+	/**
+	 * Calculates the width-w NAF of a non-negative scalar. <br><br>
+	 * 
+	 * The scalar is read a window at a time with testBit(), carrying into the
+	 * next window whenever a digit is made negative, so no BigInteger
+	 * arithmetic is needed for each bit.
+	 * 
+	 * @param k - The scalar
+	 * @param width - The width of the NAF
+	 * 
+	 * @return A byte[] containing the NAF digits, least significant first
+	 */
+	static byte[] calculateWNAF(BigInteger k, int width)
+	{
+		int windowSize = 1 << width;
+		int bitLength = k.bitLength();
+		byte[] digits = new byte[bitLength + 1];
+		int length = 0;
+		int position = 0;
+		boolean carry = false;
+		while (position <= bitLength)
+		{
+			// A bit equal to the carry gives a zero digit, and leaves the carry as it was
+			if (k.testBit(position) == carry)
+			{
+				position++;
+				continue;
+			}
+			int digit = readWindow(k, position, width);
+			if (carry)
+			{
+				digit++;
+			}
+			carry = digit >= (windowSize >> 1);
+			if (carry)
+			{
+				digit -= windowSize;
+			}
+			digits[position] = (byte) digit;
+			length = position + 1;
+			position += width;
+		}
+		byte[] naf = new byte[length];
+		System.arraycopy(digits, 0, naf, 0, length);
+		return naf;
+	}
+	
+	/**
+	 * Reads the given number of bits of a scalar, starting at the given position.
+	 */
+	private static int readWindow(BigInteger k, int position, int width)
+	{
+		int window = 0;
+		for (int i = width - 1; i >= 0; i--)
+		{
+			window = (window << 1) | (k.testBit(position + i) ? 1 : 0);
+		}
+		return window;
+	}
+	
+	/**
+	 * Calculates phi(point), which is the same as LAMBDA * point.
+	 */
+	static Secp256k1Point applyEndomorphism(Secp256k1Point point)
+	{
+		if (point.isInfinity())
+		{
+			return point;
+		}
+		int[] endomorphismX = Secp256k1Field.create();
+		Secp256k1Field.multiply(point.x, BETA_ELEMENT, endomorphismX, Secp256k1Field.createWide());
+		return new Secp256k1Point(endomorphismX, point.y);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,368 @@
+package org.bitseal.tests.crypt;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Provider;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.spongycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * An incremental hash or HMAC, which is kept and reused by the thread that
+ * uses it. <br><br>
+ * 
+ * SHA256.doubleDigest(), SHA512.doubleHash() and SHA256.hmacSHA256() each
+ * take a single byte[], so composite inputs such as IV + R + cipher text or
+ * version + stream + ripe have to be concatenated into a temporary array
+ * first, and every call looks up a new MessageDigest or Mac. A Hasher
+ * instead takes its input in pieces, from byte arrays or ByteBuffers, and
+ * can write its output into an existing array. <br><br>
+ * 
+ * Each thread has one Hasher per algorithm, and the static methods reset it
+ * and hand it out. A Hasher is in use from the time it is handed out until
+ * doFinal() is called. If the same algorithm is asked for again on the same
+ * thread while that thread's Hasher is in use, for example by a method
+ * called part way through building the input, a new Hasher is created for
+ * the nested use, so that the outer hash is not disturbed. A Hasher should
+ * therefore always be finished with doFinal(), and must never be passed to
+ * another thread. If a Hasher throws an exception part way through, for
+ * example because update() was given a null array, it is no longer in use
+ * and must not be used again, so that the thread's Hasher is handed out
+ * again by the next call. For example: <br><br>
+ * 
+ * Hasher.sha512().update(version).update(stream).update(ripe).doubleFinal(doubleHash, 0);
+ * 
+ * @author Jonathan Coe
+ */
+public final class Hasher
+{
+	private static final String HMAC_ALGORITHM = "HmacSHA256";
+	
+	/** RIPEMD-160 is not offered by every default provider, so it is taken from SpongyCastle */
+	private static final Provider SPONGY_CASTLE = new BouncyCastleProvider();
+	
+	private static final ThreadLocal<Hasher> SHA1 = new ThreadLocal<Hasher>()
+	{
+		@Override
+		protected Hasher initialValue()
+		{
+			return new Hasher(createDigest("SHA-1", null), null);
+		}
+	};
+	
+	private static final ThreadLocal<Hasher> SHA256 = new ThreadLocal<Hasher>()
+	{
+		@Override
+		protected Hasher initialValue()
+		{
+			return new Hasher(createDigest("SHA-256", null), null);
+		}
+	};
+	
+	private static final ThreadLocal<Hasher> SHA512 = new ThreadLocal<Hasher>()
+	{
+		@Override
+		protected Hasher initialValue()
+		{
+			return new Hasher(createDigest("SHA-512", null), null);
+		}
+	};
+	
+	private static final ThreadLocal<Hasher> RIPEMD160 = new ThreadLocal<Hasher>()
+	{
+		@Override
+		protected Hasher initialValue()
+		{
+			return new Hasher(createDigest("RIPEMD160", SPONGY_CASTLE), null);
+		}
+	};
+	
+	private static final ThreadLocal<Hasher> HMAC_SHA256 = new ThreadLocal<Hasher>()
+	{
+		@Override
+		protected Hasher initialValue()
+		{
+			try
+			{
+				return new Hasher(null, Mac.getInstance(HMAC_ALGORITHM));
+			}
+			catch (GeneralSecurityException e)
+			{
+				throw new RuntimeException("GeneralSecurityException occurred in Hasher.HMAC_SHA256.initialValue()", e);
+			}
+		}
+	};
+	
+	/** The digest, or null if this is an HMAC */
+	private final MessageDigest digest;
+	
+	/** The MAC, or null if this is a digest */
+	private final Mac mac;
+	
+	/** Holds the first hash during doubleFinal() */
+	private final byte[] firstHash;
+	
+	/** Whether this Hasher has been handed out and doFinal() has not been called yet */
+	private boolean inUse = false;
+	
+	private Hasher(MessageDigest digest, Mac mac)
+	{
+		this.digest = digest;
+		this.mac = mac;
+		this.firstHash = (digest == null) ? null : new byte[digest.getDigestLength()];
+	}
+	
+	public static Hasher sha1()
+	{
+		return reset(acquire(SHA1));
+	}
+	
+	public static Hasher sha256()
+	{
+		return reset(acquire(SHA256));
+	}
+	
+	public static Hasher sha512()
+	{
+		return reset(acquire(SHA512));
+	}
+	
+	public static Hasher ripemd160()
+	{
+		return reset(acquire(RIPEMD160));
+	}
+	
+	/**
+	 * Returns this thread's HMAC-SHA256, initialised with the given key.
+	 * 
+	 * @param key - A byte[] containing the key
+	 * @param offset - The offset at which the key starts
+	 * @param length - The length of the key
+	 * 
+	 * @return The Hasher, ready for update() to be called
+	 */
+	public static Hasher hmacSHA256(byte[] key, int offset, int length)
+	{
+		Hasher hasher = acquire(HMAC_SHA256);
+		try
+		{
+			hasher.mac.init(new SecretKeySpec(key, offset, length, HMAC_ALGORITHM));
+		}
+		catch (GeneralSecurityException e)
+		{
+			hasher.inUse = false;
+			throw new RuntimeException("GeneralSecurityException occurred in Hasher.hmacSHA256()", e);
+		}
+		catch (RuntimeException e)
+		{
+			hasher.inUse = false;
+			throw e;
+		}
+		return hasher;
+	}
+	
+	public Hasher update(byte b)
+	{
+		if (digest != null)
+		{
+			digest.update(b);
+		}
+		else
+		{
+			mac.update(b);
+		}
+		return this;
+	}
+	
+	public Hasher update(byte[] data)
+	{
+		if (data == null)
+		{
+			inUse = false;
+			throw new NullPointerException("The data to hash is null");
+		}
+		return update(data, 0, data.length);
+	}
+	
+	public Hasher update(byte[] data, int offset, int length)
+	{
+		try
+		{
+			if (digest != null)
+			{
+				digest.update(data, offset, length);
+			}
+			else
+			{
+				mac.update(data, offset, length);
+			}
+		}
+		catch (RuntimeException e)
+		{
+			inUse = false;
+			throw e;
+		}
+		return this;
+	}
+	
+	/**
+	 * Adds the bytes between the position and the limit of a ByteBuffer.
+	 * Afterwards the position of the buffer is equal to its limit.
+	 * 
+	 * @param data - The ByteBuffer containing the data
+	 * 
+	 * @return This Hasher
+	 */
+	public Hasher update(ByteBuffer data)
+	{
+		try
+		{
+			if (digest != null)
+			{
+				digest.update(data);
+			}
+			else
+			{
+				mac.update(data);
+			}
+		}
+		catch (RuntimeException e)
+		{
+			inUse = false;
+			throw e;
+		}
+		return this;
+	}
+	
+	/**
+	 * Returns the length in bytes of the output.
+	 */
+	public int getLength()
+	{
+		return (digest != null) ? digest.getDigestLength() : mac.getMacLength();
+	}
+	
+	/**
+	 * Finishes the hash, and writes it into the given array. The Hasher is
+	 * then reset.
+	 * 
+	 * @param output - The byte[] to write the hash into
+	 * @param offset - The offset at which to write the hash
+	 * 
+	 * @return The number of bytes written
+	 */
+	public int doFinal(byte[] output, int offset)
+	{
+		inUse = false;
+		try
+		{
+			if (digest != null)
+			{
+				return digest.digest(output, offset, digest.getDigestLength());
+			}
+			mac.doFinal(output, offset);
+			return mac.getMacLength();
+		}
+		catch (DigestException e)
+		{
+			throw new IllegalArgumentException("There is not enough room in the output array for the hash", e);
+		}
+		catch (ShortBufferException e)
+		{
+			throw new IllegalArgumentException("There is not enough room in the output array for the MAC", e);
+		}
+	}
+	
+	/**
+	 * Finishes the hash, and returns it in a new array.
+	 * 
+	 * @return A byte[] containing the hash
+	 */
+	public byte[] doFinal()
+	{
+		byte[] output = new byte[getLength()];
+		doFinal(output, 0);
+		return output;
+	}
+	
+	/**
+	 * Finishes the hash, then hashes the result a second time and writes
+	 * that into the given array, as SHA256.doubleDigest() and
+	 * SHA512.doubleHash() do. This is not available for an HMAC.
+	 * 
+	 * @param output - The byte[] to write the double hash into
+	 * @param offset - The offset at which to write the double hash
+	 * 
+	 * @return The number of bytes written
+	 */
+	public int doubleFinal(byte[] output, int offset)
+	{
+		if (digest == null)
+		{
+			inUse = false;
+			throw new IllegalStateException("A double hash cannot be calculated with an HMAC");
+		}
+		doFinal(firstHash, 0);
+		digest.update(firstHash);
+		return doFinal(output, offset);
+	}
+	
+	/**
+	 * Returns this thread's Hasher from the given ThreadLocal and marks it as in
+	 * use, or returns a new Hasher for the same algorithm if this thread's Hasher
+	 * is already in use.
+	 */
+	private static Hasher acquire(ThreadLocal<Hasher> threadHashers)
+	{
+		Hasher hasher = threadHashers.get();
+		if (hasher.inUse)
+		{
+			hasher = hasher.createNested();
+		}
+		hasher.inUse = true;
+		return hasher;
+	}
+	
+	/**
+	 * Creates a new Hasher for the same algorithm as this one, for a nested use
+	 * on this thread. It is not kept once the nested use is finished.
+	 */
+	private Hasher createNested()
+	{
+		try
+		{
+			if (digest != null)
+			{
+				return new Hasher(MessageDigest.getInstance(digest.getAlgorithm(), digest.getProvider()), null);
+			}
+			return new Hasher(null, Mac.getInstance(mac.getAlgorithm(), mac.getProvider()));
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new RuntimeException("GeneralSecurityException occurred in Hasher.createNested()", e);
+		}
+	}
+	
+	private static Hasher reset(Hasher hasher)
+	{
+		hasher.digest.reset();
+		return hasher;
+	}
+	
+	private static MessageDigest createDigest(String algorithm, Provider provider)
+	{
+		try
+		{
+			return (provider == null) ? MessageDigest.getInstance(algorithm) : MessageDigest.getInstance(algorithm, provider);
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new RuntimeException("GeneralSecurityException occurred in Hasher.createDigest()", e);
+		}
+	}
+}
\ No newline at end of file
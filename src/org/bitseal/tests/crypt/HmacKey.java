@@ -0,0 +1,389 @@
+package org.bitseal.tests.crypt;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An HMAC-SHA256 key, such as key_m, whose inner and outer pad states have
+ * been calculated in advance. <br><br>
+ * 
+ * HMAC(K, m) = SHA256((K ^ opad) + SHA256((K ^ ipad) + m)). The padded keys
+ * K ^ ipad and K ^ opad are each exactly one 64 byte SHA-256 block, so the
+ * state of SHA-256 after compressing them depends only on the key.
+ * SHA256.hmacSHA256() and Mac.init() compress both padded keys again on every
+ * call. An HmacKey compresses them once, when it is created, and keeps the two
+ * resulting states. Each MAC after that only has to compress the message and
+ * its padding, plus one block for the outer hash. <br><br>
+ * 
+ * This matters when one key_m is checked against many msgs, as in
+ * Test_MessageIdentification, where every MAC would otherwise cost two extra
+ * compressions. <br><br>
+ * 
+ * MACs written into an existing array with calculateMac(byte[], int, int, byte[], int)
+ * or calculateMac(ByteBuffer, byte[], int), and checks made with macMatches(),
+ * do not allocate any memory. An HmacKey never changes after it has been
+ * created, so it can be shared between threads.
+ * 
+ * @author Jonathan Coe
+ */
+public final class HmacKey
+{
+	/** The length in bytes of a SHA-256 block */
+	private static final int BLOCK_LENGTH = 64;
+	
+	/** The length in bytes of a SHA-256 hash, and therefore of the MAC */
+	public static final int MAC_LENGTH = 32;
+	
+	private static final byte IPAD = 0x36;
+	private static final byte OPAD = 0x5c;
+	
+	/** The first bit of SHA-256 padding, placed in the most significant bit of a message word */
+	private static final int PADDING_START = 0x80000000;
+	
+	/** The length in bits of the data hashed by the outer hash: the padded key block plus the inner hash */
+	private static final int OUTER_HASH_INPUT_BITS = (BLOCK_LENGTH + MAC_LENGTH) * 8;
+	
+	private static final int[] INITIAL_STATE =
+	{
+		0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+	};
+	
+	private static final int[] K =
+	{
+		0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+		0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+		0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+		0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+		0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+		0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+		0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+		0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+	};
+	
+	/** The working memory used while calculating a MAC, kept by each thread */
+	private static final ThreadLocal<Workspace> WORKSPACE = new ThreadLocal<Workspace>()
+	{
+		@Override
+		protected Workspace initialValue()
+		{
+			return new Workspace();
+		}
+	};
+	
+	/** The state of SHA-256 after compressing K ^ ipad */
+	private final int[] innerState = new int[8];
+	
+	/** The state of SHA-256 after compressing K ^ opad */
+	private final int[] outerState = new int[8];
+	
+	/**
+	 * Creates a new HmacKey from the whole of the given array.
+	 * 
+	 * @param key - A byte[] containing the key, for example key_m
+	 */
+	public HmacKey(byte[] key)
+	{
+		this(key, 0, key.length);
+	}
+	
+	/**
+	 * Creates a new HmacKey from part of the given array. This allows key_m
+	 * to be read from the second half of the 64 byte derived key without
+	 * copying it.
+	 * 
+	 * @param key - A byte[] containing the key
+	 * @param offset - The offset at which the key starts
+	 * @param length - The length of the key
+	 */
+	public HmacKey(byte[] key, int offset, int length)
+	{
+		// Keys longer than a block are replaced by their hash, as in RFC 2104
+		if (length > BLOCK_LENGTH)
+		{
+			key = Hasher.sha256().update(key, offset, length).doFinal();
+			offset = 0;
+			length = key.length;
+		}
+		
+		Workspace workspace = WORKSPACE.get();
+		byte[] paddedKey = workspace.block;
+		
+		for (int i = 0; i < BLOCK_LENGTH; i++)
+		{
+			paddedKey[i] = (byte) (((i < length) ? key[offset + i] : 0) ^ IPAD);
+		}
+		System.arraycopy(INITIAL_STATE, 0, innerState, 0, 8);
+		compress(innerState, paddedKey, 0, workspace.w);
+		
+		for (int i = 0; i < BLOCK_LENGTH; i++)
+		{
+			paddedKey[i] = (byte) (((i < length) ? key[offset + i] : 0) ^ OPAD);
+		}
+		System.arraycopy(INITIAL_STATE, 0, outerState, 0, 8);
+		compress(outerState, paddedKey, 0, workspace.w);
+	}
+	
+	/**
+	 * Calculates the HMAC-SHA256 of some data, and returns it in a new array.
+	 * 
+	 * @param data - A byte[] containing the data
+	 * 
+	 * @return A byte[] containing the 32 byte MAC
+	 */
+	public byte[] calculateMac(byte[] data)
+	{
+		byte[] mac = new byte[MAC_LENGTH];
+		calculateMac(data, 0, data.length, mac, 0);
+		return mac;
+	}
+	
+	/**
+	 * Calculates the HMAC-SHA256 of part of an array, and writes it into the
+	 * given output array.
+	 * 
+	 * @param data - A byte[] containing the data
+	 * @param dataOffset - The offset at which the data starts
+	 * @param dataLength - The length of the data
+	 * @param output - The byte[] to write the MAC into
+	 * @param outputOffset - The offset at which to write the MAC
+	 */
+	public void calculateMac(byte[] data, int dataOffset, int dataLength, byte[] output, int outputOffset)
+	{
+		if (dataOffset < 0 || dataLength < 0 || data.length - dataOffset < dataLength)
+		{
+			throw new IllegalArgumentException("The data offset and length do not fit within the data array");
+		}
+		calculateMac(data, null, dataOffset, dataLength, output, outputOffset);
+	}
+	
+	/**
+	 * Calculates the HMAC-SHA256 of the bytes between the position and the
+	 * limit of a ByteBuffer, and writes it into the given array. The position
+	 * of the buffer is not changed.
+	 * 
+	 * @param data - The ByteBuffer containing the data
+	 * @param output - The byte[] to write the MAC into
+	 * @param offset - The offset at which to write the MAC
+	 */
+	public void calculateMac(ByteBuffer data, byte[] output, int offset)
+	{
+		calculateMac(data, data.position(), data.remaining(), output, offset);
+	}
+	
+	/**
+	 * Calculates the HMAC-SHA256 of a range of bytes in a ByteBuffer, given by
+	 * absolute index, and writes it into the given array. The position and
+	 * limit of the buffer are ignored and not changed.
+	 * 
+	 * @param data - The ByteBuffer containing the data
+	 * @param index - The index at which the data starts
+	 * @param length - The length of the data
+	 * @param output - The byte[] to write the MAC into
+	 * @param offset - The offset at which to write the MAC
+	 */
+	void calculateMac(ByteBuffer data, int index, int length, byte[] output, int offset)
+	{
+		if (index < 0 || length < 0 || data.capacity() - index < length)
+		{
+			throw new IllegalArgumentException("The data index and length do not fit within the buffer");
+		}
+		
+		// The backing array is read directly if there is one, and otherwise the buffer is read with absolute gets
+		if (data.hasArray())
+		{
+			calculateMac(data.array(), null, data.arrayOffset() + index, length, output, offset);
+		}
+		else
+		{
+			calculateMac(null, data, index, length, output, offset);
+		}
+	}
+	
+	/**
+	 * Calculates the HMAC-SHA256 of some data, which is read either from an
+	 * array or, if the array is null, from a ByteBuffer by absolute index.
+	 */
+	private void calculateMac(byte[] dataArray, ByteBuffer dataBuffer, int start, int length, byte[] output, int offset)
+	{
+		if (offset < 0 || output.length - offset < MAC_LENGTH)
+		{
+			throw new IllegalArgumentException("There is not enough room in the output array for the MAC");
+		}
+		
+		Workspace workspace = WORKSPACE.get();
+		int[] state = workspace.state;
+		byte[] block = workspace.block;
+		int[] w = workspace.w;
+		
+		// Inner hash: carry on from the inner pad state with the data, then the padding and length
+		System.arraycopy(innerState, 0, state, 0, 8);
+		int position = start;
+		int end = start + length;
+		while (end - position >= BLOCK_LENGTH)
+		{
+			if (dataArray != null)
+			{
+				compress(state, dataArray, position, w);
+			}
+			else
+			{
+				copyFromBuffer(dataBuffer, position, block, BLOCK_LENGTH);
+				compress(state, block, 0, w);
+			}
+			position += BLOCK_LENGTH;
+		}
+		int remaining = end - position;
+		if (dataArray != null)
+		{
+			System.arraycopy(dataArray, position, block, 0, remaining);
+		}
+		else
+		{
+			copyFromBuffer(dataBuffer, position, block, remaining);
+		}
+		block[remaining] = (byte) 0x80;
+		
+		// The padding needs a second block if there is no room left for the 8 byte length
+		int lastBlockEnd = (remaining < BLOCK_LENGTH - 8) ? BLOCK_LENGTH : BLOCK_LENGTH * 2;
+		for (int i = remaining + 1; i < lastBlockEnd - 8; i++)
+		{
+			block[i] = 0;
+		}
+		long bitLength = (BLOCK_LENGTH + (long) length) * 8;
+		for (int i = 0; i < 8; i++)
+		{
+			block[lastBlockEnd - 1 - i] = (byte) (bitLength >>> (i * 8));
+		}
+		compress(state, block, 0, w);
+		if (lastBlockEnd > BLOCK_LENGTH)
+		{
+			compress(state, block, BLOCK_LENGTH, w);
+		}
+		
+		// Outer hash: carry on from the outer pad state with the inner hash, which always fits into one block
+		System.arraycopy(state, 0, w, 0, 8);
+		w[8] = PADDING_START;
+		for (int i = 9; i < 15; i++)
+		{
+			w[i] = 0;
+		}
+		w[15] = OUTER_HASH_INPUT_BITS;
+		System.arraycopy(outerState, 0, state, 0, 8);
+		compress(state, w);
+		
+		for (int i = 0; i < 8; i++)
+		{
+			int word = state[i];
+			output[offset + (i * 4)] = (byte) (word >>> 24);
+			output[offset + (i * 4) + 1] = (byte) (word >>> 16);
+			output[offset + (i * 4) + 2] = (byte) (word >>> 8);
+			output[offset + (i * 4) + 3] = (byte) word;
+		}
+	}
+	
+	/**
+	 * Copies bytes from a ByteBuffer into the start of an array, without
+	 * changing the position of the buffer.
+	 */
+	private static void copyFromBuffer(ByteBuffer buffer, int index, byte[] destination, int length)
+	{
+		for (int i = 0; i < length; i++)
+		{
+			destination[i] = buffer.get(index + i);
+		}
+	}
+	
+	/**
+	 * Checks whether the MAC stored at the end of an encrypted payload was
+	 * made with this key.
+	 * 
+	 * @param encryptedPayload - An EncryptedPayloadView of the encrypted payload
+	 * 
+	 * @return True if the MAC matches, otherwise false
+	 */
+	public boolean macMatches(EncryptedPayloadView encryptedPayload)
+	{
+		byte[] mac = WORKSPACE.get().mac;
+		encryptedPayload.calculateMac(this, mac);
+		return encryptedPayload.macEquals(mac);
+	}
+	
+	/**
+	 * Loads a 64 byte block into the message schedule and compresses it.
+	 */
+	private static void compress(int[] state, byte[] block, int offset, int[] w)
+	{
+		for (int t = 0; t < 16; t++)
+		{
+			int i = offset + (t * 4);
+			w[t] = ((block[i] & 0xFF) << 24) | ((block[i + 1] & 0xFF) << 16) | ((block[i + 2] & 0xFF) << 8) | (block[i + 3] & 0xFF);
+		}
+		compress(state, w);
+	}
+	
+	/**
+	 * Runs the SHA-256 compression function over a single block, starting
+	 * from the given state.
+	 * 
+	 * @param state - The current state, which is replaced by the new state
+	 * @param w - The message schedule. Words 0 to 15 must contain the block to be
+	 * compressed. Words 16 to 63 are overwritten.
+	 */
+	private static void compress(int[] state, int[] w)
+	{
+		for (int t = 16; t < 64; t++)
+		{
+			int w2 = w[t - 2];
+			int w15 = w[t - 15];
+			int s1 = ((w2 >>> 17) | (w2 << 15)) ^ ((w2 >>> 19) | (w2 << 13)) ^ (w2 >>> 10);
+			int s0 = ((w15 >>> 7) | (w15 << 25)) ^ ((w15 >>> 18) | (w15 << 14)) ^ (w15 >>> 3);
+			w[t] = s1 + w[t - 7] + s0 + w[t - 16];
+		}
+		
+		int a = state[0];
+		int b = state[1];
+		int c = state[2];
+		int d = state[3];
+		int e = state[4];
+		int f = state[5];
+		int g = state[6];
+		int h = state[7];
+		
+		for (int t = 0; t < 64; t++)
+		{
+			int sigma1 = ((e >>> 6) | (e << 26)) ^ ((e >>> 11) | (e << 21)) ^ ((e >>> 25) | (e << 7));
+			int ch = (e & f) ^ (~e & g);
+			int t1 = h + sigma1 + ch + K[t] + w[t];
+			int sigma0 = ((a >>> 2) | (a << 30)) ^ ((a >>> 13) | (a << 19)) ^ ((a >>> 22) | (a << 10));
+			int maj = (a & b) ^ (a & c) ^ (b & c);
+			int t2 = sigma0 + maj;
+			h = g;
+			g = f;
+			f = e;
+			e = d + t1;
+			d = c;
+			c = b;
+			b = a;
+			a = t1 + t2;
+		}
+		
+		state[0] += a;
+		state[1] += b;
+		state[2] += c;
+		state[3] += d;
+		state[4] += e;
+		state[5] += f;
+		state[6] += g;
+		state[7] += h;
+	}
+	
+	private static class Workspace
+	{
+		private final int[] w = new int[64];
+		private final int[] state = new int[8];
+		
+		/** Large enough for the last block of the data plus a second block of padding */
+		private final byte[] block = new byte[BLOCK_LENGTH * 2];
+		
+		private final byte[] mac = new byte[MAC_LENGTH];
+	}
+}
\ No newline at end of file
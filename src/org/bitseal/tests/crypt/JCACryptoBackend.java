@@ -0,0 +1,145 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.security.Signature;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.bitseal.crypt.KeyConverter;
+import org.spongycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * A CryptoBackend which goes through the JCA, in the same way as SHA256,
+ * SHA512, CryptProcessor and SigProcessor. Every call looks up its
+ * algorithm with getInstance(). <br><br>
+ * 
+ * RIPEMD-160 and ECDSA over secp256k1 are not offered by every default
+ * provider, so they are always taken from SpongyCastle.
+ * 
+ * @author Jonathan Coe
+ */
+public class JCACryptoBackend implements CryptoBackend
+{
+	private static final String CIPHER_TRANSFORMATION = "AES/CBC/PKCS5Padding";
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+	private static final String SIGNATURE_ALGORITHM = "SHA1withECDSA";
+	
+	private final Provider provider = new BouncyCastleProvider();
+	
+	@Override
+	public String getName()
+	{
+		return "JCA";
+	}
+	
+	@Override
+	public byte[] sha256(byte[] data)
+	{
+		return digest("SHA-256", null, data);
+	}
+	
+	@Override
+	public byte[] sha512(byte[] data)
+	{
+		return digest("SHA-512", null, data);
+	}
+	
+	@Override
+	public byte[] ripemd160(byte[] data)
+	{
+		return digest("RIPEMD160", provider, data);
+	}
+	
+	@Override
+	public byte[] hmacSHA256(byte[] data, byte[] key)
+	{
+		try
+		{
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(new SecretKeySpec(key, MAC_ALGORITHM));
+			return mac.doFinal(data);
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new RuntimeException("GeneralSecurityException occurred in JCACryptoBackend.hmacSHA256()", e);
+		}
+	}
+	
+	@Override
+	public byte[] encryptAES(byte[] plainText, byte[] key, byte[] iv)
+	{
+		return doAES(plainText, key, iv, Cipher.ENCRYPT_MODE);
+	}
+	
+	@Override
+	public byte[] decryptAES(byte[] cipherText, byte[] key, byte[] iv)
+	{
+		return doAES(cipherText, key, iv, Cipher.DECRYPT_MODE);
+	}
+	
+	@Override
+	public byte[] sign(byte[] data, BigInteger privateKey)
+	{
+		try
+		{
+			Signature signer = Signature.getInstance(SIGNATURE_ALGORITHM, provider);
+			signer.initSign(new KeyConverter().reconstructPrivateKey(Secp256k1.toFieldElementBytes(privateKey)));
+			signer.update(data);
+			return signer.sign();
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new RuntimeException("GeneralSecurityException occurred in JCACryptoBackend.sign()", e);
+		}
+	}
+	
+	@Override
+	public boolean verify(byte[] data, byte[] signature, byte[] publicKey)
+	{
+		try
+		{
+			Signature verifier = Signature.getInstance(SIGNATURE_ALGORITHM, provider);
+			verifier.initVerify(new KeyConverter().reconstructPublicKey(publicKey));
+			verifier.update(data);
+			return verifier.verify(signature);
+		}
+		catch (GeneralSecurityException e)
+		{
+			// A malformed signature is reported as a SignatureException
+			return false;
+		}
+	}
+	
+	private static byte[] digest(String algorithm, Provider provider, byte[] data)
+	{
+		try
+		{
+			MessageDigest digest = (provider == null) ? MessageDigest.getInstance(algorithm) : MessageDigest.getInstance(algorithm, provider);
+			return digest.digest(data);
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new RuntimeException("GeneralSecurityException occurred in JCACryptoBackend.digest()", e);
+		}
+	}
+	
+	private static byte[] doAES(byte[] input, byte[] key, byte[] iv, int mode)
+	{
+		try
+		{
+			Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+			cipher.init(mode, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+			return cipher.doFinal(input);
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new RuntimeException("GeneralSecurityException occurred in JCACryptoBackend.doAES()", e);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,480 @@
+package org.bitseal.tests.crypt;
+
+/**
+ * A point on the secp256k1 curve in Jacobian coordinates, where the affine
+ * point is (X / Z^2, Y / Z^3). Working in Jacobian coordinates means that
+ * additions and doublings need no field inversions. Only the conversion back
+ * to affine coordinates needs one. <br><br>
+ * 
+ * Points are mutable: every operation overwrites this point with its result,
+ * using the temporary values held in a Scratch object. A multiplication can
+ * therefore be done with a fixed set of arrays, without creating any garbage.
+ * The point at infinity is represented by Z = 0.
+ * 
+ * @author Jonathan Coe
+ */
+final class JacobianPoint
+{
+	/**
+	 * Temporary field elements used by the point operations. A Scratch
+	 * object must not be used by more than one thread at a time.
+	 */
+	static final class Scratch
+	{
+		private static final int NUMBER_OF_TEMPORARIES = 12;
+		
+		final int[] wide = Secp256k1Field.createWide();
+		final int[][] t = new int[NUMBER_OF_TEMPORARIES][Secp256k1Field.LIMBS];
+		
+		/** The temporary values used by field inversions, kept apart from t so that an inversion does not overwrite them */
+		final int[][] inversion = new int[Secp256k1Field.INVERSION_TEMPORARIES][Secp256k1Field.LIMBS];
+	}
+	
+	final int[] x = Secp256k1Field.create();
+	final int[] y = Secp256k1Field.create();
+	final int[] z = Secp256k1Field.create();
+	
+	/**
+	 * Creates a new point, set to the point at infinity.
+	 */
+	JacobianPoint()
+	{
+		setInfinity();
+	}
+	
+	static JacobianPoint fromAffine(Secp256k1Point point)
+	{
+		JacobianPoint result = new JacobianPoint();
+		if (point.isInfinity() == false)
+		{
+			result.setAffine(point.x, point.y);
+		}
+		return result;
+	}
+	
+	boolean isInfinity()
+	{
+		return Secp256k1Field.isZero(z);
+	}
+	
+	void setInfinity()
+	{
+		Secp256k1Field.setInt(x, 1);
+		Secp256k1Field.setInt(y, 1);
+		Secp256k1Field.setInt(z, 0);
+	}
+	
+	void setAffine(int[] affineX, int[] affineY)
+	{
+		Secp256k1Field.copy(affineX, x);
+		Secp256k1Field.copy(affineY, y);
+		Secp256k1Field.setInt(z, 1);
+	}
+	
+	void set(JacobianPoint other)
+	{
+		Secp256k1Field.copy(other.x, x);
+		Secp256k1Field.copy(other.y, y);
+		Secp256k1Field.copy(other.z, z);
+	}
+	
+	void negate()
+	{
+		Secp256k1Field.negate(y, y);
+	}
+	
+	/**
+	 * Doubles this point, using the "dbl-2009-l" formulas for curves with a = 0.
+	 */
+	void twice(Scratch scratch)
+	{
+		if (isInfinity())
+		{
+			return;
+		}
+		if (Secp256k1Field.isZero(y))
+		{
+			setInfinity();
+			return;
+		}
+		int[] wide = scratch.wide;
+		int[] a = scratch.t[0];
+		int[] b = scratch.t[1];
+		int[] c = scratch.t[2];
+		int[] d = scratch.t[3];
+		int[] e = scratch.t[4];
+		int[] f = scratch.t[5];
+		
+		Secp256k1Field.square(x, a, wide);
+		Secp256k1Field.square(y, b, wide);
+		Secp256k1Field.square(b, c, wide);
+		
+		// D = 2 * ((X + B)^2 - A - C)
+		Secp256k1Field.add(x, b, d);
+		Secp256k1Field.square(d, d, wide);
+		Secp256k1Field.subtract(d, a, d);
+		Secp256k1Field.subtract(d, c, d);
+		Secp256k1Field.twice(d, d);
+		
+		// E = 3 * A, F = E^2
+		Secp256k1Field.twice(a, e);
+		Secp256k1Field.add(e, a, e);
+		Secp256k1Field.square(e, f, wide);
+		
+		// Z3 = 2 * Y * Z
+		Secp256k1Field.multiply(y, z, z, wide);
+		Secp256k1Field.twice(z, z);
+		
+		// X3 = F - 2 * D
+		Secp256k1Field.subtract(f, d, x);
+		Secp256k1Field.subtract(x, d, x);
+		
+		// Y3 = E * (D - X3) - 8 * C
+		Secp256k1Field.subtract(d, x, d);
+		Secp256k1Field.multiply(e, d, y, wide);
+		Secp256k1Field.twice(c, c);
+		Secp256k1Field.twice(c, c);
+		Secp256k1Field.twice(c, c);
+		Secp256k1Field.subtract(y, c, y);
+	}
+	
+	/**
+	 * Adds an affine point to this point, using the "madd-2007-bl" formulas.
+	 * 
+	 * @param x2 - The X coordinate of the affine point
+	 * @param y2 - The Y coordinate of the affine point
+	 * @param negate - Whether to add the negation of the affine point instead
+	 * @param scratch - The temporary values to use
+	 */
+	void addAffine(int[] x2, int[] y2, boolean negate, Scratch scratch)
+	{
+		int[] wide = scratch.wide;
+		int[] z1z1 = scratch.t[0];
+		int[] u2 = scratch.t[1];
+		int[] s2 = scratch.t[2];
+		int[] h = scratch.t[3];
+		int[] r = scratch.t[4];
+		int[] hh = scratch.t[5];
+		int[] i = scratch.t[6];
+		int[] j = scratch.t[7];
+		int[] v = scratch.t[8];
+		int[] otherY = scratch.t[9];
+		
+		if (negate)
+		{
+			Secp256k1Field.negate(y2, otherY);
+		}
+		else
+		{
+			Secp256k1Field.copy(y2, otherY);
+		}
+		if (isInfinity())
+		{
+			setAffine(x2, otherY);
+			return;
+		}
+		
+		Secp256k1Field.square(z, z1z1, wide);
+		Secp256k1Field.multiply(x2, z1z1, u2, wide);
+		Secp256k1Field.multiply(z, z1z1, s2, wide);
+		Secp256k1Field.multiply(otherY, s2, s2, wide);
+		Secp256k1Field.subtract(u2, x, h);
+		Secp256k1Field.subtract(s2, y, r);
+		Secp256k1Field.twice(r, r);
+		if (Secp256k1Field.isZero(h))
+		{
+			// Either the points are equal, or one is the negation of the other
+			if (Secp256k1Field.isZero(r))
+			{
+				twice(scratch);
+			}
+			else
+			{
+				setInfinity();
+			}
+			return;
+		}
+		
+		Secp256k1Field.square(h, hh, wide);
+		Secp256k1Field.twice(hh, i);
+		Secp256k1Field.twice(i, i);
+		Secp256k1Field.multiply(h, i, j, wide);
+		Secp256k1Field.multiply(x, i, v, wide);
+		
+		// Z3 = (Z1 + H)^2 - Z1Z1 - HH
+		Secp256k1Field.add(z, h, z);
+		Secp256k1Field.square(z, z, wide);
+		Secp256k1Field.subtract(z, z1z1, z);
+		Secp256k1Field.subtract(z, hh, z);
+		
+		// X3 = r^2 - J - 2 * V
+		Secp256k1Field.square(r, x, wide);
+		Secp256k1Field.subtract(x, j, x);
+		Secp256k1Field.subtract(x, v, x);
+		Secp256k1Field.subtract(x, v, x);
+		
+		// Y3 = r * (V - X3) - 2 * Y1 * J
+		Secp256k1Field.subtract(v, x, v);
+		Secp256k1Field.multiply(r, v, v, wide);
+		Secp256k1Field.multiply(y, j, j, wide);
+		Secp256k1Field.twice(j, j);
+		Secp256k1Field.subtract(v, j, y);
+	}
+	
+	/**
+	 * Adds another Jacobian point to this point, using the "add-2007-bl" formulas.
+	 * 
+	 * @param other - The point to add. It is not changed.
+	 * @param negate - Whether to add the negation of the other point instead
+	 * @param scratch - The temporary values to use
+	 */
+	void add(JacobianPoint other, boolean negate, Scratch scratch)
+	{
+		if (other.isInfinity())
+		{
+			return;
+		}
+		if (isInfinity())
+		{
+			set(other);
+			if (negate)
+			{
+				negate();
+			}
+			return;
+		}
+		if (other == this)
+		{
+			if (negate)
+			{
+				setInfinity();
+			}
+			else
+			{
+				twice(scratch);
+			}
+			return;
+		}
+		
+		int[] wide = scratch.wide;
+		int[] z1z1 = scratch.t[0];
+		int[] z2z2 = scratch.t[1];
+		int[] u1 = scratch.t[2];
+		int[] u2 = scratch.t[3];
+		int[] s1 = scratch.t[4];
+		int[] s2 = scratch.t[5];
+		int[] h = scratch.t[6];
+		int[] i = scratch.t[7];
+		int[] j = scratch.t[8];
+		int[] r = scratch.t[9];
+		int[] v = scratch.t[10];
+		
+		Secp256k1Field.square(z, z1z1, wide);
+		Secp256k1Field.square(other.z, z2z2, wide);
+		Secp256k1Field.multiply(x, z2z2, u1, wide);
+		Secp256k1Field.multiply(other.x, z1z1, u2, wide);
+		Secp256k1Field.multiply(other.z, z2z2, s1, wide);
+		Secp256k1Field.multiply(y, s1, s1, wide);
+		Secp256k1Field.multiply(z, z1z1, s2, wide);
+		Secp256k1Field.multiply(other.y, s2, s2, wide);
+		if (negate)
+		{
+			Secp256k1Field.negate(s2, s2);
+		}
+		Secp256k1Field.subtract(u2, u1, h);
+		Secp256k1Field.subtract(s2, s1, r);
+		Secp256k1Field.twice(r, r);
+		if (Secp256k1Field.isZero(h))
+		{
+			if (Secp256k1Field.isZero(r))
+			{
+				twice(scratch);
+			}
+			else
+			{
+				setInfinity();
+			}
+			return;
+		}
+		
+		Secp256k1Field.twice(h, i);
+		Secp256k1Field.square(i, i, wide);
+		Secp256k1Field.multiply(h, i, j, wide);
+		Secp256k1Field.multiply(u1, i, v, wide);
+		
+		// Z3 = ((Z1 + Z2)^2 - Z1Z1 - Z2Z2) * H
+		Secp256k1Field.add(z, other.z, z);
+		Secp256k1Field.square(z, z, wide);
+		Secp256k1Field.subtract(z, z1z1, z);
+		Secp256k1Field.subtract(z, z2z2, z);
+		Secp256k1Field.multiply(z, h, z, wide);
+		
+		// X3 = r^2 - J - 2 * V
+		Secp256k1Field.square(r, x, wide);
+		Secp256k1Field.subtract(x, j, x);
+		Secp256k1Field.subtract(x, v, x);
+		Secp256k1Field.subtract(x, v, x);
+		
+		// Y3 = r * (V - X3) - 2 * S1 * J
+		Secp256k1Field.subtract(v, x, v);
+		Secp256k1Field.multiply(r, v, v, wide);
+		Secp256k1Field.multiply(s1, j, j, wide);
+		Secp256k1Field.twice(j, j);
+		Secp256k1Field.subtract(v, j, y);
+	}
+	
+	/**
+	 * Converts a set of points to affine coordinates using a single field
+	 * inversion, rather than one inversion per point. <br><br>
+	 * 
+	 * This uses Montgomery's trick: the Z coordinates are multiplied together,
+	 * the product is inverted once, and the inverse of each Z is then recovered
+	 * with two multiplications per point. Points at infinity are allowed.
+	 * 
+	 * @param points - The points to convert. They are normalised in place.
+	 * @param scratch - The temporary values to use
+	 * 
+	 * @return A Secp256k1Point[] containing the affine points, in the same order
+	 */
+	static Secp256k1Point[] toAffine(JacobianPoint[] points, Scratch scratch)
+	{
+		normalise(points, scratch);
+		Secp256k1Point[] affinePoints = new Secp256k1Point[points.length];
+		for (int i = 0; i < points.length; i++)
+		{
+			if (points[i].isInfinity())
+			{
+				affinePoints[i] = Secp256k1Point.INFINITY;
+			}
+			else
+			{
+				int[] affineX = Secp256k1Field.create();
+				int[] affineY = Secp256k1Field.create();
+				Secp256k1Field.copy(points[i].x, affineX);
+				Secp256k1Field.copy(points[i].y, affineY);
+				affinePoints[i] = new Secp256k1Point(affineX, affineY);
+			}
+		}
+		return affinePoints;
+	}
+	
+	/**
+	 * Sets Z = 1 on every point in a set, using a single field inversion.
+	 * Afterwards the X and Y coordinates of each point are its affine
+	 * coordinates, so the points can be used with addAffine(). Points at
+	 * infinity are left unchanged.
+	 * 
+	 * @param points - The points to normalise
+	 * @param scratch - The temporary values to use
+	 */
+	static void normalise(JacobianPoint[] points, Scratch scratch)
+	{
+		normalise(points, new int[points.length][Secp256k1Field.LIMBS], scratch);
+	}
+	
+	/**
+	 * Sets Z = 1 on every point in a set, as normalise(JacobianPoint[], Scratch)
+	 * does, without allocating anything.
+	 * 
+	 * @param points - The points to normalise
+	 * @param prefixProducts - At least as many field elements as there are points, used to hold partial products
+	 * @param scratch - The temporary values to use
+	 */
+	static void normalise(JacobianPoint[] points, int[][] prefixProducts, Scratch scratch)
+	{
+		normalise(points, points.length, prefixProducts, scratch);
+	}
+	
+	/**
+	 * Sets Z = 1 on the first numberOfPoints points in an array, as
+	 * normalise(JacobianPoint[], Scratch) does, without allocating anything.
+	 * 
+	 * @param points - An array holding the points to normalise
+	 * @param numberOfPoints - The number of points at the start of the array to normalise
+	 * @param prefixProducts - At least numberOfPoints field elements, used to hold partial products
+	 * @param scratch - The temporary values to use
+	 */
+	static void normalise(JacobianPoint[] points, int numberOfPoints, int[][] prefixProducts, Scratch scratch)
+	{
+		int[] wide = scratch.wide;
+		
+		// prefixProducts[i] holds the product of the Z coordinates of the points before i
+		int[] product = scratch.t[9];
+		Secp256k1Field.setInt(product, 1);
+		for (int i = 0; i < numberOfPoints; i++)
+		{
+			Secp256k1Field.copy(product, prefixProducts[i]);
+			if (points[i].isInfinity() == false)
+			{
+				Secp256k1Field.multiply(product, points[i].z, product, wide);
+			}
+		}
+		
+		// Work backwards, peeling one Z off the inverted product at each step
+		int[] inverse = scratch.t[10];
+		Secp256k1Field.invert(product, inverse, scratch.inversion, wide);
+		int[] zInverse = scratch.t[11];
+		for (int i = numberOfPoints - 1; i >= 0; i--)
+		{
+			JacobianPoint point = points[i];
+			if (point.isInfinity())
+			{
+				continue;
+			}
+			Secp256k1Field.multiply(inverse, prefixProducts[i], zInverse, wide);
+			Secp256k1Field.multiply(inverse, point.z, inverse, wide);
+			point.scale(zInverse, scratch);
+		}
+	}
+	
+	/**
+	 * Divides X by Z^2 and Y by Z^3, and sets Z to 1.
+	 * 
+	 * @param zInverse - The inverse of this point's Z coordinate
+	 * @param scratch - The temporary values to use
+	 */
+	private void scale(int[] zInverse, Scratch scratch)
+	{
+		int[] zInverse2 = scratch.t[0];
+		Secp256k1Field.square(zInverse, zInverse2, scratch.wide);
+		Secp256k1Field.multiply(x, zInverse2, x, scratch.wide);
+		Secp256k1Field.multiply(zInverse2, zInverse, zInverse2, scratch.wide);
+		Secp256k1Field.multiply(y, zInverse2, y, scratch.wide);
+		Secp256k1Field.setInt(z, 1);
+	}
+	
+	Secp256k1Point toAffine()
+	{
+		return toAffine(new Scratch());
+	}
+	
+	Secp256k1Point toAffine(Scratch scratch)
+	{
+		if (isInfinity())
+		{
+			return Secp256k1Point.INFINITY;
+		}
+		int[] zInverse = scratch.t[11];
+		Secp256k1Field.invert(z, zInverse);
+		return toAffine(zInverse, scratch);
+	}
+	
+	/**
+	 * Converts this point to affine coordinates using an inverse of Z that
+	 * has already been calculated.
+	 * 
+	 * @param zInverse - The inverse of this point's Z coordinate
+	 * @param scratch - The temporary values to use
+	 */
+	Secp256k1Point toAffine(int[] zInverse, Scratch scratch)
+	{
+		int[] zInverse2 = scratch.t[0];
+		int[] affineX = Secp256k1Field.create();
+		int[] affineY = Secp256k1Field.create();
+		Secp256k1Field.square(zInverse, zInverse2, scratch.wide);
+		Secp256k1Field.multiply(x, zInverse2, affineX, scratch.wide);
+		Secp256k1Field.multiply(zInverse2, zInverse, zInverse2, scratch.wide);
+		Secp256k1Field.multiply(y, zInverse2, affineY, scratch.wide);
+		return new Secp256k1Point(affineX, affineY);
+	}
+}
\ No newline at end of file
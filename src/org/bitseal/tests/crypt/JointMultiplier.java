@@ -0,0 +1,219 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+
+/**
+ * Calculates u1 * G + u2 * Q in a single pass, which is the multiplication
+ * needed to verify an ECDSA signature. <br><br>
+ * 
+ * Rather than doing the two multiplications separately and adding the
+ * results, this interleaves them (Shamir's trick, or Straus' method): both
+ * scalars are split with the GLV endomorphism and recoded in width-w NAF,
+ * and the four half scalars then share one chain of about 128 doublings.
+ * <br><br>
+ * 
+ * G never changes, so its odd multiples are precomputed once, in a wider
+ * window than can be afforded for Q. This means fewer additions for the G
+ * half of the sum. The table of odd multiples of Q is built in the same way
+ * as in GLVMultiplier, and can be kept and reused for every signature made
+ * by the same key.
+ * 
+ * @author Jonathan Coe
+ */
+public final class JointMultiplier
+{
+	/** The width of the NAF used for the half scalars of u1 */
+	static final int G_WNAF_WIDTH = 8;
+	
+	/** The number of precomputed odd multiples of G: G, 3G, 5G ... 127G */
+	private static final int G_TABLE_SIZE = 1 << (G_WNAF_WIDTH - 2);
+	
+	private JointMultiplier()
+	{
+		// Not instantiable
+	}
+	
+	/**
+	 * Lazily builds the table of odd multiples of G, along with their images
+	 * under the endomorphism phi. The JVM guarantees that the table is built
+	 * exactly once, and that every thread sees the finished table.
+	 */
+	private static final class TableHolder
+	{
+		static final int[][] TABLE_X = new int[G_TABLE_SIZE][];
+		static final int[][] TABLE_Y = new int[G_TABLE_SIZE][];
+		static final int[][] TABLE_ENDOMORPHISM_X = new int[G_TABLE_SIZE][Secp256k1Field.LIMBS];
+		
+		static
+		{
+			JacobianPoint.Scratch scratch = new JacobianPoint.Scratch();
+			JacobianPoint[] multiples = GLVMultiplier.calculateOddMultiples(new Secp256k1Point[]{Secp256k1.G}, G_TABLE_SIZE, scratch);
+			JacobianPoint.normalise(multiples, scratch);
+			for (int i = 0; i < G_TABLE_SIZE; i++)
+			{
+				TABLE_X[i] = multiples[i].x;
+				TABLE_Y[i] = multiples[i].y;
+				Secp256k1Field.multiply(multiples[i].x, GLVMultiplier.BETA_ELEMENT, TABLE_ENDOMORPHISM_X[i], scratch.wide);
+			}
+		}
+		
+		/** Does nothing, but calling it causes the table to be built */
+		static void load()
+		{
+		}
+	}
+	
+	/**
+	 * Builds the precomputed table if it has not been built yet. Calling this
+	 * is optional, but it lets the one-off cost of building the table be paid
+	 * at a convenient time.
+	 */
+	public static void initialise()
+	{
+		TableHolder.load();
+	}
+	
+	/**
+	 * Calculates u1 * G + u2 * point.
+	 * 
+	 * @param u1 - The scalar to multiply G by. It is reduced modulo N.
+	 * @param u2 - The scalar to multiply the point by. It is reduced modulo N.
+	 * @param point - The point to multiply
+	 * 
+	 * @return A Secp256k1Point containing the result
+	 */
+	public static Secp256k1Point multiply(BigInteger u1, BigInteger u2, Secp256k1Point point)
+	{
+		JacobianPoint.Scratch scratch = new JacobianPoint.Scratch();
+		JacobianPoint result = new JacobianPoint();
+		multiply(u1, u2, point, result, scratch);
+		return result.toAffine(scratch);
+	}
+	
+	/**
+	 * The odd multiples of a point and their images under phi, in affine
+	 * coordinates. A table can be built once for a public key and then
+	 * shared by every multiplication involving that key. Once built, a table
+	 * is only read, so it may be shared between threads.
+	 */
+	static final class PointTable
+	{
+		final int[][] x = new int[GLVMultiplier.TABLE_SIZE][];
+		final int[][] y = new int[GLVMultiplier.TABLE_SIZE][];
+		final int[][] endomorphismX = new int[GLVMultiplier.TABLE_SIZE][Secp256k1Field.LIMBS];
+		
+		private PointTable()
+		{
+		}
+		
+		/**
+		 * Builds the tables for a set of points, converting all of them to
+		 * affine coordinates with a single field inversion.
+		 * 
+		 * @param points - The points. None of them may be the point at infinity.
+		 * @param scratch - The temporary values to use
+		 * 
+		 * @return A PointTable[] holding the table for each point, in the same order
+		 */
+		static PointTable[] create(Secp256k1Point[] points, JacobianPoint.Scratch scratch)
+		{
+			for (Secp256k1Point point : points)
+			{
+				if (point.isInfinity())
+				{
+					throw new IllegalArgumentException("A point table cannot be built for the point at infinity");
+				}
+			}
+			JacobianPoint[] multiples = GLVMultiplier.calculateOddMultiples(points, GLVMultiplier.TABLE_SIZE, scratch);
+			JacobianPoint.normalise(multiples, scratch);
+			PointTable[] tables = new PointTable[points.length];
+			for (int p = 0; p < points.length; p++)
+			{
+				PointTable table = new PointTable();
+				for (int i = 0; i < GLVMultiplier.TABLE_SIZE; i++)
+				{
+					JacobianPoint multiple = multiples[p * GLVMultiplier.TABLE_SIZE + i];
+					table.x[i] = multiple.x;
+					table.y[i] = multiple.y;
+					Secp256k1Field.multiply(multiple.x, GLVMultiplier.BETA_ELEMENT, table.endomorphismX[i], scratch.wide);
+				}
+				tables[p] = table;
+			}
+			return tables;
+		}
+	}
+	
+	/**
+	 * Calculates u1 * G + u2 * point, leaving the result in Jacobian
+	 * coordinates so that a caller which only needs to compare the X
+	 * coordinate does not pay for an inversion.
+	 * 
+	 * @param u1 - The scalar to multiply G by
+	 * @param u2 - The scalar to multiply the point by
+	 * @param point - The point to multiply
+	 * @param result - The point to write the result into
+	 * @param scratch - The temporary values to use
+	 */
+	static void multiply(BigInteger u1, BigInteger u2, Secp256k1Point point, JacobianPoint result, JacobianPoint.Scratch scratch)
+	{
+		PointTable table = point.isInfinity() ? null : PointTable.create(new Secp256k1Point[]{point}, scratch)[0];
+		multiply(u1, u2, table, result, scratch);
+	}
+	
+	/**
+	 * Calculates u1 * G + u2 * Q, using a table of multiples of Q which was
+	 * built in advance.
+	 * 
+	 * @param u1 - The scalar to multiply G by
+	 * @param u2 - The scalar to multiply Q by
+	 * @param table - The PointTable for Q, or null if Q is the point at infinity
+	 * @param result - The point to write the result into
+	 * @param scratch - The temporary values to use
+	 */
+	static void multiply(BigInteger u1, BigInteger u2, PointTable table, JacobianPoint result, JacobianPoint.Scratch scratch)
+	{
+		result.setInfinity();
+		BigInteger gScalar = u1.mod(Secp256k1.N);
+		BigInteger pointScalar = (table == null) ? BigInteger.ZERO : u2.mod(Secp256k1.N);
+		
+		BigInteger[] gHalves = GLVMultiplier.splitScalar(gScalar);
+		byte[] gNaf1 = GLVMultiplier.calculateWNAF(gHalves[0].abs(), G_WNAF_WIDTH);
+		byte[] gNaf2 = GLVMultiplier.calculateWNAF(gHalves[1].abs(), G_WNAF_WIDTH);
+		boolean gNegate1 = gHalves[0].signum() < 0;
+		boolean gNegate2 = gHalves[1].signum() < 0;
+		
+		BigInteger[] pointHalves = GLVMultiplier.splitScalar(pointScalar);
+		byte[] pointNaf1 = GLVMultiplier.calculateWNAF(pointHalves[0].abs(), GLVMultiplier.WNAF_WIDTH);
+		byte[] pointNaf2 = GLVMultiplier.calculateWNAF(pointHalves[1].abs(), GLVMultiplier.WNAF_WIDTH);
+		boolean pointNegate1 = pointHalves[0].signum() < 0;
+		boolean pointNegate2 = pointHalves[1].signum() < 0;
+		
+		int[][] gX = TableHolder.TABLE_X;
+		int[][] gY = TableHolder.TABLE_Y;
+		int[][] gEndomorphismX = TableHolder.TABLE_ENDOMORPHISM_X;
+		int length = Math.max(Math.max(gNaf1.length, gNaf2.length), Math.max(pointNaf1.length, pointNaf2.length));
+		for (int i = length - 1; i >= 0; i--)
+		{
+			result.twice(scratch);
+			addDigit(result, gNaf1, i, gNegate1, gX, gY, scratch);
+			addDigit(result, gNaf2, i, gNegate2, gEndomorphismX, gY, scratch);
+			if (table != null)
+			{
+				addDigit(result, pointNaf1, i, pointNegate1, table.x, table.y, scratch);
+				addDigit(result, pointNaf2, i, pointNegate2, table.endomorphismX, table.y, scratch);
+			}
+		}
+	}
+	
+	/**
+	 * Adds the multiple of a point given by one digit of a NAF, if that digit is not zero.
+	 */
+	private static void addDigit(JacobianPoint result, byte[] naf, int i, boolean negate, int[][] tableX, int[][] tableY, JacobianPoint.Scratch scratch)
+	{
+		if (i < naf.length && naf[i] != 0)
+		{
+			int index = (Math.abs(naf[i]) - 1) >> 1;
+			result.addAffine(tableX[index], tableY[index], (naf[i] < 0) != negate, scratch);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,151 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import org.bitseal.util.ArrayCopier;
+import org.spongycastle.asn1.sec.SECNamedCurves;
+import org.spongycastle.asn1.x9.X9ECParameters;
+import org.spongycastle.crypto.BufferedBlockCipher;
+import org.spongycastle.crypto.Digest;
+import org.spongycastle.crypto.InvalidCipherTextException;
+import org.spongycastle.crypto.digests.RIPEMD160Digest;
+import org.spongycastle.crypto.digests.SHA1Digest;
+import org.spongycastle.crypto.digests.SHA256Digest;
+import org.spongycastle.crypto.digests.SHA512Digest;
+import org.spongycastle.crypto.engines.AESEngine;
+import org.spongycastle.crypto.macs.HMac;
+import org.spongycastle.crypto.modes.CBCBlockCipher;
+import org.spongycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.spongycastle.crypto.params.ECDomainParameters;
+import org.spongycastle.crypto.params.ECPrivateKeyParameters;
+import org.spongycastle.crypto.params.ECPublicKeyParameters;
+import org.spongycastle.crypto.params.KeyParameter;
+import org.spongycastle.crypto.params.ParametersWithIV;
+import org.spongycastle.crypto.params.ParametersWithRandom;
+import org.spongycastle.crypto.signers.ECDSASigner;
+
+/**
+ * A CryptoBackend which uses SpongyCastle's lightweight API. The digest,
+ * MAC, cipher and signer engines are created directly, so there is no
+ * provider lookup, no key spec conversion and no service object on any
+ * call. <br><br>
+ * 
+ * The engines are not thread safe, so each call creates its own. They are
+ * plain objects, and much cheaper to create than their JCA wrappers.
+ * 
+ * @author Jonathan Coe
+ */
+public class LightweightCryptoBackend implements CryptoBackend
+{
+	private static final ECDomainParameters DOMAIN;
+	
+	static
+	{
+		X9ECParameters curve = SECNamedCurves.getByName("secp256k1");
+		DOMAIN = new ECDomainParameters(curve.getCurve(), curve.getG(), curve.getN(), curve.getH());
+	}
+	
+	private final SecureRandom secRand = new SecureRandom();
+	
+	@Override
+	public String getName()
+	{
+		return "Lightweight";
+	}
+	
+	@Override
+	public byte[] sha256(byte[] data)
+	{
+		return digest(new SHA256Digest(), data);
+	}
+	
+	@Override
+	public byte[] sha512(byte[] data)
+	{
+		return digest(new SHA512Digest(), data);
+	}
+	
+	@Override
+	public byte[] ripemd160(byte[] data)
+	{
+		return digest(new RIPEMD160Digest(), data);
+	}
+	
+	@Override
+	public byte[] hmacSHA256(byte[] data, byte[] key)
+	{
+		HMac mac = new HMac(new SHA256Digest());
+		mac.init(new KeyParameter(key));
+		mac.update(data, 0, data.length);
+		byte[] result = new byte[mac.getMacSize()];
+		mac.doFinal(result, 0);
+		return result;
+	}
+	
+	@Override
+	public byte[] encryptAES(byte[] plainText, byte[] key, byte[] iv)
+	{
+		return doAES(plainText, key, iv, true);
+	}
+	
+	@Override
+	public byte[] decryptAES(byte[] cipherText, byte[] key, byte[] iv)
+	{
+		return doAES(cipherText, key, iv, false);
+	}
+	
+	@Override
+	public byte[] sign(byte[] data, BigInteger privateKey)
+	{
+		ECDSASigner signer = new ECDSASigner();
+		signer.init(true, new ParametersWithRandom(new ECPrivateKeyParameters(privateKey, DOMAIN), secRand));
+		BigInteger[] rs = signer.generateSignature(digest(new SHA1Digest(), data));
+		return ECDSAProcessor.encodeSignature(rs[0], rs[1]);
+	}
+	
+	@Override
+	public boolean verify(byte[] data, byte[] signature, byte[] publicKey)
+	{
+		BigInteger[] rs = ECDSAProcessor.decodeSignature(signature);
+		if (rs == null)
+		{
+			return false;
+		}
+		ECDSASigner verifier = new ECDSASigner();
+		verifier.init(false, new ECPublicKeyParameters(DOMAIN.getCurve().decodePoint(publicKey), DOMAIN));
+		return verifier.verifySignature(digest(new SHA1Digest(), data), rs[0], rs[1]);
+	}
+	
+	private static byte[] digest(Digest digest, byte[] data)
+	{
+		digest.update(data, 0, data.length);
+		byte[] result = new byte[digest.getDigestSize()];
+		digest.doFinal(result, 0);
+		return result;
+	}
+	
+	private static byte[] doAES(byte[] input, byte[] key, byte[] iv, boolean encrypt)
+	{
+		// PaddedBufferedBlockCipher uses PKCS#7 padding by default, which is the same as the JCA's PKCS5Padding for AES
+		BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESEngine()));
+		cipher.init(encrypt, new ParametersWithIV(new KeyParameter(key), iv));
+		byte[] output = new byte[cipher.getOutputSize(input.length)];
+		try
+		{
+			int length = cipher.processBytes(input, 0, input.length, output, 0);
+			length += cipher.doFinal(output, length);
+			if (length == output.length)
+			{
+				return output;
+			}
+			
+			// When decrypting, the output size is only an upper bound, as the padding has not been read yet
+			return ArrayCopier.copyOfRange(output, 0, length);
+		}
+		catch (InvalidCipherTextException e)
+		{
+			throw new RuntimeException("InvalidCipherTextException occurred in LightweightCryptoBackend.doAES()", e);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,180 @@
+package org.bitseal.tests.crypt;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * A bounded pool of single-use values which are expensive to compute, such
+ * as ephemeral keys and signing nonces. <br><br>
+ * 
+ * The values can be generated in advance on a low priority background
+ * thread, so that they are made while the app is otherwise idle. Each value
+ * is removed from the pool when it is taken, so no value is ever handed out
+ * twice. If the pool is empty, take() generates a value inline rather than
+ * waiting. The number of hits and misses is recorded so that the capacity of
+ * the pool can be tuned.
+ * 
+ * @param <T> - The type of value held in the pool
+ * 
+ * @author Jonathan Coe
+ */
+public abstract class PrecomputedPool<T>
+{
+	private static final String TAG = "PRECOMPUTED_POOL";
+	
+	private final ArrayBlockingQueue<T> pool;
+	private final int capacity;
+	private final String threadName;
+	
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+	
+	private Thread fillerThread;
+	private volatile boolean stopped = false;
+	
+	/**
+	 * Creates a new PrecomputedPool. The pool is empty until start() or
+	 * fill() is called.
+	 * 
+	 * @param capacity - The maximum number of values to hold
+	 * @param threadName - The name to give the background thread
+	 */
+	protected PrecomputedPool(int capacity, String threadName)
+	{
+		if (capacity < 1)
+		{
+			throw new IllegalArgumentException("The capacity of a precomputed pool must be at least 1");
+		}
+		this.capacity = capacity;
+		this.threadName = threadName;
+		this.pool = new ArrayBlockingQueue<T>(capacity);
+	}
+	
+	/**
+	 * Generates a new value. This must be safe to call from more than one
+	 * thread at once.
+	 * 
+	 * @return The new value
+	 */
+	protected abstract T generate();
+	
+	/**
+	 * Starts keeping the pool full on a background thread. The thread runs at
+	 * the lowest priority, and blocks while the pool is full.
+	 */
+	public synchronized void start()
+	{
+		if (fillerThread != null)
+		{
+			throw new IllegalStateException("The pool has already been started");
+		}
+		stopped = false;
+		fillerThread = new Thread(threadName)
+		{
+			@Override
+			public void run()
+			{
+				keepFull();
+			}
+		};
+		fillerThread.setDaemon(true);
+		fillerThread.setPriority(Thread.MIN_PRIORITY);
+		fillerThread.start();
+	}
+	
+	/**
+	 * Stops the background thread. Values already in the pool can still be taken.
+	 */
+	public synchronized void stop()
+	{
+		stopped = true;
+		if (fillerThread != null)
+		{
+			fillerThread.interrupt();
+			fillerThread = null;
+		}
+	}
+	
+	/**
+	 * Fills the pool on the calling thread. This can be used instead of
+	 * start(), for example from a task that already runs during idle time.
+	 */
+	public void fill()
+	{
+		while (pool.remainingCapacity() > 0)
+		{
+			if (pool.offer(generate()) == false)
+			{
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Takes a value from the pool, or generates one inline if the pool is empty.
+	 * 
+	 * @return A value that has never been handed out before
+	 */
+	public T take()
+	{
+		T value = pool.poll();
+		if (value == null)
+		{
+			misses.incrementAndGet();
+			return generate();
+		}
+		hits.incrementAndGet();
+		return value;
+	}
+	
+	/**
+	 * Returns the number of values that were taken from the pool.
+	 */
+	public long getHits()
+	{
+		return hits.get();
+	}
+	
+	/**
+	 * Returns the number of values that had to be generated inline because the pool was empty.
+	 */
+	public long getMisses()
+	{
+		return misses.get();
+	}
+	
+	/**
+	 * Returns the number of values currently in the pool.
+	 */
+	public int getSize()
+	{
+		return pool.size();
+	}
+	
+	public int getCapacity()
+	{
+		return capacity;
+	}
+	
+	private void keepFull()
+	{
+		while (stopped == false)
+		{
+			try
+			{
+				pool.put(generate());
+			}
+			catch (InterruptedException e)
+			{
+				if (stopped == false)
+				{
+					Log.e(TAG, "InterruptedException occurred in PrecomputedPool.keepFull(). \n" +
+							"The exception message was: " + e.getMessage());
+				}
+				return;
+			}
+		}
+	}
+}
\ No newline at end of file
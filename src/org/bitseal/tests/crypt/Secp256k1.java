@@ -0,0 +1,96 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+/**
+ * Holds the domain parameters of the secp256k1 curve, y^2 = x^3 + 7 over
+ * the prime field of order P, which is the curve used by Bitmessage.
+ * 
+ * @author Jonathan Coe
+ */
+public final class Secp256k1
+{
+	/** The order of the underlying prime field */
+	public static final BigInteger P = new BigInteger("fffffffffffffffffffffffffffffffffffffffffffffffffffffffefffffc2f", 16);
+	
+	/** The order of the generator point */
+	public static final BigInteger N = new BigInteger("fffffffffffffffffffffffffffffffebaaedce6af48a03bbfd25e8cd0364141", 16);
+	
+	/** The constant term of the curve equation */
+	public static final BigInteger B = BigInteger.valueOf(7);
+	
+	/** The generator point */
+	public static final Secp256k1Point G = new Secp256k1Point(
+			new BigInteger("79be667ef9dcbbac55a06295ce870b07029bfcdb2dce28d959f2815b16f81798", 16),
+			new BigInteger("483ada7726a3c4655da4fbfc0e1108a8fd17b448a68554199c47d08ffb10d4b8", 16));
+	
+	/** The length in bytes of a field element or scalar */
+	public static final int FIELD_ELEMENT_LENGTH = 32;
+	
+	private Secp256k1()
+	{
+		// Not instantiable
+	}
+	
+	/**
+	 * Generates a random private key between 1 and N - 1.
+	 * 
+	 * @param secRand - The SecureRandom to take the random bits from
+	 * 
+	 * @return A BigInteger containing the private key
+	 */
+	public static BigInteger generatePrivateKey(SecureRandom secRand)
+	{
+		BigInteger privateKey;
+		do
+		{
+			privateKey = new BigInteger(256, secRand);
+		}
+		while (privateKey.signum() == 0 || privateKey.compareTo(N) >= 0);
+		return privateKey;
+	}
+	
+	/**
+	 * Writes a non-negative BigInteger into a 32 byte big-endian array,
+	 * padding it with leading zeros where necessary.
+	 * 
+	 * @param value - The value to encode. Must be less than 2^256.
+	 * 
+	 * @return A byte[] of length 32 containing the encoded value
+	 */
+	static byte[] toFieldElementBytes(BigInteger value)
+	{
+		byte[] encoded = new byte[FIELD_ELEMENT_LENGTH];
+		writeFieldElementBytes(value, encoded, 0);
+		return encoded;
+	}
+	
+	/**
+	 * Writes a non-negative BigInteger into a byte[] as 32 big-endian bytes,
+	 * padding it with leading zeros where necessary.
+	 * 
+	 * @param value - The value to encode. Must be less than 2^256.
+	 * @param destination - The byte[] to write the value into
+	 * @param offset - The offset in the destination array at which to start writing
+	 */
+	static void writeFieldElementBytes(BigInteger value, byte[] destination, int offset)
+	{
+		byte[] bytes = value.toByteArray();
+		int length = bytes.length;
+		int start = 0;
+		
+		// BigInteger.toByteArray() adds a leading zero byte when the top bit is set
+		if (length > FIELD_ELEMENT_LENGTH)
+		{
+			start = length - FIELD_ELEMENT_LENGTH;
+			length = FIELD_ELEMENT_LENGTH;
+		}
+		int padding = FIELD_ELEMENT_LENGTH - length;
+		for (int i = 0; i < padding; i++)
+		{
+			destination[offset + i] = 0;
+		}
+		System.arraycopy(bytes, start, destination, offset + padding, length);
+	}
+}
\ No newline at end of file
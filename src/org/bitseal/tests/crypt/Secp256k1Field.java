@@ -0,0 +1,447 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Arithmetic in the secp256k1 prime field, on elements held as eight
+ * 32 bit limbs, least significant limb first. <br><br>
+ * 
+ * Every method writes its result into an array supplied by the caller, and
+ * none of them allocate, apart from inversion. This means that point
+ * arithmetic does not create any garbage. The output array may be the same
+ * as one of the inputs. Multiplication and squaring need a 16 limb scratch
+ * array for the double-length product. <br><br>
+ * 
+ * All results are fully reduced, so two elements are equal exactly when
+ * their limbs are equal. Reduction uses the special form of the prime,
+ * P = 2^256 - 2^32 - 977, so that 2^256 = 2^32 + 977 (mod P).
+ * 
+ * @author Jonathan Coe
+ */
+final class Secp256k1Field
+{
+	/** The number of 32 bit limbs in a field element */
+	static final int LIMBS = 8;
+	
+	/** The number of limbs in a double-length product */
+	static final int WIDE_LIMBS = 2 * LIMBS;
+	
+	private static final long M = 0xFFFFFFFFL;
+	
+	/** The low part of 2^256 mod P, which is 2^32 + 977 */
+	private static final long REDUCTION_LOW = 977;
+	
+	private static final int[] P = new int[]{0xFFFFFC2F, 0xFFFFFFFE, -1, -1, -1, -1, -1, -1};
+	
+	private static final int[] ZERO = new int[LIMBS];
+	
+	/** The number of temporary field elements needed by invert() */
+	static final int INVERSION_TEMPORARIES = 7;
+	
+	private Secp256k1Field()
+	{
+		// Not instantiable
+	}
+	
+	static int[] create()
+	{
+		return new int[LIMBS];
+	}
+	
+	static int[] createWide()
+	{
+		return new int[WIDE_LIMBS];
+	}
+	
+	static void copy(int[] x, int[] z)
+	{
+		System.arraycopy(x, 0, z, 0, LIMBS);
+	}
+	
+	static void setInt(int[] z, int value)
+	{
+		z[0] = value;
+		for (int i = 1; i < LIMBS; i++)
+		{
+			z[i] = 0;
+		}
+	}
+	
+	static boolean isZero(int[] x)
+	{
+		int bits = 0;
+		for (int i = 0; i < LIMBS; i++)
+		{
+			bits |= x[i];
+		}
+		return bits == 0;
+	}
+	
+	static boolean equals(int[] x, int[] y)
+	{
+		int difference = 0;
+		for (int i = 0; i < LIMBS; i++)
+		{
+			difference |= x[i] ^ y[i];
+		}
+		return difference == 0;
+	}
+	
+	/**
+	 * Returns true if x is a fully reduced field element, that is if x < P.
+	 */
+	static boolean isValid(int[] x)
+	{
+		return compare(x, P) < 0;
+	}
+	
+	/**
+	 * z = x + y (mod P)
+	 */
+	static void add(int[] x, int[] y, int[] z)
+	{
+		long c = 0;
+		for (int i = 0; i < LIMBS; i++)
+		{
+			c += (x[i] & M) + (y[i] & M);
+			z[i] = (int) c;
+			c >>>= 32;
+		}
+		if (c != 0)
+		{
+			addReduction(z);
+		}
+		reduceOnce(z);
+	}
+	
+	/**
+	 * z = x - y (mod P)
+	 */
+	static void subtract(int[] x, int[] y, int[] z)
+	{
+		long c = 0;
+		for (int i = 0; i < LIMBS; i++)
+		{
+			c += (x[i] & M) - (y[i] & M);
+			z[i] = (int) c;
+			c >>= 32;
+		}
+		if (c != 0)
+		{
+			// The result went below zero, so add P, which is the same as subtracting 2^32 + 977 modulo 2^256
+			c = (z[0] & M) - REDUCTION_LOW;
+			z[0] = (int) c;
+			c >>= 32;
+			c += (z[1] & M) - 1;
+			z[1] = (int) c;
+			c >>= 32;
+			for (int i = 2; i < LIMBS && c != 0; i++)
+			{
+				c += z[i] & M;
+				z[i] = (int) c;
+				c >>= 32;
+			}
+		}
+	}
+	
+	/**
+	 * z = -x (mod P)
+	 */
+	static void negate(int[] x, int[] z)
+	{
+		subtract(ZERO, x, z);
+	}
+	
+	/**
+	 * z = 2 * x (mod P)
+	 */
+	static void twice(int[] x, int[] z)
+	{
+		add(x, x, z);
+	}
+	
+	/**
+	 * z = x * y (mod P)
+	 * 
+	 * @param wide - A scratch array of WIDE_LIMBS limbs
+	 */
+	static void multiply(int[] x, int[] y, int[] z, int[] wide)
+	{
+		long c = 0;
+		long x0 = x[0] & M;
+		for (int j = 0; j < LIMBS; j++)
+		{
+			c += x0 * (y[j] & M);
+			wide[j] = (int) c;
+			c >>>= 32;
+		}
+		wide[LIMBS] = (int) c;
+		
+		for (int i = 1; i < LIMBS; i++)
+		{
+			c = 0;
+			long xi = x[i] & M;
+			for (int j = 0; j < LIMBS; j++)
+			{
+				// The sum is at most (2^32 - 1)^2 + 2 * (2^32 - 1) = 2^64 - 1, so it fits in an unsigned long
+				c += xi * (y[j] & M) + (wide[i + j] & M);
+				wide[i + j] = (int) c;
+				c >>>= 32;
+			}
+			wide[i + LIMBS] = (int) c;
+		}
+		reduceWide(wide, z);
+	}
+	
+	/**
+	 * z = x^2 (mod P)
+	 * 
+	 * @param wide - A scratch array of WIDE_LIMBS limbs
+	 */
+	static void square(int[] x, int[] z, int[] wide)
+	{
+		multiply(x, x, z, wide);
+	}
+	
+	/**
+	 * z = x^(2^n) (mod P)
+	 */
+	private static void squareN(int[] x, int n, int[] z, int[] wide)
+	{
+		square(x, z, wide);
+		for (int i = 1; i < n; i++)
+		{
+			square(z, z, wide);
+		}
+	}
+	
+	/**
+	 * z = 1 / x (mod P), calculated as x^(P - 2). x must not be zero. <br><br>
+	 * 
+	 * This uses the same addition chain as libsecp256k1: 255 squarings and
+	 * 15 multiplications. Unlike the other methods, it allocates its own
+	 * temporary values, because it is usually only called once per conversion
+	 * to affine coordinates.
+	 */
+	static void invert(int[] x, int[] z)
+	{
+		int[][] temporaries = new int[INVERSION_TEMPORARIES][LIMBS];
+		invert(x, z, temporaries, createWide());
+	}
+	
+	/**
+	 * z = 1 / x (mod P), using the given temporary values instead of allocating
+	 * them. This is for callers which do an inversion for every item they process.
+	 * 
+	 * @param x - The element to invert, which must not be zero
+	 * @param z - The array to write the inverse into
+	 * @param temporaries - At least INVERSION_TEMPORARIES field elements, none of which may be x or z
+	 * @param wide - A wide temporary value
+	 */
+	static void invert(int[] x, int[] z, int[][] temporaries, int[] wide)
+	{
+		int[] x2 = temporaries[0];
+		int[] x3 = temporaries[1];
+		int[] x6 = temporaries[2];
+		int[] x11 = temporaries[3];
+		int[] x22 = temporaries[4];
+		int[] x44 = temporaries[5];
+		int[] t = temporaries[6];
+		
+		// xN holds x^(2^N - 1)
+		square(x, x2, wide);
+		multiply(x2, x, x2, wide);
+		square(x2, x3, wide);
+		multiply(x3, x, x3, wide);
+		squareN(x3, 3, x6, wide);
+		multiply(x6, x3, x6, wide);
+		squareN(x6, 3, t, wide);
+		multiply(t, x3, t, wide);
+		squareN(t, 2, x11, wide);
+		multiply(x11, x2, x11, wide);
+		squareN(x11, 11, x22, wide);
+		multiply(x22, x11, x22, wide);
+		squareN(x22, 22, x44, wide);
+		multiply(x44, x22, x44, wide);
+		squareN(x44, 44, t, wide);
+		multiply(t, x44, t, wide);
+		int[] x88 = x6;
+		copy(t, x88);
+		squareN(x88, 88, t, wide);
+		multiply(t, x88, t, wide);
+		squareN(t, 44, t, wide);
+		multiply(t, x44, t, wide);
+		squareN(t, 3, t, wide);
+		multiply(t, x3, t, wide);
+		
+		// t now holds x^(2^223 - 1). The remaining steps follow the bit pattern of the low limbs of P - 2.
+		squareN(t, 23, t, wide);
+		multiply(t, x22, t, wide);
+		squareN(t, 5, t, wide);
+		multiply(t, x, t, wide);
+		squareN(t, 3, t, wide);
+		multiply(t, x2, t, wide);
+		squareN(t, 2, t, wide);
+		multiply(t, x, z, wide);
+	}
+	
+	/**
+	 * Reads a field element from a big-endian byte array. The value is not
+	 * reduced, so callers reading untrusted data should check it with isValid().
+	 * 
+	 * @param data - The byte[] to read from
+	 * @param offset - The offset of the first byte
+	 * @param length - The number of bytes to read, at most 32
+	 * @param z - The array to write the limbs into
+	 */
+	static void fromBytes(byte[] data, int offset, int length, int[] z)
+	{
+		setInt(z, 0);
+		for (int i = 0; i < length; i++)
+		{
+			int bytePosition = length - 1 - i;
+			z[i >>> 2] |= (data[offset + bytePosition] & 0xFF) << ((i & 3) << 3);
+		}
+	}
+	
+	/**
+	 * Reads a field element from big-endian bytes held in a ByteBuffer,
+	 * using absolute positions so that the buffer is not changed.
+	 * 
+	 * @param buffer - The ByteBuffer to read from
+	 * @param index - The position of the first byte
+	 * @param length - The number of bytes to read, at most 32
+	 * @param z - The array to write the limbs into
+	 */
+	static void fromBytes(ByteBuffer buffer, int index, int length, int[] z)
+	{
+		setInt(z, 0);
+		for (int i = 0; i < length; i++)
+		{
+			int bytePosition = length - 1 - i;
+			z[i >>> 2] |= (buffer.get(index + bytePosition) & 0xFF) << ((i & 3) << 3);
+		}
+	}
+	
+	/**
+	 * Writes a field element into a byte array as 32 big-endian bytes.
+	 */
+	static void toBytes(int[] x, byte[] data, int offset)
+	{
+		for (int i = 0; i < LIMBS; i++)
+		{
+			int limb = x[LIMBS - 1 - i];
+			int position = offset + (i << 2);
+			data[position] = (byte) (limb >>> 24);
+			data[position + 1] = (byte) (limb >>> 16);
+			data[position + 2] = (byte) (limb >>> 8);
+			data[position + 3] = (byte) limb;
+		}
+	}
+	
+	static int[] fromBigInteger(BigInteger value)
+	{
+		if (value.signum() < 0 || value.compareTo(Secp256k1.P) >= 0)
+		{
+			throw new IllegalArgumentException("The supplied value is not an element of the secp256k1 field");
+		}
+		int[] z = create();
+		fromBytes(Secp256k1.toFieldElementBytes(value), 0, Secp256k1.FIELD_ELEMENT_LENGTH, z);
+		return z;
+	}
+	
+	static BigInteger toBigInteger(int[] x)
+	{
+		byte[] bytes = new byte[Secp256k1.FIELD_ELEMENT_LENGTH];
+		toBytes(x, bytes, 0);
+		return new BigInteger(1, bytes);
+	}
+	
+	/**
+	 * Reduces a double-length product modulo P.
+	 */
+	private static void reduceWide(int[] wide, int[] z)
+	{
+		// Fold the high half in: low + high * 977 + (high << 32)
+		long c = 0;
+		for (int i = 0; i < LIMBS; i++)
+		{
+			long high = wide[i + LIMBS] & M;
+			c += (wide[i] & M) + high * REDUCTION_LOW;
+			if (i > 0)
+			{
+				c += wide[i + LIMBS - 1] & M;
+			}
+			z[i] = (int) c;
+			c >>>= 32;
+		}
+		c += wide[WIDE_LIMBS - 1] & M;
+		
+		// c is now a small multiple of 2^256, so fold it in again
+		long overflow = c;
+		c = (z[0] & M) + overflow * REDUCTION_LOW;
+		z[0] = (int) c;
+		c >>>= 32;
+		c += (z[1] & M) + overflow;
+		z[1] = (int) c;
+		c >>>= 32;
+		for (int i = 2; i < LIMBS && c != 0; i++)
+		{
+			c += z[i] & M;
+			z[i] = (int) c;
+			c >>>= 32;
+		}
+		if (c != 0)
+		{
+			addReduction(z);
+		}
+		reduceOnce(z);
+	}
+	
+	/**
+	 * Adds 2^32 + 977 to z, ignoring the final carry. This is used to take
+	 * away 2^256 from a value that overflowed, while adding the equivalent
+	 * amount modulo P.
+	 */
+	private static void addReduction(int[] z)
+	{
+		long c = (z[0] & M) + REDUCTION_LOW;
+		z[0] = (int) c;
+		c >>>= 32;
+		c += (z[1] & M) + 1;
+		z[1] = (int) c;
+		c >>>= 32;
+		for (int i = 2; i < LIMBS && c != 0; i++)
+		{
+			c += z[i] & M;
+			z[i] = (int) c;
+			c >>>= 32;
+		}
+	}
+	
+	/**
+	 * Subtracts P from z if z >= P. z must be less than 2P.
+	 */
+	private static void reduceOnce(int[] z)
+	{
+		if (compare(z, P) >= 0)
+		{
+			addReduction(z);
+		}
+	}
+	
+	private static int compare(int[] x, int[] y)
+	{
+		for (int i = LIMBS - 1; i >= 0; i--)
+		{
+			long xi = x[i] & M;
+			long yi = y[i] & M;
+			if (xi != yi)
+			{
+				return xi < yi ? -1 : 1;
+			}
+		}
+		return 0;
+	}
+}
\ No newline at end of file
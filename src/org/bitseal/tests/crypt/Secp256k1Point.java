@@ -0,0 +1,292 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import org.bitseal.crypt.KeyConverter;
+import org.spongycastle.jce.interfaces.ECPublicKey;
+import org.spongycastle.math.ec.ECPoint;
+
+/**
+ * An immutable point on the secp256k1 curve, held in affine coordinates.
+ * Points are converted to and from the 65 byte uncompressed encoding
+ * (0x04 || X || Y) used for public keys in Bitmessage, and to and from
+ * the SpongyCastle ECPoint and ECPublicKey objects used elsewhere in Bitseal.
+ * 
+ * @author Jonathan Coe
+ */
+public final class Secp256k1Point
+{
+	/** The length in bytes of an uncompressed point encoding */
+	public static final int ENCODED_LENGTH = 65;
+	
+	/** The first byte of an uncompressed point encoding */
+	private static final byte UNCOMPRESSED_PREFIX = 0x04;
+	
+	/** The point at infinity, which is the identity element of the curve group */
+	public static final Secp256k1Point INFINITY = new Secp256k1Point();
+	
+	/** The coordinates, as field elements. Both are null for the point at infinity. */
+	final int[] x;
+	final int[] y;
+	
+	private Secp256k1Point()
+	{
+		x = null;
+		y = null;
+	}
+	
+	/**
+	 * Creates a point from field elements that are already known to describe
+	 * a point on the curve. The arrays must not be changed afterwards.
+	 */
+	Secp256k1Point(int[] x, int[] y)
+	{
+		this.x = x;
+		this.y = y;
+	}
+	
+	/**
+	 * Creates a point from coordinates that are already known to be on the
+	 * curve. Use fromCoordinates() or decode() for untrusted input.
+	 */
+	Secp256k1Point(BigInteger x, BigInteger y)
+	{
+		this(Secp256k1Field.fromBigInteger(x), Secp256k1Field.fromBigInteger(y));
+	}
+	
+	/**
+	 * Creates a point from a pair of affine coordinates, checking that they
+	 * describe a point on the curve.
+	 * 
+	 * @param x - The X coordinate
+	 * @param y - The Y coordinate
+	 * 
+	 * @return A Secp256k1Point with the given coordinates
+	 */
+	public static Secp256k1Point fromCoordinates(BigInteger x, BigInteger y)
+	{
+		return validate(Secp256k1Field.fromBigInteger(x), Secp256k1Field.fromBigInteger(y));
+	}
+	
+	/**
+	 * Decodes a point from the 65 byte uncompressed encoding, checking that
+	 * it describes a point on the curve.
+	 * 
+	 * @param encoded - A byte[] containing the encoded point
+	 * 
+	 * @return A Secp256k1Point
+	 */
+	public static Secp256k1Point decode(byte[] encoded)
+	{
+		return decode(encoded, 0);
+	}
+	
+	/**
+	 * Decodes a point from the 65 byte uncompressed encoding, starting at
+	 * the given offset in a larger array.
+	 * 
+	 * @param data - A byte[] containing the encoded point
+	 * @param offset - The offset at which the encoded point starts
+	 * 
+	 * @return A Secp256k1Point
+	 */
+	public static Secp256k1Point decode(byte[] data, int offset)
+	{
+		if (data.length - offset < ENCODED_LENGTH)
+		{
+			throw new IllegalArgumentException("An encoded point must be " + ENCODED_LENGTH + " bytes long. Only " + (data.length - offset) + " bytes were supplied.");
+		}
+		if (data[offset] != UNCOMPRESSED_PREFIX)
+		{
+			throw new IllegalArgumentException("Only uncompressed point encodings are supported. The prefix byte was " + data[offset]);
+		}
+		int[] x = Secp256k1Field.create();
+		int[] y = Secp256k1Field.create();
+		Secp256k1Field.fromBytes(data, offset + 1, Secp256k1.FIELD_ELEMENT_LENGTH, x);
+		Secp256k1Field.fromBytes(data, offset + 33, Secp256k1.FIELD_ELEMENT_LENGTH, y);
+		return validate(x, y);
+	}
+	
+	/**
+	 * Converts a SpongyCastle ECPoint into a Secp256k1Point.
+	 * 
+	 * @param point - The ECPoint to convert. It must be on the secp256k1 curve.
+	 * 
+	 * @return A Secp256k1Point
+	 */
+	public static Secp256k1Point fromECPoint(ECPoint point)
+	{
+		if (point.isInfinity())
+		{
+			return INFINITY;
+		}
+		return fromCoordinates(point.getX().toBigInteger(), point.getY().toBigInteger());
+	}
+	
+	/**
+	 * Converts a public key created by KeyConverter into a Secp256k1Point.
+	 * 
+	 * @param publicKey - The ECPublicKey to convert
+	 * 
+	 * @return A Secp256k1Point
+	 */
+	public static Secp256k1Point fromPublicKey(ECPublicKey publicKey)
+	{
+		return fromECPoint(publicKey.getQ());
+	}
+	
+	/**
+	 * Converts this point into an ECPublicKey, using KeyConverter.
+	 * 
+	 * @return An ECPublicKey for this point
+	 */
+	public ECPublicKey toPublicKey()
+	{
+		return new KeyConverter().reconstructPublicKey(getEncoded());
+	}
+	
+	public boolean isInfinity()
+	{
+		return x == null;
+	}
+	
+	public BigInteger getX()
+	{
+		checkNotInfinity();
+		return Secp256k1Field.toBigInteger(x);
+	}
+	
+	public BigInteger getY()
+	{
+		checkNotInfinity();
+		return Secp256k1Field.toBigInteger(y);
+	}
+	
+	/**
+	 * Returns the X coordinate as a 32 byte big-endian array, which is the
+	 * form used as the ECDH shared secret.
+	 * 
+	 * @return A byte[] of length 32
+	 */
+	public byte[] getEncodedX()
+	{
+		checkNotInfinity();
+		byte[] encoded = new byte[Secp256k1.FIELD_ELEMENT_LENGTH];
+		Secp256k1Field.toBytes(x, encoded, 0);
+		return encoded;
+	}
+	
+	/**
+	 * Returns the 65 byte uncompressed encoding of this point.
+	 * 
+	 * @return A byte[] containing the encoded point
+	 */
+	public byte[] getEncoded()
+	{
+		checkNotInfinity();
+		byte[] encoded = new byte[ENCODED_LENGTH];
+		encoded[0] = UNCOMPRESSED_PREFIX;
+		Secp256k1Field.toBytes(x, encoded, 1);
+		Secp256k1Field.toBytes(y, encoded, 33);
+		return encoded;
+	}
+	
+	public Secp256k1Point negate()
+	{
+		if (isInfinity())
+		{
+			return this;
+		}
+		int[] negatedY = Secp256k1Field.create();
+		Secp256k1Field.negate(y, negatedY);
+		return new Secp256k1Point(x, negatedY);
+	}
+	
+	@Override
+	public boolean equals(Object other)
+	{
+		if (this == other)
+		{
+			return true;
+		}
+		if ((other instanceof Secp256k1Point) == false)
+		{
+			return false;
+		}
+		Secp256k1Point point = (Secp256k1Point) other;
+		if (isInfinity() || point.isInfinity())
+		{
+			return isInfinity() && point.isInfinity();
+		}
+		return Arrays.equals(x, point.x) && Arrays.equals(y, point.y);
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		if (isInfinity())
+		{
+			return 0;
+		}
+		return 31 * Arrays.hashCode(x) + Arrays.hashCode(y);
+	}
+	
+	/**
+	 * Checks that a pair of field elements describe a point on the curve,
+	 * y^2 = x^3 + 7.
+	 */
+	private static Secp256k1Point validate(int[] x, int[] y)
+	{
+		if (Secp256k1Field.isValid(x) == false || Secp256k1Field.isValid(y) == false)
+		{
+			throw new IllegalArgumentException("The supplied coordinates are not elements of the secp256k1 field");
+		}
+		if (isOnCurve(x, y) == false)
+		{
+			throw new IllegalArgumentException("The supplied coordinates do not describe a point on the secp256k1 curve");
+		}
+		return new Secp256k1Point(x, y);
+	}
+	
+	/**
+	 * Creates a point from a pair of field elements read from untrusted data,
+	 * without throwing an exception if they are not valid. This is used on
+	 * paths where invalid input is expected and must be rejected cheaply.
+	 * 
+	 * @param x - The X coordinate. The array must not be changed afterwards.
+	 * @param y - The Y coordinate. The array must not be changed afterwards.
+	 * 
+	 * @return A Secp256k1Point, or null if the coordinates do not describe a point on the curve
+	 */
+	static Secp256k1Point tryCreate(int[] x, int[] y)
+	{
+		if (Secp256k1Field.isValid(x) == false || Secp256k1Field.isValid(y) == false || isOnCurve(x, y) == false)
+		{
+			return null;
+		}
+		return new Secp256k1Point(x, y);
+	}
+	
+	private static boolean isOnCurve(int[] x, int[] y)
+	{
+		int[] wide = Secp256k1Field.createWide();
+		int[] left = Secp256k1Field.create();
+		int[] right = Secp256k1Field.create();
+		int[] seven = Secp256k1Field.create();
+		Secp256k1Field.setInt(seven, 7);
+		Secp256k1Field.square(y, left, wide);
+		Secp256k1Field.square(x, right, wide);
+		Secp256k1Field.multiply(right, x, right, wide);
+		Secp256k1Field.add(right, seven, right);
+		return Secp256k1Field.equals(left, right);
+	}
+	
+	private void checkNotInfinity()
+	{
+		if (isInfinity())
+		{
+			throw new IllegalStateException("The point at infinity has no affine coordinates");
+		}
+	}
+}
\ No newline at end of file
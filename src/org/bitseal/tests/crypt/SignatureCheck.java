@@ -0,0 +1,43 @@
+package org.bitseal.tests.crypt;
+
+/**
+ * A signature to be verified as part of a batch, together with the data it
+ * should sign and the public signing key it should have been made with.
+ * 
+ * @author Jonathan Coe
+ */
+public final class SignatureCheck
+{
+	private final byte[] data;
+	private final byte[] signature;
+	private final byte[] publicSigningKey;
+	
+	/**
+	 * Creates a new SignatureCheck.
+	 * 
+	 * @param data - The data that was signed
+	 * @param signature - The DER encoded signature
+	 * @param publicSigningKey - The public signing key, in the 65 byte encoding stored in a Pubkey
+	 */
+	public SignatureCheck(byte[] data, byte[] signature, byte[] publicSigningKey)
+	{
+		this.data = data;
+		this.signature = signature;
+		this.publicSigningKey = publicSigningKey;
+	}
+	
+	public byte[] getData()
+	{
+		return data;
+	}
+	
+	public byte[] getSignature()
+	{
+		return signature;
+	}
+	
+	public byte[] getPublicSigningKey()
+	{
+		return publicSigningKey;
+	}
+}
\ No newline at end of file
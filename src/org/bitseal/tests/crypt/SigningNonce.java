@@ -0,0 +1,70 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The part of an ECDSA signature which does not depend on the message or
+ * the private key: the nonce k, its inverse modulo N, and r = (k * G).x mod N.
+ * It must be used for exactly one signature, since two signatures made with
+ * the same nonce reveal the private key.
+ * 
+ * @author Jonathan Coe
+ */
+public final class SigningNonce
+{
+	private final BigInteger kInverse;
+	private final BigInteger r;
+	
+	private final AtomicBoolean used = new AtomicBoolean(false);
+	
+	private SigningNonce(BigInteger kInverse, BigInteger r)
+	{
+		this.kInverse = kInverse;
+		this.r = r;
+	}
+	
+	/**
+	 * Generates a new signing nonce.
+	 * 
+	 * @param secRand - The SecureRandom to generate k with
+	 * 
+	 * @return A new SigningNonce
+	 */
+	static SigningNonce generate(SecureRandom secRand)
+	{
+		while (true)
+		{
+			BigInteger k = Secp256k1.generatePrivateKey(secRand);
+			BigInteger r = FixedBaseMultiplier.multiplyG(k).getX().mod(Secp256k1.N);
+			if (r.signum() != 0)
+			{
+				return new SigningNonce(k.modInverse(Secp256k1.N), r);
+			}
+		}
+	}
+	
+	/**
+	 * Marks this nonce as used. Each nonce may only be handed out once.
+	 * 
+	 * @throws IllegalStateException if the nonce has already been used
+	 */
+	void markUsed()
+	{
+		if (used.compareAndSet(false, true) == false)
+		{
+			throw new IllegalStateException("A signing nonce must never be used for more than one signature");
+		}
+	}
+	
+	BigInteger getKInverse()
+	{
+		return kInverse;
+	}
+	
+	BigInteger getR()
+	{
+		return r;
+	}
+}
\ No newline at end of file
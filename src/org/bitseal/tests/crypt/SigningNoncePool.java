@@ -0,0 +1,57 @@
+package org.bitseal.tests.crypt;
+
+import java.security.SecureRandom;
+
+/**
+ * A bounded pool of pre-generated ECDSA signing nonces. <br><br>
+ * 
+ * Generating a nonce is a point multiplication k * G, which is almost all of
+ * the cost of making a signature. With the nonces generated in advance,
+ * signing a pubkey or msg only takes a few operations modulo N. Each nonce is
+ * marked as used when it is taken, so that it can never be used for a second
+ * signature.
+ * 
+ * @author Jonathan Coe
+ */
+public class SigningNoncePool extends PrecomputedPool<SigningNonce>
+{
+	public static final int DEFAULT_CAPACITY = 16;
+	
+	private final SecureRandom secRand = new SecureRandom();
+	
+	public SigningNoncePool()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * Creates a new SigningNoncePool. The pool is empty until start() or
+	 * fill() is called.
+	 * 
+	 * @param capacity - The maximum number of nonces to hold
+	 */
+	public SigningNoncePool(int capacity)
+	{
+		super(capacity, "SigningNoncePoolFiller");
+	}
+	
+	/**
+	 * Takes a signing nonce from the pool, or generates one inline if the
+	 * pool is empty. The nonce must only be used for one signature.
+	 * 
+	 * @return A SigningNonce that has never been handed out before
+	 */
+	@Override
+	public SigningNonce take()
+	{
+		SigningNonce nonce = super.take();
+		nonce.markUsed();
+		return nonce;
+	}
+	
+	@Override
+	protected SigningNonce generate()
+	{
+		return SigningNonce.generate(secRand);
+	}
+}
\ No newline at end of file
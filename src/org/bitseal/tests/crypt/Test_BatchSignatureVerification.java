@@ -0,0 +1,147 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import android.util.Log;
+
+/**
+ * Tests that batch signature verification gives the same result for each
+ * signature as verifying it on its own, and compares the time taken.
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_BatchSignatureVerification extends TestCase
+{
+	private static final int NUMBER_OF_SIGNERS = 10;
+	private static final int SIGNATURES_PER_SIGNER = 20;
+	private static final int DATA_LENGTH = 200;
+	
+	/** The number of workers used to test the threaded path, even on a device with a single core */
+	private static final int NUMBER_OF_WORKERS = 4;
+	
+	private static final String TAG = "TEST_BATCH_SIGNATURE_VERIFICATION";
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testBatchSignatureVerification()
+	{
+		ArrayList<SignatureCheck> checks = createChecks();
+		
+		// Add some checks with a public key that is not on the curve, a malformed signature and an empty batch
+		byte[] invalidKey = checks.get(0).getPublicSigningKey().clone();
+		invalidKey[64] ^= 0x01;
+		checks.add(new SignatureCheck(checks.get(0).getData(), checks.get(0).getSignature(), invalidKey));
+		checks.add(new SignatureCheck(checks.get(1).getData(), checks.get(1).getSignature(), invalidKey));
+		checks.add(new SignatureCheck(checks.get(2).getData(), new byte[]{0x30, 0x00}, checks.get(2).getPublicSigningKey()));
+		
+		// Checks which are null, are missing a field or have a key of the wrong length must fail without stopping the rest of the batch
+		ArrayList<SignatureCheck> incompleteChecks = new ArrayList<SignatureCheck>();
+		incompleteChecks.add(null);
+		incompleteChecks.add(new SignatureCheck(checks.get(3).getData(), checks.get(3).getSignature(), null));
+		incompleteChecks.add(new SignatureCheck(null, checks.get(3).getSignature(), checks.get(3).getPublicSigningKey()));
+		incompleteChecks.add(new SignatureCheck(checks.get(3).getData(), null, checks.get(3).getPublicSigningKey()));
+		incompleteChecks.add(new SignatureCheck(checks.get(3).getData(), checks.get(3).getSignature(), new byte[0]));
+		byte[] longKey = new byte[Secp256k1Point.ENCODED_LENGTH + 1];
+		System.arraycopy(checks.get(3).getPublicSigningKey(), 0, longKey, 0, Secp256k1Point.ENCODED_LENGTH);
+		incompleteChecks.add(new SignatureCheck(checks.get(3).getData(), checks.get(3).getSignature(), longKey));
+		checks.addAll(0, incompleteChecks);
+		
+		ECDSAProcessor ecdsaProc = new ECDSAProcessor();
+		BitSet valid = ecdsaProc.verifyBatch(checks, NUMBER_OF_WORKERS);
+		BitSet singleThreadValid = ecdsaProc.verifyBatch(checks, 1);
+		assertTrue(valid.nextSetBit(0) >= incompleteChecks.size());
+		assertTrue(singleThreadValid.nextSetBit(0) >= incompleteChecks.size());
+		for (int i = incompleteChecks.size(); i < checks.size(); i++)
+		{
+			SignatureCheck check = checks.get(i);
+			boolean expected = false;
+			try
+			{
+				expected = ecdsaProc.verify(check.getData(), check.getSignature(), Secp256k1Point.decode(check.getPublicSigningKey()));
+			}
+			catch (IllegalArgumentException e)
+			{
+				// The public key is not on the curve
+			}
+			assertEquals(expected, valid.get(i));
+			assertEquals(expected, singleThreadValid.get(i));
+		}
+		assertFalse(valid.get(checks.size() - 1));
+		assertFalse(valid.get(checks.size() - 2));
+		assertFalse(valid.get(checks.size() - 3));
+		
+		assertTrue(ecdsaProc.verifyBatch(new ArrayList<SignatureCheck>()).isEmpty());
+	}
+	
+	public void testVerificationTimes()
+	{
+		ArrayList<SignatureCheck> checks = createChecks();
+		ECDSAProcessor ecdsaProc = new ECDSAProcessor();
+		JointMultiplier.initialise();
+		
+		long singleStartTime = System.nanoTime();
+		for (SignatureCheck check : checks)
+		{
+			ecdsaProc.verify(check.getData(), check.getSignature(), Secp256k1Point.decode(check.getPublicSigningKey()));
+		}
+		long singleTime = System.nanoTime() - singleStartTime;
+		
+		long batchStartTime = System.nanoTime();
+		BitSet valid = ecdsaProc.verifyBatch(checks, 1);
+		long batchTime = System.nanoTime() - batchStartTime;
+		
+		long parallelStartTime = System.nanoTime();
+		BitSet parallelValid = ecdsaProc.verifyBatch(checks);
+		long parallelTime = System.nanoTime() - parallelStartTime;
+		
+		assertEquals(valid, parallelValid);
+		Log.i(TAG, "Time taken to verify " + checks.size() + " signatures one at a time:                " + (singleTime / 1000000) + " milliseconds");
+		Log.i(TAG, "Time taken to verify " + checks.size() + " signatures in a batch with 1 worker:     " + (batchTime / 1000000) + " milliseconds");
+		Log.i(TAG, "Time taken to verify " + checks.size() + " signatures in a batch with " + Runtime.getRuntime().availableProcessors() + " workers: " + (parallelTime / 1000000) + " milliseconds");
+	}
+	
+	/**
+	 * Creates a shuffled batch of checks from several signers, in which every fifth signature is invalid.
+	 */
+	private ArrayList<SignatureCheck> createChecks()
+	{
+		SecureRandom secRand = new SecureRandom();
+		SigningNoncePool pool = new SigningNoncePool(NUMBER_OF_SIGNERS * SIGNATURES_PER_SIGNER);
+		pool.fill();
+		ECDSAProcessor ecdsaProc = new ECDSAProcessor(pool);
+		ArrayList<SignatureCheck> checks = new ArrayList<SignatureCheck>();
+		for (int i = 0; i < NUMBER_OF_SIGNERS; i++)
+		{
+			BigInteger privateKey = Secp256k1.generatePrivateKey(secRand);
+			byte[] publicKey = FixedBaseMultiplier.calculatePublicKey(privateKey);
+			for (int j = 0; j < SIGNATURES_PER_SIGNER; j++)
+			{
+				byte[] data = new byte[DATA_LENGTH];
+				secRand.nextBytes(data);
+				byte[] signature = ecdsaProc.sign(data, privateKey);
+				if ((i * SIGNATURES_PER_SIGNER + j) % 5 == 0)
+				{
+					data[0] ^= 0x01;
+				}
+				// Give each check its own copy of the key, as it would have if it had been read from a payload
+				checks.add(new SignatureCheck(data, signature, publicKey.clone()));
+			}
+		}
+		Collections.shuffle(checks, secRand);
+		return checks;
+	}
+}
\ No newline at end of file
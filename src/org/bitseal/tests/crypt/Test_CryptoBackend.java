@@ -0,0 +1,156 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.bitseal.util.ArrayCopier;
+import org.bitseal.util.ByteFormatter;
+
+import android.util.Log;
+
+/**
+ * Runs the known answer tests from the other crypt tests against every
+ * CryptoBackend, checks that the backends accept each other's output, and
+ * checks that FastestCryptoBackend makes a choice for every primitive.
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_CryptoBackend extends TestCase
+{
+	private static final int NUMBER_OF_RANDOM_INPUTS = 20;
+	
+	/** The standard test vectors for the message "abc" */
+	private static final String ABC_HEX = "616263";
+	private static final String SHA256_ABC_HEX = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+	private static final String SHA512_ABC_HEX = "ddaf35a193617abacc417349ae20413112e6fa4e89a97ea20a9eeee64b55d39a2192992a274fc1a836ba3c23a3feebbd454d4423643ce80e2a9ac94fa54ca49f";
+	private static final String RIPEMD160_ABC_HEX = "8eb208f7e05d987a9b044a8e98c6b087f15a0bfc";
+	
+	/** Data taken from Test_EncryptionSpecific */
+	private static final String SHARED_SECRET_X_HEX = "0db8e3ad8c0cd73fa2b34671b7b247729b101141579d199e0dc0bd024eaefd89";
+	private static final String KEY_E_HEX = "170543828267867105263d4828efff82d9d59cbf08743b696bcc5d69fa1897b4";
+	private static final String KEY_M_HEX = "f83f1e9cc5d6b8448d39dc6a9d5f5b7f460e4a78e9286ee8d91ce1660a53eacd";
+	
+	/** Data taken from Test_DecryptionSpecific, split into the parts of the encrypted payload */
+	private static final String IV_HEX = "bddb7c2829b08038753084a2f3991681";
+	private static final String HEADER_HEX = IV_HEX + "02ca" + "0020" + "0293213dcf1388b61c2ae5cf80fee6ffffc049a2f9fe7365fe3867813ca81292"
+			+ "0020" + "df94686c6afb565ac6149b153d61b3b287ee2c7f997c14238796c12b43a3865a";
+	private static final String CIPHER_TEXT_HEX = "64203d5b24688e2547bba345fa139a5a1d962220d4d48a0cf3b1572c0d95b61643a6f9a0d75af7eacc1bd957147bf723";
+	private static final String MAC_HEX = "f2526d61b4851fb23409863826fd206165edc021368c7946571cead69046e619";
+	private static final String PRIVATE_KEY_K_HEX = "02ba2744e65ccd7b1954b0a33b80d75e16cab47f2b331ff0b6d184b71983da85";
+	private static final String PLAIN_TEXT_HEX = "54686520717569636b2062726f776e20666f78206a756d7073206f76657220746865206c617a7920646f672e";
+	
+	private static final String TAG = "TEST_CRYPTO_BACKEND";
+	
+	private final CryptoBackend[] backends = new CryptoBackend[]{new JCACryptoBackend(), new LightweightCryptoBackend()};
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testHashes()
+	{
+		byte[] abc = ByteFormatter.hexStringToByteArray(ABC_HEX);
+		for (CryptoBackend backend : backends)
+		{
+			assertEquals(SHA256_ABC_HEX, ByteFormatter.byteArrayToHexString(backend.sha256(abc)));
+			assertEquals(SHA512_ABC_HEX, ByteFormatter.byteArrayToHexString(backend.sha512(abc)));
+			assertEquals(RIPEMD160_ABC_HEX, ByteFormatter.byteArrayToHexString(backend.ripemd160(abc)));
+			assertEquals(KEY_E_HEX + KEY_M_HEX, ByteFormatter.byteArrayToHexString(backend.sha512(ByteFormatter.hexStringToByteArray(SHARED_SECRET_X_HEX))));
+		}
+	}
+	
+	public void testDecryptionSpecific()
+	{
+		byte[] encryptedPayload = ByteFormatter.hexStringToByteArray(HEADER_HEX + CIPHER_TEXT_HEX + MAC_HEX);
+		EncryptedPayloadView view = EncryptedPayloadView.parse(encryptedPayload, 0, encryptedPayload.length);
+		byte[] key = new ECIESProcessor().deriveKey(view.getR(), new BigInteger(PRIVATE_KEY_K_HEX, 16));
+		byte[] keyE = ArrayCopier.copyOfRange(key, 0, 32);
+		byte[] keyM = ArrayCopier.copyOfRange(key, 32, 64);
+		byte[] authenticatedData = ByteFormatter.hexStringToByteArray(HEADER_HEX + CIPHER_TEXT_HEX);
+		byte[] cipherText = ByteFormatter.hexStringToByteArray(CIPHER_TEXT_HEX);
+		byte[] iv = ByteFormatter.hexStringToByteArray(IV_HEX);
+		for (CryptoBackend backend : backends)
+		{
+			assertEquals(MAC_HEX, ByteFormatter.byteArrayToHexString(backend.hmacSHA256(authenticatedData, keyM)));
+			assertEquals(PLAIN_TEXT_HEX, ByteFormatter.byteArrayToHexString(backend.decryptAES(cipherText, keyE, iv)));
+			assertEquals(CIPHER_TEXT_HEX, ByteFormatter.byteArrayToHexString(backend.encryptAES(ByteFormatter.hexStringToByteArray(PLAIN_TEXT_HEX), keyE, iv)));
+		}
+	}
+	
+	public void testBackendsAgree()
+	{
+		SecureRandom secRand = new SecureRandom();
+		for (int i = 0; i < NUMBER_OF_RANDOM_INPUTS; i++)
+		{
+			// Include empty data and data which is a whole number of AES blocks
+			byte[] data = new byte[(i < 2) ? i * 32 : secRand.nextInt(300)];
+			secRand.nextBytes(data);
+			byte[] key = new byte[32];
+			secRand.nextBytes(key);
+			byte[] iv = new byte[16];
+			secRand.nextBytes(iv);
+			for (CryptoBackend backend : backends)
+			{
+				for (CryptoBackend other : backends)
+				{
+					assertTrue(Arrays.equals(backend.sha256(data), other.sha256(data)));
+					assertTrue(Arrays.equals(backend.sha512(data), other.sha512(data)));
+					assertTrue(Arrays.equals(backend.ripemd160(data), other.ripemd160(data)));
+					assertTrue(Arrays.equals(backend.hmacSHA256(data, key), other.hmacSHA256(data, key)));
+					assertTrue(Arrays.equals(data, other.decryptAES(backend.encryptAES(data, key, iv), key, iv)));
+				}
+			}
+		}
+	}
+	
+	public void testSignatures()
+	{
+		SecureRandom secRand = new SecureRandom();
+		ECDSAProcessor ecdsaProc = new ECDSAProcessor();
+		for (int i = 0; i < NUMBER_OF_RANDOM_INPUTS; i++)
+		{
+			BigInteger d = Secp256k1.generatePrivateKey(secRand);
+			byte[] publicKey = FixedBaseMultiplier.calculatePublicKey(d);
+			byte[] data = new byte[secRand.nextInt(300) + 1];
+			secRand.nextBytes(data);
+			byte[] otherData = data.clone();
+			otherData[0] ^= 0x01;
+			for (CryptoBackend backend : backends)
+			{
+				// Each signature must be accepted by every backend, and by ECDSAProcessor
+				byte[] signature = backend.sign(data, d);
+				assertTrue(ecdsaProc.verify(data, signature, Secp256k1Point.decode(publicKey)));
+				for (CryptoBackend other : backends)
+				{
+					assertTrue(other.verify(data, signature, publicKey));
+					assertFalse(other.verify(otherData, signature, publicKey));
+					assertFalse(other.verify(data, new byte[]{0x30, 0x00}, publicKey));
+				}
+			}
+		}
+	}
+	
+	public void testSelection()
+	{
+		FastestCryptoBackend fastest = FastestCryptoBackend.select(backends);
+		for (FastestCryptoBackend.Primitive primitive : FastestCryptoBackend.Primitive.values())
+		{
+			assertNotNull(fastest.getChoice(primitive));
+		}
+		Log.i(TAG, "Selected backend: " + fastest.getName());
+		
+		byte[] abc = ByteFormatter.hexStringToByteArray(ABC_HEX);
+		assertEquals(SHA256_ABC_HEX, ByteFormatter.byteArrayToHexString(fastest.sha256(abc)));
+		BigInteger d = Secp256k1.generatePrivateKey(new SecureRandom());
+		assertTrue(fastest.verify(abc, fastest.sign(abc, d), FixedBaseMultiplier.calculatePublicKey(d)));
+	}
+}
\ No newline at end of file
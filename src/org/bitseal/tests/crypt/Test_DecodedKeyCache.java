@@ -0,0 +1,239 @@
+package org.bitseal.tests.crypt;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.bitseal.crypt.KeyConverter;
+import org.bitseal.data.Address;
+import org.bitseal.util.ByteFormatter;
+import org.spongycastle.jce.interfaces.ECPrivateKey;
+import org.spongycastle.jce.interfaces.ECPublicKey;
+
+import android.util.Log;
+
+/**
+ * Tests that DecodedKeyCache returns the same keys as KeyConverter, that it
+ * evicts the least recently used keys, and that invalidating an address
+ * removes its keys, even while they are being decoded.
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_DecodedKeyCache extends TestCase
+{
+	private static final int NUMBER_OF_TIMED_DECODES = 200;
+	
+	/** Data taken from Test_SignatureSpecific */
+	private static final String PRIVATE_SIGNING_KEY_WIF = "5HynQJefWMVXbkft2RB9tkLJ3EWk4UgsbFg1CAsNN5DEHtw9tTR";
+	private static final String PUBLIC_SIGNING_KEY_HEX = "04eac9804fced9771b5b43135de14a5290a8b5628770358eb51e881d2a9ad8d77cc2e63eafb7ac6073866838b42663f8e8eabccafa42a1c039d1141ffbf365d7b5";
+	
+	/** The private key r from Test_EncryptionSpecific, in Wallet Import Format */
+	private static final String PRIVATE_ENCRYPTION_KEY_WIF = "5JWm6qjESMTsKriJtioHnpSnbxj86eLtzLQmpagakMCDmPzk4QZ";
+	
+	/** An unrelated private key, used to fill the cache */
+	private static final String OTHER_PRIVATE_KEY_WIF = "5KVx7mE9y6pzmum9tYGMyTB7X92fjGZPBCesqsZprpxeVjR3N1c";
+	
+	private static final String TAG = "TEST_DECODED_KEY_CACHE";
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testDecodedKeys()
+	{
+		KeyConverter keyConv = new KeyConverter();
+		DecodedKeyCache cache = new DecodedKeyCache(DecodedKeyCache.DEFAULT_CAPACITY);
+		byte[] publicKey = ByteFormatter.hexStringToByteArray(PUBLIC_SIGNING_KEY_HEX);
+		
+		ECPrivateKey privateKey = cache.decodePrivateKeyFromWIF(PRIVATE_SIGNING_KEY_WIF);
+		assertEquals(keyConv.decodePrivateKeyFromWIF(PRIVATE_SIGNING_KEY_WIF).getD(), privateKey.getD());
+		ECPublicKey ecPublicKey = cache.reconstructPublicKey(publicKey);
+		assertEquals(keyConv.reconstructPublicKey(publicKey).getQ(), ecPublicKey.getQ());
+		assertEquals(2, cache.getMisses());
+		
+		// The second time, the same objects should come from the cache, even if the caller has changed its copy of the bytes
+		assertSame(privateKey, cache.decodePrivateKeyFromWIF(PRIVATE_SIGNING_KEY_WIF));
+		assertSame(ecPublicKey, cache.reconstructPublicKey(publicKey.clone()));
+		publicKey[1] ^= 0x01;
+		assertSame(ecPublicKey, cache.reconstructPublicKey(ByteFormatter.hexStringToByteArray(PUBLIC_SIGNING_KEY_HEX)));
+		assertEquals(3, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(2, cache.getSize());
+	}
+	
+	public void testEviction()
+	{
+		DecodedKeyCache cache = new DecodedKeyCache(1);
+		ECPrivateKey signingKey = cache.decodePrivateKeyFromWIF(PRIVATE_SIGNING_KEY_WIF);
+		cache.decodePrivateKeyFromWIF(PRIVATE_ENCRYPTION_KEY_WIF);
+		assertEquals(1, cache.getSize());
+		assertNotSame(signingKey, cache.decodePrivateKeyFromWIF(PRIVATE_SIGNING_KEY_WIF));
+		assertEquals(3, cache.getMisses());
+		
+		// Reading a key should make it the most recently used, so the other key is evicted instead
+		cache = new DecodedKeyCache(2);
+		signingKey = cache.decodePrivateKeyFromWIF(PRIVATE_SIGNING_KEY_WIF);
+		ECPrivateKey encryptionKey = cache.decodePrivateKeyFromWIF(PRIVATE_ENCRYPTION_KEY_WIF);
+		cache.decodePrivateKeyFromWIF(PRIVATE_SIGNING_KEY_WIF);
+		cache.decodePrivateKeyFromWIF(OTHER_PRIVATE_KEY_WIF);
+		assertSame(signingKey, cache.decodePrivateKeyFromWIF(PRIVATE_SIGNING_KEY_WIF));
+		assertNotSame(encryptionKey, cache.decodePrivateKeyFromWIF(PRIVATE_ENCRYPTION_KEY_WIF));
+	}
+	
+	public void testInvalidate()
+	{
+		DecodedKeyCache cache = new DecodedKeyCache(DecodedKeyCache.DEFAULT_CAPACITY);
+		Address address = new Address();
+		address.setPrivateSigningKey(PRIVATE_SIGNING_KEY_WIF);
+		address.setPrivateEncryptionKey(PRIVATE_ENCRYPTION_KEY_WIF);
+		
+		ECPrivateKey signingKey = cache.decodePrivateKeyFromWIF(PRIVATE_SIGNING_KEY_WIF);
+		ECPrivateKey encryptionKey = cache.decodePrivateKeyFromWIF(PRIVATE_ENCRYPTION_KEY_WIF);
+		ECPublicKey ecPublicKey = cache.reconstructPublicKey(ByteFormatter.hexStringToByteArray(PUBLIC_SIGNING_KEY_HEX));
+		assertEquals(3, cache.getSize());
+		
+		// The public key which belongs to the address should be removed along with its private keys
+		cache.invalidate(address);
+		assertEquals(0, cache.getSize());
+		assertNotSame(signingKey, cache.decodePrivateKeyFromWIF(PRIVATE_SIGNING_KEY_WIF));
+		assertNotSame(encryptionKey, cache.decodePrivateKeyFromWIF(PRIVATE_ENCRYPTION_KEY_WIF));
+		assertNotSame(ecPublicKey, cache.reconstructPublicKey(ByteFormatter.hexStringToByteArray(PUBLIC_SIGNING_KEY_HEX)));
+		
+		cache.clear();
+		assertEquals(0, cache.getSize());
+		
+		// The public key should be removed even if the private key was never decoded through the cache
+		ecPublicKey = cache.reconstructPublicKey(ByteFormatter.hexStringToByteArray(PUBLIC_SIGNING_KEY_HEX));
+		assertEquals(1, cache.getSize());
+		cache.invalidate(address);
+		assertEquals(0, cache.getSize());
+	}
+	
+	public void testInvalidateDuringDecode() throws InterruptedException
+	{
+		// A key that was being decoded when the address was invalidated must not be cached
+		assertEquals(0, invalidateDuringDecode(false).getSize());
+		assertEquals(0, invalidateDuringDecode(true).getSize());
+	}
+	
+	/**
+	 * Decodes one of the keys of an address on this thread, and invalidates
+	 * the address from another thread while the decode is in progress.
+	 * 
+	 * @param publicKey - Whether to decode the public signing key rather than the private signing key
+	 * 
+	 * @return The DecodedKeyCache that was used
+	 */
+	private DecodedKeyCache invalidateDuringDecode(boolean publicKey) throws InterruptedException
+	{
+		final CountDownLatch decodeStarted = new CountDownLatch(1);
+		final CountDownLatch invalidated = new CountDownLatch(1);
+		final Thread decodingThread = Thread.currentThread();
+		
+		// Holds up decodes on this thread until the address has been invalidated from another thread
+		KeyConverter blockingKeyConv = new KeyConverter()
+		{
+			@Override
+			public ECPrivateKey decodePrivateKeyFromWIF(String wifPrivateKey)
+			{
+				ECPrivateKey privateKey = super.decodePrivateKeyFromWIF(wifPrivateKey);
+				waitIfDecodingThread();
+				return privateKey;
+			}
+			
+			@Override
+			public ECPublicKey reconstructPublicKey(byte[] publicKey)
+			{
+				ECPublicKey ecPublicKey = super.reconstructPublicKey(publicKey);
+				waitIfDecodingThread();
+				return ecPublicKey;
+			}
+			
+			private void waitIfDecodingThread()
+			{
+				if (Thread.currentThread() == decodingThread)
+				{
+					decodeStarted.countDown();
+					try
+					{
+						invalidated.await(10, TimeUnit.SECONDS);
+					}
+					catch (InterruptedException e)
+					{
+						throw new RuntimeException("Interrupted while waiting for the address to be invalidated", e);
+					}
+				}
+			}
+		};
+		final DecodedKeyCache cache = new DecodedKeyCache(DecodedKeyCache.DEFAULT_CAPACITY, blockingKeyConv);
+		final Address address = new Address();
+		address.setPrivateSigningKey(PRIVATE_SIGNING_KEY_WIF);
+		address.setPrivateEncryptionKey(PRIVATE_ENCRYPTION_KEY_WIF);
+		
+		Thread invalidatingThread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					decodeStarted.await();
+					cache.invalidate(address);
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				finally
+				{
+					invalidated.countDown();
+				}
+			}
+		});
+		invalidatingThread.start();
+		if (publicKey)
+		{
+			assertNotNull(cache.reconstructPublicKey(ByteFormatter.hexStringToByteArray(PUBLIC_SIGNING_KEY_HEX)));
+		}
+		else
+		{
+			assertNotNull(cache.decodePrivateKeyFromWIF(PRIVATE_SIGNING_KEY_WIF));
+		}
+		invalidatingThread.join();
+		return cache;
+	}
+	
+	public void testDecodeTimes()
+	{
+		KeyConverter keyConv = new KeyConverter();
+		DecodedKeyCache cache = new DecodedKeyCache(DecodedKeyCache.DEFAULT_CAPACITY);
+		byte[] publicKey = ByteFormatter.hexStringToByteArray(PUBLIC_SIGNING_KEY_HEX);
+		
+		long uncachedStartTime = System.nanoTime();
+		for (int i = 0; i < NUMBER_OF_TIMED_DECODES; i++)
+		{
+			keyConv.decodePrivateKeyFromWIF(PRIVATE_ENCRYPTION_KEY_WIF);
+			keyConv.reconstructPublicKey(publicKey);
+		}
+		long uncachedTime = System.nanoTime() - uncachedStartTime;
+		
+		long cachedStartTime = System.nanoTime();
+		for (int i = 0; i < NUMBER_OF_TIMED_DECODES; i++)
+		{
+			cache.decodePrivateKeyFromWIF(PRIVATE_ENCRYPTION_KEY_WIF);
+			cache.reconstructPublicKey(publicKey);
+		}
+		long cachedTime = System.nanoTime() - cachedStartTime;
+		
+		assertEquals(2, cache.getMisses());
+		Log.i(TAG, "Time taken to decode " + NUMBER_OF_TIMED_DECODES + " private and public keys with KeyConverter:    " + (uncachedTime / 1000000) + " milliseconds");
+		Log.i(TAG, "Time taken to decode " + NUMBER_OF_TIMED_DECODES + " private and public keys with DecodedKeyCache: " + (cachedTime / 1000000) + " milliseconds");
+	}
+}
\ No newline at end of file
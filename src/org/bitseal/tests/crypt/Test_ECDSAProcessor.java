@@ -0,0 +1,272 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.bitseal.crypt.KeyConverter;
+import org.bitseal.util.ArrayCopier;
+import org.bitseal.util.ByteFormatter;
+import org.spongycastle.jce.interfaces.ECPrivateKey;
+import org.spongycastle.jce.interfaces.ECPublicKey;
+import org.spongycastle.jce.provider.BouncyCastleProvider;
+
+import android.util.Log;
+
+/**
+ * Tests that ECDSAProcessor creates signatures that SpongyCastle accepts,
+ * verifies the signature PyBitmessage made in Test_SignatureSpecific, and
+ * that signing with pooled nonces never reuses a nonce.
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_ECDSAProcessor extends TestCase
+{
+	private static final int NUMBER_OF_SIGNATURES = 20;
+	private static final int NUMBER_OF_TIMED_SIGNATURES = 100;
+	
+	/** Data taken from Test_SignatureSpecific */
+	private static final String PRIVATE_SIGNING_KEY_WIF = "5HynQJefWMVXbkft2RB9tkLJ3EWk4UgsbFg1CAsNN5DEHtw9tTR";
+	private static final String PUBLIC_SIGNING_KEY_HEX = "04eac9804fced9771b5b43135de14a5290a8b5628770358eb51e881d2a9ad8d77cc2e63eafb7ac6073866838b42663f8e8eabccafa42a1c039d1141ffbf365d7b5";
+	private static final String PUBLIC_ENCRYPTION_KEY_HEX = "0466b2ee6c326235f0eedca14f3a4203c8a2698a8d571191ecb1ae49847f270e9b7729c5a790b5ce049be7bf5190f5c67ec62a61e9d035e75ed5edc42e2f8d75ab";
+	private static final String RIPE_HASH_HEX = "00988701cbf9866f45096aa1b8487118eece2015";
+	private static final String PYBITMESSAGE_SIGNATURE_HEX = "3046022100a8a4e6aeed2e41560ed87cb867c7386fb967dc992f11d4009c1d21d8f8f244c0022100d17cb6f5d830e273b251572c73474f6e7742c5a1e782769abff8d021454c0877";
+	
+	/**
+	 * The signed part of the v4 pubkey from Test_SignatureSpecific, laid out as: expiration time (1419079365),
+	 * object type (1), address version (4), stream number (1), tag, behaviour bitfield (1), public signing key
+	 * and public encryption key without their 0x04 prefixes, nonce trials per byte (1000) and extra bytes (1000).
+	 */
+	private static final String SIGNED_DATA_PREFIX_HEX = "0000000054956ec5" + "00000001" + "04" + "01";
+	private static final String SIGNED_DATA_SUFFIX_HEX = "00000001" + PUBLIC_SIGNING_KEY_HEX.substring(2) + PUBLIC_ENCRYPTION_KEY_HEX.substring(2) + "fd03e8" + "fd03e8";
+	
+	private static final String TAG = "TEST_ECDSA_PROCESSOR";
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testPyBitmessageSignature()
+	{
+		byte[] signedData = createPubkeySignedData();
+		Secp256k1Point publicSigningKey = Secp256k1Point.decode(ByteFormatter.hexStringToByteArray(PUBLIC_SIGNING_KEY_HEX));
+		ECDSAProcessor ecdsaProc = new ECDSAProcessor();
+		assertTrue(ecdsaProc.verify(signedData, ByteFormatter.hexStringToByteArray(PYBITMESSAGE_SIGNATURE_HEX), publicSigningKey));
+		
+		// Sign the same data with pooled nonces, and check that the signature differs but is valid
+		SigningNoncePool pool = new SigningNoncePool();
+		pool.fill();
+		BigInteger privateSigningKey = new KeyConverter().decodePrivateKeyFromWIF(PRIVATE_SIGNING_KEY_WIF).getD();
+		byte[] signature = new ECDSAProcessor(pool).sign(signedData, privateSigningKey);
+		assertFalse(PYBITMESSAGE_SIGNATURE_HEX.equals(ByteFormatter.byteArrayToHexString(signature)));
+		assertTrue(ecdsaProc.verify(signedData, signature, publicSigningKey));
+		
+		// Changing a single byte of the signed data must make both signatures invalid
+		signedData[signedData.length - 1] ^= 0x01;
+		assertFalse(ecdsaProc.verify(signedData, ByteFormatter.hexStringToByteArray(PYBITMESSAGE_SIGNATURE_HEX), publicSigningKey));
+		assertFalse(ecdsaProc.verify(signedData, signature, publicSigningKey));
+	}
+	
+	public void testAgainstSpongyCastle() throws GeneralSecurityException
+	{
+		SecureRandom secRand = new SecureRandom();
+		KeyConverter keyConv = new KeyConverter();
+		BouncyCastleProvider provider = new BouncyCastleProvider();
+		SigningNoncePool pool = new SigningNoncePool(NUMBER_OF_SIGNATURES / 2);
+		pool.fill();
+		ECDSAProcessor ecdsaProc = new ECDSAProcessor(pool);
+		for (int i = 0; i < NUMBER_OF_SIGNATURES; i++)
+		{
+			BigInteger d = Secp256k1.generatePrivateKey(secRand);
+			byte[] publicKey = FixedBaseMultiplier.calculatePublicKey(d);
+			ECPrivateKey ecPrivateKey = keyConv.reconstructPrivateKey(Secp256k1.toFieldElementBytes(d));
+			ECPublicKey ecPublicKey = keyConv.reconstructPublicKey(publicKey);
+			byte[] data = new byte[secRand.nextInt(300)];
+			secRand.nextBytes(data);
+			
+			// A signature made by ECDSAProcessor must be accepted by SpongyCastle
+			byte[] signature = ecdsaProc.sign(data, d);
+			Signature verifier = Signature.getInstance("SHA1withECDSA", provider);
+			verifier.initVerify(ecPublicKey);
+			verifier.update(data);
+			assertTrue(verifier.verify(signature));
+			
+			// A signature made by SpongyCastle must be accepted by ECDSAProcessor
+			Signature signer = Signature.getInstance("SHA1withECDSA", provider);
+			signer.initSign(ecPrivateKey);
+			signer.update(data);
+			byte[] spongyCastleSignature = signer.sign();
+			assertTrue(ecdsaProc.verify(data, spongyCastleSignature, Secp256k1Point.decode(publicKey)));
+			assertTrue(ecdsaProc.verify(data, signature, Secp256k1Point.decode(publicKey)));
+		}
+		assertEquals(NUMBER_OF_SIGNATURES / 2, pool.getHits());
+		assertEquals(NUMBER_OF_SIGNATURES / 2, pool.getMisses());
+	}
+	
+	public void testNoncesAreNotReused()
+	{
+		SecureRandom secRand = new SecureRandom();
+		BigInteger d = Secp256k1.generatePrivateKey(secRand);
+		SigningNoncePool pool = new SigningNoncePool();
+		pool.start();
+		ECDSAProcessor ecdsaProc = new ECDSAProcessor(pool);
+		byte[] data = new byte[100];
+		secRand.nextBytes(data);
+		Set<BigInteger> rValues = new HashSet<BigInteger>();
+		for (int i = 0; i < NUMBER_OF_SIGNATURES; i++)
+		{
+			BigInteger r = ECDSAProcessor.decodeSignature(ecdsaProc.sign(data, d))[0];
+			assertTrue(rValues.add(r));
+		}
+		pool.stop();
+		assertEquals(NUMBER_OF_SIGNATURES, pool.getHits() + pool.getMisses());
+		
+		SigningNonce nonce = pool.take();
+		try
+		{
+			nonce.markUsed();
+			fail("A signing nonce should not be usable twice");
+		}
+		catch (IllegalStateException e)
+		{
+			// Expected
+		}
+	}
+	
+	public void testMalformedSignaturesRejected()
+	{
+		byte[] signedData = createPubkeySignedData();
+		Secp256k1Point publicSigningKey = Secp256k1Point.decode(ByteFormatter.hexStringToByteArray(PUBLIC_SIGNING_KEY_HEX));
+		byte[] signature = ByteFormatter.hexStringToByteArray(PYBITMESSAGE_SIGNATURE_HEX);
+		ECDSAProcessor ecdsaProc = new ECDSAProcessor();
+		
+		byte[] wrongLength = signature.clone();
+		wrongLength[1]++;
+		assertFalse(ecdsaProc.verify(signedData, wrongLength, publicSigningKey));
+		
+		byte[] wrongTag = signature.clone();
+		wrongTag[2] = 0x03;
+		assertFalse(ecdsaProc.verify(signedData, wrongTag, publicSigningKey));
+		
+		assertFalse(ecdsaProc.verify(signedData, new byte[0], publicSigningKey));
+		
+		// r = 0 and s = N are both out of range
+		assertFalse(ecdsaProc.verify(signedData, ECDSAProcessor.encodeSignature(BigInteger.ZERO, BigInteger.ONE), publicSigningKey));
+		assertFalse(ecdsaProc.verify(signedData, ECDSAProcessor.encodeSignature(BigInteger.ONE, Secp256k1.N), publicSigningKey));
+	}
+	
+	public void testSigningTimes() throws GeneralSecurityException
+	{
+		SecureRandom secRand = new SecureRandom();
+		BigInteger d = Secp256k1.generatePrivateKey(secRand);
+		ECPrivateKey ecPrivateKey = new KeyConverter().reconstructPrivateKey(Secp256k1.toFieldElementBytes(d));
+		BouncyCastleProvider provider = new BouncyCastleProvider();
+		byte[] data = new byte[200];
+		secRand.nextBytes(data);
+		
+		long spongyCastleStartTime = System.nanoTime();
+		for (int i = 0; i < NUMBER_OF_TIMED_SIGNATURES; i++)
+		{
+			Signature signer = Signature.getInstance("SHA1withECDSA", provider);
+			signer.initSign(ecPrivateKey);
+			signer.update(data);
+			signer.sign();
+		}
+		long spongyCastleTime = System.nanoTime() - spongyCastleStartTime;
+		
+		ECDSAProcessor inlineProc = new ECDSAProcessor();
+		long inlineStartTime = System.nanoTime();
+		for (int i = 0; i < NUMBER_OF_TIMED_SIGNATURES; i++)
+		{
+			inlineProc.sign(data, d);
+		}
+		long inlineTime = System.nanoTime() - inlineStartTime;
+		
+		// Generate the nonces before timing, as if they had been made during idle time
+		SigningNoncePool pool = new SigningNoncePool(NUMBER_OF_TIMED_SIGNATURES);
+		pool.fill();
+		ECDSAProcessor pooledProc = new ECDSAProcessor(pool);
+		long pooledStartTime = System.nanoTime();
+		for (int i = 0; i < NUMBER_OF_TIMED_SIGNATURES; i++)
+		{
+			pooledProc.sign(data, d);
+		}
+		long pooledTime = System.nanoTime() - pooledStartTime;
+		assertEquals(NUMBER_OF_TIMED_SIGNATURES, pool.getHits());
+		
+		Log.i(TAG, "Time taken for " + NUMBER_OF_TIMED_SIGNATURES + " signatures using SpongyCastle:        " + (spongyCastleTime / 1000000) + " milliseconds");
+		Log.i(TAG, "Time taken for " + NUMBER_OF_TIMED_SIGNATURES + " signatures using inline nonces:       " + (inlineTime / 1000000) + " milliseconds");
+		Log.i(TAG, "Time taken for " + NUMBER_OF_TIMED_SIGNATURES + " signatures using precomputed nonces:  " + (pooledTime / 1000000) + " milliseconds");
+	}
+	
+	public void testVerificationTimes() throws GeneralSecurityException
+	{
+		SecureRandom secRand = new SecureRandom();
+		BigInteger d = Secp256k1.generatePrivateKey(secRand);
+		byte[] publicKey = FixedBaseMultiplier.calculatePublicKey(d);
+		ECPublicKey ecPublicKey = new KeyConverter().reconstructPublicKey(publicKey);
+		BouncyCastleProvider provider = new BouncyCastleProvider();
+		ECDSAProcessor ecdsaProc = new ECDSAProcessor();
+		byte[][] data = new byte[NUMBER_OF_TIMED_SIGNATURES][];
+		byte[][] signatures = new byte[NUMBER_OF_TIMED_SIGNATURES][];
+		for (int i = 0; i < NUMBER_OF_TIMED_SIGNATURES; i++)
+		{
+			data[i] = new byte[200];
+			secRand.nextBytes(data[i]);
+			signatures[i] = ecdsaProc.sign(data[i], d);
+		}
+		JointMultiplier.initialise();
+		
+		long spongyCastleStartTime = System.nanoTime();
+		for (int i = 0; i < NUMBER_OF_TIMED_SIGNATURES; i++)
+		{
+			Signature verifier = Signature.getInstance("SHA1withECDSA", provider);
+			verifier.initVerify(ecPublicKey);
+			verifier.update(data[i]);
+			assertTrue(verifier.verify(signatures[i]));
+		}
+		long spongyCastleTime = System.nanoTime() - spongyCastleStartTime;
+		
+		long ecdsaProcStartTime = System.nanoTime();
+		for (int i = 0; i < NUMBER_OF_TIMED_SIGNATURES; i++)
+		{
+			assertTrue(ecdsaProc.verify(data[i], signatures[i], Secp256k1Point.decode(publicKey)));
+		}
+		long ecdsaProcTime = System.nanoTime() - ecdsaProcStartTime;
+		
+		Log.i(TAG, "Time taken for " + NUMBER_OF_TIMED_SIGNATURES + " verifications using SpongyCastle:   " + (spongyCastleTime / 1000000) + " milliseconds");
+		Log.i(TAG, "Time taken for " + NUMBER_OF_TIMED_SIGNATURES + " verifications using ECDSAProcessor: " + (ecdsaProcTime / 1000000) + " milliseconds");
+	}
+	
+	/**
+	 * Recreates the data that PyBitmessage signed for the pubkey in Test_SignatureSpecific.
+	 */
+	private byte[] createPubkeySignedData()
+	{
+		byte[] tag = calculateTag();
+		return ByteFormatter.hexStringToByteArray(SIGNED_DATA_PREFIX_HEX + ByteFormatter.byteArrayToHexString(tag) + SIGNED_DATA_SUFFIX_HEX);
+	}
+	
+	/**
+	 * Calculates the tag of the pubkey, which is the second half of a double SHA-512
+	 * hash of the address version, stream number and ripe hash.
+	 */
+	private byte[] calculateTag()
+	{
+		// The address version and stream number are both encoded as single byte var_ints
+		byte[] doubleHash = new byte[64];
+		Hasher.sha512().update((byte) 4).update((byte) 1).update(ByteFormatter.hexStringToByteArray(RIPE_HASH_HEX)).doubleFinal(doubleHash, 0);
+		return ArrayCopier.copyOfRange(doubleHash, 32, 64);
+	}
+}
\ No newline at end of file
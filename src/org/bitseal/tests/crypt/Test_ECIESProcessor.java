@@ -0,0 +1,318 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import junit.framework.TestCase;
+
+import org.bitseal.crypt.CryptProcessor;
+import org.bitseal.crypt.ECKeyPair;
+import org.bitseal.crypt.KeyConverter;
+import org.bitseal.util.ByteFormatter;
+import org.spongycastle.jce.interfaces.ECPrivateKey;
+
+import android.util.Log;
+
+/**
+ * Tests that ECIESProcessor produces and accepts exactly the same
+ * encrypted payloads as CryptProcessor, and compares the rate at which
+ * the two can make decryption attempts.
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_ECIESProcessor extends TestCase
+{
+	private static final int NUMBER_OF_RANDOM_MESSAGES = 20;
+	private static final int NUMBER_OF_TIMED_PAYLOADS = 100;
+	
+	/** Data taken from Test_EncryptionSpecific */
+	private static final String PUBLIC_KEY_K_HEX = "0409d4e5c0ab3d25fe048c64c9da1a242c7f19417e9517cd266950d72c755713585c6178e97fe092fc897c9a1f1720d5770ae8eaad2fa8fcbd08e9324a5dde1857";
+	private static final String PRIVATE_KEY_R_HEX = "5be6facd941b76e9d3ead03029fbdb6b6e0809293f7fb197d0c51f84e96b8ba4";
+	private static final String KEY_E_HEX = "170543828267867105263d4828efff82d9d59cbf08743b696bcc5d69fa1897b4";
+	private static final String KEY_M_HEX = "f83f1e9cc5d6b8448d39dc6a9d5f5b7f460e4a78e9286ee8d91ce1660a53eacd";
+	
+	/** Data taken from Test_DecryptionSpecific */
+	private static final String ENCRYPTED_PAYLOAD_HEX = "bddb7c2829b08038753084a2f3991681" + "02ca" + "0020" + "0293213dcf1388b61c2ae5cf80fee6ffffc049a2f9fe7365fe3867813ca81292"
+			+ "0020" + "df94686c6afb565ac6149b153d61b3b287ee2c7f997c14238796c12b43a3865a"
+			+ "64203d5b24688e2547bba345fa139a5a1d962220d4d48a0cf3b1572c0d95b61643a6f9a0d75af7eacc1bd957147bf723"
+			+ "f2526d61b4851fb23409863826fd206165edc021368c7946571cead69046e619";
+	private static final String PRIVATE_KEY_K_HEX = "02ba2744e65ccd7b1954b0a33b80d75e16cab47f2b331ff0b6d184b71983da85";
+	private static final String PLAIN_TEXT_HEX = "54686520717569636b2062726f776e20666f78206a756d7073206f76657220746865206c617a7920646f672e";
+	
+	private static final String TAG = "TEST_ECIES_PROCESSOR";
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testDeriveKey()
+	{
+		Secp256k1Point K = Secp256k1Point.decode(ByteFormatter.hexStringToByteArray(PUBLIC_KEY_K_HEX));
+		byte[] key = new ECIESProcessor().deriveKey(K, new BigInteger(PRIVATE_KEY_R_HEX, 16));
+		assertEquals(KEY_E_HEX + KEY_M_HEX, ByteFormatter.byteArrayToHexString(key));
+	}
+	
+	public void testDecryptionSpecific()
+	{
+		byte[] encryptedPayload = ByteFormatter.hexStringToByteArray(ENCRYPTED_PAYLOAD_HEX);
+		byte[] plainText = new ECIESProcessor().decrypt(encryptedPayload, new BigInteger(PRIVATE_KEY_K_HEX, 16));
+		assertEquals(PLAIN_TEXT_HEX, ByteFormatter.byteArrayToHexString(plainText));
+	}
+	
+	public void testAgainstCryptProcessor()
+	{
+		SecureRandom secRand = new SecureRandom();
+		ECIESProcessor eciesProc = new ECIESProcessor();
+		CryptProcessor cryptProc = new CryptProcessor();
+		KeyConverter keyConv = new KeyConverter();
+		
+		for (int i = 0; i < NUMBER_OF_RANDOM_MESSAGES; i++)
+		{
+			BigInteger k = Secp256k1.generatePrivateKey(secRand);
+			Secp256k1Point K = Secp256k1Point.decode(new ECKeyPair(k).getPubKey());
+			byte[] plainText = new byte[secRand.nextInt(500)];
+			secRand.nextBytes(plainText);
+			
+			byte[] encryptedPayload = eciesProc.encrypt(plainText, K);
+			
+			// Check that the payload can be decrypted by both CryptProcessor and ECIESProcessor
+			ECPrivateKey privateKey = keyConv.reconstructPrivateKey(Secp256k1.toFieldElementBytes(k));
+			assertTrue(Arrays.equals(plainText, cryptProc.decrypt(encryptedPayload, privateKey)));
+			assertTrue(Arrays.equals(plainText, eciesProc.decrypt(encryptedPayload, k)));
+		}
+	}
+	
+	public void testWrongKeyRejected()
+	{
+		SecureRandom secRand = new SecureRandom();
+		ECIESProcessor eciesProc = new ECIESProcessor();
+		byte[] encryptedPayload = ByteFormatter.hexStringToByteArray(ENCRYPTED_PAYLOAD_HEX);
+		try
+		{
+			eciesProc.decrypt(encryptedPayload, Secp256k1.generatePrivateKey(secRand));
+			fail("Decryption with the wrong private key should have failed");
+		}
+		catch (RuntimeException e)
+		{
+			// Expected
+		}
+	}
+	
+	public void testTryDecrypt()
+	{
+		SecureRandom secRand = new SecureRandom();
+		ECIESProcessor eciesProc = new ECIESProcessor();
+		BigInteger k = new BigInteger(PRIVATE_KEY_K_HEX, 16);
+		byte[] encryptedPayload = ByteFormatter.hexStringToByteArray(ENCRYPTED_PAYLOAD_HEX);
+		
+		assertTrue(eciesProc.matches(encryptedPayload, k));
+		assertEquals(PLAIN_TEXT_HEX, ByteFormatter.byteArrayToHexString(eciesProc.tryDecrypt(encryptedPayload, k)));
+		
+		// The wrong private key
+		BigInteger otherKey = Secp256k1.generatePrivateKey(secRand);
+		assertFalse(eciesProc.matches(encryptedPayload, otherKey));
+		assertNull(eciesProc.tryDecrypt(encryptedPayload, otherKey));
+		
+		// A payload whose cipher text has been changed
+		byte[] tamperedPayload = encryptedPayload.clone();
+		tamperedPayload[tamperedPayload.length - ECIESProcessor.MAC_LENGTH - 1] ^= 0x01;
+		assertFalse(eciesProc.matches(tamperedPayload, k));
+		assertNull(eciesProc.tryDecrypt(tamperedPayload, k));
+		
+		// A payload whose public key R is not on the curve
+		byte[] invalidPointPayload = encryptedPayload.clone();
+		invalidPointPayload[ECIESProcessor.IV_LENGTH + 4] ^= 0x01;
+		assertFalse(eciesProc.matches(invalidPointPayload, k));
+		assertNull(eciesProc.tryDecrypt(invalidPointPayload, k));
+		
+		// A payload that is too short
+		assertFalse(eciesProc.matches(new byte[ECIESProcessor.IV_LENGTH], k));
+		assertNull(eciesProc.tryDecrypt(new byte[ECIESProcessor.IV_LENGTH], k));
+	}
+	
+	public void testCraftedCipherTextRejected() throws GeneralSecurityException
+	{
+		SecureRandom secRand = new SecureRandom();
+		ECIESProcessor eciesProc = new ECIESProcessor();
+		BigInteger k = Secp256k1.generatePrivateKey(secRand);
+		byte[] encryptedPayload = eciesProc.encrypt(new byte[10], FixedBaseMultiplier.multiplyG(k));
+		
+		// Payloads with a valid MAC, whose cipher text is not a whole number of blocks or has bad padding
+		byte[][] craftedPayloads = new byte[][]{createPayloadWithBadLength(encryptedPayload, k), createPayloadWithBadPadding(encryptedPayload, k)};
+		for (byte[] craftedPayload : craftedPayloads)
+		{
+			assertNull(eciesProc.tryDecrypt(craftedPayload, k));
+			try
+			{
+				eciesProc.decrypt(craftedPayload, k);
+				fail("Decryption of a payload with a malformed cipher text should have failed");
+			}
+			catch (RuntimeException e)
+			{
+				// Expected
+			}
+		}
+	}
+	
+	/**
+	 * Replaces the cipher text of a payload created by encrypt() with 5 random bytes, and
+	 * recalculates the MAC so that it still matches.
+	 */
+	static byte[] createPayloadWithBadLength(byte[] encryptedPayload, BigInteger k)
+	{
+		byte[] cipherText = new byte[5];
+		new SecureRandom().nextBytes(cipherText);
+		return createPayloadWithCipherText(encryptedPayload, k, cipherText);
+	}
+	
+	/**
+	 * Replaces the cipher text of a payload created by encrypt() with a single block which
+	 * decrypts to zeros, which is not valid PKCS#7 padding, and recalculates the MAC so
+	 * that it still matches.
+	 */
+	static byte[] createPayloadWithBadPadding(byte[] encryptedPayload, BigInteger k) throws GeneralSecurityException
+	{
+		byte[] key = new ECIESProcessor().deriveKey(EncryptedPayloadView.parse(encryptedPayload, 0, encryptedPayload.length).getR(), k);
+		Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+		cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, 0, ECIESProcessor.KEY_LENGTH, "AES"),
+				new IvParameterSpec(encryptedPayload, 0, ECIESProcessor.IV_LENGTH));
+		return createPayloadWithCipherText(encryptedPayload, k, cipher.doFinal(new byte[ECIESProcessor.IV_LENGTH]));
+	}
+	
+	private static byte[] createPayloadWithCipherText(byte[] encryptedPayload, BigInteger k, byte[] cipherText)
+	{
+		int cipherTextOffset = ECIESProcessor.HEADER_LENGTH + 4 + (2 * ECIESProcessor.KEY_LENGTH);
+		int macOffset = cipherTextOffset + cipherText.length;
+		byte[] payload = new byte[macOffset + ECIESProcessor.MAC_LENGTH];
+		System.arraycopy(encryptedPayload, 0, payload, 0, cipherTextOffset);
+		System.arraycopy(cipherText, 0, payload, cipherTextOffset, cipherText.length);
+		
+		byte[] key = new ECIESProcessor().deriveKey(EncryptedPayloadView.parse(encryptedPayload, 0, encryptedPayload.length).getR(), k);
+		new HmacKey(key, ECIESProcessor.KEY_LENGTH, ECIESProcessor.KEY_LENGTH).calculateMac(payload, 0, macOffset, payload, macOffset);
+		return payload;
+	}
+	
+	public void testDecryptAll() throws GeneralSecurityException
+	{
+		SecureRandom secRand = new SecureRandom();
+		ECIESProcessor eciesProc = new ECIESProcessor();
+		BigInteger k = new BigInteger(PRIVATE_KEY_K_HEX, 16);
+		Secp256k1Point K = FixedBaseMultiplier.multiplyG(k);
+		
+		// Mix payloads encrypted to k with payloads encrypted to other keys, and a malformed payload
+		ArrayList<byte[]> payloads = new ArrayList<byte[]>();
+		ArrayList<byte[]> expectedPlainTexts = new ArrayList<byte[]>();
+		for (int i = 0; i < NUMBER_OF_RANDOM_MESSAGES; i++)
+		{
+			byte[] plainText = new byte[secRand.nextInt(500)];
+			secRand.nextBytes(plainText);
+			if (i % 3 == 0)
+			{
+				payloads.add(eciesProc.encrypt(plainText, K));
+				expectedPlainTexts.add(plainText);
+			}
+			else
+			{
+				payloads.add(eciesProc.encrypt(plainText, FixedBaseMultiplier.multiplyG(Secp256k1.generatePrivateKey(secRand))));
+				expectedPlainTexts.add(null);
+			}
+		}
+		payloads.add(ByteFormatter.hexStringToByteArray(ENCRYPTED_PAYLOAD_HEX));
+		expectedPlainTexts.add(ByteFormatter.hexStringToByteArray(PLAIN_TEXT_HEX));
+		payloads.add(new byte[ECIESProcessor.IV_LENGTH]);
+		expectedPlainTexts.add(null);
+		
+		// Payloads encrypted to k with a valid MAC but a cipher text that cannot be decrypted
+		byte[] encryptedPayload = eciesProc.encrypt(new byte[10], K);
+		payloads.add(createPayloadWithBadLength(encryptedPayload, k));
+		expectedPlainTexts.add(null);
+		payloads.add(createPayloadWithBadPadding(encryptedPayload, k));
+		expectedPlainTexts.add(null);
+		
+		ArrayList<byte[]> plainTexts = eciesProc.decryptAll(payloads, k);
+		assertEquals(payloads.size(), plainTexts.size());
+		for (int i = 0; i < payloads.size(); i++)
+		{
+			assertTrue(Arrays.equals(expectedPlainTexts.get(i), plainTexts.get(i)));
+		}
+	}
+	
+	public void testDecryptionAttemptRates()
+	{
+		SecureRandom secRand = new SecureRandom();
+		ECIESProcessor eciesProc = new ECIESProcessor();
+		
+		// Create a set of payloads that are all encrypted to other keys, as most payloads in a stream are
+		ArrayList<byte[]> payloads = new ArrayList<byte[]>();
+		for (int i = 0; i < NUMBER_OF_TIMED_PAYLOADS; i++)
+		{
+			Secp256k1Point otherKey = FixedBaseMultiplier.multiplyG(Secp256k1.generatePrivateKey(secRand));
+			payloads.add(eciesProc.encrypt(new byte[200], otherKey));
+		}
+		BigInteger k = Secp256k1.generatePrivateKey(secRand);
+		ECPrivateKey privateKey = new KeyConverter().reconstructPrivateKey(Secp256k1.toFieldElementBytes(k));
+		
+		CryptProcessor cryptProc = new CryptProcessor();
+		long cryptProcStartTime = System.nanoTime();
+		for (byte[] payload : payloads)
+		{
+			try
+			{
+				cryptProc.decrypt(payload, privateKey);
+				fail("Decryption with the wrong private key should have failed");
+			}
+			catch (RuntimeException e)
+			{
+				// Expected
+			}
+		}
+		long cryptProcTime = System.nanoTime() - cryptProcStartTime;
+		
+		long eciesProcStartTime = System.nanoTime();
+		for (byte[] payload : payloads)
+		{
+			try
+			{
+				eciesProc.decrypt(payload, k);
+				fail("Decryption with the wrong private key should have failed");
+			}
+			catch (RuntimeException e)
+			{
+				// Expected
+			}
+		}
+		long eciesProcTime = System.nanoTime() - eciesProcStartTime;
+		
+		long tryDecryptStartTime = System.nanoTime();
+		for (byte[] payload : payloads)
+		{
+			assertNull(eciesProc.tryDecrypt(payload, k));
+		}
+		long tryDecryptTime = System.nanoTime() - tryDecryptStartTime;
+		
+		long batchStartTime = System.nanoTime();
+		for (byte[] plainText : eciesProc.decryptAll(payloads, k))
+		{
+			assertNull(plainText);
+		}
+		long batchTime = System.nanoTime() - batchStartTime;
+		
+		Log.i(TAG, "Decryption attempts per second using CryptProcessor:              " + (NUMBER_OF_TIMED_PAYLOADS * 1000000000L / cryptProcTime));
+		Log.i(TAG, "Decryption attempts per second using ECIESProcessor:              " + (NUMBER_OF_TIMED_PAYLOADS * 1000000000L / eciesProcTime));
+		Log.i(TAG, "Decryption attempts per second using ECIESProcessor.tryDecrypt(): " + (NUMBER_OF_TIMED_PAYLOADS * 1000000000L / tryDecryptTime));
+		Log.i(TAG, "Decryption attempts per second using ECIESProcessor.decryptAll(): " + (NUMBER_OF_TIMED_PAYLOADS * 1000000000L / batchTime));
+	}
+}
\ No newline at end of file
@@ -0,0 +1,172 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+
+import junit.framework.TestCase;
+
+import org.bitseal.util.ByteFormatter;
+
+/**
+ * Tests that EncryptedPayloadView parses encrypted payloads in place,
+ * including when they sit inside a larger msg payload, and that they can
+ * be decrypted through the view.
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_EncryptedPayloadView extends TestCase
+{
+	/** The length of the pow nonce, time and stream number which come before the encrypted data in a msg payload */
+	private static final int MSG_HEADER_LENGTH = 17;
+	
+	/** Data taken from Test_DecryptionSpecific */
+	private static final String IV_HEX = "bddb7c2829b08038753084a2f3991681";
+	private static final String X_HEX = "0293213dcf1388b61c2ae5cf80fee6ffffc049a2f9fe7365fe3867813ca81292";
+	private static final String Y_HEX = "df94686c6afb565ac6149b153d61b3b287ee2c7f997c14238796c12b43a3865a";
+	private static final String CIPHER_TEXT_HEX = "64203d5b24688e2547bba345fa139a5a1d962220d4d48a0cf3b1572c0d95b61643a6f9a0d75af7eacc1bd957147bf723";
+	private static final String MAC_HEX = "f2526d61b4851fb23409863826fd206165edc021368c7946571cead69046e619";
+	private static final String ENCRYPTED_PAYLOAD_HEX = IV_HEX + "02ca" + "0020" + X_HEX + "0020" + Y_HEX + CIPHER_TEXT_HEX + MAC_HEX;
+	private static final String PRIVATE_KEY_K_HEX = "02ba2744e65ccd7b1954b0a33b80d75e16cab47f2b331ff0b6d184b71983da85";
+	private static final String PLAIN_TEXT_HEX = "54686520717569636b2062726f776e20666f78206a756d7073206f76657220746865206c617a7920646f672e";
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testParseInsideMsgPayload()
+	{
+		byte[] encryptedPayload = ByteFormatter.hexStringToByteArray(ENCRYPTED_PAYLOAD_HEX);
+		byte[] fullPayload = createMsgPayload(encryptedPayload);
+		
+		EncryptedPayloadView view = EncryptedPayloadView.parse(fullPayload, MSG_HEADER_LENGTH, encryptedPayload.length);
+		assertEquals(IV_HEX, toHex(view.getIV()));
+		assertEquals(ECIESProcessor.CURVE_TYPE, view.getCurveType());
+		assertEquals(X_HEX, toHex(view.getX()));
+		assertEquals(Y_HEX, toHex(view.getY()));
+		assertEquals(CIPHER_TEXT_HEX, toHex(view.getCipherText()));
+		assertEquals(MAC_HEX, toHex(view.getMac()));
+		assertEquals(encryptedPayload.length, view.getLength());
+		assertEquals(Secp256k1Point.decode(ByteFormatter.hexStringToByteArray("04" + X_HEX + Y_HEX)), view.getR());
+		
+		byte[] plainText = new ECIESProcessor().decrypt(view, new BigInteger(PRIVATE_KEY_K_HEX, 16));
+		assertEquals(PLAIN_TEXT_HEX, ByteFormatter.byteArrayToHexString(plainText));
+	}
+	
+	public void testViewSharesBackingData()
+	{
+		byte[] encryptedPayload = ByteFormatter.hexStringToByteArray(ENCRYPTED_PAYLOAD_HEX);
+		byte[] fullPayload = createMsgPayload(encryptedPayload);
+		EncryptedPayloadView view = EncryptedPayloadView.parse(fullPayload, MSG_HEADER_LENGTH, encryptedPayload.length);
+		
+		// A change to the backing array must be visible through the view, which shows that nothing was copied
+		int cipherTextStart = fullPayload.length - ECIESProcessor.MAC_LENGTH - CIPHER_TEXT_HEX.length() / 2;
+		fullPayload[cipherTextStart] ^= 0x01;
+		assertEquals(fullPayload[cipherTextStart], view.getCipherText().get(0));
+		
+		// The MAC no longer matches, so the payload must be rejected
+		assertNull(new ECIESProcessor().tryDecrypt(view, new BigInteger(PRIVATE_KEY_K_HEX, 16)));
+	}
+	
+	public void testDirectBuffer()
+	{
+		byte[] encryptedPayload = ByteFormatter.hexStringToByteArray(ENCRYPTED_PAYLOAD_HEX);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(encryptedPayload.length);
+		buffer.put(encryptedPayload);
+		buffer.flip();
+		
+		EncryptedPayloadView view = EncryptedPayloadView.parse(buffer);
+		assertEquals(0, buffer.position());
+		assertEquals(encryptedPayload.length, buffer.limit());
+		assertEquals(MAC_HEX, toHex(view.getMac()));
+		
+		byte[] plainText = new ECIESProcessor().decrypt(view, new BigInteger(PRIVATE_KEY_K_HEX, 16));
+		assertEquals(PLAIN_TEXT_HEX, ByteFormatter.byteArrayToHexString(plainText));
+	}
+	
+	public void testRandomPayloads()
+	{
+		SecureRandom secRand = new SecureRandom();
+		ECIESProcessor eciesProc = new ECIESProcessor();
+		BigInteger k = Secp256k1.generatePrivateKey(secRand);
+		Secp256k1Point K = FixedBaseMultiplier.multiplyG(k);
+		for (int i = 0; i < 20; i++)
+		{
+			byte[] plainText = new byte[secRand.nextInt(500)];
+			secRand.nextBytes(plainText);
+			byte[] encryptedPayload = eciesProc.encrypt(plainText, K);
+			byte[] fullPayload = createMsgPayload(encryptedPayload);
+			
+			EncryptedPayloadView view = EncryptedPayloadView.parse(fullPayload, MSG_HEADER_LENGTH, encryptedPayload.length);
+			assertEquals(ByteFormatter.byteArrayToHexString(plainText), ByteFormatter.byteArrayToHexString(eciesProc.decrypt(view, k)));
+		}
+	}
+	
+	public void testMalformedPayloadsRejected()
+	{
+		byte[] encryptedPayload = ByteFormatter.hexStringToByteArray(ENCRYPTED_PAYLOAD_HEX);
+		
+		// Too short
+		assertNull(EncryptedPayloadView.tryParse(ByteBuffer.wrap(encryptedPayload, 0, 40)));
+		
+		// The wrong curve type
+		byte[] wrongCurve = encryptedPayload.clone();
+		wrongCurve[ECIESProcessor.IV_LENGTH + 1] = 0x00;
+		assertNull(EncryptedPayloadView.tryParse(ByteBuffer.wrap(wrongCurve)));
+		
+		// An X length that runs past the end of the payload
+		byte[] wrongLength = encryptedPayload.clone();
+		wrongLength[ECIESProcessor.HEADER_LENGTH] = 0x7f;
+		assertNull(EncryptedPayloadView.tryParse(ByteBuffer.wrap(wrongLength)));
+		
+		// A cipher text that is empty, and one that is not a whole number of blocks
+		int cipherTextOffset = ECIESProcessor.HEADER_LENGTH + 4 + (2 * ECIESProcessor.KEY_LENGTH);
+		assertNull(EncryptedPayloadView.tryParse(ByteBuffer.wrap(removeCipherTextBytes(encryptedPayload, cipherTextOffset, encryptedPayload.length - ECIESProcessor.MAC_LENGTH))));
+		assertNull(EncryptedPayloadView.tryParse(ByteBuffer.wrap(removeCipherTextBytes(encryptedPayload, cipherTextOffset, cipherTextOffset + 5))));
+		
+		try
+		{
+			EncryptedPayloadView.parse(wrongLength, 0, wrongLength.length);
+			fail("A malformed payload should have been rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// Expected
+		}
+	}
+	
+	/**
+	 * Removes the bytes between from and to from a payload, keeping the rest of its cipher text and the MAC.
+	 */
+	private byte[] removeCipherTextBytes(byte[] encryptedPayload, int from, int to)
+	{
+		byte[] shortenedPayload = new byte[encryptedPayload.length - (to - from)];
+		System.arraycopy(encryptedPayload, 0, shortenedPayload, 0, from);
+		System.arraycopy(encryptedPayload, to, shortenedPayload, from, encryptedPayload.length - to);
+		return shortenedPayload;
+	}
+	
+	/**
+	 * Puts an encrypted payload after a msg header made of random bytes.
+	 */
+	private byte[] createMsgPayload(byte[] encryptedPayload)
+	{
+		byte[] fullPayload = new byte[MSG_HEADER_LENGTH + encryptedPayload.length];
+		new SecureRandom().nextBytes(fullPayload);
+		System.arraycopy(encryptedPayload, 0, fullPayload, MSG_HEADER_LENGTH, encryptedPayload.length);
+		return fullPayload;
+	}
+	
+	private String toHex(ByteBuffer buffer)
+	{
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return ByteFormatter.byteArrayToHexString(bytes);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,211 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.bitseal.util.ArrayCopier;
+import org.bitseal.util.ByteFormatter;
+
+import android.util.Log;
+
+/**
+ * Tests that EphemeralKeyPool never hands out the same ephemeral key twice,
+ * falls back to inline generation when it is empty, counts hits and misses
+ * correctly, and that payloads encrypted with pooled keys still decrypt.
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_EphemeralKeyPool extends TestCase
+{
+	private static final int POOL_CAPACITY = 8;
+	private static final int NUMBER_OF_THREADS = 4;
+	private static final int KEYS_PER_THREAD = 25;
+	private static final int NUMBER_OF_TIMED_ENCRYPTIONS = 100;
+	
+	/** The longest time to wait for the background thread to fill the pool */
+	private static final long FILL_TIMEOUT_MILLISECONDS = 30000;
+	
+	private static final String TAG = "TEST_EPHEMERAL_KEY_POOL";
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testHitsAndMisses()
+	{
+		EphemeralKeyPool pool = new EphemeralKeyPool(POOL_CAPACITY);
+		assertEquals(0, pool.getSize());
+		
+		// Nothing has been generated yet, so the key must be generated inline
+		pool.take();
+		assertEquals(0, pool.getHits());
+		assertEquals(1, pool.getMisses());
+		
+		pool.fill();
+		assertEquals(POOL_CAPACITY, pool.getSize());
+		for (int i = 0; i < POOL_CAPACITY + 2; i++)
+		{
+			pool.take();
+		}
+		assertEquals(POOL_CAPACITY, pool.getHits());
+		assertEquals(3, pool.getMisses());
+		assertEquals(0, pool.getSize());
+	}
+	
+	public void testKeysAreValid()
+	{
+		EphemeralKeyPool pool = new EphemeralKeyPool(POOL_CAPACITY);
+		pool.fill();
+		for (int i = 0; i < POOL_CAPACITY * 2; i++)
+		{
+			EphemeralKey key = pool.take();
+			assertEquals(FixedBaseMultiplier.multiplyG(key.getPrivateKey()), key.getPublicKey());
+			assertEquals(ECIESProcessor.IV_LENGTH, key.getIV().length);
+		}
+	}
+	
+	public void testKeysCannotBeReused()
+	{
+		EphemeralKeyPool pool = new EphemeralKeyPool(POOL_CAPACITY);
+		EphemeralKey key = pool.take();
+		try
+		{
+			key.markUsed();
+			fail("An ephemeral key should not be usable twice");
+		}
+		catch (IllegalStateException e)
+		{
+			// Expected
+		}
+	}
+	
+	public void testNoReuseAcrossThreads() throws InterruptedException
+	{
+		final EphemeralKeyPool pool = new EphemeralKeyPool(POOL_CAPACITY);
+		pool.start();
+		final List<EphemeralKey> takenKeys = Collections.synchronizedList(new ArrayList<EphemeralKey>());
+		Thread[] threads = new Thread[NUMBER_OF_THREADS];
+		for (int i = 0; i < NUMBER_OF_THREADS; i++)
+		{
+			threads[i] = new Thread("EphemeralKeyTaker" + i)
+			{
+				@Override
+				public void run()
+				{
+					for (int j = 0; j < KEYS_PER_THREAD; j++)
+					{
+						takenKeys.add(pool.take());
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+		pool.stop();
+		
+		int numberOfKeys = NUMBER_OF_THREADS * KEYS_PER_THREAD;
+		assertEquals(numberOfKeys, takenKeys.size());
+		assertEquals(numberOfKeys, pool.getHits() + pool.getMisses());
+		
+		Set<BigInteger> privateKeys = new HashSet<BigInteger>();
+		Set<String> ivs = new HashSet<String>();
+		for (EphemeralKey key : takenKeys)
+		{
+			assertTrue(privateKeys.add(key.getPrivateKey()));
+			assertTrue(ivs.add(ByteFormatter.byteArrayToHexString(key.getIV())));
+		}
+		Log.i(TAG, "Keys taken from " + NUMBER_OF_THREADS + " threads: " + numberOfKeys + ", hits: " + pool.getHits() + ", misses: " + pool.getMisses());
+	}
+	
+	public void testBackgroundFill() throws InterruptedException
+	{
+		EphemeralKeyPool pool = new EphemeralKeyPool(POOL_CAPACITY);
+		pool.start();
+		long deadline = System.currentTimeMillis() + FILL_TIMEOUT_MILLISECONDS;
+		while (pool.getSize() < POOL_CAPACITY && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10);
+		}
+		assertEquals(POOL_CAPACITY, pool.getSize());
+		
+		// The pool must stay bounded while the background thread is running
+		Thread.sleep(100);
+		assertEquals(POOL_CAPACITY, pool.getSize());
+		pool.stop();
+		
+		// Keys which were generated before the pool was stopped can still be taken
+		pool.take();
+		assertEquals(1, pool.getHits());
+		assertEquals(0, pool.getMisses());
+	}
+	
+	public void testEncryptWithPool()
+	{
+		SecureRandom secRand = new SecureRandom();
+		BigInteger k = Secp256k1.generatePrivateKey(secRand);
+		Secp256k1Point K = FixedBaseMultiplier.multiplyG(k);
+		EphemeralKeyPool pool = new EphemeralKeyPool(POOL_CAPACITY);
+		pool.fill();
+		ECIESProcessor eciesProc = new ECIESProcessor(pool);
+		
+		// Encrypt more payloads than the pool holds, so that both hits and misses are covered
+		Set<String> ivs = new HashSet<String>();
+		for (int i = 0; i < POOL_CAPACITY * 2; i++)
+		{
+			byte[] plainText = new byte[secRand.nextInt(200)];
+			secRand.nextBytes(plainText);
+			byte[] encryptedPayload = eciesProc.encrypt(plainText, K);
+			assertTrue(ivs.add(ByteFormatter.byteArrayToHexString(ArrayCopier.copyOfRange(encryptedPayload, 0, ECIESProcessor.IV_LENGTH))));
+			assertEquals(ByteFormatter.byteArrayToHexString(plainText), ByteFormatter.byteArrayToHexString(eciesProc.decrypt(encryptedPayload, k)));
+		}
+		assertEquals(POOL_CAPACITY, pool.getHits());
+		assertEquals(POOL_CAPACITY, pool.getMisses());
+	}
+	
+	public void testEncryptionTimes()
+	{
+		SecureRandom secRand = new SecureRandom();
+		Secp256k1Point K = FixedBaseMultiplier.multiplyG(Secp256k1.generatePrivateKey(secRand));
+		byte[] plainText = new byte[256];
+		secRand.nextBytes(plainText);
+		
+		ECIESProcessor inlineProc = new ECIESProcessor();
+		long inlineStartTime = System.nanoTime();
+		for (int i = 0; i < NUMBER_OF_TIMED_ENCRYPTIONS; i++)
+		{
+			inlineProc.encrypt(plainText, K);
+		}
+		long inlineTime = System.nanoTime() - inlineStartTime;
+		
+		// Generate the keys before timing, as if they had been made during idle time
+		EphemeralKeyPool pool = new EphemeralKeyPool(NUMBER_OF_TIMED_ENCRYPTIONS);
+		pool.fill();
+		ECIESProcessor pooledProc = new ECIESProcessor(pool);
+		long pooledStartTime = System.nanoTime();
+		for (int i = 0; i < NUMBER_OF_TIMED_ENCRYPTIONS; i++)
+		{
+			pooledProc.encrypt(plainText, K);
+		}
+		long pooledTime = System.nanoTime() - pooledStartTime;
+		assertEquals(NUMBER_OF_TIMED_ENCRYPTIONS, pool.getHits());
+		
+		Log.i(TAG, "Time taken for " + NUMBER_OF_TIMED_ENCRYPTIONS + " encryptions with inline ephemeral keys: " + (inlineTime / 1000000) + " milliseconds");
+		Log.i(TAG, "Time taken for " + NUMBER_OF_TIMED_ENCRYPTIONS + " encryptions with pooled ephemeral keys: " + (pooledTime / 1000000) + " milliseconds");
+	}
+}
\ No newline at end of file
@@ -0,0 +1,107 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.bitseal.crypt.ECKeyPair;
+import org.bitseal.util.ByteFormatter;
+
+import android.util.Log;
+
+/**
+ * Tests that multiplying the generator point using the precomputed table
+ * gives exactly the same public keys as ECKeyPair.
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_FixedBaseMultiplier extends TestCase
+{
+	private static final int NUMBER_OF_RANDOM_KEYS = 100;
+	private static final int NUMBER_OF_TIMED_KEYS = 200;
+	
+	/** A private key and public key taken from Test_EncryptionSpecific */
+	private static final String PRIVATE_KEY_HEX = "5be6facd941b76e9d3ead03029fbdb6b6e0809293f7fb197d0c51f84e96b8ba4";
+	private static final String PUBLIC_KEY_HEX = "040293213dcf1388b61c2ae5cf80fee6ffffc049a2f9fe7365fe3867813ca81292df94686c6afb565ac6149b153d61b3b287ee2c7f997c14238796c12b43a3865a";
+	
+	private static final String TAG = "TEST_FIXED_BASE_MULTIPLIER";
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testKnownKey()
+	{
+		byte[] publicKey = FixedBaseMultiplier.calculatePublicKey(new BigInteger(PRIVATE_KEY_HEX, 16));
+		assertEquals(PUBLIC_KEY_HEX, ByteFormatter.byteArrayToHexString(publicKey));
+	}
+	
+	public void testEdgeCaseKeys()
+	{
+		BigInteger[] edgeCaseKeys = new BigInteger[]{BigInteger.ONE, BigInteger.valueOf(2), BigInteger.valueOf(15), BigInteger.valueOf(16),
+				BigInteger.ONE.shiftLeft(252), BigInteger.ONE.shiftLeft(255), Secp256k1.N.subtract(BigInteger.valueOf(2)), Secp256k1.N.subtract(BigInteger.ONE)};
+		
+		for (BigInteger privateKey : edgeCaseKeys)
+		{
+			byte[] expected = new ECKeyPair(privateKey).getPubKey();
+			assertTrue(Arrays.equals(expected, FixedBaseMultiplier.calculatePublicKey(privateKey)));
+		}
+		
+		assertEquals(Secp256k1.G, FixedBaseMultiplier.multiplyG(BigInteger.ONE));
+		assertTrue(FixedBaseMultiplier.multiplyG(BigInteger.ZERO).isInfinity());
+		assertTrue(FixedBaseMultiplier.multiplyG(Secp256k1.N).isInfinity());
+	}
+	
+	public void testRandomKeys()
+	{
+		SecureRandom secRand = new SecureRandom();
+		for (int i = 0; i < NUMBER_OF_RANDOM_KEYS; i++)
+		{
+			BigInteger privateKey = Secp256k1.generatePrivateKey(secRand);
+			byte[] publicKey = FixedBaseMultiplier.calculatePublicKey(privateKey);
+			assertTrue(Arrays.equals(new ECKeyPair(privateKey).getPubKey(), publicKey));
+			
+			// Check that the encoding can be read back
+			assertTrue(Arrays.equals(publicKey, Secp256k1Point.decode(publicKey).getEncoded()));
+		}
+	}
+	
+	public void testKeyGenerationTimes()
+	{
+		long tableStartTime = System.nanoTime();
+		FixedBaseMultiplier.initialise();
+		Log.i(TAG, "Time taken to build the precomputed table (if not already built): " + ((System.nanoTime() - tableStartTime) / 1000000) + " milliseconds");
+		
+		SecureRandom secRand = new SecureRandom();
+		BigInteger[] privateKeys = new BigInteger[NUMBER_OF_TIMED_KEYS];
+		for (int i = 0; i < NUMBER_OF_TIMED_KEYS; i++)
+		{
+			privateKeys[i] = Secp256k1.generatePrivateKey(secRand);
+		}
+		
+		long ecKeyPairStartTime = System.nanoTime();
+		for (BigInteger privateKey : privateKeys)
+		{
+			new ECKeyPair(privateKey).getPubKey();
+		}
+		long ecKeyPairTime = System.nanoTime() - ecKeyPairStartTime;
+		
+		long fixedBaseStartTime = System.nanoTime();
+		for (BigInteger privateKey : privateKeys)
+		{
+			FixedBaseMultiplier.calculatePublicKey(privateKey);
+		}
+		long fixedBaseTime = System.nanoTime() - fixedBaseStartTime;
+		
+		Log.i(TAG, "Time taken to calculate " + NUMBER_OF_TIMED_KEYS + " public keys using ECKeyPair:           " + (ecKeyPairTime / 1000000) + " milliseconds");
+		Log.i(TAG, "Time taken to calculate " + NUMBER_OF_TIMED_KEYS + " public keys using FixedBaseMultiplier: " + (fixedBaseTime / 1000000) + " milliseconds");
+	}
+}
\ No newline at end of file
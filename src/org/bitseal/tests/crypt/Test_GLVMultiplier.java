@@ -0,0 +1,180 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.bitseal.crypt.ECKeyPair;
+import org.bitseal.util.ByteFormatter;
+
+/**
+ * Tests that the GLV/wNAF variable-base multiplier gives exactly the same
+ * results as ECKeyPair.
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_GLVMultiplier extends TestCase
+{
+	private static final int NUMBER_OF_RANDOM_SCALARS = 100;
+	
+	/** The public key K, private key r and shared secret P taken from Test_EncryptionSpecific */
+	private static final String PUBLIC_KEY_K_HEX = "0409d4e5c0ab3d25fe048c64c9da1a242c7f19417e9517cd266950d72c755713585c6178e97fe092fc897c9a1f1720d5770ae8eaad2fa8fcbd08e9324a5dde1857";
+	private static final String PRIVATE_KEY_R_HEX = "5be6facd941b76e9d3ead03029fbdb6b6e0809293f7fb197d0c51f84e96b8ba4";
+	private static final String SHARED_SECRET_X_HEX = "0db8e3ad8c0cd73fa2b34671b7b247729b101141579d199e0dc0bd024eaefd89";
+	private static final String SHARED_SECRET_Y_HEX = "cac8f528dc90b66811abac517d7497be5292931229be0b743e0503f443c3d296";
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testEndomorphism()
+	{
+		Secp256k1Point phiG = GLVMultiplier.applyEndomorphism(Secp256k1.G);
+		assertEquals(FixedBaseMultiplier.multiplyG(GLVMultiplier.LAMBDA), phiG);
+	}
+	
+	public void testSplitScalar()
+	{
+		SecureRandom secRand = new SecureRandom();
+		for (int i = 0; i < NUMBER_OF_RANDOM_SCALARS; i++)
+		{
+			BigInteger k = Secp256k1.generatePrivateKey(secRand);
+			BigInteger[] halves = GLVMultiplier.splitScalar(k);
+			assertEquals(k, halves[0].add(halves[1].multiply(GLVMultiplier.LAMBDA)).mod(Secp256k1.N));
+			assertTrue(halves[0].bitLength() <= 129);
+			assertTrue(halves[1].bitLength() <= 129);
+		}
+	}
+	
+	public void testWNAF()
+	{
+		SecureRandom secRand = new SecureRandom();
+		for (int i = 0; i < NUMBER_OF_RANDOM_SCALARS; i++)
+		{
+			BigInteger k = new BigInteger(130, secRand);
+			byte[] naf = GLVMultiplier.calculateWNAF(k, GLVMultiplier.WNAF_WIDTH);
+			
+			BigInteger value = BigInteger.ZERO;
+			int lastNonZero = -GLVMultiplier.WNAF_WIDTH;
+			for (int j = naf.length - 1; j >= 0; j--)
+			{
+				value = value.shiftLeft(1).add(BigInteger.valueOf(naf[j]));
+			}
+			for (int j = 0; j < naf.length; j++)
+			{
+				if (naf[j] != 0)
+				{
+					assertTrue((naf[j] & 1) == 1);
+					assertTrue(Math.abs(naf[j]) < (1 << (GLVMultiplier.WNAF_WIDTH - 1)));
+					assertTrue(j - lastNonZero >= GLVMultiplier.WNAF_WIDTH);
+					lastNonZero = j;
+				}
+			}
+			assertEquals(k, value);
+		}
+	}
+	
+	public void testKnownSharedSecret()
+	{
+		Secp256k1Point K = Secp256k1Point.decode(ByteFormatter.hexStringToByteArray(PUBLIC_KEY_K_HEX));
+		Secp256k1Point P = GLVMultiplier.multiply(K, new BigInteger(PRIVATE_KEY_R_HEX, 16));
+		assertEquals(SHARED_SECRET_X_HEX, ByteFormatter.byteArrayToHexString(P.getEncodedX()));
+		assertEquals(new BigInteger(SHARED_SECRET_Y_HEX, 16), P.getY());
+	}
+	
+	public void testAgainstECKeyPair()
+	{
+		SecureRandom secRand = new SecureRandom();
+		BigInteger[] edgeCaseScalars = new BigInteger[]{BigInteger.ONE, BigInteger.valueOf(2), GLVMultiplier.LAMBDA, BigInteger.ONE.shiftLeft(128),
+				Secp256k1.N.subtract(GLVMultiplier.LAMBDA), Secp256k1.N.subtract(BigInteger.ONE)};
+		
+		for (int i = 0; i < NUMBER_OF_RANDOM_SCALARS + edgeCaseScalars.length; i++)
+		{
+			BigInteger a = Secp256k1.generatePrivateKey(secRand);
+			BigInteger k = (i < edgeCaseScalars.length) ? edgeCaseScalars[i] : Secp256k1.generatePrivateKey(secRand);
+			
+			// k * (a * G) = (a * k) * G
+			Secp256k1Point point = Secp256k1Point.decode(new ECKeyPair(a).getPubKey());
+			byte[] expected = new ECKeyPair(a.multiply(k).mod(Secp256k1.N)).getPubKey();
+			assertTrue(Arrays.equals(expected, GLVMultiplier.multiply(point, k).getEncoded()));
+		}
+		
+		assertTrue(GLVMultiplier.multiply(Secp256k1.G, Secp256k1.N).isInfinity());
+	}
+	
+	public void testMultiplyMany()
+	{
+		SecureRandom secRand = new SecureRandom();
+		BigInteger k = Secp256k1.generatePrivateKey(secRand);
+		BigInteger[] a = new BigInteger[NUMBER_OF_RANDOM_SCALARS];
+		Secp256k1Point[] points = new Secp256k1Point[NUMBER_OF_RANDOM_SCALARS + 1];
+		for (int i = 0; i < NUMBER_OF_RANDOM_SCALARS; i++)
+		{
+			a[i] = Secp256k1.generatePrivateKey(secRand);
+			points[i] = Secp256k1Point.decode(new ECKeyPair(a[i]).getPubKey());
+		}
+		
+		// A point at infinity in the middle of the batch must not disturb the other results
+		points[NUMBER_OF_RANDOM_SCALARS] = points[NUMBER_OF_RANDOM_SCALARS / 2];
+		points[NUMBER_OF_RANDOM_SCALARS / 2] = Secp256k1Point.INFINITY;
+		a[NUMBER_OF_RANDOM_SCALARS / 2] = null;
+		
+		Secp256k1Point[] results = GLVMultiplier.multiply(points, k);
+		assertEquals(points.length, results.length);
+		for (int i = 0; i < points.length; i++)
+		{
+			if (points[i].isInfinity())
+			{
+				assertTrue(results[i].isInfinity());
+			}
+			else
+			{
+				assertEquals(GLVMultiplier.multiply(points[i], k), results[i]);
+			}
+		}
+		for (int i = 0; i < NUMBER_OF_RANDOM_SCALARS; i++)
+		{
+			if (a[i] != null)
+			{
+				byte[] expected = new ECKeyPair(a[i].multiply(k).mod(Secp256k1.N)).getPubKey();
+				assertTrue(Arrays.equals(expected, results[i].getEncoded()));
+			}
+		}
+	}
+	
+	public void testMultiplyWithWorkspace()
+	{
+		SecureRandom secRand = new SecureRandom();
+		GLVMultiplier.Workspace workspace = new GLVMultiplier.Workspace();
+		BigInteger[] scalars = new BigInteger[]{Secp256k1.generatePrivateKey(secRand), Secp256k1.generatePrivateKey(secRand), BigInteger.ZERO, Secp256k1.N};
+		
+		// Each scalar is used for several points in a row, as when one key is checked against many payloads
+		for (BigInteger k : scalars)
+		{
+			for (int i = 0; i < 10; i++)
+			{
+				Secp256k1Point point = Secp256k1Point.decode(new ECKeyPair(Secp256k1.generatePrivateKey(secRand)).getPubKey());
+				GLVMultiplier.multiply(point, k, workspace);
+				Secp256k1Point expected = GLVMultiplier.multiply(point, k);
+				if (expected.isInfinity())
+				{
+					assertTrue(workspace.result.isInfinity());
+				}
+				else
+				{
+					assertEquals(expected, workspace.result.toAffine());
+				}
+			}
+			GLVMultiplier.multiply(Secp256k1Point.INFINITY, k, workspace);
+			assertTrue(workspace.result.isInfinity());
+		}
+	}
+}
\ No newline at end of file
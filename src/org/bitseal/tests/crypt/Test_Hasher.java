@@ -0,0 +1,251 @@
+package org.bitseal.tests.crypt;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import junit.framework.TestCase;
+
+import org.bitseal.util.ArrayCopier;
+import org.bitseal.util.ByteUtils;
+import org.spongycastle.jce.provider.BouncyCastleProvider;
+
+import android.util.Log;
+
+/**
+ * Tests that Hasher gives the same results as MessageDigest and Mac when
+ * its input is given in pieces and when it is used again part way through
+ * a hash, and compares the time taken to hash a composite input with and
+ * without concatenating it first.
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_Hasher extends TestCase
+{
+	private static final int NUMBER_OF_RANDOM_INPUTS = 50;
+	private static final int NUMBER_OF_TIMED_HASHES = 5000;
+	
+	/** The lengths of the IV, R and cipher text of a typical msg, which are hashed together for its MAC */
+	private static final int IV_LENGTH = 16;
+	private static final int R_LENGTH = 70;
+	private static final int CIPHER_TEXT_LENGTH = 400;
+	
+	private static final String TAG = "TEST_HASHER";
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testAgainstMessageDigest() throws GeneralSecurityException
+	{
+		SecureRandom secRand = new SecureRandom();
+		BouncyCastleProvider provider = new BouncyCastleProvider();
+		for (int i = 0; i < NUMBER_OF_RANDOM_INPUTS; i++)
+		{
+			byte[] data = new byte[secRand.nextInt(500)];
+			secRand.nextBytes(data);
+			int split = (data.length == 0) ? 0 : secRand.nextInt(data.length);
+			
+			assertTrue(Arrays.equals(MessageDigest.getInstance("SHA-1").digest(data), hashInPieces(Hasher.sha1(), data, split)));
+			assertTrue(Arrays.equals(MessageDigest.getInstance("SHA-256").digest(data), hashInPieces(Hasher.sha256(), data, split)));
+			assertTrue(Arrays.equals(MessageDigest.getInstance("SHA-512").digest(data), hashInPieces(Hasher.sha512(), data, split)));
+			assertTrue(Arrays.equals(MessageDigest.getInstance("RIPEMD160", provider).digest(data), hashInPieces(Hasher.ripemd160(), data, split)));
+			
+			// A double hash, written at an offset into a larger array
+			MessageDigest sha512 = MessageDigest.getInstance("SHA-512");
+			byte[] expected = sha512.digest(sha512.digest(data));
+			byte[] output = new byte[64 + 10];
+			assertEquals(64, Hasher.sha512().update(data).doubleFinal(output, 10));
+			assertTrue(Arrays.equals(expected, ArrayCopier.copyOfRange(output, 10, 74)));
+		}
+	}
+	
+	public void testAgainstMac() throws GeneralSecurityException
+	{
+		SecureRandom secRand = new SecureRandom();
+		for (int i = 0; i < NUMBER_OF_RANDOM_INPUTS; i++)
+		{
+			byte[] data = new byte[secRand.nextInt(500)];
+			secRand.nextBytes(data);
+			byte[] key = new byte[64];
+			secRand.nextBytes(key);
+			int split = (data.length == 0) ? 0 : secRand.nextInt(data.length);
+			
+			// The key is the second half of the array, as key_m is
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(key, 32, 32, "HmacSHA256"));
+			byte[] expected = mac.doFinal(data);
+			assertTrue(Arrays.equals(expected, hashInPieces(Hasher.hmacSHA256(key, 32, 32), data, split)));
+		}
+		
+		try
+		{
+			Hasher.hmacSHA256(new byte[32], 0, 32).doubleFinal(new byte[32], 0);
+			fail("A double hash should not be allowed for an HMAC");
+		}
+		catch (IllegalStateException e)
+		{
+			// Expected
+		}
+	}
+	
+	public void testThreadsHaveTheirOwnHashers() throws InterruptedException
+	{
+		final Hasher[] otherThreadHasher = new Hasher[1];
+		Thread thread = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				otherThreadHasher[0] = Hasher.sha256();
+			}
+		};
+		thread.start();
+		thread.join();
+		Hasher hasher = Hasher.sha256();
+		hasher.doFinal();
+		Hasher sameHasher = Hasher.sha256();
+		sameHasher.doFinal();
+		assertSame(hasher, sameHasher);
+		assertNotSame(hasher, otherThreadHasher[0]);
+	}
+	
+	public void testNestedUse() throws GeneralSecurityException
+	{
+		byte[] outerData = new byte[]{1, 2, 3};
+		byte[] innerData = new byte[]{4, 5, 6};
+		byte[] key = new byte[]{7, 8, 9};
+		
+		// A hash started while another hash of the same algorithm is in progress on this thread must not disturb it
+		Hasher outer = Hasher.sha512().update(outerData);
+		Hasher inner = Hasher.sha512();
+		assertNotSame(outer, inner);
+		byte[] innerHash = inner.update(innerData).doFinal();
+		byte[] outerHash = outer.update(innerData).doFinal();
+		MessageDigest sha512 = MessageDigest.getInstance("SHA-512");
+		assertTrue(Arrays.equals(sha512.digest(innerData), innerHash));
+		assertTrue(Arrays.equals(sha512.digest(ByteUtils.concatenateByteArrays(outerData, innerData)), outerHash));
+		
+		// The same is true of an HMAC, where the nested use has a different key
+		Hasher outerMac = Hasher.hmacSHA256(key, 0, key.length).update(outerData);
+		byte[] innerMac = Hasher.hmacSHA256(outerData, 0, outerData.length).update(innerData).doFinal();
+		byte[] outerMacValue = outerMac.update(innerData).doFinal();
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(outerData, "HmacSHA256"));
+		assertTrue(Arrays.equals(mac.doFinal(innerData), innerMac));
+		mac.init(new SecretKeySpec(key, "HmacSHA256"));
+		assertTrue(Arrays.equals(mac.doFinal(ByteUtils.concatenateByteArrays(outerData, innerData)), outerMacValue));
+		
+		// Once the outer hash is finished, this thread's Hasher is handed out again
+		Hasher hasher = Hasher.sha512();
+		hasher.doFinal();
+		assertSame(outer, hasher);
+	}
+	
+	public void testReleasedAfterFailure() throws GeneralSecurityException
+	{
+		// A Hasher which throws part way through a hash must not stay in use
+		Hasher hasher = Hasher.sha256().update(new byte[]{1, 2, 3});
+		try
+		{
+			hasher.update((byte[]) null);
+			fail("Hashing a null array should have failed");
+		}
+		catch (NullPointerException e)
+		{
+			// Expected
+		}
+		Hasher sameHasher = Hasher.sha256();
+		assertSame(hasher, sameHasher);
+		
+		// The hash is started afresh, and a failure with a ByteBuffer is handled in the same way
+		byte[] data = new byte[]{4, 5, 6};
+		assertTrue(Arrays.equals(MessageDigest.getInstance("SHA-256").digest(data), sameHasher.update(data).doFinal()));
+		try
+		{
+			Hasher.sha256().update((ByteBuffer) null);
+			fail("Hashing a null ByteBuffer should have failed");
+		}
+		catch (NullPointerException e)
+		{
+			// Expected
+		}
+		sameHasher = Hasher.sha256();
+		sameHasher.doFinal();
+		assertSame(hasher, sameHasher);
+		
+		// The same is true of an HMAC whose key is rejected
+		byte[] key = new byte[]{7, 8, 9};
+		Hasher mac = Hasher.hmacSHA256(key, 0, key.length);
+		mac.doFinal();
+		try
+		{
+			Hasher.hmacSHA256(null, 0, 0);
+			fail("An HMAC with a null key should have failed");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// Expected
+		}
+		Hasher sameMac = Hasher.hmacSHA256(key, 0, key.length);
+		sameMac.doFinal();
+		assertSame(mac, sameMac);
+	}
+	
+	public void testHashingTimes() throws GeneralSecurityException
+	{
+		SecureRandom secRand = new SecureRandom();
+		byte[] iv = new byte[IV_LENGTH];
+		byte[] R = new byte[R_LENGTH];
+		byte[] cipherText = new byte[CIPHER_TEXT_LENGTH];
+		byte[] key = new byte[32];
+		secRand.nextBytes(iv);
+		secRand.nextBytes(R);
+		secRand.nextBytes(cipherText);
+		secRand.nextBytes(key);
+		
+		long concatenatedStartTime = System.nanoTime();
+		byte[] concatenatedMac = null;
+		for (int i = 0; i < NUMBER_OF_TIMED_HASHES; i++)
+		{
+			byte[] dataForMac = ByteUtils.concatenateByteArrays(iv, R, cipherText);
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(key, "HmacSHA256"));
+			concatenatedMac = mac.doFinal(dataForMac);
+		}
+		long concatenatedTime = System.nanoTime() - concatenatedStartTime;
+		
+		long hasherStartTime = System.nanoTime();
+		byte[] hasherMac = new byte[32];
+		for (int i = 0; i < NUMBER_OF_TIMED_HASHES; i++)
+		{
+			Hasher.hmacSHA256(key, 0, key.length).update(iv).update(R).update(ByteBuffer.wrap(cipherText)).doFinal(hasherMac, 0);
+		}
+		long hasherTime = System.nanoTime() - hasherStartTime;
+		
+		assertTrue(Arrays.equals(concatenatedMac, hasherMac));
+		Log.i(TAG, "Time taken to calculate " + NUMBER_OF_TIMED_HASHES + " MACs of IV + R + cipher text by concatenating them: " + (concatenatedTime / 1000000) + " milliseconds");
+		Log.i(TAG, "Time taken to calculate " + NUMBER_OF_TIMED_HASHES + " MACs of IV + R + cipher text using Hasher:           " + (hasherTime / 1000000) + " milliseconds");
+	}
+	
+	/**
+	 * Gives the data to a Hasher in two pieces, the first as a byte[] and the second as a ByteBuffer.
+	 */
+	private byte[] hashInPieces(Hasher hasher, byte[] data, int split)
+	{
+		hasher.update(data, 0, split);
+		hasher.update(ByteBuffer.wrap(data, split, data.length - split));
+		return hasher.doFinal();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,220 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import junit.framework.TestCase;
+
+import org.bitseal.util.ArrayCopier;
+import org.bitseal.util.ByteFormatter;
+
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * Tests that HmacKey gives the same MACs as Mac, including for data whose
+ * length is at or near a SHA-256 block boundary, that MACs written into an
+ * existing array allocate no memory, and compares the time taken
+ * to check every key_m against every msg with and without precomputed pad
+ * states.
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_HmacKey extends TestCase
+{
+	private static final int MAX_RANDOM_DATA_LENGTH = 200;
+	
+	/** The number of key_m values and msgs checked against each other for the timing test */
+	private static final int NUMBER_OF_KEY_M_VALUES = 20;
+	private static final int NUMBER_OF_MSGS = 100;
+	
+	/** The length of the data each MAC is calculated over, which is about the size of a short msg */
+	private static final int MSG_LENGTH = 200;
+	
+	/** Test cases 1, 2 and 6 from RFC 4231 */
+	private static final String RFC_4231_KEY_1_HEX = "0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b";
+	private static final String RFC_4231_DATA_1 = "Hi There";
+	private static final String RFC_4231_MAC_1_HEX = "b0344c61d8db38535ca8afceaf0bf12b881dc200c9833da726e9376c2e32cff7";
+	private static final String RFC_4231_KEY_2 = "Jefe";
+	private static final String RFC_4231_DATA_2 = "what do ya want for nothing?";
+	private static final String RFC_4231_MAC_2_HEX = "5bdcc146bf60754e6a042426089575c75a003f089d2739839dec58b964ec3843";
+	private static final int RFC_4231_KEY_6_LENGTH = 131;
+	private static final String RFC_4231_DATA_6 = "Test Using Larger Than Block-Size Key - Hash Key First";
+	private static final String RFC_4231_MAC_6_HEX = "60e431591ee0b67f0d8a26aacbf5b77f8e0bc6213728c5140546040f0ee37f54";
+	
+	/** Data taken from Test_DecryptionSpecific */
+	private static final String ENCRYPTED_PAYLOAD_HEX = "bddb7c2829b08038753084a2f3991681" + "02ca" + "0020" + "0293213dcf1388b61c2ae5cf80fee6ffffc049a2f9fe7365fe3867813ca81292"
+			+ "0020" + "df94686c6afb565ac6149b153d61b3b287ee2c7f997c14238796c12b43a3865a"
+			+ "64203d5b24688e2547bba345fa139a5a1d962220d4d48a0cf3b1572c0d95b61643a6f9a0d75af7eacc1bd957147bf723"
+			+ "f2526d61b4851fb23409863826fd206165edc021368c7946571cead69046e619";
+	private static final String PRIVATE_KEY_K_HEX = "02ba2744e65ccd7b1954b0a33b80d75e16cab47f2b331ff0b6d184b71983da85";
+	
+	private static final String TAG = "TEST_HMAC_KEY";
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testRFC4231Vectors()
+	{
+		byte[] key1 = ByteFormatter.hexStringToByteArray(RFC_4231_KEY_1_HEX);
+		assertEquals(RFC_4231_MAC_1_HEX, ByteFormatter.byteArrayToHexString(new HmacKey(key1).calculateMac(RFC_4231_DATA_1.getBytes())));
+		assertEquals(RFC_4231_MAC_2_HEX, ByteFormatter.byteArrayToHexString(new HmacKey(RFC_4231_KEY_2.getBytes()).calculateMac(RFC_4231_DATA_2.getBytes())));
+		
+		// A key longer than a block is hashed first
+		byte[] key6 = new byte[RFC_4231_KEY_6_LENGTH];
+		Arrays.fill(key6, (byte) 0xaa);
+		assertEquals(RFC_4231_MAC_6_HEX, ByteFormatter.byteArrayToHexString(new HmacKey(key6).calculateMac(RFC_4231_DATA_6.getBytes())));
+	}
+	
+	public void testAgainstMac() throws GeneralSecurityException
+	{
+		SecureRandom secRand = new SecureRandom();
+		byte[] key = new byte[64];
+		secRand.nextBytes(key);
+		
+		// key_m is the second half of the derived key
+		HmacKey hmacKey = new HmacKey(key, 32, 32);
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(key, 32, 32, "HmacSHA256"));
+		
+		// Every length up to the maximum, so that the data ends at, just before and just after each block boundary
+		for (int length = 0; length <= MAX_RANDOM_DATA_LENGTH; length++)
+		{
+			byte[] data = new byte[length];
+			secRand.nextBytes(data);
+			assertTrue(Arrays.equals(mac.doFinal(data), hmacKey.calculateMac(data)));
+			
+			// A read-only buffer has no accessible array, and its position must be left where it was
+			ByteBuffer buffer = ByteBuffer.wrap(data).asReadOnlyBuffer();
+			byte[] output = new byte[HmacKey.MAC_LENGTH + 5];
+			hmacKey.calculateMac(buffer, output, 5);
+			assertEquals(0, buffer.position());
+			assertTrue(Arrays.equals(mac.doFinal(data), ArrayCopier.copyOfRange(output, 5, output.length)));
+			
+			// The same data in the middle of a larger array and of a direct buffer
+			byte[] surroundedData = new byte[length + 7];
+			System.arraycopy(data, 0, surroundedData, 3, length);
+			hmacKey.calculateMac(surroundedData, 3, length, output, 5);
+			assertTrue(Arrays.equals(mac.doFinal(data), ArrayCopier.copyOfRange(output, 5, output.length)));
+			ByteBuffer directBuffer = ByteBuffer.allocateDirect(surroundedData.length);
+			directBuffer.put(surroundedData);
+			directBuffer.position(3);
+			directBuffer.limit(3 + length);
+			hmacKey.calculateMac(directBuffer, output, 5);
+			assertEquals(3, directBuffer.position());
+			assertTrue(Arrays.equals(mac.doFinal(data), ArrayCopier.copyOfRange(output, 5, output.length)));
+		}
+	}
+	
+	public void testNoAllocationPerMac()
+	{
+		byte[] encryptedPayload = ByteFormatter.hexStringToByteArray(ENCRYPTED_PAYLOAD_HEX);
+		EncryptedPayloadView view = EncryptedPayloadView.parse(encryptedPayload, 0, encryptedPayload.length);
+		HmacKey hmacKey = new HmacKey(new ECIESProcessor().deriveKey(view.getR(), new BigInteger(PRIVATE_KEY_K_HEX, 16)), 32, 32);
+		byte[] data = new byte[MAX_RANDOM_DATA_LENGTH];
+		ByteBuffer heapBuffer = ByteBuffer.wrap(data);
+		ByteBuffer directBuffer = ByteBuffer.allocateDirect(MAX_RANDOM_DATA_LENGTH);
+		byte[] output = new byte[HmacKey.MAC_LENGTH];
+		
+		// Calculate one MAC of each kind first, so that the one-off setup of the thread's workspace is not counted
+		hmacKey.calculateMac(data, 0, data.length, output, 0);
+		hmacKey.calculateMac(heapBuffer, output, 0);
+		hmacKey.calculateMac(directBuffer, output, 0);
+		assertTrue(hmacKey.macMatches(view));
+		
+		Debug.startAllocCounting();
+		Debug.resetThreadAllocSize();
+		for (int i = 0; i < NUMBER_OF_MSGS; i++)
+		{
+			hmacKey.calculateMac(data, 0, data.length, output, 0);
+			hmacKey.calculateMac(heapBuffer, output, 0);
+			hmacKey.calculateMac(directBuffer, output, 0);
+			hmacKey.macMatches(view);
+		}
+		long allocationSize = Debug.getThreadAllocSize();
+		Debug.stopAllocCounting();
+		assertEquals(0, allocationSize);
+	}
+	
+	public void testMacMatches()
+	{
+		byte[] encryptedPayload = ByteFormatter.hexStringToByteArray(ENCRYPTED_PAYLOAD_HEX);
+		EncryptedPayloadView view = EncryptedPayloadView.parse(encryptedPayload, 0, encryptedPayload.length);
+		byte[] key = new ECIESProcessor().deriveKey(view.getR(), new BigInteger(PRIVATE_KEY_K_HEX, 16));
+		
+		assertTrue(new HmacKey(key, 32, 32).macMatches(view));
+		assertFalse(new HmacKey(key, 0, 32).macMatches(view));
+	}
+	
+	public void testCrossProductTimes() throws GeneralSecurityException
+	{
+		SecureRandom secRand = new SecureRandom();
+		byte[][] keyMValues = new byte[NUMBER_OF_KEY_M_VALUES][32];
+		byte[][] msgs = new byte[NUMBER_OF_MSGS][MSG_LENGTH];
+		for (byte[] key_m : keyMValues)
+		{
+			secRand.nextBytes(key_m);
+		}
+		for (byte[] msg : msgs)
+		{
+			secRand.nextBytes(msg);
+		}
+		
+		// Calculate a MAC for every key_m and msg pair, as the server does in Test_MessageIdentification
+		long macStartTime = System.nanoTime();
+		byte[] lastMac = null;
+		for (byte[] key_m : keyMValues)
+		{
+			for (byte[] msg : msgs)
+			{
+				Mac mac = Mac.getInstance("HmacSHA256");
+				mac.init(new SecretKeySpec(key_m, "HmacSHA256"));
+				lastMac = mac.doFinal(msg);
+			}
+		}
+		long macTime = System.nanoTime() - macStartTime;
+		
+		long hasherStartTime = System.nanoTime();
+		byte[] hasherMac = new byte[HmacKey.MAC_LENGTH];
+		for (byte[] key_m : keyMValues)
+		{
+			for (byte[] msg : msgs)
+			{
+				Hasher.hmacSHA256(key_m, 0, key_m.length).update(msg).doFinal(hasherMac, 0);
+			}
+		}
+		long hasherTime = System.nanoTime() - hasherStartTime;
+		
+		long hmacKeyStartTime = System.nanoTime();
+		byte[] hmacKeyMac = new byte[HmacKey.MAC_LENGTH];
+		for (byte[] key_m : keyMValues)
+		{
+			HmacKey hmacKey = new HmacKey(key_m);
+			for (byte[] msg : msgs)
+			{
+				hmacKey.calculateMac(ByteBuffer.wrap(msg), hmacKeyMac, 0);
+			}
+		}
+		long hmacKeyTime = System.nanoTime() - hmacKeyStartTime;
+		
+		assertTrue(Arrays.equals(lastMac, hasherMac));
+		assertTrue(Arrays.equals(lastMac, hmacKeyMac));
+		int numberOfMacs = NUMBER_OF_KEY_M_VALUES * NUMBER_OF_MSGS;
+		Log.i(TAG, "Time taken to calculate " + numberOfMacs + " MACs using a new Mac for each:  " + (macTime / 1000000) + " milliseconds");
+		Log.i(TAG, "Time taken to calculate " + numberOfMacs + " MACs using Hasher:              " + (hasherTime / 1000000) + " milliseconds");
+		Log.i(TAG, "Time taken to calculate " + numberOfMacs + " MACs using an HmacKey per key_m: " + (hmacKeyTime / 1000000) + " milliseconds");
+	}
+}
\ No newline at end of file
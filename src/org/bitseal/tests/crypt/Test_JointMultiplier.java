@@ -0,0 +1,106 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import junit.framework.TestCase;
+
+import org.spongycastle.math.ec.ECPoint;
+
+import android.util.Log;
+
+/**
+ * Tests that JointMultiplier gives the same results as calculating u1 * G
+ * and u2 * Q separately with SpongyCastle, including the edge cases, and
+ * compares the time taken by the two approaches.
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_JointMultiplier extends TestCase
+{
+	private static final int NUMBER_OF_RANDOM_SCALARS = 100;
+	private static final int NUMBER_OF_TIMED_MULTIPLICATIONS = 200;
+	
+	private static final String TAG = "TEST_JOINT_MULTIPLIER";
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testAgainstSpongyCastle()
+	{
+		SecureRandom secRand = new SecureRandom();
+		ECPoint pointG = Secp256k1.G.toPublicKey().getQ();
+		for (int i = 0; i < NUMBER_OF_RANDOM_SCALARS; i++)
+		{
+			BigInteger u1 = Secp256k1.generatePrivateKey(secRand);
+			BigInteger u2 = Secp256k1.generatePrivateKey(secRand);
+			Secp256k1Point Q = FixedBaseMultiplier.multiplyG(Secp256k1.generatePrivateKey(secRand));
+			ECPoint expected = pointG.multiply(u1).add(Q.toPublicKey().getQ().multiply(u2));
+			assertEquals(Secp256k1Point.fromECPoint(expected), JointMultiplier.multiply(u1, u2, Q));
+		}
+	}
+	
+	public void testEdgeCases()
+	{
+		SecureRandom secRand = new SecureRandom();
+		BigInteger u1 = Secp256k1.generatePrivateKey(secRand);
+		BigInteger u2 = Secp256k1.generatePrivateKey(secRand);
+		Secp256k1Point Q = FixedBaseMultiplier.multiplyG(Secp256k1.generatePrivateKey(secRand));
+		
+		// One of the scalars is zero, or the point is the point at infinity
+		assertEquals(GLVMultiplier.multiply(Q, u2), JointMultiplier.multiply(BigInteger.ZERO, u2, Q));
+		assertEquals(FixedBaseMultiplier.multiplyG(u1), JointMultiplier.multiply(u1, BigInteger.ZERO, Q));
+		assertEquals(FixedBaseMultiplier.multiplyG(u1), JointMultiplier.multiply(u1, u2, Secp256k1Point.INFINITY));
+		assertTrue(JointMultiplier.multiply(BigInteger.ZERO, BigInteger.ZERO, Q).isInfinity());
+		
+		// Q = G, so the two halves of the sum can cancel out or need a doubling
+		assertTrue(JointMultiplier.multiply(u1, Secp256k1.N.subtract(u1), Secp256k1.G).isInfinity());
+		assertEquals(FixedBaseMultiplier.multiplyG(u1.shiftLeft(1)), JointMultiplier.multiply(u1, u1, Secp256k1.G));
+		
+		// Scalars which are not reduced modulo N
+		assertEquals(JointMultiplier.multiply(u1, u2, Q), JointMultiplier.multiply(u1.add(Secp256k1.N), u2.add(Secp256k1.N), Q));
+	}
+	
+	public void testMultiplicationTimes()
+	{
+		SecureRandom secRand = new SecureRandom();
+		JointMultiplier.initialise();
+		BigInteger[] u1 = new BigInteger[NUMBER_OF_TIMED_MULTIPLICATIONS];
+		BigInteger[] u2 = new BigInteger[NUMBER_OF_TIMED_MULTIPLICATIONS];
+		Secp256k1Point[] Q = new Secp256k1Point[NUMBER_OF_TIMED_MULTIPLICATIONS];
+		for (int i = 0; i < NUMBER_OF_TIMED_MULTIPLICATIONS; i++)
+		{
+			u1[i] = Secp256k1.generatePrivateKey(secRand);
+			u2[i] = Secp256k1.generatePrivateKey(secRand);
+			Q[i] = FixedBaseMultiplier.multiplyG(Secp256k1.generatePrivateKey(secRand));
+		}
+		
+		long separateStartTime = System.nanoTime();
+		JacobianPoint.Scratch scratch = new JacobianPoint.Scratch();
+		for (int i = 0; i < NUMBER_OF_TIMED_MULTIPLICATIONS; i++)
+		{
+			JacobianPoint result = new JacobianPoint();
+			FixedBaseMultiplier.multiplyG(u1[i], result, scratch);
+			result.add(GLVMultiplier.multiply(new Secp256k1Point[]{Q[i]}, u2[i], scratch)[0], false, scratch);
+			result.toAffine(scratch);
+		}
+		long separateTime = System.nanoTime() - separateStartTime;
+		
+		long jointStartTime = System.nanoTime();
+		for (int i = 0; i < NUMBER_OF_TIMED_MULTIPLICATIONS; i++)
+		{
+			JointMultiplier.multiply(u1[i], u2[i], Q[i]);
+		}
+		long jointTime = System.nanoTime() - jointStartTime;
+		
+		Log.i(TAG, "Time taken for " + NUMBER_OF_TIMED_MULTIPLICATIONS + " calculations of u1 * G + u2 * Q using separate multiplications: " + (separateTime / 1000000) + " milliseconds");
+		Log.i(TAG, "Time taken for " + NUMBER_OF_TIMED_MULTIPLICATIONS + " calculations of u1 * G + u2 * Q using JointMultiplier:          " + (jointTime / 1000000) + " milliseconds");
+	}
+}
\ No newline at end of file
@@ -0,0 +1,183 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.bitseal.crypt.KeyConverter;
+import org.bitseal.util.ByteFormatter;
+import org.spongycastle.jce.interfaces.ECPrivateKey;
+import org.spongycastle.jce.interfaces.ECPublicKey;
+import org.spongycastle.math.ec.ECPoint;
+
+import android.util.Log;
+
+/**
+ * Tests the limb-based secp256k1 field arithmetic against BigInteger, and
+ * checks that points can be passed across the KeyConverter and ECPoint
+ * boundaries using the data from Test_EncryptionSpecific and
+ * Test_SignatureSpecific.
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_Secp256k1Field extends TestCase
+{
+	private static final int NUMBER_OF_RANDOM_VALUES = 200;
+	private static final int NUMBER_OF_TIMED_MULTIPLICATIONS = 200;
+	
+	/** Data taken from Test_EncryptionSpecific */
+	private static final String PUBLIC_KEY_K_HEX = "0409d4e5c0ab3d25fe048c64c9da1a242c7f19417e9517cd266950d72c755713585c6178e97fe092fc897c9a1f1720d5770ae8eaad2fa8fcbd08e9324a5dde1857";
+	private static final String PRIVATE_KEY_R_HEX = "5be6facd941b76e9d3ead03029fbdb6b6e0809293f7fb197d0c51f84e96b8ba4";
+	private static final String SHARED_SECRET_X_HEX = "0db8e3ad8c0cd73fa2b34671b7b247729b101141579d199e0dc0bd024eaefd89";
+	private static final String SHARED_SECRET_Y_HEX = "cac8f528dc90b66811abac517d7497be5292931229be0b743e0503f443c3d296";
+	
+	/** Data taken from Test_SignatureSpecific */
+	private static final String PRIVATE_SIGNING_KEY_WIF = "5HynQJefWMVXbkft2RB9tkLJ3EWk4UgsbFg1CAsNN5DEHtw9tTR";
+	private static final String PUBLIC_SIGNING_KEY_HEX = "04eac9804fced9771b5b43135de14a5290a8b5628770358eb51e881d2a9ad8d77cc2e63eafb7ac6073866838b42663f8e8eabccafa42a1c039d1141ffbf365d7b5";
+	
+	private static final String TAG = "TEST_SECP256K1_FIELD";
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testFieldArithmetic()
+	{
+		BigInteger p = Secp256k1.P;
+		ArrayList<BigInteger> values = new ArrayList<BigInteger>();
+		values.add(BigInteger.ZERO);
+		values.add(BigInteger.ONE);
+		values.add(BigInteger.valueOf(977));
+		values.add(BigInteger.ONE.shiftLeft(32));
+		values.add(BigInteger.ONE.shiftLeft(255));
+		values.add(p.subtract(BigInteger.ONE));
+		values.add(p.subtract(BigInteger.valueOf(2)));
+		values.add(p.shiftRight(1));
+		SecureRandom secRand = new SecureRandom();
+		for (int i = 0; i < NUMBER_OF_RANDOM_VALUES; i++)
+		{
+			values.add(new BigInteger(256, secRand).mod(p));
+		}
+		
+		int[] wide = Secp256k1Field.createWide();
+		int[] result = Secp256k1Field.create();
+		for (int i = 0; i < values.size(); i++)
+		{
+			BigInteger a = values.get(i);
+			BigInteger b = values.get((i * 7 + 3) % values.size());
+			int[] x = Secp256k1Field.fromBigInteger(a);
+			int[] y = Secp256k1Field.fromBigInteger(b);
+			
+			assertEquals(a, Secp256k1Field.toBigInteger(x));
+			
+			Secp256k1Field.add(x, y, result);
+			assertEquals(a.add(b).mod(p), Secp256k1Field.toBigInteger(result));
+			
+			Secp256k1Field.subtract(x, y, result);
+			assertEquals(a.subtract(b).mod(p), Secp256k1Field.toBigInteger(result));
+			
+			Secp256k1Field.negate(x, result);
+			assertEquals(a.negate().mod(p), Secp256k1Field.toBigInteger(result));
+			
+			Secp256k1Field.multiply(x, y, result, wide);
+			assertEquals(a.multiply(b).mod(p), Secp256k1Field.toBigInteger(result));
+			
+			Secp256k1Field.square(x, result, wide);
+			assertEquals(a.multiply(a).mod(p), Secp256k1Field.toBigInteger(result));
+			
+			if (a.signum() != 0)
+			{
+				Secp256k1Field.invert(x, result);
+				assertEquals(a.modInverse(p), Secp256k1Field.toBigInteger(result));
+			}
+			
+			// Check that the output may be the same array as an input
+			Secp256k1Field.multiply(x, y, x, wide);
+			assertEquals(a.multiply(b).mod(p), Secp256k1Field.toBigInteger(x));
+		}
+	}
+	
+	public void testEncryptionSpecificPoints()
+	{
+		KeyConverter keyConv = new KeyConverter();
+		ECPublicKey pubKeyK = keyConv.reconstructPublicKey(ByteFormatter.hexStringToByteArray(PUBLIC_KEY_K_HEX));
+		ECPrivateKey privKeyR = keyConv.reconstructPrivateKey(ByteFormatter.hexStringToByteArray(PRIVATE_KEY_R_HEX));
+		
+		// Take K in through the ECPublicKey boundary and check that it comes out unchanged
+		Secp256k1Point K = Secp256k1Point.fromPublicKey(pubKeyK);
+		assertEquals(PUBLIC_KEY_K_HEX, ByteFormatter.byteArrayToHexString(K.getEncoded()));
+		assertEquals(K, Secp256k1Point.fromPublicKey(K.toPublicKey()));
+		
+		// Calculate P = r * K, and check it against the SpongyCastle result and the expected values
+		Secp256k1Point P = GLVMultiplier.multiply(K, privKeyR.getD());
+		ECPoint pointP = pubKeyK.getQ().multiply(privKeyR.getD());
+		assertEquals(P, Secp256k1Point.fromECPoint(pointP));
+		assertEquals(SHARED_SECRET_X_HEX, ByteFormatter.byteArrayToHexString(P.getEncodedX()));
+		assertEquals(new BigInteger(SHARED_SECRET_Y_HEX, 16), P.getY());
+	}
+	
+	public void testSignatureSpecificKeys()
+	{
+		KeyConverter keyConv = new KeyConverter();
+		ECPrivateKey privateSigningKey = keyConv.decodePrivateKeyFromWIF(PRIVATE_SIGNING_KEY_WIF);
+		byte[] publicSigningKey = FixedBaseMultiplier.calculatePublicKey(privateSigningKey.getD());
+		assertEquals(PUBLIC_SIGNING_KEY_HEX, ByteFormatter.byteArrayToHexString(publicSigningKey));
+		
+		ECPublicKey ecPublicSigningKey = keyConv.reconstructPublicKey(publicSigningKey);
+		assertTrue(Arrays.equals(publicSigningKey, Secp256k1Point.fromPublicKey(ecPublicSigningKey).getEncoded()));
+	}
+	
+	public void testInvalidPointsRejected()
+	{
+		byte[] encoded = ByteFormatter.hexStringToByteArray(PUBLIC_KEY_K_HEX);
+		encoded[64] ^= 0x01;
+		try
+		{
+			Secp256k1Point.decode(encoded);
+			fail("A point that is not on the curve should have been rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// Expected
+		}
+	}
+	
+	public void testMultiplicationTimes()
+	{
+		SecureRandom secRand = new SecureRandom();
+		KeyConverter keyConv = new KeyConverter();
+		ECPublicKey R = keyConv.reconstructPublicKey(FixedBaseMultiplier.calculatePublicKey(Secp256k1.generatePrivateKey(secRand)));
+		Secp256k1Point point = Secp256k1Point.fromPublicKey(R);
+		BigInteger[] scalars = new BigInteger[NUMBER_OF_TIMED_MULTIPLICATIONS];
+		for (int i = 0; i < NUMBER_OF_TIMED_MULTIPLICATIONS; i++)
+		{
+			scalars[i] = Secp256k1.generatePrivateKey(secRand);
+		}
+		
+		long spongyCastleStartTime = System.nanoTime();
+		for (BigInteger k : scalars)
+		{
+			R.getQ().multiply(k).getX().toBigInteger();
+		}
+		long spongyCastleTime = System.nanoTime() - spongyCastleStartTime;
+		
+		long glvStartTime = System.nanoTime();
+		for (BigInteger k : scalars)
+		{
+			GLVMultiplier.multiply(point, k).getEncodedX();
+		}
+		long glvTime = System.nanoTime() - glvStartTime;
+		
+		Log.i(TAG, "Time taken for " + NUMBER_OF_TIMED_MULTIPLICATIONS + " point multiplications using SpongyCastle:  " + (spongyCastleTime / 1000000) + " milliseconds");
+		Log.i(TAG, "Time taken for " + NUMBER_OF_TIMED_MULTIPLICATIONS + " point multiplications using GLVMultiplier: " + (glvTime / 1000000) + " milliseconds");
+	}
+}
\ No newline at end of file
@@ -0,0 +1,231 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.bitseal.util.ByteFormatter;
+
+import android.util.Log;
+
+/**
+ * Tests that TrialDecryptor finds the key a payload was encrypted to among
+ * many keys, with and without worker threads, and compares the time taken
+ * with trying each key in turn.
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_TrialDecryptor extends TestCase
+{
+	private static final int NUMBER_OF_KEYS = 40;
+	private static final int NUMBER_OF_TIMED_PAYLOADS = 20;
+	private static final int PLAIN_TEXT_LENGTH = 300;
+	
+	/** The number of workers used to test the threaded path, even on a device with a single core */
+	private static final int NUMBER_OF_WORKERS = 4;
+	
+	/** Data taken from Test_DecryptionSpecific */
+	private static final String ENCRYPTED_PAYLOAD_HEX = "bddb7c2829b08038753084a2f3991681" + "02ca" + "0020" + "0293213dcf1388b61c2ae5cf80fee6ffffc049a2f9fe7365fe3867813ca81292"
+			+ "0020" + "df94686c6afb565ac6149b153d61b3b287ee2c7f997c14238796c12b43a3865a"
+			+ "64203d5b24688e2547bba345fa139a5a1d962220d4d48a0cf3b1572c0d95b61643a6f9a0d75af7eacc1bd957147bf723"
+			+ "f2526d61b4851fb23409863826fd206165edc021368c7946571cead69046e619";
+	private static final String PRIVATE_KEY_K_HEX = "02ba2744e65ccd7b1954b0a33b80d75e16cab47f2b331ff0b6d184b71983da85";
+	private static final String PLAIN_TEXT_HEX = "54686520717569636b2062726f776e20666f78206a756d7073206f76657220746865206c617a7920646f672e";
+	
+	private static final String TAG = "TEST_TRIAL_DECRYPTOR";
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testDecryptionSpecific()
+	{
+		SecureRandom secRand = new SecureRandom();
+		BigInteger[] keys = generateKeys(secRand);
+		keys[NUMBER_OF_KEYS - 1] = new BigInteger(PRIVATE_KEY_K_HEX, 16);
+		
+		TrialDecryptor.Match match = new TrialDecryptor(keys).tryDecrypt(ByteFormatter.hexStringToByteArray(ENCRYPTED_PAYLOAD_HEX));
+		assertNotNull(match);
+		assertEquals(NUMBER_OF_KEYS - 1, match.getKeyIndex());
+		assertEquals(PLAIN_TEXT_HEX, ByteFormatter.byteArrayToHexString(match.getPlainText()));
+	}
+	
+	public void testTrialDecryption()
+	{
+		SecureRandom secRand = new SecureRandom();
+		BigInteger[] keys = generateKeys(secRand);
+		TrialDecryptor trialDecryptor = new TrialDecryptor(keys);
+		ECIESProcessor eciesProc = new ECIESProcessor();
+		
+		// Try a key from the first chunk, a key from the middle and the last key, which is in a partly filled chunk
+		int[] keyIndexes = new int[]{0, NUMBER_OF_KEYS / 2, NUMBER_OF_KEYS - 1};
+		for (int keyIndex : keyIndexes)
+		{
+			byte[] plainText = new byte[PLAIN_TEXT_LENGTH];
+			secRand.nextBytes(plainText);
+			byte[] encryptedPayload = eciesProc.encrypt(plainText, FixedBaseMultiplier.multiplyG(keys[keyIndex]));
+			EncryptedPayloadView view = EncryptedPayloadView.parse(encryptedPayload, 0, encryptedPayload.length);
+			
+			TrialDecryptor.Match match = trialDecryptor.tryDecrypt(view, 1);
+			assertEquals(keyIndex, match.getKeyIndex());
+			assertTrue(Arrays.equals(plainText, match.getPlainText()));
+			
+			TrialDecryptor.Match parallelMatch = trialDecryptor.tryDecrypt(view, NUMBER_OF_WORKERS);
+			assertEquals(keyIndex, parallelMatch.getKeyIndex());
+			assertTrue(Arrays.equals(plainText, parallelMatch.getPlainText()));
+		}
+		
+		// A payload encrypted to a key we do not have, a payload that has been tampered with and a malformed payload
+		byte[] otherPayload = eciesProc.encrypt(new byte[PLAIN_TEXT_LENGTH], FixedBaseMultiplier.multiplyG(Secp256k1.generatePrivateKey(secRand)));
+		assertNull(trialDecryptor.tryDecrypt(otherPayload));
+		byte[] tamperedPayload = eciesProc.encrypt(new byte[PLAIN_TEXT_LENGTH], FixedBaseMultiplier.multiplyG(keys[1]));
+		tamperedPayload[tamperedPayload.length - 40] ^= 0x01;
+		assertNull(trialDecryptor.tryDecrypt(tamperedPayload));
+		assertNull(trialDecryptor.tryDecrypt(new byte[10]));
+		assertNull(new TrialDecryptor(new BigInteger[0]).tryDecrypt(otherPayload));
+		trialDecryptor.close();
+	}
+	
+	public void testCraftedPayloadsRejected() throws GeneralSecurityException
+	{
+		SecureRandom secRand = new SecureRandom();
+		BigInteger[] keys = generateKeys(secRand);
+		TrialDecryptor trialDecryptor = new TrialDecryptor(keys);
+		byte[] encryptedPayload = new ECIESProcessor().encrypt(new byte[PLAIN_TEXT_LENGTH], FixedBaseMultiplier.multiplyG(keys[1]));
+		
+		// Payloads with a MAC that matches one of the keys, but a cipher text that cannot be decrypted
+		byte[][] craftedPayloads = new byte[][]{Test_ECIESProcessor.createPayloadWithBadLength(encryptedPayload, keys[1]),
+				Test_ECIESProcessor.createPayloadWithBadPadding(encryptedPayload, keys[1])};
+		for (byte[] craftedPayload : craftedPayloads)
+		{
+			assertNull(trialDecryptor.tryDecrypt(craftedPayload));
+			EncryptedPayloadView view = EncryptedPayloadView.tryParse(ByteBuffer.wrap(craftedPayload));
+			if (view != null)
+			{
+				assertNull(trialDecryptor.tryDecrypt(view, 1));
+				assertNull(trialDecryptor.tryDecrypt(view, NUMBER_OF_WORKERS));
+			}
+		}
+		trialDecryptor.close();
+	}
+	
+	public void testWorkerThreadsAreReused() throws InterruptedException
+	{
+		SecureRandom secRand = new SecureRandom();
+		BigInteger[] keys = generateKeys(secRand);
+		TrialDecryptor trialDecryptor = new TrialDecryptor(keys);
+		ECIESProcessor eciesProc = new ECIESProcessor();
+		int workerThreadsBefore = countWorkerThreads();
+		
+		// Checking many payloads should not start more threads than the number of workers
+		for (int i = 0; i < NUMBER_OF_TIMED_PAYLOADS; i++)
+		{
+			byte[] payload = eciesProc.encrypt(new byte[PLAIN_TEXT_LENGTH], FixedBaseMultiplier.multiplyG(Secp256k1.generatePrivateKey(secRand)));
+			assertNull(trialDecryptor.tryDecrypt(EncryptedPayloadView.parse(payload, 0, payload.length), NUMBER_OF_WORKERS));
+		}
+		assertTrue(countWorkerThreads() - workerThreadsBefore <= NUMBER_OF_WORKERS);
+		
+		// The matching key must still be found after the workers' buffers have been reused many times
+		byte[] plainText = new byte[PLAIN_TEXT_LENGTH];
+		secRand.nextBytes(plainText);
+		byte[] payload = eciesProc.encrypt(plainText, FixedBaseMultiplier.multiplyG(keys[NUMBER_OF_KEYS - 1]));
+		TrialDecryptor.Match match = trialDecryptor.tryDecrypt(EncryptedPayloadView.parse(payload, 0, payload.length), NUMBER_OF_WORKERS);
+		assertEquals(NUMBER_OF_KEYS - 1, match.getKeyIndex());
+		assertTrue(Arrays.equals(plainText, match.getPlainText()));
+		
+		// Closing the TrialDecryptor should stop its threads
+		trialDecryptor.close();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (countWorkerThreads() > workerThreadsBefore && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10);
+		}
+		assertTrue(countWorkerThreads() <= workerThreadsBefore);
+		try
+		{
+			trialDecryptor.tryDecrypt(payload);
+			fail("A closed TrialDecryptor should not be usable");
+		}
+		catch (IllegalStateException e)
+		{
+			// Expected
+		}
+	}
+	
+	public void testTrialDecryptionTimes()
+	{
+		SecureRandom secRand = new SecureRandom();
+		BigInteger[] keys = generateKeys(secRand);
+		TrialDecryptor trialDecryptor = new TrialDecryptor(keys);
+		ECIESProcessor eciesProc = new ECIESProcessor();
+		
+		// None of the payloads match any of the keys, which is the usual case for a msg
+		byte[][] payloads = new byte[NUMBER_OF_TIMED_PAYLOADS][];
+		for (int i = 0; i < NUMBER_OF_TIMED_PAYLOADS; i++)
+		{
+			payloads[i] = eciesProc.encrypt(new byte[PLAIN_TEXT_LENGTH], FixedBaseMultiplier.multiplyG(Secp256k1.generatePrivateKey(secRand)));
+		}
+		
+		long eachKeyStartTime = System.nanoTime();
+		for (byte[] payload : payloads)
+		{
+			for (BigInteger k : keys)
+			{
+				assertNull(eciesProc.tryDecrypt(payload, k));
+			}
+		}
+		long eachKeyTime = System.nanoTime() - eachKeyStartTime;
+		
+		long trialStartTime = System.nanoTime();
+		for (byte[] payload : payloads)
+		{
+			assertNull(trialDecryptor.tryDecrypt(EncryptedPayloadView.parse(payload, 0, payload.length), 1));
+		}
+		long trialTime = System.nanoTime() - trialStartTime;
+		
+		long parallelStartTime = System.nanoTime();
+		for (byte[] payload : payloads)
+		{
+			assertNull(trialDecryptor.tryDecrypt(payload));
+		}
+		long parallelTime = System.nanoTime() - parallelStartTime;
+		trialDecryptor.close();
+		
+		Log.i(TAG, "Time taken to check " + NUMBER_OF_TIMED_PAYLOADS + " payloads against " + NUMBER_OF_KEYS + " keys one key at a time:             " + (eachKeyTime / 1000000) + " milliseconds");
+		Log.i(TAG, "Time taken to check " + NUMBER_OF_TIMED_PAYLOADS + " payloads against " + NUMBER_OF_KEYS + " keys with TrialDecryptor, 1 worker:  " + (trialTime / 1000000) + " milliseconds");
+		Log.i(TAG, "Time taken to check " + NUMBER_OF_TIMED_PAYLOADS + " payloads against " + NUMBER_OF_KEYS + " keys with TrialDecryptor, " + Runtime.getRuntime().availableProcessors() + " workers: " + (parallelTime / 1000000) + " milliseconds");
+	}
+	
+	private int countWorkerThreads()
+	{
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet())
+		{
+			if (thread.getName().startsWith("TrialDecryptionWorker-"))
+			{
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	private BigInteger[] generateKeys(SecureRandom secRand)
+	{
+		BigInteger[] keys = new BigInteger[NUMBER_OF_KEYS];
+		for (int i = 0; i < NUMBER_OF_KEYS; i++)
+		{
+			keys[i] = Secp256k1.generatePrivateKey(secRand);
+		}
+		return keys;
+	}
+}
\ No newline at end of file
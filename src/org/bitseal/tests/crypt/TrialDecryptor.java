@@ -0,0 +1,406 @@
+package org.bitseal.tests.crypt;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bitseal.data.Address;
+
+/**
+ * Checks each received msg against all of our private encryption keys at
+ * once, to find out which of our addresses (if any) it was sent to. <br><br>
+ * 
+ * Trying to decrypt a msg with each address in turn parses the encrypted
+ * payload, decodes and validates R and slices out the cipher text again for
+ * every address. Here the payload is parsed once, and a table of multiples
+ * of R is built once and shared by every key, so that the work done for
+ * each address is only the point multiplication k * R and one HMAC. The
+ * results of each chunk of multiplications are converted to affine
+ * coordinates together, with a single field inversion. <br><br>
+ * 
+ * If there are many keys, they are split between several worker threads,
+ * which stop as soon as one of them finds the matching key. The threads and
+ * the buffers used by each worker are kept for the lifetime of the
+ * TrialDecryptor, so checking a msg does not start any threads. Call close()
+ * once the TrialDecryptor is no longer needed. Idle threads also stop by
+ * themselves after WORKER_KEEP_ALIVE_TIME.
+ * 
+ * @author Jonathan Coe
+ */
+public class TrialDecryptor
+{
+	/** The smallest number of keys for which worker threads are used by default */
+	static final int PARALLEL_THRESHOLD = 16;
+	
+	/** The number of keys claimed by a worker at a time */
+	static final int KEY_CHUNK_SIZE = 8;
+	
+	/** How long an idle worker thread is kept before it stops, in seconds */
+	static final long WORKER_KEEP_ALIVE_TIME = 60;
+	
+	private final BigInteger[] privateKeys;
+	
+	/** The per-worker buffers, reused for every msg. Worker 0 is also used when no threads are needed. */
+	private final List<TrialDecryptionWorker> workers = new ArrayList<TrialDecryptionWorker>();
+	
+	/** The thread pool used to run the workers, or null until it is first needed */
+	private ThreadPoolExecutor executor;
+	
+	private boolean closed = false;
+	
+	/**
+	 * Creates a new TrialDecryptor.
+	 * 
+	 * @param privateEncryptionKeys - The private encryption keys to check msgs against
+	 */
+	public TrialDecryptor(BigInteger[] privateEncryptionKeys)
+	{
+		this.privateKeys = privateEncryptionKeys.clone();
+	}
+	
+	/**
+	 * Creates a new TrialDecryptor for a set of addresses. The private
+	 * encryption keys are decoded through the shared DecodedKeyCache.
+	 * 
+	 * @param addresses - The addresses to check msgs against
+	 * 
+	 * @return A TrialDecryptor whose key indexes are the indexes of the addresses in the List
+	 */
+	public static TrialDecryptor fromAddresses(List<Address> addresses)
+	{
+		DecodedKeyCache keyCache = DecodedKeyCache.get();
+		BigInteger[] privateKeys = new BigInteger[addresses.size()];
+		for (int i = 0; i < privateKeys.length; i++)
+		{
+			privateKeys[i] = keyCache.decodePrivateKeyFromWIF(addresses.get(i).getPrivateEncryptionKey()).getD();
+		}
+		return new TrialDecryptor(privateKeys);
+	}
+	
+	public int getNumberOfKeys()
+	{
+		return privateKeys.length;
+	}
+	
+	/**
+	 * Attempts to decrypt an encrypted payload with each of the keys.
+	 * 
+	 * @param encryptedPayload - A byte[] containing the encrypted payload
+	 * 
+	 * @return A Match holding the index of the key and the decrypted data, or
+	 * null if the payload was not encrypted to any of the keys or is malformed
+	 */
+	public Match tryDecrypt(byte[] encryptedPayload)
+	{
+		EncryptedPayloadView view = EncryptedPayloadView.tryParse(ByteBuffer.wrap(encryptedPayload));
+		if (view == null)
+		{
+			return null;
+		}
+		return tryDecrypt(view);
+	}
+	
+	/**
+	 * Attempts to decrypt a parsed encrypted payload with each of the keys.
+	 * Worker threads are only used if there are at least PARALLEL_THRESHOLD keys.
+	 * 
+	 * @param encryptedPayload - An EncryptedPayloadView of the encrypted payload
+	 * 
+	 * @return A Match holding the index of the key and the decrypted data, or
+	 * null if the payload was not encrypted to any of the keys
+	 */
+	public Match tryDecrypt(EncryptedPayloadView encryptedPayload)
+	{
+		int numberOfWorkers = (privateKeys.length >= PARALLEL_THRESHOLD) ? Runtime.getRuntime().availableProcessors() : 1;
+		return tryDecrypt(encryptedPayload, numberOfWorkers);
+	}
+	
+	/**
+	 * Attempts to decrypt a parsed encrypted payload with each of the keys,
+	 * using the given number of worker threads.
+	 * 
+	 * @param encryptedPayload - An EncryptedPayloadView of the encrypted payload
+	 * @param numberOfWorkers - The maximum number of worker threads to use
+	 * 
+	 * @return A Match holding the index of the key and the decrypted data, or
+	 * null if the payload was not encrypted to any of the keys
+	 */
+	public synchronized Match tryDecrypt(EncryptedPayloadView encryptedPayload, int numberOfWorkers)
+	{
+		if (numberOfWorkers < 1)
+		{
+			throw new IllegalArgumentException("The number of trial decryption workers must be at least 1. The value supplied was " + numberOfWorkers);
+		}
+		if (closed)
+		{
+			throw new IllegalStateException("This TrialDecryptor has been closed");
+		}
+		if (privateKeys.length == 0)
+		{
+			return null;
+		}
+		TrialDecryption decryption = new TrialDecryption(encryptedPayload, privateKeys);
+		
+		int numberOfChunks = (privateKeys.length + KEY_CHUNK_SIZE - 1) / KEY_CHUNK_SIZE;
+		int numberOfDecryptionWorkers = Math.min(numberOfWorkers, numberOfChunks);
+		while (workers.size() < numberOfDecryptionWorkers)
+		{
+			workers.add(new TrialDecryptionWorker());
+		}
+		
+		if (numberOfDecryptionWorkers <= 1)
+		{
+			// Not worth handing the work to another thread
+			TrialDecryptionWorker worker = workers.get(0);
+			worker.decryption = decryption;
+			worker.run();
+		}
+		else
+		{
+			runWorkers(decryption, numberOfDecryptionWorkers);
+		}
+		for (int i = 0; i < numberOfDecryptionWorkers; i++)
+		{
+			workers.get(i).decryption = null;
+		}
+		
+		int matchIndex = decryption.matchIndex.get();
+		if (matchIndex < 0)
+		{
+			return null;
+		}
+		
+		// A payload whose MAC matches may still have a cipher text that cannot be decrypted
+		byte[] plainText = ECIESProcessor.tryDecryptCipherText(encryptedPayload, decryption.matchKey);
+		if (plainText == null)
+		{
+			return null;
+		}
+		return new Match(matchIndex, plainText);
+	}
+	
+	/**
+	 * Stops the worker threads. The TrialDecryptor cannot be used afterwards.
+	 */
+	public synchronized void close()
+	{
+		closed = true;
+		if (executor != null)
+		{
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+	
+	/**
+	 * Runs the first numberOfWorkers workers on the thread pool, and waits
+	 * until all of them have finished. If this is interrupted or a worker
+	 * fails, the workers are told to stop and are then discarded, because
+	 * some of them may still be using their buffers.
+	 */
+	private void runWorkers(TrialDecryption decryption, int numberOfWorkers)
+	{
+		ExecutorService executor = getExecutor(numberOfWorkers);
+		List<Future<?>> futures = new ArrayList<Future<?>>(numberOfWorkers);
+		boolean finished = false;
+		try
+		{
+			for (int i = 0; i < numberOfWorkers; i++)
+			{
+				TrialDecryptionWorker worker = workers.get(i);
+				worker.decryption = decryption;
+				futures.add(executor.submit(worker));
+			}
+			for (Future<?> f : futures)
+			{
+				f.get();
+			}
+			finished = true;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for the trial decryption workers to finish", e);
+		}
+		catch (ExecutionException e)
+		{
+			throw new RuntimeException("ExecutionException occurred in TrialDecryptor.tryDecrypt()", e);
+		}
+		finally
+		{
+			if (finished == false)
+			{
+				// The result is not used, so this only tells the workers to stop
+				decryption.matchIndex.compareAndSet(-1, Integer.MAX_VALUE);
+				for (Future<?> f : futures)
+				{
+					f.cancel(false);
+				}
+				workers.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the thread pool, creating it or adding threads to it if it has
+	 * fewer than numberOfThreads threads.
+	 */
+	private ExecutorService getExecutor(int numberOfThreads)
+	{
+		if (executor == null)
+		{
+			executor = new ThreadPoolExecutor(numberOfThreads, numberOfThreads, WORKER_KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory());
+			executor.allowCoreThreadTimeOut(true);
+		}
+		else if (executor.getMaximumPoolSize() < numberOfThreads)
+		{
+			executor.setMaximumPoolSize(numberOfThreads);
+			executor.setCorePoolSize(numberOfThreads);
+		}
+		return executor;
+	}
+	
+	/**
+	 * Creates the daemon threads that the workers are run on, so that a
+	 * TrialDecryptor which is never closed cannot stop the VM from exiting.
+	 */
+	private static class WorkerThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadNumber = new AtomicInteger(0);
+		
+		@Override
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "TrialDecryptionWorker-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+	
+	/**
+	 * The result of a successful trial decryption.
+	 */
+	public static final class Match
+	{
+		private final int keyIndex;
+		private final byte[] plainText;
+		
+		private Match(int keyIndex, byte[] plainText)
+		{
+			this.keyIndex = keyIndex;
+			this.plainText = plainText;
+		}
+		
+		/**
+		 * Returns the index of the key that the payload was encrypted to.
+		 */
+		public int getKeyIndex()
+		{
+			return keyIndex;
+		}
+		
+		public byte[] getPlainText()
+		{
+			return plainText;
+		}
+	}
+	
+	/**
+	 * The state shared by the workers checking one payload.
+	 */
+	private static class TrialDecryption
+	{
+		private final EncryptedPayloadView view;
+		private final BigInteger[] privateKeys;
+		
+		/** The table of multiples of R, which is built once and shared by every key */
+		private final JointMultiplier.PointTable table;
+		
+		private final AtomicInteger nextChunk = new AtomicInteger(0);
+		
+		/** The index of the matching key, or -1 until one is found */
+		private final AtomicInteger matchIndex = new AtomicInteger(-1);
+		
+		/** Written only by the worker which set matchIndex, and read after all of the workers have finished */
+		private volatile byte[] matchKey;
+		
+		private TrialDecryption(EncryptedPayloadView view, BigInteger[] privateKeys)
+		{
+			this.view = view;
+			this.privateKeys = privateKeys;
+			this.table = JointMultiplier.PointTable.create(new Secp256k1Point[]{view.getR()}, new JacobianPoint.Scratch())[0];
+		}
+	}
+	
+	/**
+	 * Repeatedly claims the next unchecked chunk of keys and checks the
+	 * payload's MAC with each of them, until every key has been checked or
+	 * the matching key has been found.
+	 */
+	private static class TrialDecryptionWorker implements Runnable
+	{
+		/** The msg being checked, set before each run */
+		private TrialDecryption decryption;
+		
+		private final JacobianPoint[] sharedSecrets = new JacobianPoint[KEY_CHUNK_SIZE];
+		private final int[][] prefixProducts = new int[KEY_CHUNK_SIZE][Secp256k1Field.LIMBS];
+		private final JacobianPoint.Scratch scratch = new JacobianPoint.Scratch();
+		private final byte[] sharedSecretX = new byte[Secp256k1.FIELD_ELEMENT_LENGTH];
+		private final byte[] key = new byte[64];
+		
+		private TrialDecryptionWorker()
+		{
+			for (int i = 0; i < KEY_CHUNK_SIZE; i++)
+			{
+				sharedSecrets[i] = new JacobianPoint();
+			}
+		}
+		
+		@Override
+		public void run()
+		{
+			TrialDecryption decryption = this.decryption;
+			int numberOfKeys = decryption.privateKeys.length;
+			int chunkStart = decryption.nextChunk.getAndIncrement() * KEY_CHUNK_SIZE;
+			while (chunkStart < numberOfKeys && decryption.matchIndex.get() < 0)
+			{
+				int chunkEnd = Math.min(chunkStart + KEY_CHUNK_SIZE, numberOfKeys);
+				for (int i = chunkStart; i < chunkEnd; i++)
+				{
+					JointMultiplier.multiply(BigInteger.ZERO, decryption.privateKeys[i], decryption.table, sharedSecrets[i - chunkStart], scratch);
+				}
+				JacobianPoint.normalise(sharedSecrets, chunkEnd - chunkStart, prefixProducts, scratch);
+				
+				for (int i = chunkStart; i < chunkEnd; i++)
+				{
+					JacobianPoint sharedSecret = sharedSecrets[i - chunkStart];
+					if (sharedSecret.isInfinity())
+					{
+						continue;
+					}
+					Secp256k1Field.toBytes(sharedSecret.x, sharedSecretX, 0);
+					Hasher.sha512().update(sharedSecretX).doFinal(key, 0);
+					if (ECIESProcessor.macMatches(decryption.view, key))
+					{
+						if (decryption.matchIndex.compareAndSet(-1, i))
+						{
+							decryption.matchKey = key.clone();
+						}
+						return;
+					}
+				}
+				chunkStart = decryption.nextChunk.getAndIncrement() * KEY_CHUNK_SIZE;
+			}
+		}
+	}
+}
\ No newline at end of file
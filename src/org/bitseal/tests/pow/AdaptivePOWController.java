@@ -0,0 +1,186 @@
+package org.bitseal.tests.pow;
+
+/**
+ * Adjusts the number of active POW worker threads so as to get the highest
+ * sustained trial rate. <br><br>
+ * 
+ * Running a worker on every core gives the highest trial rate at first, but
+ * can cause the device to be throttled, after which the total rate can fall
+ * below what fewer workers would manage. The controller is given the trial
+ * rate measured over each sample interval and hill-climbs towards the best
+ * number of workers: it keeps stepping in the same direction while the rate
+ * improves, turns back when the rate falls, and otherwise holds steady. If
+ * the rate falls while holding steady, which usually means the device has
+ * started to be throttled, it tries fewer workers. If the rate rises while
+ * holding steady, it tries more. <br><br>
+ * 
+ * An optional POWBatteryPolicy limits the number of workers, and an optional
+ * MetricsListener is told about every decision.
+ * 
+ * @author Jonathan Coe
+ */
+public class AdaptivePOWController
+{
+	/**
+	 * Receives the trial rate measured over each sample interval and the
+	 * decision made by the controller.
+	 */
+	public interface MetricsListener
+	{
+		/**
+		 * @param activeWorkers - The number of workers that were active during the sample interval
+		 * @param trialsPerSecond - The trial rate measured during the sample interval
+		 * @param nextActiveWorkers - The number of workers that will be active during the next interval
+		 */
+		void onSample(int activeWorkers, double trialsPerSecond, int nextActiveWorkers);
+	}
+	
+	/** The default time between samples, in milliseconds */
+	private static final long DEFAULT_SAMPLE_INTERVAL = 2000;
+	
+	/** The fraction by which the trial rate must change before the change is not treated as noise */
+	private static final double SIGNIFICANT_CHANGE = 0.05;
+	
+	private POWBatteryPolicy batteryPolicy;
+	private MetricsListener metricsListener;
+	private long sampleInterval = DEFAULT_SAMPLE_INTERVAL;
+	
+	private int maxWorkers;
+	private int activeWorkers;
+	private int direction;
+	private double previousTrialsPerSecond;
+	private boolean steppedLastTime;
+	private boolean justTurnedBack;
+	
+	public void setBatteryPolicy(POWBatteryPolicy batteryPolicy)
+	{
+		this.batteryPolicy = batteryPolicy;
+	}
+	
+	public void setMetricsListener(MetricsListener metricsListener)
+	{
+		this.metricsListener = metricsListener;
+	}
+	
+	/**
+	 * Sets the time between samples.
+	 * 
+	 * @param sampleInterval - The interval to use, in milliseconds
+	 */
+	public void setSampleInterval(long sampleInterval)
+	{
+		if (sampleInterval <= 0)
+		{
+			throw new IllegalArgumentException("The sample interval must be greater than 0. The value supplied was " + sampleInterval);
+		}
+		this.sampleInterval = sampleInterval;
+	}
+	
+	public long getSampleInterval()
+	{
+		return sampleInterval;
+	}
+	
+	/**
+	 * Resets the controller at the start of a new POW calculation. The search
+	 * starts with all of the allowed workers active and then tries fewer.
+	 * 
+	 * @param maxWorkers - The number of worker threads that are available
+	 * 
+	 * @return The number of workers that should be active at first
+	 */
+	public synchronized int start(int maxWorkers)
+	{
+		this.maxWorkers = maxWorkers;
+		activeWorkers = getAllowedWorkers();
+		direction = -1;
+		previousTrialsPerSecond = 0;
+		steppedLastTime = false;
+		justTurnedBack = false;
+		return activeWorkers;
+	}
+	
+	/**
+	 * Takes the trial rate measured over the last sample interval and decides
+	 * how many workers should be active during the next one.
+	 * 
+	 * @param trialsPerSecond - The trial rate measured during the last sample interval
+	 * 
+	 * @return The number of workers that should be active
+	 */
+	public synchronized int onSample(double trialsPerSecond)
+	{
+		int sampledWorkers = activeWorkers;
+		boolean turningBack = false;
+		boolean stepped = false;
+		
+		if (previousTrialsPerSecond == 0)
+		{
+			// First sample, so start searching
+			stepped = step();
+		}
+		else if (trialsPerSecond < previousTrialsPerSecond * (1 - SIGNIFICANT_CHANGE))
+		{
+			if (steppedLastTime)
+			{
+				// The last step made things worse, so go back
+				direction = -direction;
+				turningBack = true;
+			}
+			else
+			{
+				// Nothing was changed, so the device has probably started to be throttled
+				direction = -1;
+			}
+			stepped = step();
+		}
+		else if (trialsPerSecond > previousTrialsPerSecond * (1 + SIGNIFICANT_CHANGE) && justTurnedBack == false)
+		{
+			if (steppedLastTime == false)
+			{
+				// Nothing was changed, so the device has probably stopped being throttled
+				direction = 1;
+			}
+			stepped = step();
+		}
+		
+		// If we have just gone back to the best number of workers found, or the rate has not changed much, we hold steady
+		steppedLastTime = stepped;
+		justTurnedBack = turningBack && stepped;
+		
+		activeWorkers = Math.min(activeWorkers, getAllowedWorkers());
+		previousTrialsPerSecond = trialsPerSecond;
+		
+		if (metricsListener != null)
+		{
+			metricsListener.onSample(sampledWorkers, trialsPerSecond, activeWorkers);
+		}
+		return activeWorkers;
+	}
+	
+	/**
+	 * Changes the number of active workers by one in the current direction,
+	 * unless that would go outside the allowed range.
+	 * 
+	 * @return A boolean indicating whether the number of active workers was changed
+	 */
+	private boolean step()
+	{
+		int nextWorkers = activeWorkers + direction;
+		if (nextWorkers >= 1 && nextWorkers <= getAllowedWorkers())
+		{
+			activeWorkers = nextWorkers;
+			return true;
+		}
+		return false;
+	}
+	
+	private int getAllowedWorkers()
+	{
+		if (batteryPolicy == null)
+		{
+			return maxWorkers;
+		}
+		return Math.max(1, Math.min(maxWorkers, batteryPolicy.getMaxWorkers(maxWorkers)));
+	}
+}
\ No newline at end of file
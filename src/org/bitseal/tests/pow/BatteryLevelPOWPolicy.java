@@ -0,0 +1,68 @@
+package org.bitseal.tests.pow;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+
+/**
+ * A POWBatteryPolicy which uses all of the available POW workers while the
+ * device is charging, half of them when the battery is below half full, and
+ * only one when the battery is low.
+ * 
+ * @author Jonathan Coe
+ */
+public class BatteryLevelPOWPolicy implements POWBatteryPolicy
+{
+	private static final double LOW_BATTERY_LEVEL = 0.15;
+	private static final double MEDIUM_BATTERY_LEVEL = 0.5;
+	
+	private final Context context;
+	
+	/**
+	 * Creates a new BatteryLevelPOWPolicy
+	 * 
+	 * @param context - The Context to read the battery status with
+	 */
+	public BatteryLevelPOWPolicy(Context context)
+	{
+		this.context = context;
+	}
+	
+	@Override
+	public int getMaxWorkers(int maxWorkers)
+	{
+		// The battery status is a sticky broadcast, so no receiver is needed to read it
+		Intent batteryStatus = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+		if (batteryStatus == null)
+		{
+			return maxWorkers;
+		}
+		
+		if (batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0)
+		{
+			return maxWorkers;
+		}
+		
+		int level = batteryStatus.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+		int scale = batteryStatus.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+		if (level < 0 || scale <= 0)
+		{
+			return maxWorkers;
+		}
+		
+		double batteryLevel = (double) level / scale;
+		if (batteryLevel < LOW_BATTERY_LEVEL)
+		{
+			return 1;
+		}
+		else if (batteryLevel < MEDIUM_BATTERY_LEVEL)
+		{
+			return Math.max(1, maxWorkers / 2);
+		}
+		else
+		{
+			return maxWorkers;
+		}
+	}
+}
\ No newline at end of file
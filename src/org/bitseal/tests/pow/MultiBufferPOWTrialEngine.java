@@ -0,0 +1,337 @@
+package org.bitseal.tests.pow;
+
+/**
+ * A multi-buffer version of POWTrialEngine, which calculates the trial values
+ * for two or four consecutive nonces at once. <br><br>
+ * 
+ * The trials for different nonces are completely independent, so the SHA-512
+ * rounds for each of them are interleaved in the same loop. This gives the JIT
+ * compiler and the processor several independent streams of instructions to
+ * work on, rather than one long chain in which every step has to wait for the
+ * result of the step before it. <br><br>
+ * 
+ * Instances of this class are not thread safe. Each thread doing POW should
+ * use its own engine.
+ * 
+ * @author Jonathan Coe
+ */
+public class MultiBufferPOWTrialEngine
+{
+	private static final long IV_A = POWTrialEngine.INITIAL_STATE[0];
+	private static final long IV_B = POWTrialEngine.INITIAL_STATE[1];
+	private static final long IV_C = POWTrialEngine.INITIAL_STATE[2];
+	private static final long IV_D = POWTrialEngine.INITIAL_STATE[3];
+	private static final long IV_E = POWTrialEngine.INITIAL_STATE[4];
+	private static final long IV_F = POWTrialEngine.INITIAL_STATE[5];
+	private static final long IV_G = POWTrialEngine.INITIAL_STATE[6];
+	private static final long IV_H = POWTrialEngine.INITIAL_STATE[7];
+	
+	private static final long[] K = POWTrialEngine.K;
+	
+	private final int lanes;
+	
+	/** The message schedules for the first hash in each lane. Words 1 to 15 never change. */
+	private final long[][] firstSchedules;
+	
+	/** The message schedules for the second hash in each lane. Words 8 to 15 never change. */
+	private final long[][] secondSchedules;
+	
+	/** Holds the output of the second hash in each lane */
+	private final long[][] secondHashes;
+	
+	/**
+	 * Creates a new MultiBufferPOWTrialEngine for the payload with the given initial hash.
+	 * 
+	 * @param initialHash - A byte[] containing the 64 byte SHA-512 hash of the payload
+	 * @param lanes - The number of nonces to calculate trial values for at once. Must be 2 or 4.
+	 */
+	public MultiBufferPOWTrialEngine(byte[] initialHash, int lanes)
+	{
+		if (lanes != 2 && lanes != 4)
+		{
+			throw new IllegalArgumentException("The number of lanes must be 2 or 4. The value supplied was " + lanes);
+		}
+		if (initialHash.length != 64)
+		{
+			throw new IllegalArgumentException("The initial hash must be 64 bytes long. The length of the value supplied was " + initialHash.length);
+		}
+		this.lanes = lanes;
+		
+		firstSchedules = new long[lanes][80];
+		secondSchedules = new long[lanes][80];
+		secondHashes = new long[lanes][8];
+		
+		// Each lane uses the same schedule layout as POWTrialEngine
+		for (int lane = 0; lane < lanes; lane++)
+		{
+			for (int i = 0; i < 8; i++)
+			{
+				firstSchedules[lane][i + 1] = POWTrialEngine.bytesToLong(initialHash, i * 8);
+			}
+			firstSchedules[lane][9] = 0x8000000000000000L;
+			firstSchedules[lane][15] = 72 * 8;
+			
+			secondSchedules[lane][8] = 0x8000000000000000L;
+			secondSchedules[lane][15] = 64 * 8;
+		}
+	}
+	
+	/**
+	 * Returns the number of nonces that this engine calculates trial values for at once.
+	 */
+	public int getLanes()
+	{
+		return lanes;
+	}
+	
+	/**
+	 * Calculates the trial values for a run of consecutive nonces, one for each lane.
+	 * 
+	 * @param firstNonce - The first nonce in the run
+	 * @param trialValues - A long[] with at least one element per lane, which the
+	 * trial values will be written into. The trial value for the nonce (firstNonce + i)
+	 * is written into element i.
+	 */
+	public void calculateTrialValues(long firstNonce, long[] trialValues)
+	{
+		for (int lane = 0; lane < lanes; lane++)
+		{
+			firstSchedules[lane][0] = firstNonce + lane;
+		}
+		
+		if (lanes == 2)
+		{
+			compress2(firstSchedules[0], firstSchedules[1], secondSchedules[0], secondSchedules[1]);
+			compress2(secondSchedules[0], secondSchedules[1], secondHashes[0], secondHashes[1]);
+		}
+		else
+		{
+			compress4(firstSchedules[0], firstSchedules[1], firstSchedules[2], firstSchedules[3],
+					secondSchedules[0], secondSchedules[1], secondSchedules[2], secondSchedules[3]);
+			compress4(secondSchedules[0], secondSchedules[1], secondSchedules[2], secondSchedules[3],
+					secondHashes[0], secondHashes[1], secondHashes[2], secondHashes[3]);
+		}
+		
+		for (int lane = 0; lane < lanes; lane++)
+		{
+			trialValues[lane] = secondHashes[lane][0];
+		}
+	}
+	
+	/**
+	 * Runs the SHA-512 compression function over one block in each of two lanes,
+	 * starting from the SHA-512 initial state. See POWTrialEngine.compress().
+	 */
+	private static void compress2(long[] w0, long[] w1, long[] output0, long[] output1)
+	{
+		for (int t = 16; t < 80; t++)
+		{
+			long w2_0 = w0[t - 2];
+			long w15_0 = w0[t - 15];
+			long w2_1 = w1[t - 2];
+			long w15_1 = w1[t - 15];
+			w0[t] = (((w2_0 >>> 19) | (w2_0 << 45)) ^ ((w2_0 >>> 61) | (w2_0 << 3)) ^ (w2_0 >>> 6)) + w0[t - 7]
+					+ (((w15_0 >>> 1) | (w15_0 << 63)) ^ ((w15_0 >>> 8) | (w15_0 << 56)) ^ (w15_0 >>> 7)) + w0[t - 16];
+			w1[t] = (((w2_1 >>> 19) | (w2_1 << 45)) ^ ((w2_1 >>> 61) | (w2_1 << 3)) ^ (w2_1 >>> 6)) + w1[t - 7]
+					+ (((w15_1 >>> 1) | (w15_1 << 63)) ^ ((w15_1 >>> 8) | (w15_1 << 56)) ^ (w15_1 >>> 7)) + w1[t - 16];
+		}
+		
+		long a0 = IV_A;
+		long a1 = IV_A;
+		long b0 = IV_B;
+		long b1 = IV_B;
+		long c0 = IV_C;
+		long c1 = IV_C;
+		long d0 = IV_D;
+		long d1 = IV_D;
+		long e0 = IV_E;
+		long e1 = IV_E;
+		long f0 = IV_F;
+		long f1 = IV_F;
+		long g0 = IV_G;
+		long g1 = IV_G;
+		long h0 = IV_H;
+		long h1 = IV_H;
+		
+		for (int t = 0; t < 80; t++)
+		{
+			long k = K[t];
+			long t1_0 = h0 + (((e0 >>> 14) | (e0 << 50)) ^ ((e0 >>> 18) | (e0 << 46)) ^ ((e0 >>> 41) | (e0 << 23))) + ((e0 & f0) ^ (~e0 & g0)) + k + w0[t];
+			long t1_1 = h1 + (((e1 >>> 14) | (e1 << 50)) ^ ((e1 >>> 18) | (e1 << 46)) ^ ((e1 >>> 41) | (e1 << 23))) + ((e1 & f1) ^ (~e1 & g1)) + k + w1[t];
+			long t2_0 = (((a0 >>> 28) | (a0 << 36)) ^ ((a0 >>> 34) | (a0 << 30)) ^ ((a0 >>> 39) | (a0 << 25))) + ((a0 & b0) ^ (a0 & c0) ^ (b0 & c0));
+			long t2_1 = (((a1 >>> 28) | (a1 << 36)) ^ ((a1 >>> 34) | (a1 << 30)) ^ ((a1 >>> 39) | (a1 << 25))) + ((a1 & b1) ^ (a1 & c1) ^ (b1 & c1));
+			h0 = g0;
+			h1 = g1;
+			g0 = f0;
+			g1 = f1;
+			f0 = e0;
+			f1 = e1;
+			e0 = d0 + t1_0;
+			e1 = d1 + t1_1;
+			d0 = c0;
+			d1 = c1;
+			c0 = b0;
+			c1 = b1;
+			b0 = a0;
+			b1 = a1;
+			a0 = t1_0 + t2_0;
+			a1 = t1_1 + t2_1;
+		}
+		
+		output0[0] = IV_A + a0;
+		output0[1] = IV_B + b0;
+		output0[2] = IV_C + c0;
+		output0[3] = IV_D + d0;
+		output0[4] = IV_E + e0;
+		output0[5] = IV_F + f0;
+		output0[6] = IV_G + g0;
+		output0[7] = IV_H + h0;
+		output1[0] = IV_A + a1;
+		output1[1] = IV_B + b1;
+		output1[2] = IV_C + c1;
+		output1[3] = IV_D + d1;
+		output1[4] = IV_E + e1;
+		output1[5] = IV_F + f1;
+		output1[6] = IV_G + g1;
+		output1[7] = IV_H + h1;
+	}
+	
+	/**
+	 * Runs the SHA-512 compression function over one block in each of four lanes,
+	 * starting from the SHA-512 initial state. See POWTrialEngine.compress().
+	 */
+	private static void compress4(long[] w0, long[] w1, long[] w2, long[] w3,
+			long[] output0, long[] output1, long[] output2, long[] output3)
+	{
+		for (int t = 16; t < 80; t++)
+		{
+			long w2_0 = w0[t - 2];
+			long w15_0 = w0[t - 15];
+			long w2_1 = w1[t - 2];
+			long w15_1 = w1[t - 15];
+			long w2_2 = w2[t - 2];
+			long w15_2 = w2[t - 15];
+			long w2_3 = w3[t - 2];
+			long w15_3 = w3[t - 15];
+			w0[t] = (((w2_0 >>> 19) | (w2_0 << 45)) ^ ((w2_0 >>> 61) | (w2_0 << 3)) ^ (w2_0 >>> 6)) + w0[t - 7]
+					+ (((w15_0 >>> 1) | (w15_0 << 63)) ^ ((w15_0 >>> 8) | (w15_0 << 56)) ^ (w15_0 >>> 7)) + w0[t - 16];
+			w1[t] = (((w2_1 >>> 19) | (w2_1 << 45)) ^ ((w2_1 >>> 61) | (w2_1 << 3)) ^ (w2_1 >>> 6)) + w1[t - 7]
+					+ (((w15_1 >>> 1) | (w15_1 << 63)) ^ ((w15_1 >>> 8) | (w15_1 << 56)) ^ (w15_1 >>> 7)) + w1[t - 16];
+			w2[t] = (((w2_2 >>> 19) | (w2_2 << 45)) ^ ((w2_2 >>> 61) | (w2_2 << 3)) ^ (w2_2 >>> 6)) + w2[t - 7]
+					+ (((w15_2 >>> 1) | (w15_2 << 63)) ^ ((w15_2 >>> 8) | (w15_2 << 56)) ^ (w15_2 >>> 7)) + w2[t - 16];
+			w3[t] = (((w2_3 >>> 19) | (w2_3 << 45)) ^ ((w2_3 >>> 61) | (w2_3 << 3)) ^ (w2_3 >>> 6)) + w3[t - 7]
+					+ (((w15_3 >>> 1) | (w15_3 << 63)) ^ ((w15_3 >>> 8) | (w15_3 << 56)) ^ (w15_3 >>> 7)) + w3[t - 16];
+		}
+		
+		long a0 = IV_A;
+		long a1 = IV_A;
+		long a2 = IV_A;
+		long a3 = IV_A;
+		long b0 = IV_B;
+		long b1 = IV_B;
+		long b2 = IV_B;
+		long b3 = IV_B;
+		long c0 = IV_C;
+		long c1 = IV_C;
+		long c2 = IV_C;
+		long c3 = IV_C;
+		long d0 = IV_D;
+		long d1 = IV_D;
+		long d2 = IV_D;
+		long d3 = IV_D;
+		long e0 = IV_E;
+		long e1 = IV_E;
+		long e2 = IV_E;
+		long e3 = IV_E;
+		long f0 = IV_F;
+		long f1 = IV_F;
+		long f2 = IV_F;
+		long f3 = IV_F;
+		long g0 = IV_G;
+		long g1 = IV_G;
+		long g2 = IV_G;
+		long g3 = IV_G;
+		long h0 = IV_H;
+		long h1 = IV_H;
+		long h2 = IV_H;
+		long h3 = IV_H;
+		
+		for (int t = 0; t < 80; t++)
+		{
+			long k = K[t];
+			long t1_0 = h0 + (((e0 >>> 14) | (e0 << 50)) ^ ((e0 >>> 18) | (e0 << 46)) ^ ((e0 >>> 41) | (e0 << 23))) + ((e0 & f0) ^ (~e0 & g0)) + k + w0[t];
+			long t1_1 = h1 + (((e1 >>> 14) | (e1 << 50)) ^ ((e1 >>> 18) | (e1 << 46)) ^ ((e1 >>> 41) | (e1 << 23))) + ((e1 & f1) ^ (~e1 & g1)) + k + w1[t];
+			long t1_2 = h2 + (((e2 >>> 14) | (e2 << 50)) ^ ((e2 >>> 18) | (e2 << 46)) ^ ((e2 >>> 41) | (e2 << 23))) + ((e2 & f2) ^ (~e2 & g2)) + k + w2[t];
+			long t1_3 = h3 + (((e3 >>> 14) | (e3 << 50)) ^ ((e3 >>> 18) | (e3 << 46)) ^ ((e3 >>> 41) | (e3 << 23))) + ((e3 & f3) ^ (~e3 & g3)) + k + w3[t];
+			long t2_0 = (((a0 >>> 28) | (a0 << 36)) ^ ((a0 >>> 34) | (a0 << 30)) ^ ((a0 >>> 39) | (a0 << 25))) + ((a0 & b0) ^ (a0 & c0) ^ (b0 & c0));
+			long t2_1 = (((a1 >>> 28) | (a1 << 36)) ^ ((a1 >>> 34) | (a1 << 30)) ^ ((a1 >>> 39) | (a1 << 25))) + ((a1 & b1) ^ (a1 & c1) ^ (b1 & c1));
+			long t2_2 = (((a2 >>> 28) | (a2 << 36)) ^ ((a2 >>> 34) | (a2 << 30)) ^ ((a2 >>> 39) | (a2 << 25))) + ((a2 & b2) ^ (a2 & c2) ^ (b2 & c2));
+			long t2_3 = (((a3 >>> 28) | (a3 << 36)) ^ ((a3 >>> 34) | (a3 << 30)) ^ ((a3 >>> 39) | (a3 << 25))) + ((a3 & b3) ^ (a3 & c3) ^ (b3 & c3));
+			h0 = g0;
+			h1 = g1;
+			h2 = g2;
+			h3 = g3;
+			g0 = f0;
+			g1 = f1;
+			g2 = f2;
+			g3 = f3;
+			f0 = e0;
+			f1 = e1;
+			f2 = e2;
+			f3 = e3;
+			e0 = d0 + t1_0;
+			e1 = d1 + t1_1;
+			e2 = d2 + t1_2;
+			e3 = d3 + t1_3;
+			d0 = c0;
+			d1 = c1;
+			d2 = c2;
+			d3 = c3;
+			c0 = b0;
+			c1 = b1;
+			c2 = b2;
+			c3 = b3;
+			b0 = a0;
+			b1 = a1;
+			b2 = a2;
+			b3 = a3;
+			a0 = t1_0 + t2_0;
+			a1 = t1_1 + t2_1;
+			a2 = t1_2 + t2_2;
+			a3 = t1_3 + t2_3;
+		}
+		
+		output0[0] = IV_A + a0;
+		output0[1] = IV_B + b0;
+		output0[2] = IV_C + c0;
+		output0[3] = IV_D + d0;
+		output0[4] = IV_E + e0;
+		output0[5] = IV_F + f0;
+		output0[6] = IV_G + g0;
+		output0[7] = IV_H + h0;
+		output1[0] = IV_A + a1;
+		output1[1] = IV_B + b1;
+		output1[2] = IV_C + c1;
+		output1[3] = IV_D + d1;
+		output1[4] = IV_E + e1;
+		output1[5] = IV_F + f1;
+		output1[6] = IV_G + g1;
+		output1[7] = IV_H + h1;
+		output2[0] = IV_A + a2;
+		output2[1] = IV_B + b2;
+		output2[2] = IV_C + c2;
+		output2[3] = IV_D + d2;
+		output2[4] = IV_E + e2;
+		output2[5] = IV_F + f2;
+		output2[6] = IV_G + g2;
+		output2[7] = IV_H + h2;
+		output3[0] = IV_A + a3;
+		output3[1] = IV_B + b3;
+		output3[2] = IV_C + c3;
+		output3[3] = IV_D + d3;
+		output3[4] = IV_E + e3;
+		output3[5] = IV_F + f3;
+		output3[6] = IV_G + g3;
+		output3[7] = IV_H + h3;
+	}
+}
\ No newline at end of file
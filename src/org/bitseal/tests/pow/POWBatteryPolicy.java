@@ -0,0 +1,19 @@
+package org.bitseal.tests.pow;
+
+/**
+ * Limits the number of worker threads that may be used for proof of work,
+ * depending on the state of the device's battery.
+ * 
+ * @author Jonathan Coe
+ */
+public interface POWBatteryPolicy
+{
+	/**
+	 * Returns the maximum number of POW worker threads that should be active.
+	 * 
+	 * @param maxWorkers - The number of worker threads that are available
+	 * 
+	 * @return An int between 1 and maxWorkers
+	 */
+	int getMaxWorkers(int maxWorkers);
+}
\ No newline at end of file
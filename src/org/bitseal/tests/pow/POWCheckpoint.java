@@ -0,0 +1,37 @@
+package org.bitseal.tests.pow;
+
+/**
+ * Records how far the search for the POW nonce of a payload has got, so that
+ * the search can be resumed if it is interrupted.
+ * 
+ * @author Jonathan Coe
+ */
+public class POWCheckpoint
+{
+	private final long expirationTime;
+	private final long searchedUpTo;
+	
+	/**
+	 * Creates a new POWCheckpoint
+	 * 
+	 * @param expirationTime - The expiration time of the payload, in seconds, or 0 if
+	 * it is not known. The checkpoint is of no use once the payload has expired.
+	 * @param searchedUpTo - The first nonce that has not been searched. Every
+	 * nonce from 0 up to, but not including, this value is known to be invalid.
+	 */
+	public POWCheckpoint(long expirationTime, long searchedUpTo)
+	{
+		this.expirationTime = expirationTime;
+		this.searchedUpTo = searchedUpTo;
+	}
+	
+	public long getExpirationTime()
+	{
+		return expirationTime;
+	}
+	
+	public long getSearchedUpTo()
+	{
+		return searchedUpTo;
+	}
+}
\ No newline at end of file
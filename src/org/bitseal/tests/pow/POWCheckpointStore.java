@@ -0,0 +1,160 @@
+package org.bitseal.tests.pow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.bitseal.util.ByteFormatter;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Saves and loads POW checkpoints, using SharedPreferences. Checkpoints
+ * are keyed by the initial hash of the payload that the POW is being
+ * done for. <br><br>
+ * 
+ * The target is not stored, because it depends on the time remaining until
+ * the payload expires and so changes each time the search is resumed. As
+ * the time remaining shrinks the target gets larger, so a nonce that was too
+ * weak before a restart may be good enough afterwards. Skipping the nonces
+ * that have already been searched is still safe, because any nonce that is
+ * found is checked against the current target. The nonce found may just not
+ * be the smallest one that would do. <br><br>
+ * 
+ * Each checkpoint is stored with the expiration time of its payload. Once
+ * that time has passed the payload can never be sent, so expired checkpoints
+ * are removed whenever a checkpoint is saved or loaded.
+ * 
+ * @author Jonathan Coe
+ */
+public class POWCheckpointStore
+{
+	private static final String PREFERENCES_NAME = "pow_checkpoints";
+	
+	private static final String EXPIRATION_TIME_KEY_SUFFIX = "_expirationTime";
+	private static final String SEARCHED_UP_TO_KEY_SUFFIX = "_searchedUpTo";
+	
+	/** 
+	 * The expiration time given to checkpoints whose payload expiration time is not known, in seconds
+	 * from now. This is the longest time to live allowed by the network, plus 3 hours of leeway. 
+	 */
+	private static final long DEFAULT_TIME_TO_LIVE = (28 * 24 * 60 * 60) + (3 * 60 * 60);
+	
+	private final SharedPreferences prefs;
+	
+	/**
+	 * Creates a new POWCheckpointStore
+	 * 
+	 * @param context - The Context to get the SharedPreferences from
+	 */
+	public POWCheckpointStore(Context context)
+	{
+		prefs = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+	}
+	
+	/**
+	 * Saves a checkpoint, replacing any existing checkpoint for the same payload.
+	 * 
+	 * @param initialHash - A byte[] containing the SHA-512 hash of the payload
+	 * @param checkpoint - The POWCheckpoint to save
+	 */
+	public synchronized void saveCheckpoint(byte[] initialHash, POWCheckpoint checkpoint)
+	{
+		String key = ByteFormatter.byteArrayToHexString(initialHash);
+		long expirationTime = checkpoint.getExpirationTime();
+		if (expirationTime <= 0)
+		{
+			expirationTime = getCurrentTime() + DEFAULT_TIME_TO_LIVE;
+		}
+		
+		SharedPreferences.Editor editor = prefs.edit();
+		removeExpiredCheckpoints(editor);
+		editor.putLong(key + EXPIRATION_TIME_KEY_SUFFIX, expirationTime);
+		editor.putLong(key + SEARCHED_UP_TO_KEY_SUFFIX, checkpoint.getSearchedUpTo());
+		editor.commit();
+	}
+	
+	/**
+	 * Loads the checkpoint for a payload.
+	 * 
+	 * @param initialHash - A byte[] containing the SHA-512 hash of the payload
+	 * 
+	 * @return The saved POWCheckpoint, or null if there is no checkpoint for the
+	 * payload or its checkpoint has expired
+	 */
+	public synchronized POWCheckpoint loadCheckpoint(byte[] initialHash)
+	{
+		SharedPreferences.Editor editor = prefs.edit();
+		if (removeExpiredCheckpoints(editor))
+		{
+			editor.commit();
+		}
+		
+		String key = ByteFormatter.byteArrayToHexString(initialHash);
+		if (prefs.contains(key + SEARCHED_UP_TO_KEY_SUFFIX) == false || prefs.contains(key + EXPIRATION_TIME_KEY_SUFFIX) == false)
+		{
+			return null;
+		}
+		
+		long expirationTime = prefs.getLong(key + EXPIRATION_TIME_KEY_SUFFIX, 0);
+		long searchedUpTo = prefs.getLong(key + SEARCHED_UP_TO_KEY_SUFFIX, 0);
+		return new POWCheckpoint(expirationTime, searchedUpTo);
+	}
+	
+	/**
+	 * Deletes the checkpoint for a payload, if there is one.
+	 * 
+	 * @param initialHash - A byte[] containing the SHA-512 hash of the payload
+	 */
+	public synchronized void deleteCheckpoint(byte[] initialHash)
+	{
+		String key = ByteFormatter.byteArrayToHexString(initialHash);
+		
+		SharedPreferences.Editor editor = prefs.edit();
+		editor.remove(key + EXPIRATION_TIME_KEY_SUFFIX);
+		editor.remove(key + SEARCHED_UP_TO_KEY_SUFFIX);
+		editor.commit();
+	}
+	
+	/**
+	 * Adds the removal of every expired checkpoint to an Editor. Entries which
+	 * have no expiration time, such as those saved by older versions that
+	 * stored the target instead, are treated as expired.
+	 * 
+	 * @param editor - The SharedPreferences.Editor to add the removals to
+	 * 
+	 * @return True if any entries are to be removed, otherwise false
+	 */
+	private boolean removeExpiredCheckpoints(SharedPreferences.Editor editor)
+	{
+		long currentTime = getCurrentTime();
+		Map<String, ?> entries = prefs.getAll();
+		List<String> expiredKeys = new ArrayList<String>();
+		
+		for (String entryKey : entries.keySet())
+		{
+			int suffixStart = entryKey.lastIndexOf('_');
+			String key = (suffixStart < 0) ? entryKey : entryKey.substring(0, suffixStart);
+			Object expirationTime = entries.get(key + EXPIRATION_TIME_KEY_SUFFIX);
+			if ((expirationTime instanceof Long) == false || (Long) expirationTime <= currentTime)
+			{
+				expiredKeys.add(entryKey);
+			}
+		}
+		
+		for (String entryKey : expiredKeys)
+		{
+			editor.remove(entryKey);
+		}
+		return expiredKeys.isEmpty() == false;
+	}
+	
+	/**
+	 * Returns the current time in seconds, which is the unit used for payload expiration times.
+	 */
+	private static long getCurrentTime()
+	{
+		return System.currentTimeMillis() / 1000;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,230 @@
+package org.bitseal.tests.pow;
+
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Estimates how long the proof of work for a payload will take, before it
+ * is started. <br><br>
+ * 
+ * The number of trials needed to find a valid nonce follows a geometric
+ * distribution. Each trial succeeds with probability (target + 1) / 2^64,
+ * so the expected number of trials is the inverse of that, and the 95th
+ * percentile is about ln(20) times the expected number. <br><br>
+ * 
+ * The trial rate of this device is measured by a short benchmark the first
+ * time it is needed for a given number of workers. The benchmark runs a
+ * ParallelPOWCalculator with that number of workers, because the combined rate
+ * does not scale linearly with the number of workers once they share cores,
+ * caches or a thermal limit. The results are cached for the lifetime of the process.
+ * 
+ * @author Jonathan Coe
+ */
+public class POWCostEstimator
+{
+	/** The time to spend measuring the trial rate, in milliseconds */
+	private static final long BENCHMARK_DURATION = 500;
+	
+	/** The time to run the workers before starting to measure, so that the JIT compiler has a chance to kick in, in milliseconds */
+	private static final long WARM_UP_TIME = 200;
+	
+	/** The time between the progress reports that the benchmark is measured from, in milliseconds */
+	private static final long BENCHMARK_PROGRESS_INTERVAL = 100;
+	
+	/** The ratio of the 95th percentile of a geometric distribution to its mean, when the success probability is small */
+	private static final double NINETY_FIFTH_PERCENTILE_FACTOR = Math.log(20);
+	
+	private static final double TWO_POW_64 = 18446744073709551616.0;
+	
+	/** The cached combined trial rates, keyed by the number of workers that they were measured with */
+	private static final Map<Integer, Double> trialsPerSecond = new HashMap<Integer, Double>();
+	
+	private final int numberOfWorkers;
+	
+	/**
+	 * Creates a new POWCostEstimator for POW done with one worker thread
+	 * for each processor available to the VM.
+	 */
+	public POWCostEstimator()
+	{
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Creates a new POWCostEstimator
+	 * 
+	 * @param numberOfWorkers - The number of worker threads that the POW will be done with
+	 */
+	public POWCostEstimator(int numberOfWorkers)
+	{
+		if (numberOfWorkers < 1)
+		{
+			throw new IllegalArgumentException("The number of POW workers must be at least 1. The value supplied was " + numberOfWorkers);
+		}
+		this.numberOfWorkers = numberOfWorkers;
+	}
+	
+	/**
+	 * Estimates the average time that the POW for a payload will take.
+	 * 
+	 * @param payloadLength - The length of the payload, not including the POW nonce
+	 * @param timeToLive - The time to live of the payload, in seconds
+	 * @param nonceTrialsPerByte - The nonceTrialsPerByte value to use
+	 * @param extraBytes - The extraBytes value to use
+	 * 
+	 * @return A long containing the expected time, in milliseconds
+	 */
+	public long estimateExpectedTime(int payloadLength, long timeToLive, long nonceTrialsPerByte, long extraBytes)
+	{
+		double expectedTrials = calculateExpectedTrials(payloadLength, timeToLive, nonceTrialsPerByte, extraBytes);
+		return trialsToMilliseconds(expectedTrials);
+	}
+	
+	/**
+	 * Estimates the time within which the POW for a payload will be finished
+	 * 95% of the time.
+	 * 
+	 * @param payloadLength - The length of the payload, not including the POW nonce
+	 * @param timeToLive - The time to live of the payload, in seconds
+	 * @param nonceTrialsPerByte - The nonceTrialsPerByte value to use
+	 * @param extraBytes - The extraBytes value to use
+	 * 
+	 * @return A long containing the 95th percentile time, in milliseconds
+	 */
+	public long estimate95thPercentileTime(int payloadLength, long timeToLive, long nonceTrialsPerByte, long extraBytes)
+	{
+		double expectedTrials = calculateExpectedTrials(payloadLength, timeToLive, nonceTrialsPerByte, extraBytes);
+		return trialsToMilliseconds(expectedTrials * NINETY_FIFTH_PERCENTILE_FACTOR);
+	}
+	
+	/**
+	 * Calculates the average number of trials needed to find a valid nonce for a payload,
+	 * using the same target as POWProcessor.checkPOW().
+	 * 
+	 * @param payloadLength - The length of the payload, not including the POW nonce
+	 * @param timeToLive - The time to live of the payload, in seconds
+	 * @param nonceTrialsPerByte - The nonceTrialsPerByte value to use
+	 * @param extraBytes - The extraBytes value to use
+	 * 
+	 * @return A double containing the expected number of trials
+	 */
+	public static double calculateExpectedTrials(int payloadLength, long timeToLive, long nonceTrialsPerByte, long extraBytes)
+	{
+		long target = ParallelPOWCalculator.calculateTargetFromTimeToLive(payloadLength, timeToLive, nonceTrialsPerByte, extraBytes);
+		return calculateExpectedTrials(target);
+	}
+	
+	/**
+	 * Calculates the average number of trials needed to find a valid nonce for a
+	 * given POW target.
+	 * 
+	 * @param target - The POW target
+	 * 
+	 * @return A double containing the expected number of trials
+	 */
+	public static double calculateExpectedTrials(long target)
+	{
+		return TWO_POW_64 / (target + 1.0);
+	}
+	
+	/**
+	 * Returns the number of trials per second that a single thread on this
+	 * device can do. The benchmark is run the first time this method is called.
+	 * 
+	 * @return A double containing the trial rate
+	 */
+	public static double getTrialsPerSecond()
+	{
+		return getTrialsPerSecond(1);
+	}
+	
+	/**
+	 * Returns the number of trials per second that a ParallelPOWCalculator with
+	 * the given number of workers can do on this device. The benchmark is run the
+	 * first time this method is called for each number of workers.
+	 * 
+	 * @param numberOfWorkers - The number of worker threads
+	 * 
+	 * @return A double containing the combined trial rate of the workers
+	 */
+	public static synchronized double getTrialsPerSecond(int numberOfWorkers)
+	{
+		Double cachedTrialsPerSecond = trialsPerSecond.get(numberOfWorkers);
+		if (cachedTrialsPerSecond == null)
+		{
+			cachedTrialsPerSecond = runBenchmark(numberOfWorkers);
+			trialsPerSecond.put(numberOfWorkers, cachedTrialsPerSecond);
+		}
+		return cachedTrialsPerSecond;
+	}
+	
+	/**
+	 * Discards the cached trial rates, so that the benchmark is run again the
+	 * next time each of them is needed. This can be used if the conditions on
+	 * the device have changed, for example if the CPU is being throttled.
+	 */
+	public static synchronized void recalibrate()
+	{
+		trialsPerSecond.clear();
+	}
+	
+	private long trialsToMilliseconds(double trials)
+	{
+		double seconds = trials / getTrialsPerSecond(numberOfWorkers);
+		return (long) Math.ceil(seconds * 1000);
+	}
+	
+	/**
+	 * Measures the combined trial rate of a ParallelPOWCalculator with the given number
+	 * of workers. The calculator searches for a nonce with a target of 0, which it will
+	 * almost certainly never find, and the rate is taken from its progress reports.
+	 */
+	private static double runBenchmark(int numberOfWorkers)
+	{
+		byte[] initialHash = new byte[64];
+		new SecureRandom().nextBytes(initialHash);
+		
+		final POWJobHandle jobHandle = new POWJobHandle("benchmark");
+		final POWProgress[] measuredProgress = new POWProgress[2];
+		ParallelPOWCalculator powCalc = new ParallelPOWCalculator(numberOfWorkers);
+		powCalc.setProgressInterval(BENCHMARK_PROGRESS_INTERVAL);
+		powCalc.setProgressListener(new POWProgressListener()
+		{
+			@Override
+			public void onProgress(POWProgress progress)
+			{
+				if (measuredProgress[0] == null)
+				{
+					if (progress.getElapsedTime() >= WARM_UP_TIME)
+					{
+						measuredProgress[0] = progress;
+					}
+				}
+				else if (measuredProgress[1] == null && progress.getElapsedTime() - measuredProgress[0].getElapsedTime() >= BENCHMARK_DURATION)
+				{
+					measuredProgress[1] = progress;
+					jobHandle.cancel();
+				}
+			}
+		});
+		
+		try
+		{
+			powCalc.findNonce(initialHash, 0, jobHandle);
+		}
+		catch (CancellationException e)
+		{
+			// Expected, as the job is cancelled once the measurement has been taken
+		}
+		
+		if (measuredProgress[1] == null)
+		{
+			throw new IllegalStateException("The POW benchmark stopped before the trial rate had been measured");
+		}
+		long trials = measuredProgress[1].getTrialsDone() - measuredProgress[0].getTrialsDone();
+		long timeTaken = measuredProgress[1].getElapsedTime() - measuredProgress[0].getElapsedTime();
+		return (trials * 1000.0) / timeTaken;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,89 @@
+package org.bitseal.tests.pow;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A proof of work job that has been submitted to a POWScheduler. Once the
+ * job has been completed, the POW nonce can be retrieved with get(). <br><br>
+ * 
+ * Jobs are ordered first by their priority, then by their deadline (the 
+ * expiration time of the object they are for), and finally by the order
+ * in which they were submitted.
+ * 
+ * @author Jonathan Coe
+ */
+public class POWJob extends FutureTask<Long> implements Comparable<POWJob>
+{
+	/** For msgs sent by the user, and for the getpubkeys which those msgs are waiting on */
+	public static final int PRIORITY_USER_MESSAGE = 0;
+	
+	/** For acks */
+	public static final int PRIORITY_ACK = 1;
+	
+	/** For pubkeys, including re-dissemination of our own pubkeys */
+	public static final int PRIORITY_PUBKEY = 2;
+	
+	private final int priority;
+	private final long expirationTime;
+	private final long sequenceNumber;
+	
+	/**
+	 * Creates a new POWJob
+	 * 
+	 * @param powTask - A Callable which does the POW and returns the nonce
+	 * @param priority - The priority of the job. One of PRIORITY_USER_MESSAGE,
+	 * PRIORITY_ACK or PRIORITY_PUBKEY.
+	 * @param expirationTime - The expiration time of the object that the POW is for, in seconds
+	 * @param sequenceNumber - The position of this job in the order of submission
+	 */
+	POWJob(Callable<Long> powTask, int priority, long expirationTime, long sequenceNumber)
+	{
+		super(powTask);
+		
+		if (priority != PRIORITY_USER_MESSAGE && priority != PRIORITY_ACK && priority != PRIORITY_PUBKEY)
+		{
+			throw new IllegalArgumentException("Unknown POW job priority: " + priority);
+		}
+		this.priority = priority;
+		this.expirationTime = expirationTime;
+		this.sequenceNumber = sequenceNumber;
+	}
+	
+	public int getPriority()
+	{
+		return priority;
+	}
+	
+	public long getExpirationTime()
+	{
+		return expirationTime;
+	}
+	
+	/**
+	 * Returns true if this job is for background work which can be
+	 * made to wait while more urgent jobs are done.
+	 */
+	public boolean isBackgroundJob()
+	{
+		return priority == PRIORITY_PUBKEY;
+	}
+	
+	@Override
+	public int compareTo(POWJob other)
+	{
+		if (priority != other.priority)
+		{
+			return priority < other.priority ? -1 : 1;
+		}
+		if (expirationTime != other.expirationTime)
+		{
+			return expirationTime < other.expirationTime ? -1 : 1;
+		}
+		if (sequenceNumber != other.sequenceNumber)
+		{
+			return sequenceNumber < other.sequenceNumber ? -1 : 1;
+		}
+		return 0;
+	}
+}
\ No newline at end of file
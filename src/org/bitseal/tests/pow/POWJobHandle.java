@@ -0,0 +1,46 @@
+package org.bitseal.tests.pow;
+
+/**
+ * Identifies a single POW calculation and allows it to be cancelled. <br><br>
+ * 
+ * Cancellation is cooperative: the calculation checks the handle at regular
+ * intervals and stops shortly after it has been cancelled, throwing a
+ * CancellationException.
+ * 
+ * @author Jonathan Coe
+ */
+public class POWJobHandle
+{
+	private final String jobId;
+	
+	private volatile boolean cancelled = false;
+	
+	/**
+	 * Creates a new POWJobHandle
+	 * 
+	 * @param jobId - A String identifying the job, which is passed to any
+	 * POWProgressListener
+	 */
+	public POWJobHandle(String jobId)
+	{
+		this.jobId = jobId;
+	}
+	
+	public String getJobId()
+	{
+		return jobId;
+	}
+	
+	/**
+	 * Asks the POW calculation for this job to stop.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+	}
+	
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+}
\ No newline at end of file
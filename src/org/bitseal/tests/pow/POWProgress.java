@@ -0,0 +1,102 @@
+package org.bitseal.tests.pow;
+
+/**
+ * A snapshot of the progress of a POW calculation. <br><br>
+ * 
+ * Each trial has the same chance of finding a valid nonce, however many trials
+ * have already been done. The expected remaining time is therefore the time
+ * that the expected number of trials would take at the current trial rate, and
+ * does not go down as the calculation goes on.
+ * 
+ * @author Jonathan Coe
+ */
+public class POWProgress
+{
+	private final String jobId;
+	private final long trialsDone;
+	private final double trialsPerSecond;
+	private final double averageTrialsPerSecond;
+	private final double expectedTrials;
+	private final long elapsedTime;
+	private final boolean finished;
+	
+	POWProgress(String jobId, long trialsDone, double trialsPerSecond, double averageTrialsPerSecond, double expectedTrials, long elapsedTime, boolean finished)
+	{
+		this.jobId = jobId;
+		this.trialsDone = trialsDone;
+		this.trialsPerSecond = trialsPerSecond;
+		this.averageTrialsPerSecond = averageTrialsPerSecond;
+		this.expectedTrials = expectedTrials;
+		this.elapsedTime = elapsedTime;
+		this.finished = finished;
+	}
+	
+	public String getJobId()
+	{
+		return jobId;
+	}
+	
+	/**
+	 * Returns the number of trials done so far in this calculation. Trials done
+	 * before the calculation was resumed from a checkpoint are not included.
+	 */
+	public long getTrialsDone()
+	{
+		return trialsDone;
+	}
+	
+	/**
+	 * Returns the trial rate measured since the last progress report, or since
+	 * the calculation started if this is the first report.
+	 */
+	public double getTrialsPerSecond()
+	{
+		return trialsPerSecond;
+	}
+	
+	/**
+	 * Returns the average trial rate since the calculation started.
+	 */
+	public double getAverageTrialsPerSecond()
+	{
+		return averageTrialsPerSecond;
+	}
+	
+	/**
+	 * Returns the average number of trials needed to find a valid nonce.
+	 */
+	public double getExpectedTrials()
+	{
+		return expectedTrials;
+	}
+	
+	/**
+	 * Returns the time since the calculation started, in milliseconds.
+	 */
+	public long getElapsedTime()
+	{
+		return elapsedTime;
+	}
+	
+	/**
+	 * Returns the expected time until a valid nonce is found, in milliseconds,
+	 * or -1 if the trial rate is not known yet.
+	 */
+	public long getExpectedRemainingTime()
+	{
+		if (trialsPerSecond <= 0)
+		{
+			return -1;
+		}
+		return (long) ((expectedTrials / trialsPerSecond) * 1000);
+	}
+	
+	/**
+	 * Returns true if this is the last report for the calculation, made once a
+	 * valid nonce has been found or the calculation has been cancelled.
+	 */
+	public boolean isFinished()
+	{
+		return finished;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,15 @@
+package org.bitseal.tests.pow;
+
+/**
+ * Receives progress reports from a POW calculation. Reports are made from
+ * the thread that started the calculation.
+ * 
+ * @author Jonathan Coe
+ */
+public interface POWProgressListener
+{
+	/**
+	 * @param progress - The current progress of the calculation
+	 */
+	void onProgress(POWProgress progress);
+}
\ No newline at end of file
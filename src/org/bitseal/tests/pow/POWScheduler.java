@@ -0,0 +1,236 @@
+package org.bitseal.tests.pow;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+
+import android.util.Log;
+
+/**
+ * A prototype of a service which does the proof of work for queued objects
+ * (msgs, acks, getpubkeys and pubkeys) on a bounded pool of worker threads. <br><br>
+ * 
+ * Waiting jobs are started in order of priority, and within the same priority
+ * in order of deadline. Pubkey jobs are treated as background work: they are
+ * never allowed to occupy every worker, so that a msg sent by the user does
+ * not have to wait for a long pubkey POW to finish. This requires at least two
+ * workers. With a single worker, jobs are simply done in priority order.
+ * 
+ * @author Jonathan Coe
+ */
+public class POWScheduler
+{
+	private final ParallelPOWCalculator powCalc;
+	private final int numberOfWorkers;
+	private final int maxBackgroundWorkers;
+	
+	private final PriorityQueue<POWJob> waitingJobs = new PriorityQueue<POWJob>();
+	private final Thread[] workers;
+	
+	private int runningBackgroundJobs = 0;
+	private long nextSequenceNumber = 0;
+	private boolean shutdown = false;
+	
+	private static final String TAG = "POW_SCHEDULER";
+	
+	/**
+	 * Creates a new POWScheduler. Each job is done by a single thread.
+	 * 
+	 * @param numberOfWorkers - The maximum number of jobs to do at the same time
+	 */
+	public POWScheduler(int numberOfWorkers)
+	{
+		this(numberOfWorkers, new ParallelPOWCalculator(1));
+	}
+	
+	/**
+	 * Creates a new POWScheduler
+	 * 
+	 * @param numberOfWorkers - The maximum number of jobs to do at the same time
+	 * @param powCalc - The ParallelPOWCalculator to do the POW for each job with
+	 */
+	public POWScheduler(int numberOfWorkers, ParallelPOWCalculator powCalc)
+	{
+		if (numberOfWorkers < 1)
+		{
+			throw new IllegalArgumentException("The number of POW scheduler workers must be at least 1. The value supplied was " + numberOfWorkers);
+		}
+		this.powCalc = powCalc;
+		this.numberOfWorkers = numberOfWorkers;
+		this.maxBackgroundWorkers = Math.max(1, numberOfWorkers - 1);
+		this.workers = new Thread[numberOfWorkers];
+	}
+	
+	/**
+	 * Starts the worker threads. Jobs may be submitted before the 
+	 * scheduler is started.
+	 */
+	public synchronized void start()
+	{
+		for (int i = 0; i < numberOfWorkers; i++)
+		{
+			if (workers[i] == null)
+			{
+				workers[i] = new Thread(new SchedulerWorker(), "POWSchedulerWorker-" + i);
+				workers[i].setDaemon(true);
+				workers[i].start();
+			}
+		}
+	}
+	
+	/**
+	 * Stops the worker threads. Any jobs which have not been started are
+	 * cancelled, and any jobs which are running are interrupted.
+	 */
+	public synchronized void shutdown()
+	{
+		shutdown = true;
+		for (POWJob job : waitingJobs)
+		{
+			job.cancel(false);
+		}
+		waitingJobs.clear();
+		for (Thread worker : workers)
+		{
+			if (worker != null)
+			{
+				worker.interrupt();
+			}
+		}
+		notifyAll();
+	}
+	
+	/**
+	 * Submits a POW job. The parameters are the same as those of POWProcessor.doPOW(),
+	 * plus the priority of the job.
+	 * 
+	 * @param payload - A byte[] containing the payload to do the POW for
+	 * @param expirationTime - The expiration time of the payload, in seconds
+	 * @param nonceTrialsPerByte - The nonceTrialsPerByte value to use
+	 * @param extraBytes - The extraBytes value to use
+	 * @param priority - One of POWJob.PRIORITY_USER_MESSAGE, POWJob.PRIORITY_ACK or POWJob.PRIORITY_PUBKEY
+	 * 
+	 * @return A POWJob which will provide the POW nonce once it has been calculated
+	 */
+	public synchronized POWJob submit(final byte[] payload, final long expirationTime, final long nonceTrialsPerByte, final long extraBytes, int priority)
+	{
+		if (shutdown)
+		{
+			throw new IllegalStateException("Cannot submit a POW job to a POWScheduler which has been shut down");
+		}
+		
+		Callable<Long> powTask = new Callable<Long>()
+		{
+			@Override
+			public Long call() throws Exception
+			{
+				// There is no point doing POW for an object that has already expired
+				if (expirationTime < (System.currentTimeMillis() / 1000))
+				{
+					throw new IllegalStateException("The deadline for this POW job passed before it could be started");
+				}
+				return Long.valueOf(powCalc.doPOW(payload, expirationTime, nonceTrialsPerByte, extraBytes));
+			}
+		};
+		
+		POWJob job = new POWJob(powTask, priority, expirationTime, nextSequenceNumber);
+		nextSequenceNumber++;
+		waitingJobs.add(job);
+		notifyAll();
+		
+		return job;
+	}
+	
+	/**
+	 * Returns the number of jobs that are waiting to be started
+	 */
+	public synchronized int getNumberOfWaitingJobs()
+	{
+		return waitingJobs.size();
+	}
+	
+	/**
+	 * Waits until there is a job which can be started, then removes it from the queue.
+	 * A background job can only be started if doing so would leave at least one worker
+	 * free for more urgent jobs. 
+	 * 
+	 * @return The next job to do, or null if the scheduler has been shut down
+	 */
+	private synchronized POWJob takeNextJob() throws InterruptedException
+	{
+		while (shutdown == false)
+		{
+			POWJob nextJob = waitingJobs.peek();
+			
+			// The queue is ordered by priority, so if the first job is a background job then so are all the others
+			if (nextJob != null && (nextJob.isBackgroundJob() == false || runningBackgroundJobs < maxBackgroundWorkers))
+			{
+				waitingJobs.poll();
+				if (nextJob.isBackgroundJob())
+				{
+					runningBackgroundJobs++;
+				}
+				return nextJob;
+			}
+			wait();
+		}
+		return null;
+	}
+	
+	private synchronized void jobFinished(POWJob job)
+	{
+		if (job.isBackgroundJob())
+		{
+			runningBackgroundJobs--;
+			notifyAll();
+		}
+	}
+	
+	private synchronized boolean isShutdown()
+	{
+		return shutdown;
+	}
+	
+	private class SchedulerWorker implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			while (true)
+			{
+				POWJob job = null;
+				try
+				{
+					job = takeNextJob();
+				}
+				catch (InterruptedException e)
+				{
+					if (isShutdown())
+					{
+						return;
+					}
+					continue;
+				}
+				if (job == null)
+				{
+					return;
+				}
+				
+				try
+				{
+					// Any exception thrown by the POW is passed on to the caller by the POWJob
+					job.run();
+				}
+				finally
+				{
+					jobFinished(job);
+					
+					// Clear any interrupt caused by the job being cancelled, so that it does not stop this worker
+					if (Thread.interrupted())
+					{
+						Log.i(TAG, "A POW job was interrupted");
+					}
+				}
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,209 @@
+package org.bitseal.tests.pow;
+
+/**
+ * Calculates proof of work trial values for a single payload without
+ * allocating any memory per trial. <br><br>
+ * 
+ * A trial value is the first 8 bytes of SHA512(SHA512(nonce + initialHash)).
+ * Because the nonce is 8 bytes long and the initial hash is 64 bytes long,
+ * each of the two hashes fits into a single 1024 bit SHA-512 block. This class
+ * therefore works directly on the SHA-512 message schedule, held in a long[]
+ * that is filled with the initial hash and padding once, when the engine is
+ * created. Each trial only has to write the nonce into the schedule and run
+ * the two compressions. <br><br>
+ * 
+ * Instances of this class are not thread safe. Each thread doing POW should
+ * use its own engine. <br><br>
+ * 
+ * See https://bitmessage.org/wiki/Proof_of_work
+ * 
+ * @author Jonathan Coe
+ */
+public class POWTrialEngine
+{
+	/** The length in bits of the data hashed by the first hash in each trial: an 8 byte nonce plus a 64 byte hash */
+	private static final long FIRST_HASH_INPUT_BITS = 72 * 8;
+	
+	/** The length in bits of the data hashed by the second hash in each trial: a 64 byte hash */
+	private static final long SECOND_HASH_INPUT_BITS = 64 * 8;
+	
+	/** The first bit of SHA-512 padding, placed in the most significant bit of a message word */
+	private static final long PADDING_START = 0x8000000000000000L;
+	
+	static final long[] INITIAL_STATE =
+	{
+		0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+		0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L
+	};
+	
+	static final long[] K =
+	{
+		0x428a2f98d728ae22L, 0x7137449123ef65cdL, 0xb5c0fbcfec4d3b2fL, 0xe9b5dba58189dbbcL,
+		0x3956c25bf348b538L, 0x59f111f1b605d019L, 0x923f82a4af194f9bL, 0xab1c5ed5da6d8118L,
+		0xd807aa98a3030242L, 0x12835b0145706fbeL, 0x243185be4ee4b28cL, 0x550c7dc3d5ffb4e2L,
+		0x72be5d74f27b896fL, 0x80deb1fe3b1696b1L, 0x9bdc06a725c71235L, 0xc19bf174cf692694L,
+		0xe49b69c19ef14ad2L, 0xefbe4786384f25e3L, 0x0fc19dc68b8cd5b5L, 0x240ca1cc77ac9c65L,
+		0x2de92c6f592b0275L, 0x4a7484aa6ea6e483L, 0x5cb0a9dcbd41fbd4L, 0x76f988da831153b5L,
+		0x983e5152ee66dfabL, 0xa831c66d2db43210L, 0xb00327c898fb213fL, 0xbf597fc7beef0ee4L,
+		0xc6e00bf33da88fc2L, 0xd5a79147930aa725L, 0x06ca6351e003826fL, 0x142929670a0e6e70L,
+		0x27b70a8546d22ffcL, 0x2e1b21385c26c926L, 0x4d2c6dfc5ac42aedL, 0x53380d139d95b3dfL,
+		0x650a73548baf63deL, 0x766a0abb3c77b2a8L, 0x81c2c92e47edaee6L, 0x92722c851482353bL,
+		0xa2bfe8a14cf10364L, 0xa81a664bbc423001L, 0xc24b8b70d0f89791L, 0xc76c51a30654be30L,
+		0xd192e819d6ef5218L, 0xd69906245565a910L, 0xf40e35855771202aL, 0x106aa07032bbd1b8L,
+		0x19a4c116b8d2d0c8L, 0x1e376c085141ab53L, 0x2748774cdf8eeb99L, 0x34b0bcb5e19b48a8L,
+		0x391c0cb3c5c95a63L, 0x4ed8aa4ae3418acbL, 0x5b9cca4f7763e373L, 0x682e6ff3d6b2b8a3L,
+		0x748f82ee5defb2fcL, 0x78a5636f43172f60L, 0x84c87814a1f0ab72L, 0x8cc702081a6439ecL,
+		0x90befffa23631e28L, 0xa4506cebde82bde9L, 0xbef9a3f7b2c67915L, 0xc67178f2e372532bL,
+		0xca273eceea26619cL, 0xd186b8c721c0c207L, 0xeada7dd6cde0eb1eL, 0xf57d4f7fee6ed178L,
+		0x06f067aa72176fbaL, 0x0a637dc5a2c898a6L, 0x113f9804bef90daeL, 0x1b710b35131c471bL,
+		0x28db77f523047d84L, 0x32caab7b40c72493L, 0x3c9ebe0a15c9bebcL, 0x431d67c49c100d4cL,
+		0x4cc5d4becb3e42b6L, 0x597f299cfc657e2aL, 0x5fcb6fab3ad6faecL, 0x6c44198c4a475817L
+	};
+	
+	/** The message schedule for the first hash. Words 1 to 15 never change. */
+	private final long[] firstSchedule = new long[80];
+	
+	/** The message schedule for the second hash. Words 8 to 15 never change. */
+	private final long[] secondSchedule = new long[80];
+	
+	/** Holds the output of the second hash */
+	private final long[] secondHash = new long[8];
+	
+	/**
+	 * Creates a new POWTrialEngine for the payload with the given initial hash.
+	 * 
+	 * @param initialHash - A byte[] containing the 64 byte SHA-512 hash of the payload
+	 */
+	public POWTrialEngine(byte[] initialHash)
+	{
+		// First hash: the nonce in word 0, the initial hash in words 1 to 8, then the padding and length
+		firstSchedule[9] = PADDING_START;
+		firstSchedule[15] = FIRST_HASH_INPUT_BITS;
+		
+		// Second hash: the first hash in words 0 to 7, then the padding and length
+		secondSchedule[8] = PADDING_START;
+		secondSchedule[15] = SECOND_HASH_INPUT_BITS;
+		
+		setInitialHash(initialHash);
+	}
+	
+	/**
+	 * Changes the payload that this engine calculates trial values for. This
+	 * allows one engine to be reused for many payloads.
+	 * 
+	 * @param initialHash - A byte[] containing the 64 byte SHA-512 hash of the payload
+	 */
+	public void setInitialHash(byte[] initialHash)
+	{
+		if (initialHash.length != 64)
+		{
+			throw new IllegalArgumentException("The initial hash must be 64 bytes long. The length of the value supplied was " + initialHash.length);
+		}
+		
+		for (int i = 0; i < 8; i++)
+		{
+			firstSchedule[i + 1] = bytesToLong(initialHash, i * 8);
+		}
+	}
+	
+	/**
+	 * Calculates the trial value for a given nonce.
+	 * 
+	 * @param nonce - The nonce to calculate the trial value for
+	 * 
+	 * @return A long containing the trial value. This should be treated as an
+	 * unsigned 64 bit integer.
+	 */
+	public long calculateTrialValue(long nonce)
+	{
+		firstSchedule[0] = nonce;
+		compress(firstSchedule, secondSchedule);
+		compress(secondSchedule, secondHash);
+		return secondHash[0];
+	}
+	
+	/**
+	 * Checks whether a given nonce is valid for a given target.
+	 * 
+	 * @param nonce - The nonce to check
+	 * @param target - The POW target
+	 * 
+	 * @return A boolean indicating whether the nonce is valid
+	 */
+	public boolean checkNonce(long nonce, long target)
+	{
+		long trialValue = calculateTrialValue(nonce);
+		
+		// The trial value is an unsigned 64 bit integer, so a negative long value is always too large
+		return trialValue >= 0 && trialValue <= target;
+	}
+	
+	/**
+	 * Runs the SHA-512 compression function over a single block, starting from
+	 * the SHA-512 initial state.
+	 * 
+	 * @param w - The message schedule. Words 0 to 15 must contain the block to be
+	 * hashed. Words 16 to 79 are overwritten.
+	 * @param output - A long[] that the first 8 words of the hash will be written into
+	 */
+	static void compress(long[] w, long[] output)
+	{
+		for (int t = 16; t < 80; t++)
+		{
+			long w2 = w[t - 2];
+			long w15 = w[t - 15];
+			long s1 = ((w2 >>> 19) | (w2 << 45)) ^ ((w2 >>> 61) | (w2 << 3)) ^ (w2 >>> 6);
+			long s0 = ((w15 >>> 1) | (w15 << 63)) ^ ((w15 >>> 8) | (w15 << 56)) ^ (w15 >>> 7);
+			w[t] = s1 + w[t - 7] + s0 + w[t - 16];
+		}
+		
+		long a = INITIAL_STATE[0];
+		long b = INITIAL_STATE[1];
+		long c = INITIAL_STATE[2];
+		long d = INITIAL_STATE[3];
+		long e = INITIAL_STATE[4];
+		long f = INITIAL_STATE[5];
+		long g = INITIAL_STATE[6];
+		long h = INITIAL_STATE[7];
+		
+		for (int t = 0; t < 80; t++)
+		{
+			long sigma1 = ((e >>> 14) | (e << 50)) ^ ((e >>> 18) | (e << 46)) ^ ((e >>> 41) | (e << 23));
+			long ch = (e & f) ^ (~e & g);
+			long t1 = h + sigma1 + ch + K[t] + w[t];
+			long sigma0 = ((a >>> 28) | (a << 36)) ^ ((a >>> 34) | (a << 30)) ^ ((a >>> 39) | (a << 25));
+			long maj = (a & b) ^ (a & c) ^ (b & c);
+			long t2 = sigma0 + maj;
+			h = g;
+			g = f;
+			f = e;
+			e = d + t1;
+			d = c;
+			c = b;
+			b = a;
+			a = t1 + t2;
+		}
+		
+		output[0] = INITIAL_STATE[0] + a;
+		output[1] = INITIAL_STATE[1] + b;
+		output[2] = INITIAL_STATE[2] + c;
+		output[3] = INITIAL_STATE[3] + d;
+		output[4] = INITIAL_STATE[4] + e;
+		output[5] = INITIAL_STATE[5] + f;
+		output[6] = INITIAL_STATE[6] + g;
+		output[7] = INITIAL_STATE[7] + h;
+	}
+	
+	/**
+	 * Reads a big-endian long value from a byte[].
+	 */
+	static long bytesToLong(byte[] bytes, int offset)
+	{
+		long value = 0;
+		for (int i = offset; i < offset + 8; i++)
+		{
+			value = (value << 8) | (bytes[i] & 0xFF);
+		}
+		return value;
+	}
+}
\ No newline at end of file
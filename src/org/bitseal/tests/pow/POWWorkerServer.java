@@ -0,0 +1,579 @@
+package org.bitseal.tests.pow;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bitseal.tests.crypt.HmacKey;
+import org.bitseal.util.ByteFormatter;
+
+/**
+ * A small proof of work worker service, intended to be run on a desktop
+ * machine on the same network as a phone, so that the phone can hand its
+ * POW calculations off to a faster machine. <br><br>
+ * 
+ * The protocol is made up of simple frames. Each frame is a 4 byte magic
+ * value, a 4 byte body length and then the body. A request body is the
+ * 64 byte initial hash of the payload, the 8 byte POW target and a 32 byte
+ * HMAC-SHA256 of the frame up to that point, made with a secret shared by the
+ * server and its clients. Requests with a MAC that does not match are dropped
+ * without an answer. A response body is a 1 byte status, followed by the 8 byte POW nonce if
+ * the status is STATUS_OK. All numbers are big-endian. The connection is
+ * closed after each response. <br><br>
+ * 
+ * Only one request is worked on at a time, so that it can use all of the
+ * processors of the machine. A request that arrives while another is being
+ * worked on is answered straight away with STATUS_BUSY, so that the client
+ * can do the POW itself instead of waiting. Requests whose target would take
+ * more than a set number of trials on average are answered with
+ * STATUS_REJECTED, and a request that runs for longer than a set time is
+ * abandoned and answered with STATUS_TIMED_OUT. If the client closes the
+ * connection while its request is being worked on, the request is cancelled.
+ * <br><br>
+ * 
+ * By default the server only listens on the loopback address. To take requests
+ * from other devices, the address of the network interface to listen on must
+ * be given explicitly. <br><br>
+ * 
+ * The service can be started from the command line, with the port to listen
+ * on and optionally the address to listen on as arguments. The shared secret
+ * is read from the POW_WORKER_SECRET environment variable, hex encoded.
+ * <br><br>
+ * 
+ * This class does not use any Android classes, so that it can be run on a
+ * desktop JVM. It logs using java.util.logging rather than android.util.Log.
+ * The ParallelPOWCalculator is used without a checkpoint store or a progress
+ * listener, which are the only parts of it that need Android.
+ * 
+ * @author Jonathan Coe
+ */
+public class POWWorkerServer
+{
+	/** The magic value at the start of each frame. This is "POWW" in ASCII. */
+	static final int FRAME_MAGIC = 0x504F5757;
+	
+	static final int REQUEST_BODY_LENGTH = 64 + 8 + HmacKey.MAC_LENGTH;
+	
+	/** The length of the part of a request frame that the MAC is calculated over: the frame header, initial hash and target */
+	private static final int REQUEST_AUTHENTICATED_LENGTH = 4 + 4 + 64 + 8;
+	
+	/** The minimum length of the shared secret, in bytes */
+	public static final int MIN_SHARED_SECRET_LENGTH = 16;
+	
+	/** The environment variable that the shared secret is read from by main() */
+	private static final String SHARED_SECRET_VARIABLE = "POW_WORKER_SECRET";
+	
+	/** The body length of a response with STATUS_OK: the status followed by the nonce */
+	static final int RESPONSE_BODY_LENGTH = 1 + 8;
+	
+	/** The body length of any other response, which is just the status */
+	static final int STATUS_RESPONSE_BODY_LENGTH = 1;
+	
+	static final byte STATUS_OK = 0;
+	static final byte STATUS_BUSY = 1;
+	static final byte STATUS_REJECTED = 2;
+	static final byte STATUS_TIMED_OUT = 3;
+	
+	public static final int DEFAULT_PORT = 8446;
+	
+	/**
+	 * The default maximum average number of trials that a request may need. This is a little
+	 * more than the POW for the largest object that the network accepts, with the longest time
+	 * to live, at the network difficulty.
+	 */
+	public static final double DEFAULT_MAX_EXPECTED_TRIALS = 1L << 34;
+	
+	/** The default maximum time to work on a single request, in milliseconds */
+	public static final long DEFAULT_MAX_REQUEST_TIME = 10 * 60 * 1000;
+	
+	/** The maximum time to wait for a client to send its request, in milliseconds */
+	private static final int READ_TIMEOUT = 10000;
+	
+	/** The time between checks of whether the client is still connected and the request is still in time, in milliseconds */
+	private static final int WATCH_INTERVAL = 100;
+	
+	private static final Logger LOG = Logger.getLogger(POWWorkerServer.class.getName());
+	
+	private final ServerSocket serverSocket;
+	private final HmacKey requestKey;
+	private final ParallelPOWCalculator powCalc;
+	
+	/** Watches the connection of the request being worked on, and sends its response */
+	private final ExecutorService requestExecutor = Executors.newSingleThreadExecutor();
+	
+	/** Runs the POW calculation for the request being worked on */
+	private final ExecutorService powExecutor = Executors.newSingleThreadExecutor();
+	
+	/** Set while a request is being worked on */
+	private final AtomicBoolean busy = new AtomicBoolean(false);
+	
+	private volatile double maxExpectedTrials = DEFAULT_MAX_EXPECTED_TRIALS;
+	private volatile long maxRequestTime = DEFAULT_MAX_REQUEST_TIME;
+	
+	private Thread acceptThread;
+	private volatile boolean stopped = false;
+	private volatile int requestsHandled = 0;
+	
+	/**
+	 * Creates a new POWWorkerServer which listens on the loopback address only.
+	 * 
+	 * @param port - The port to listen on, or 0 to use any free port
+	 * @param sharedSecret - The secret that clients must use to authenticate their requests
+	 * 
+	 * @throws IOException if the server socket cannot be opened
+	 */
+	public POWWorkerServer(int port, byte[] sharedSecret) throws IOException
+	{
+		this(port, null, sharedSecret);
+	}
+	
+	/**
+	 * Creates a new POWWorkerServer
+	 * 
+	 * @param port - The port to listen on, or 0 to use any free port
+	 * @param bindAddress - The address to listen on, or null to listen on the loopback
+	 * address only
+	 * @param sharedSecret - The secret that clients must use to authenticate their requests.
+	 * This must be at least MIN_SHARED_SECRET_LENGTH bytes long.
+	 * 
+	 * @throws IOException if the server socket cannot be opened
+	 */
+	public POWWorkerServer(int port, InetAddress bindAddress, byte[] sharedSecret) throws IOException
+	{
+		requestKey = createRequestKey(sharedSecret);
+		if (bindAddress == null)
+		{
+			bindAddress = InetAddress.getByName(null);
+		}
+		serverSocket = new ServerSocket(port, 50, bindAddress);
+		powCalc = new ParallelPOWCalculator();
+	}
+	
+	/**
+	 * Sets the maximum average number of trials that a request may need. Requests
+	 * with a lower target than this allows are rejected without being worked on.
+	 * 
+	 * @param maxExpectedTrials - The maximum number of trials
+	 */
+	public void setMaxExpectedTrials(double maxExpectedTrials)
+	{
+		if (maxExpectedTrials < 1)
+		{
+			throw new IllegalArgumentException("The maximum expected number of trials must be at least 1. The value supplied was " + maxExpectedTrials);
+		}
+		this.maxExpectedTrials = maxExpectedTrials;
+	}
+	
+	/**
+	 * Sets the maximum time to work on a single request. A request that has not
+	 * been finished within this time is cancelled.
+	 * 
+	 * @param maxRequestTime - The maximum time, in milliseconds
+	 */
+	public void setMaxRequestTime(long maxRequestTime)
+	{
+		if (maxRequestTime < 1)
+		{
+			throw new IllegalArgumentException("The maximum request time must be at least 1 millisecond. The value supplied was " + maxRequestTime);
+		}
+		this.maxRequestTime = maxRequestTime;
+	}
+	
+	/**
+	 * Starts accepting requests on a background thread.
+	 */
+	public synchronized void start()
+	{
+		if (acceptThread != null)
+		{
+			throw new IllegalStateException("The POW worker server has already been started");
+		}
+		
+		acceptThread = new Thread("POWWorkerServer")
+		{
+			@Override
+			public void run()
+			{
+				acceptRequests();
+			}
+		};
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+	
+	/**
+	 * Stops the server. Any POW calculation in progress is abandoned.
+	 */
+	public synchronized void stop()
+	{
+		stopped = true;
+		try
+		{
+			serverSocket.close();
+		}
+		catch (IOException e)
+		{
+			LOG.log(Level.WARNING, "IOException occurred while closing the server socket in POWWorkerServer.stop()", e);
+		}
+		if (acceptThread != null)
+		{
+			acceptThread.interrupt();
+		}
+		requestExecutor.shutdownNow();
+		powExecutor.shutdownNow();
+	}
+	
+	/**
+	 * Returns the port that the server is listening on.
+	 */
+	public int getPort()
+	{
+		return serverSocket.getLocalPort();
+	}
+	
+	/**
+	 * Returns the number of requests that have been answered with a nonce.
+	 */
+	public int getRequestsHandled()
+	{
+		return requestsHandled;
+	}
+	
+	private void acceptRequests()
+	{
+		while (stopped == false)
+		{
+			Socket socket = null;
+			try
+			{
+				socket = serverSocket.accept();
+				if (readRequest(socket))
+				{
+					// The socket now belongs to the request executor
+					socket = null;
+				}
+			}
+			catch (SocketException e)
+			{
+				if (stopped == false)
+				{
+					LOG.log(Level.WARNING, "SocketException occurred in POWWorkerServer.acceptRequests()", e);
+				}
+			}
+			catch (IOException e)
+			{
+				LOG.log(Level.WARNING, "IOException occurred in POWWorkerServer.acceptRequests()", e);
+			}
+			catch (RuntimeException e)
+			{
+				// Thrown by the request executor if it has been shut down because the server is being stopped
+				if (stopped == false)
+				{
+					LOG.log(Level.WARNING, "RuntimeException occurred in POWWorkerServer.acceptRequests()", e);
+				}
+			}
+			finally
+			{
+				closeSocket(socket);
+			}
+		}
+	}
+	
+	/**
+	 * Reads a request and either starts working on it or answers it straight away.
+	 * 
+	 * @return True if the request is being worked on, in which case the socket will
+	 * be closed once the response has been sent. Otherwise false.
+	 */
+	private boolean readRequest(Socket socket) throws IOException
+	{
+		socket.setSoTimeout(READ_TIMEOUT);
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+		
+		int magic = in.readInt();
+		int bodyLength = in.readInt();
+		if (magic != FRAME_MAGIC || bodyLength != REQUEST_BODY_LENGTH)
+		{
+			LOG.warning("Received an invalid POW request frame from " + socket.getInetAddress() + ". Closing the connection.");
+			return false;
+		}
+		
+		byte[] initialHash = new byte[64];
+		in.readFully(initialHash);
+		long target = in.readLong();
+		byte[] mac = new byte[HmacKey.MAC_LENGTH];
+		in.readFully(mac);
+		
+		byte[] expectedMac = new byte[HmacKey.MAC_LENGTH];
+		calculateRequestMac(requestKey, initialHash, target, expectedMac);
+		if (MessageDigest.isEqual(mac, expectedMac) == false)
+		{
+			LOG.warning("Received a POW request with an invalid MAC from " + socket.getInetAddress() + ". Closing the connection.");
+			return false;
+		}
+		
+		double expectedTrials = POWCostEstimator.calculateExpectedTrials(target);
+		if (target < 0 || expectedTrials > maxExpectedTrials)
+		{
+			LOG.warning("Rejected a POW request from " + socket.getInetAddress() + " which would need " + expectedTrials + " trials on average");
+			writeStatus(out, STATUS_REJECTED);
+			return false;
+		}
+		
+		if (busy.compareAndSet(false, true) == false)
+		{
+			writeStatus(out, STATUS_BUSY);
+			return false;
+		}
+		
+		try
+		{
+			requestExecutor.execute(new RequestHandler(socket, initialHash, target));
+		}
+		catch (RuntimeException e)
+		{
+			// The executor has been shut down because the server is being stopped
+			busy.set(false);
+			throw e;
+		}
+		return true;
+	}
+	
+	/**
+	 * Works on a single request. The POW is done on the POW executor, while this
+	 * waits for it to finish and cancels it if the client goes away or the request
+	 * takes too long.
+	 */
+	private class RequestHandler implements Runnable
+	{
+		private final Socket socket;
+		private final byte[] initialHash;
+		private final long target;
+		
+		private RequestHandler(Socket socket, byte[] initialHash, long target)
+		{
+			this.socket = socket;
+			this.initialHash = initialHash;
+			this.target = target;
+		}
+		
+		@Override
+		public void run()
+		{
+			final POWJobHandle jobHandle = new POWJobHandle(socket.getInetAddress().toString());
+			try
+			{
+				LOG.info("Doing POW for " + socket.getInetAddress());
+				Future<Long> result = powExecutor.submit(new Callable<Long>()
+				{
+					@Override
+					public Long call()
+					{
+						return powCalc.findNonce(initialHash, target, jobHandle);
+					}
+				});
+				
+				DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+				if (waitForResult(result, jobHandle) == false)
+				{
+					return;
+				}
+				
+				long nonce;
+				try
+				{
+					nonce = result.get();
+				}
+				catch (ExecutionException e)
+				{
+					// The job can only have been cancelled because it reached the maximum request time
+					if (e.getCause() instanceof CancellationException)
+					{
+						writeStatus(out, STATUS_TIMED_OUT);
+						return;
+					}
+					throw e;
+				}
+				out.writeInt(FRAME_MAGIC);
+				out.writeInt(RESPONSE_BODY_LENGTH);
+				out.writeByte(STATUS_OK);
+				out.writeLong(nonce);
+				out.flush();
+				requestsHandled++;
+			}
+			catch (IOException e)
+			{
+				LOG.log(Level.WARNING, "IOException occurred in POWWorkerServer.RequestHandler.run()", e);
+			}
+			catch (InterruptedException e)
+			{
+				// The server is being stopped
+				jobHandle.cancel();
+			}
+			catch (ExecutionException e)
+			{
+				LOG.log(Level.WARNING, "The POW calculation for " + socket.getInetAddress() + " failed", e.getCause());
+			}
+			catch (RuntimeException e)
+			{
+				// Thrown if the POW executor has been shut down because the server is being stopped
+				if (stopped == false)
+				{
+					LOG.log(Level.WARNING, "RuntimeException occurred in POWWorkerServer.RequestHandler.run()", e);
+				}
+			}
+			finally
+			{
+				closeSocket(socket);
+				busy.set(false);
+			}
+		}
+		
+		/**
+		 * Waits until the POW calculation has stopped. The job is cancelled if the
+		 * client closes the connection or the maximum request time is reached.
+		 * 
+		 * @return True if the client is still connected, otherwise false
+		 */
+		private boolean waitForResult(Future<Long> result, POWJobHandle jobHandle) throws IOException, InterruptedException
+		{
+			long deadline = System.currentTimeMillis() + maxRequestTime;
+			boolean connected = true;
+			socket.setSoTimeout(WATCH_INTERVAL);
+			
+			while (result.isDone() == false)
+			{
+				if (stopped)
+				{
+					throw new InterruptedException("The POW worker server is being stopped");
+				}
+				
+				// The client sends nothing after its request, so a read only returns once the connection has been closed
+				if (connected && jobHandle.isCancelled() == false)
+				{
+					try
+					{
+						socket.getInputStream().read();
+						LOG.info("The client at " + socket.getInetAddress() + " closed the connection. Cancelling its request.");
+						connected = false;
+						jobHandle.cancel();
+					}
+					catch (SocketTimeoutException e)
+					{
+						// The client is still waiting
+					}
+				}
+				else
+				{
+					Thread.sleep(WATCH_INTERVAL);
+				}
+				
+				if (System.currentTimeMillis() > deadline && jobHandle.isCancelled() == false)
+				{
+					LOG.warning("The request from " + socket.getInetAddress() + " took longer than " + maxRequestTime + " milliseconds. Cancelling it.");
+					jobHandle.cancel();
+				}
+			}
+			return connected;
+		}
+	}
+	
+	/**
+	 * Creates the key used to authenticate requests from a shared secret.
+	 * 
+	 * @param sharedSecret - The shared secret
+	 * 
+	 * @return An HmacKey for the shared secret
+	 */
+	static HmacKey createRequestKey(byte[] sharedSecret)
+	{
+		if (sharedSecret == null || sharedSecret.length < MIN_SHARED_SECRET_LENGTH)
+		{
+			throw new IllegalArgumentException("The POW worker shared secret must be at least " + MIN_SHARED_SECRET_LENGTH + " bytes long");
+		}
+		return new HmacKey(sharedSecret);
+	}
+	
+	/**
+	 * Calculates the MAC of a request frame. Clients and the server both use this.
+	 * 
+	 * @param requestKey - The HmacKey made from the shared secret
+	 * @param initialHash - A byte[] containing the initial hash sent in the request
+	 * @param target - The POW target sent in the request
+	 * @param output - A byte[] to write the MAC into, which must be at least HmacKey.MAC_LENGTH bytes long
+	 */
+	static void calculateRequestMac(HmacKey requestKey, byte[] initialHash, long target, byte[] output)
+	{
+		ByteBuffer authenticatedData = ByteBuffer.allocate(REQUEST_AUTHENTICATED_LENGTH);
+		authenticatedData.putInt(FRAME_MAGIC);
+		authenticatedData.putInt(REQUEST_BODY_LENGTH);
+		authenticatedData.put(initialHash);
+		authenticatedData.putLong(target);
+		authenticatedData.flip();
+		requestKey.calculateMac(authenticatedData, output, 0);
+	}
+	
+	private static void writeStatus(DataOutputStream out, byte status) throws IOException
+	{
+		out.writeInt(FRAME_MAGIC);
+		out.writeInt(STATUS_RESPONSE_BODY_LENGTH);
+		out.writeByte(status);
+		out.flush();
+	}
+	
+	private static void closeSocket(Socket socket)
+	{
+		if (socket != null)
+		{
+			try
+			{
+				socket.close();
+			}
+			catch (IOException e)
+			{
+				// Nothing more can be done with the socket
+			}
+		}
+	}
+	
+	public static void main(String[] args) throws IOException
+	{
+		int port = DEFAULT_PORT;
+		if (args.length > 0)
+		{
+			port = Integer.parseInt(args[0]);
+		}
+		InetAddress bindAddress = null;
+		if (args.length > 1)
+		{
+			bindAddress = InetAddress.getByName(args[1]);
+		}
+		
+		String sharedSecretHex = System.getenv(SHARED_SECRET_VARIABLE);
+		if (sharedSecretHex == null)
+		{
+			throw new IllegalArgumentException("The shared secret must be set in the " + SHARED_SECRET_VARIABLE + " environment variable, hex encoded");
+		}
+		
+		POWWorkerServer server = new POWWorkerServer(port, bindAddress, ByteFormatter.hexStringToByteArray(sharedSecretHex));
+		LOG.info("POW worker server listening on " + server.serverSocket.getInetAddress() + " port " + server.getPort());
+		server.acceptRequests();
+	}
+}
\ No newline at end of file
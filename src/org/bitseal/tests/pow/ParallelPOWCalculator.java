@@ -0,0 +1,998 @@
+package org.bitseal.tests.pow;
+
+import java.math.BigInteger;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bitseal.tests.crypt.Hasher;
+import org.bitseal.util.ByteFormatter;
+
+import android.util.Log;
+
+/**
+ * A prototype of a multi-core proof of work calculator. The nonce space is
+ * divided into fixed size chunks, which are claimed in turn by a pool of worker
+ * threads. The first worker to find a valid nonce stops all the others. <br><br>
+ * 
+ * The calculation follows the same rules as POWProcessor, so any nonce found
+ * by this class should be accepted by POWProcessor.checkPOW(). <br><br>
+ * 
+ * If a POWCheckpointStore is set, the progress of each search is saved at
+ * regular intervals, and a search for a payload that has an existing checkpoint
+ * carries on from where the previous search stopped instead of from nonce 0. <br><br>
+ * 
+ * See https://bitmessage.org/wiki/Proof_of_work
+ * 
+ * @author Jonathan Coe
+ */
+public class ParallelPOWCalculator
+{
+	/** The number of nonces in each chunk of the nonce space that is claimed by a worker */
+	private static final long CHUNK_SIZE = 4096;
+	
+	/** The number of objects in each part of a batch that is claimed by a verification worker */
+	private static final int VERIFICATION_CHUNK_SIZE = 16;
+	
+	/** The length of the POW nonce and expiration time at the start of an object */
+	private static final int OBJECT_HEADER_LENGTH = 16;
+	
+	/** The minimum time to live that is used when calculating the POW target, as defined by the Bitmessage protocol */
+	private static final long MINIMUM_TIME_TO_LIVE = 300;
+	
+	private static final BigInteger TWO_POW_16 = BigInteger.valueOf(65536);
+	private static final BigInteger TWO_POW_64 = BigInteger.ONE.shiftLeft(64);
+	
+	/** Calculate the trial value for one nonce at a time, using POWTrialEngine */
+	public static final int TRIAL_STRATEGY_SCALAR = 1;
+	
+	/** Calculate the trial values for two nonces at a time, using MultiBufferPOWTrialEngine */
+	public static final int TRIAL_STRATEGY_MULTI_BUFFER_2 = 2;
+	
+	/** Calculate the trial values for four nonces at a time, using MultiBufferPOWTrialEngine */
+	public static final int TRIAL_STRATEGY_MULTI_BUFFER_4 = 4;
+	
+	private final int numberOfWorkers;
+	
+	/** The default minimum time between POW checkpoints, in milliseconds */
+	private static final long DEFAULT_CHECKPOINT_INTERVAL = 10000;
+	
+	/** The default time between POW progress reports, in milliseconds */
+	private static final long DEFAULT_PROGRESS_INTERVAL = 1000;
+	
+	/** The time between checks for cancellation, progress reports and adaptive controller samples, in milliseconds */
+	private static final long MONITOR_INTERVAL = 100;
+	
+	private static final String TAG = "PARALLEL_POW_CALCULATOR";
+	
+	private int trialStrategy = TRIAL_STRATEGY_SCALAR;
+	
+	private POWCheckpointStore checkpointStore;
+	
+	private long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+	
+	private AdaptivePOWController adaptiveController;
+	
+	private POWProgressListener progressListener;
+	
+	private long progressInterval = DEFAULT_PROGRESS_INTERVAL;
+	
+	/**
+	 * Creates a new ParallelPOWCalculator which will use one worker thread
+	 * for each processor available to the VM.
+	 */
+	public ParallelPOWCalculator()
+	{
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Creates a new ParallelPOWCalculator
+	 * 
+	 * @param numberOfWorkers - The number of worker threads to search the nonce space with
+	 */
+	public ParallelPOWCalculator(int numberOfWorkers)
+	{
+		if (numberOfWorkers < 1)
+		{
+			throw new IllegalArgumentException("The number of POW workers must be at least 1. The value supplied was " + numberOfWorkers);
+		}
+		this.numberOfWorkers = numberOfWorkers;
+	}
+	
+	/**
+	 * Sets the way in which the workers calculate trial values.
+	 * 
+	 * @param trialStrategy - One of TRIAL_STRATEGY_SCALAR, TRIAL_STRATEGY_MULTI_BUFFER_2
+	 * or TRIAL_STRATEGY_MULTI_BUFFER_4
+	 */
+	public void setTrialStrategy(int trialStrategy)
+	{
+		if (trialStrategy != TRIAL_STRATEGY_SCALAR && trialStrategy != TRIAL_STRATEGY_MULTI_BUFFER_2 && trialStrategy != TRIAL_STRATEGY_MULTI_BUFFER_4)
+		{
+			throw new IllegalArgumentException("Unknown POW trial strategy: " + trialStrategy);
+		}
+		this.trialStrategy = trialStrategy;
+	}
+	
+	/**
+	 * Sets the store used to save and resume POW checkpoints.
+	 * 
+	 * @param checkpointStore - The POWCheckpointStore to use, or null to disable checkpoints
+	 */
+	public void setCheckpointStore(POWCheckpointStore checkpointStore)
+	{
+		this.checkpointStore = checkpointStore;
+	}
+	
+	/**
+	 * Sets the controller used to adjust the number of active worker threads
+	 * while a search is running.
+	 * 
+	 * @param adaptiveController - The AdaptivePOWController to use, or null to keep all
+	 * of the worker threads active
+	 */
+	public void setAdaptiveController(AdaptivePOWController adaptiveController)
+	{
+		this.adaptiveController = adaptiveController;
+	}
+	
+	/**
+	 * Sets the listener that receives progress reports while a search is running.
+	 * 
+	 * @param progressListener - The POWProgressListener to use, or null for no progress reports
+	 */
+	public void setProgressListener(POWProgressListener progressListener)
+	{
+		this.progressListener = progressListener;
+	}
+	
+	/**
+	 * Sets the time between POW progress reports. Reports are not made more
+	 * often than every 100 milliseconds.
+	 * 
+	 * @param progressInterval - The interval to use, in milliseconds
+	 */
+	public void setProgressInterval(long progressInterval)
+	{
+		if (progressInterval <= 0)
+		{
+			throw new IllegalArgumentException("The POW progress interval must be greater than 0. The value supplied was " + progressInterval);
+		}
+		this.progressInterval = progressInterval;
+	}
+	
+	/**
+	 * Sets the minimum time between POW checkpoints.
+	 * 
+	 * @param checkpointInterval - The interval to use, in milliseconds
+	 */
+	public void setCheckpointInterval(long checkpointInterval)
+	{
+		if (checkpointInterval < 0)
+		{
+			throw new IllegalArgumentException("The POW checkpoint interval must not be negative. The value supplied was " + checkpointInterval);
+		}
+		this.checkpointInterval = checkpointInterval;
+	}
+	
+	/**
+	 * Does the proof of work for a given payload. The parameters are the same
+	 * as those of POWProcessor.doPOW().
+	 * 
+	 * @param payload - A byte[] containing the payload to do the POW for
+	 * @param expirationTime - The expiration time of the payload, in seconds
+	 * @param nonceTrialsPerByte - The nonceTrialsPerByte value to use
+	 * @param extraBytes - The extraBytes value to use
+	 * 
+	 * @return A long containing the POW nonce
+	 */
+	public long doPOW(byte[] payload, long expirationTime, long nonceTrialsPerByte, long extraBytes)
+	{
+		return doPOW(payload, expirationTime, nonceTrialsPerByte, extraBytes, null);
+	}
+	
+	/**
+	 * Does the proof of work for a given payload, as a job that can be identified
+	 * in progress reports and cancelled.
+	 * 
+	 * @param payload - A byte[] containing the payload to do the POW for
+	 * @param expirationTime - The expiration time of the payload, in seconds
+	 * @param nonceTrialsPerByte - The nonceTrialsPerByte value to use
+	 * @param extraBytes - The extraBytes value to use
+	 * @param jobHandle - The POWJobHandle for the job, or null
+	 * 
+	 * @return A long containing the POW nonce
+	 * 
+	 * @throws CancellationException if the job is cancelled
+	 */
+	public long doPOW(byte[] payload, long expirationTime, long nonceTrialsPerByte, long extraBytes, POWJobHandle jobHandle)
+	{
+		long target = calculateTarget(payload.length, expirationTime, nonceTrialsPerByte, extraBytes);
+		byte[] initialHash = sha512(payload);
+		
+		return findNonce(initialHash, target, expirationTime, jobHandle);
+	}
+	
+	/**
+	 * Searches the nonce space for a nonce which, when combined with
+	 * the given initial hash, produces a trial value that is no greater
+	 * than the given target.
+	 * 
+	 * @param initialHash - A byte[] containing the SHA-512 hash of the payload
+	 * @param target - The POW target
+	 * 
+	 * @return A long containing the POW nonce
+	 */
+	public long findNonce(byte[] initialHash, long target)
+	{
+		return findNonce(initialHash, target, null);
+	}
+	
+	/**
+	 * Searches the nonce space for a nonce which, when combined with
+	 * the given initial hash, produces a trial value that is no greater
+	 * than the given target.
+	 * 
+	 * @param initialHash - A byte[] containing the SHA-512 hash of the payload
+	 * @param target - The POW target
+	 * @param jobHandle - The POWJobHandle for the job, or null. If this is null, progress
+	 * reports identify the job by the hex encoded initial hash.
+	 * 
+	 * @return A long containing the POW nonce
+	 * 
+	 * @throws CancellationException if the job is cancelled
+	 * @throws RuntimeException if one of the workers fails, with the failure as its cause
+	 */
+	public long findNonce(byte[] initialHash, long target, POWJobHandle jobHandle)
+	{
+		return findNonce(initialHash, target, 0, jobHandle);
+	}
+	
+	/**
+	 * Searches the nonce space for a nonce, as findNonce(byte[], long, POWJobHandle)
+	 * does. The expiration time of the payload is saved with each checkpoint, so that
+	 * the checkpoint can be removed once the payload has expired.
+	 */
+	private long findNonce(byte[] initialHash, long target, long expirationTime, POWJobHandle jobHandle)
+	{
+		// Every nonce below a checkpoint has already been found to give a trial value that
+		// was too high for the target at the time. The target grows as the payload nears its
+		// expiration time, so one of them may pass now, but skipping them is still safe because
+		// any nonce found later is checked against the current target.
+		long startNonce = 0;
+		if (checkpointStore != null)
+		{
+			try
+			{
+				POWCheckpoint checkpoint = checkpointStore.loadCheckpoint(initialHash);
+				if (checkpoint != null)
+				{
+					startNonce = checkpoint.getSearchedUpTo();
+				}
+			}
+			catch (RuntimeException e)
+			{
+				Log.e(TAG, "Failed to load the POW checkpoint. The search will start from the first nonce.", e);
+			}
+		}
+		
+		POWSearch search = new POWSearch(initialHash, target, expirationTime, trialStrategy, startNonce, checkpointStore, checkpointInterval);
+		String jobId = (jobHandle != null) ? jobHandle.getJobId() : ByteFormatter.byteArrayToHexString(initialHash);
+		long startTime = System.nanoTime();
+		
+		ExecutorService executor = Executors.newFixedThreadPool(numberOfWorkers);
+		boolean stoppedNormally = false;
+		try
+		{
+			if (adaptiveController != null)
+			{
+				search.setActiveWorkers(adaptiveController.start(numberOfWorkers));
+			}
+			
+			for (int i = 0; i < numberOfWorkers; i++)
+			{
+				executor.execute(new POWWorker(search, i));
+			}
+			
+			waitUntilSolved(search, jobHandle, jobId, startTime);
+			
+			if (search.failure != null)
+			{
+				throw new RuntimeException("A POW worker failed while searching for a nonce for job " + jobId, search.failure);
+			}
+			stoppedNormally = true;
+		}
+		catch (CancellationException e)
+		{
+			stoppedNormally = true;
+			throw e;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for the POW workers to find a nonce", e);
+		}
+		finally
+		{
+			search.finished.set(true);
+			executor.shutdownNow();
+			search.closeCheckpoints();
+			
+			// There is no final report if the search failed, so that the listener cannot hide the failure
+			if (stoppedNormally)
+			{
+				reportProgress(search, jobId, startTime, true);
+			}
+		}
+		
+		return search.nonce.get();
+	}
+	
+	/**
+	 * Waits until a nonce has been found. While waiting, checks whether the job has
+	 * been cancelled, makes progress reports, saves checkpoints and passes the trial
+	 * rate measured over each sample interval to the adaptive controller.
+	 */
+	private void waitUntilSolved(POWSearch search, POWJobHandle jobHandle, String jobId, long startTime) throws InterruptedException
+	{
+		if (jobHandle == null && progressListener == null && adaptiveController == null && checkpointStore == null)
+		{
+			search.solved.await();
+			return;
+		}
+		
+		long previousSampleTime = startTime;
+		long previousSampleTrialsDone = 0;
+		
+		while (search.solved.await(MONITOR_INTERVAL, TimeUnit.MILLISECONDS) == false)
+		{
+			if (jobHandle != null && jobHandle.isCancelled())
+			{
+				throw new CancellationException("The POW calculation for job " + jobId + " was cancelled");
+			}
+			
+			long time = System.nanoTime();
+			long trialsDone = search.trialsDone.get();
+			
+			if (adaptiveController != null && time - previousSampleTime >= adaptiveController.getSampleInterval() * 1000000)
+			{
+				double trialsPerSecond = calculateTrialsPerSecond(trialsDone - previousSampleTrialsDone, time - previousSampleTime);
+				search.setActiveWorkers(adaptiveController.onSample(trialsPerSecond));
+				previousSampleTime = time;
+				previousSampleTrialsDone = trialsDone;
+			}
+			
+			if (time - search.lastProgressTime >= progressInterval * 1000000)
+			{
+				reportProgress(search, jobId, startTime, false);
+			}
+			
+			search.saveCheckpointIfDue();
+		}
+	}
+	
+	/**
+	 * Makes a progress report, if there is a progress listener. The trial rate is
+	 * measured over the time since the last report. An exception thrown by the
+	 * listener is logged rather than passed on, so that it cannot stop the search
+	 * or replace an exception that is already being thrown.
+	 */
+	private void reportProgress(POWSearch search, String jobId, long startTime, boolean finished)
+	{
+		if (progressListener == null)
+		{
+			return;
+		}
+		
+		long time = System.nanoTime();
+		long trialsDone = search.trialsDone.get();
+		double trialsPerSecond = calculateTrialsPerSecond(trialsDone - search.lastProgressTrialsDone, time - search.lastProgressTime);
+		double averageTrialsPerSecond = calculateTrialsPerSecond(trialsDone, time - startTime);
+		search.lastProgressTime = time;
+		search.lastProgressTrialsDone = trialsDone;
+		
+		try
+		{
+			progressListener.onProgress(new POWProgress(jobId, trialsDone, trialsPerSecond, averageTrialsPerSecond,
+					POWCostEstimator.calculateExpectedTrials(search.target), (time - startTime) / 1000000, finished));
+		}
+		catch (RuntimeException e)
+		{
+			Log.e(TAG, "The POW progress listener threw an exception while handling a report for job " + jobId, e);
+		}
+	}
+	
+	private static double calculateTrialsPerSecond(long trials, long nanoseconds)
+	{
+		if (nanoseconds <= 0)
+		{
+			return 0;
+		}
+		return (trials * 1000000000.0) / nanoseconds;
+	}
+	
+	/**
+	 * Checks the proof of work for a given payload. The parameters are the same
+	 * as those of POWProcessor.checkPOW().
+	 * 
+	 * @param payload - A byte[] containing the payload, not including the POW nonce
+	 * @param nonce - The POW nonce to check
+	 * @param expirationTime - The expiration time of the payload, in seconds
+	 * @param nonceTrialsPerByte - The nonceTrialsPerByte value to use
+	 * @param extraBytes - The extraBytes value to use
+	 * 
+	 * @return A boolean indicating whether the POW is valid
+	 */
+	public boolean checkPOW(byte[] payload, long nonce, long expirationTime, long nonceTrialsPerByte, long extraBytes)
+	{
+		long target = calculateTarget(payload.length, expirationTime, nonceTrialsPerByte, extraBytes);
+		POWTrialEngine engine = new POWTrialEngine(sha512(payload));
+		
+		return engine.checkNonce(nonce, target);
+	}
+	
+	/**
+	 * Checks the proof of work for a batch of objects, in parallel. Each object
+	 * must be in the form used on the network: the 8 byte POW nonce, followed
+	 * by the 8 byte expiration time and the rest of the object. <br><br>
+	 * 
+	 * This is intended to be used on objects received from a server before any
+	 * other processing is done on them, so that objects with invalid POW can be
+	 * dropped without being parsed or decrypted. Each worker reuses the same
+	 * digest and trial engine for all the objects it checks.
+	 * 
+	 * @param objects - A List<byte[]> containing the objects to check
+	 * @param nonceTrialsPerByte - The nonceTrialsPerByte value to use
+	 * @param extraBytes - The extraBytes value to use
+	 * 
+	 * @return A BitSet in which the bit for each object with valid POW is set.
+	 * Objects which are too short to contain a nonce and an expiration time
+	 * are treated as invalid.
+	 */
+	public BitSet checkPOWBatch(List<byte[]> objects, long nonceTrialsPerByte, long extraBytes)
+	{
+		POWVerification verification = new POWVerification(objects, nonceTrialsPerByte, extraBytes);
+		
+		int numberOfChunks = (objects.size() + VERIFICATION_CHUNK_SIZE - 1) / VERIFICATION_CHUNK_SIZE;
+		int numberOfVerificationWorkers = Math.min(numberOfWorkers, numberOfChunks);
+		if (numberOfVerificationWorkers <= 1)
+		{
+			// Not worth starting any threads
+			new POWVerificationWorker(verification).run();
+		}
+		else
+		{
+			ExecutorService executor = Executors.newFixedThreadPool(numberOfVerificationWorkers);
+			try
+			{
+				List<Future<?>> futures = new ArrayList<Future<?>>();
+				for (int i = 0; i < numberOfVerificationWorkers; i++)
+				{
+					futures.add(executor.submit(new POWVerificationWorker(verification)));
+				}
+				for (Future<?> f : futures)
+				{
+					f.get();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting for the POW verification workers to finish", e);
+			}
+			catch (ExecutionException e)
+			{
+				throw new RuntimeException("ExecutionException occurred in ParallelPOWCalculator.checkPOWBatch()", e);
+			}
+			finally
+			{
+				executor.shutdownNow();
+			}
+		}
+		
+		BitSet passed = new BitSet(objects.size());
+		for (int i = 0; i < verification.results.length; i++)
+		{
+			if (verification.results[i])
+			{
+				passed.set(i);
+			}
+		}
+		return passed;
+	}
+	
+	/**
+	 * Calculates the POW target for a payload, using the formula defined
+	 * by the Bitmessage protocol.
+	 * 
+	 * @param payloadLength - The length of the payload, not including the POW nonce
+	 * @param expirationTime - The expiration time of the payload, in seconds
+	 * @param nonceTrialsPerByte - The nonceTrialsPerByte value to use
+	 * @param extraBytes - The extraBytes value to use
+	 * 
+	 * @return A long containing the POW target
+	 */
+	public static long calculateTarget(int payloadLength, long expirationTime, long nonceTrialsPerByte, long extraBytes)
+	{
+		long timeToLive = expirationTime - (System.currentTimeMillis() / 1000);
+		return calculateTargetFromTimeToLive(payloadLength, timeToLive, nonceTrialsPerByte, extraBytes);
+	}
+	
+	/**
+	 * Calculates the POW target for a payload with a given time to live.
+	 * 
+	 * @param payloadLength - The length of the payload, not including the POW nonce
+	 * @param timeToLive - The time to live of the payload, in seconds
+	 * @param nonceTrialsPerByte - The nonceTrialsPerByte value to use
+	 * @param extraBytes - The extraBytes value to use
+	 * 
+	 * @return A long containing the POW target
+	 */
+	public static long calculateTargetFromTimeToLive(int payloadLength, long timeToLive, long nonceTrialsPerByte, long extraBytes)
+	{
+		if (timeToLive < MINIMUM_TIME_TO_LIVE)
+		{
+			timeToLive = MINIMUM_TIME_TO_LIVE;
+		}
+		
+		// The length used includes the 8 bytes of the POW nonce
+		BigInteger powLength = BigInteger.valueOf(payloadLength + 8 + extraBytes);
+		BigInteger timeFactor = BigInteger.valueOf(timeToLive).multiply(powLength).divide(TWO_POW_16);
+		BigInteger denominator = BigInteger.valueOf(nonceTrialsPerByte).multiply(powLength.add(timeFactor));
+		
+		return TWO_POW_64.divide(denominator).longValue();
+	}
+	
+	/**
+	 * Calculates the trial value for a given nonce and initial hash. This is the first
+	 * 8 bytes of the double SHA-512 hash of the nonce followed by the initial hash. <br><br>
+	 * 
+	 * This is the straightforward way of calculating a trial value, which allocates new
+	 * byte arrays for every trial. It is kept as a reference for POWTrialEngine.
+	 * 
+	 * @param nonce - The nonce to calculate the trial value for
+	 * @param initialHash - A byte[] containing the SHA-512 hash of the payload
+	 * @param sha512 - The MessageDigest to use
+	 * 
+	 * @return A long containing the trial value
+	 */
+	static long calculateTrialValue(long nonce, byte[] initialHash, MessageDigest sha512)
+	{
+		byte[] nonceBytes = new byte[8];
+		for (int i = 7; i >= 0; i--)
+		{
+			nonceBytes[i] = (byte) nonce;
+			nonce >>>= 8;
+		}
+		
+		sha512.update(nonceBytes);
+		sha512.update(initialHash);
+		byte[] firstHash = sha512.digest();
+		byte[] secondHash = sha512.digest(firstHash);
+		
+		long trialValue = 0;
+		for (int i = 0; i < 8; i++)
+		{
+			trialValue = (trialValue << 8) | (secondHash[i] & 0xFF);
+		}
+		return trialValue;
+	}
+	
+	static MessageDigest createSHA512Digest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-512");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new RuntimeException("NoSuchAlgorithmException occurred in ParallelPOWCalculator.createSHA512Digest()", e);
+		}
+	}
+	
+	static byte[] sha512(byte[] data)
+	{
+		return Hasher.sha512().update(data).doFinal();
+	}
+	
+	/**
+	 * Holds the state of a single nonce search, which is shared by all
+	 * of the workers taking part in it.
+	 */
+	private static class POWSearch
+	{
+		private final byte[] initialHash;
+		private final long target;
+		private final long expirationTime;
+		private final int trialStrategy;
+		private final long startNonce;
+		private final POWCheckpointStore checkpointStore;
+		private final long checkpointInterval;
+		
+		private final AtomicLong nextChunk = new AtomicLong(0);
+		private final AtomicBoolean finished = new AtomicBoolean(false);
+		private final AtomicLong nonce = new AtomicLong();
+		/** Counted down once a nonce has been found, or once one of the workers has failed */
+		private final CountDownLatch solved = new CountDownLatch(1);
+		
+		/** The exception thrown by a worker which failed, or null if none of the workers has failed */
+		private volatile Throwable failure;
+		
+		/** The number of trials done in all of the chunks that have been completed */
+		private final AtomicLong trialsDone = new AtomicLong(0);
+		
+		/** The workers with an index below this number search for a nonce, while the others wait */
+		private int activeWorkers = Integer.MAX_VALUE;
+		
+		/** The chunks that have been searched but are not yet part of the contiguous searched range */
+		private final TreeSet<Long> completedChunks = new TreeSet<Long>();
+		
+		/** The index of the first chunk that has not been searched */
+		private long firstUnsearchedChunk = 0;
+		private long lastCheckpointTime = System.currentTimeMillis();
+		private boolean checkpointsClosed = false;
+		
+		/** The time of the last progress report, from System.nanoTime(), and the trials done at that time. Only used by the calling thread. */
+		private long lastProgressTime = System.nanoTime();
+		private long lastProgressTrialsDone = 0;
+		
+		private POWSearch(byte[] initialHash, long target, long expirationTime, int trialStrategy, long startNonce, POWCheckpointStore checkpointStore, long checkpointInterval)
+		{
+			this.initialHash = initialHash;
+			this.target = target;
+			this.expirationTime = expirationTime;
+			this.trialStrategy = trialStrategy;
+			this.startNonce = startNonce;
+			this.checkpointStore = checkpointStore;
+			this.checkpointInterval = checkpointInterval;
+		}
+		
+		/**
+		 * Returns the first nonce of a chunk of the nonce space.
+		 */
+		private long getChunkStart(long chunkIndex)
+		{
+			return startNonce + (chunkIndex * CHUNK_SIZE);
+		}
+		
+		private synchronized void setActiveWorkers(int activeWorkers)
+		{
+			this.activeWorkers = activeWorkers;
+			notifyAll();
+		}
+		
+		/**
+		 * Blocks the calling worker while it is not one of the active workers.
+		 * 
+		 * @return A boolean indicating whether the worker should carry on searching
+		 */
+		private synchronized boolean waitUntilActive(int workerIndex)
+		{
+			try
+			{
+				while (workerIndex >= activeWorkers && finished.get() == false)
+				{
+					wait();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				// The search has been stopped
+				return false;
+			}
+			return finished.get() == false;
+		}
+		
+		/**
+		 * Records that one of the workers has searched a whole chunk without finding
+		 * a valid nonce. Chunks can be completed out of order, so only the contiguous
+		 * range of searched chunks is recorded for checkpoints.
+		 */
+		private synchronized void chunkCompleted(long chunkIndex)
+		{
+			trialsDone.addAndGet(CHUNK_SIZE);
+			
+			if (checkpointsClosed)
+			{
+				return;
+			}
+			
+			completedChunks.add(chunkIndex);
+			while (completedChunks.remove(firstUnsearchedChunk))
+			{
+				firstUnsearchedChunk++;
+			}
+		}
+		
+		/**
+		 * Saves a checkpoint if one is due. This is called by the thread waiting for the
+		 * search to finish rather than by the workers, so that the workers never wait for
+		 * storage and a failed save cannot stop a worker.
+		 */
+		private void saveCheckpointIfDue()
+		{
+			POWCheckpoint checkpoint;
+			synchronized (this)
+			{
+				if (checkpointStore == null || checkpointsClosed || System.currentTimeMillis() - lastCheckpointTime < checkpointInterval)
+				{
+					return;
+				}
+				checkpoint = new POWCheckpoint(expirationTime, getChunkStart(firstUnsearchedChunk));
+				lastCheckpointTime = System.currentTimeMillis();
+			}
+			
+			try
+			{
+				checkpointStore.saveCheckpoint(initialHash, checkpoint);
+			}
+			catch (RuntimeException e)
+			{
+				Log.e(TAG, "Failed to save a POW checkpoint. The search will carry on without it.", e);
+			}
+		}
+		
+		/**
+		 * Called once the search has stopped. If a nonce was found, the checkpoint is no
+		 * longer needed and is deleted. Otherwise a final checkpoint is saved, so that
+		 * the search can be resumed later.
+		 */
+		private void closeCheckpoints()
+		{
+			POWCheckpoint checkpoint;
+			synchronized (this)
+			{
+				checkpointsClosed = true;
+				checkpoint = new POWCheckpoint(expirationTime, getChunkStart(firstUnsearchedChunk));
+			}
+			
+			if (checkpointStore == null)
+			{
+				return;
+			}
+			
+			try
+			{
+				if (solved.getCount() == 0 && failure == null)
+				{
+					checkpointStore.deleteCheckpoint(initialHash);
+				}
+				else
+				{
+					checkpointStore.saveCheckpoint(initialHash, checkpoint);
+				}
+			}
+			catch (RuntimeException e)
+			{
+				Log.e(TAG, "Failed to update the POW checkpoint for the finished search", e);
+			}
+		}
+		
+		/**
+		 * Records a nonce found by one of the workers. Only the first
+		 * nonce found is kept.
+		 */
+		private void submitNonce(long foundNonce)
+		{
+			if (finished.compareAndSet(false, true))
+			{
+				nonce.set(foundNonce);
+				solved.countDown();
+			}
+		}
+		
+		/**
+		 * Records that one of the workers has failed, and stops the search.
+		 * If the search has already stopped, the failure is ignored.
+		 */
+		private void workerFailed(Throwable t)
+		{
+			if (finished.compareAndSet(false, true))
+			{
+				failure = t;
+				solved.countDown();
+				
+				// Wake any inactive workers, so that they can see that the search has stopped
+				synchronized (this)
+				{
+					notifyAll();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Repeatedly claims the next unsearched chunk of the nonce space and
+	 * searches it, until either it or another worker finds a valid nonce.
+	 */
+	private static class POWWorker implements Runnable
+	{
+		private final POWSearch search;
+		private final int workerIndex;
+		
+		private POWWorker(POWSearch search, int workerIndex)
+		{
+			this.search = search;
+			this.workerIndex = workerIndex;
+		}
+		
+		@Override
+		public void run()
+		{
+			try
+			{
+				if (search.trialStrategy == TRIAL_STRATEGY_SCALAR)
+				{
+					runScalar();
+				}
+				else
+				{
+					runMultiBuffer();
+				}
+			}
+			catch (Throwable t)
+			{
+				// Otherwise the executor would swallow the failure, and findNonce() would wait forever
+				search.workerFailed(t);
+			}
+		}
+		
+		private void runScalar()
+		{
+			POWTrialEngine engine = new POWTrialEngine(search.initialHash);
+			
+			while (search.waitUntilActive(workerIndex))
+			{
+				long chunkIndex = search.nextChunk.getAndIncrement();
+				long chunkStart = search.getChunkStart(chunkIndex);
+				long chunkEnd = chunkStart + CHUNK_SIZE;
+				
+				for (long trialNonce = chunkStart; trialNonce < chunkEnd; trialNonce++)
+				{
+					if (engine.checkNonce(trialNonce, search.target))
+					{
+						search.submitNonce(trialNonce);
+						return;
+					}
+				}
+				search.chunkCompleted(chunkIndex);
+			}
+		}
+		
+		private void runMultiBuffer()
+		{
+			MultiBufferPOWTrialEngine engine = new MultiBufferPOWTrialEngine(search.initialHash, search.trialStrategy);
+			int lanes = engine.getLanes();
+			long[] trialValues = new long[lanes];
+			
+			while (search.waitUntilActive(workerIndex))
+			{
+				long chunkIndex = search.nextChunk.getAndIncrement();
+				long chunkStart = search.getChunkStart(chunkIndex);
+				long chunkEnd = chunkStart + CHUNK_SIZE;
+				
+				// The chunk size is a multiple of the number of lanes, so the last run ends exactly at the end of the chunk
+				for (long firstNonce = chunkStart; firstNonce < chunkEnd; firstNonce += lanes)
+				{
+					engine.calculateTrialValues(firstNonce, trialValues);
+					for (int lane = 0; lane < lanes; lane++)
+					{
+						long trialValue = trialValues[lane];
+						if (trialValue >= 0 && trialValue <= search.target)
+						{
+							search.submitNonce(firstNonce + lane);
+							return;
+						}
+					}
+				}
+				search.chunkCompleted(chunkIndex);
+			}
+		}
+	}
+	
+	/**
+	 * Holds the state of a single batch POW verification, which is shared by all
+	 * of the workers taking part in it.
+	 */
+	private static class POWVerification
+	{
+		private final List<byte[]> objects;
+		private final long nonceTrialsPerByte;
+		private final long extraBytes;
+		
+		/** Each worker only writes the results for the objects it has claimed */
+		private final boolean[] results;
+		
+		private final AtomicInteger nextChunk = new AtomicInteger(0);
+		
+		private POWVerification(List<byte[]> objects, long nonceTrialsPerByte, long extraBytes)
+		{
+			this.objects = objects;
+			this.nonceTrialsPerByte = nonceTrialsPerByte;
+			this.extraBytes = extraBytes;
+			this.results = new boolean[objects.size()];
+		}
+	}
+	
+	/**
+	 * Repeatedly claims the next unchecked chunk of a batch of objects and
+	 * checks the POW of each object in it, until the whole batch has been checked.
+	 */
+	private static class POWVerificationWorker implements Runnable
+	{
+		private final POWVerification verification;
+		
+		private final MessageDigest sha512 = createSHA512Digest();
+		private final byte[] initialHash = new byte[64];
+		private POWTrialEngine engine;
+		
+		private POWVerificationWorker(POWVerification verification)
+		{
+			this.verification = verification;
+		}
+		
+		@Override
+		public void run()
+		{
+			int numberOfObjects = verification.results.length;
+			int chunkStart = verification.nextChunk.getAndIncrement() * VERIFICATION_CHUNK_SIZE;
+			while (chunkStart < numberOfObjects)
+			{
+				int chunkEnd = Math.min(chunkStart + VERIFICATION_CHUNK_SIZE, numberOfObjects);
+				for (int i = chunkStart; i < chunkEnd; i++)
+				{
+					verification.results[i] = checkObject(verification.objects.get(i));
+				}
+				chunkStart = verification.nextChunk.getAndIncrement() * VERIFICATION_CHUNK_SIZE;
+			}
+		}
+		
+		private boolean checkObject(byte[] object)
+		{
+			if (object.length < OBJECT_HEADER_LENGTH)
+			{
+				return false;
+			}
+			
+			long nonce = POWTrialEngine.bytesToLong(object, 0);
+			long expirationTime = POWTrialEngine.bytesToLong(object, 8);
+			long target = calculateTarget(object.length - 8, expirationTime, verification.nonceTrialsPerByte, verification.extraBytes);
+			
+			// Hash the object without the nonce, without copying it
+			sha512.update(object, 8, object.length - 8);
+			try
+			{
+				sha512.digest(initialHash, 0, initialHash.length);
+			}
+			catch (DigestException e)
+			{
+				throw new RuntimeException("DigestException occurred in ParallelPOWCalculator.POWVerificationWorker.checkObject()", e);
+			}
+			
+			if (engine == null)
+			{
+				engine = new POWTrialEngine(initialHash);
+			}
+			else
+			{
+				engine.setInitialHash(initialHash);
+			}
+			return engine.checkNonce(nonce, target);
+		}
+	}
+}
\ No newline at end of file
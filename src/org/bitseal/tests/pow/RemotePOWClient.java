@@ -0,0 +1,163 @@
+package org.bitseal.tests.pow;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import org.bitseal.tests.crypt.HmacKey;
+
+import android.util.Log;
+
+/**
+ * Does proof of work by sending it to a POWWorkerServer on the local network,
+ * falling back to doing the POW on this device if the server cannot be reached,
+ * does not answer in time, will not take the request, or sends back a nonce that
+ * is not valid. <br><br>
+ * 
+ * A nonce returned by the server is never trusted without being checked.
+ * 
+ * @author Jonathan Coe
+ */
+public class RemotePOWClient
+{
+	/** The maximum time to wait for a connection to the server, in milliseconds */
+	private static final int CONNECT_TIMEOUT = 5000;
+	
+	private static final String TAG = "REMOTE_POW_CLIENT";
+	
+	private final String host;
+	private final int port;
+	private final HmacKey requestKey;
+	private final int timeout;
+	private final ParallelPOWCalculator localPOWCalc;
+	
+	/**
+	 * Creates a new RemotePOWClient
+	 * 
+	 * @param host - The host name or address of the POW worker server
+	 * @param port - The port that the POW worker server is listening on
+	 * @param sharedSecret - The secret shared with the POW worker server, used to authenticate requests
+	 * @param timeout - The maximum time to wait for the server to return a nonce, in milliseconds
+	 * @param localPOWCalc - The ParallelPOWCalculator to use if the remote POW fails
+	 */
+	public RemotePOWClient(String host, int port, byte[] sharedSecret, int timeout, ParallelPOWCalculator localPOWCalc)
+	{
+		this.host = host;
+		this.port = port;
+		this.requestKey = POWWorkerServer.createRequestKey(sharedSecret);
+		this.timeout = timeout;
+		this.localPOWCalc = localPOWCalc;
+	}
+	
+	/**
+	 * Does the proof of work for a given payload. The parameters are the same
+	 * as those of POWProcessor.doPOW().
+	 * 
+	 * @param payload - A byte[] containing the payload to do the POW for
+	 * @param expirationTime - The expiration time of the payload, in seconds
+	 * @param nonceTrialsPerByte - The nonceTrialsPerByte value to use
+	 * @param extraBytes - The extraBytes value to use
+	 * 
+	 * @return A long containing the POW nonce
+	 */
+	public long doPOW(byte[] payload, long expirationTime, long nonceTrialsPerByte, long extraBytes)
+	{
+		long target = ParallelPOWCalculator.calculateTarget(payload.length, expirationTime, nonceTrialsPerByte, extraBytes);
+		byte[] initialHash = ParallelPOWCalculator.sha512(payload);
+		
+		try
+		{
+			long remoteNonce = requestNonce(initialHash, target);
+			if (localPOWCalc.checkPOW(payload, remoteNonce, expirationTime, nonceTrialsPerByte, extraBytes))
+			{
+				return remoteNonce;
+			}
+			Log.e(TAG, "The POW worker server at " + host + ":" + port + " returned an invalid nonce. Doing the POW locally instead.");
+		}
+		catch (IOException e)
+		{
+			Log.e(TAG, "IOException occurred in RemotePOWClient.doPOW(). Doing the POW locally instead. \n" +
+					"The exception message was: " + e.getMessage());
+		}
+		
+		return localPOWCalc.findNonce(initialHash, target);
+	}
+	
+	/**
+	 * Sends a POW request to the server and waits for the nonce.
+	 * 
+	 * @param initialHash - A byte[] containing the SHA-512 hash of the payload
+	 * @param target - The POW target
+	 * 
+	 * @return A long containing the nonce returned by the server. This has not been checked.
+	 * 
+	 * @throws IOException if the request fails or the response is not valid
+	 */
+	long requestNonce(byte[] initialHash, long target) throws IOException
+	{
+		Socket socket = new Socket();
+		try
+		{
+			socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+			socket.setSoTimeout(timeout);
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			
+			writeRequest(out, initialHash, target);
+			
+			int magic = in.readInt();
+			int bodyLength = in.readInt();
+			if (magic != POWWorkerServer.FRAME_MAGIC || (bodyLength != POWWorkerServer.RESPONSE_BODY_LENGTH && bodyLength != POWWorkerServer.STATUS_RESPONSE_BODY_LENGTH))
+			{
+				throw new IOException("Received an invalid response frame from the POW worker server");
+			}
+			
+			byte status = in.readByte();
+			if (status == POWWorkerServer.STATUS_BUSY)
+			{
+				throw new IOException("The POW worker server is busy with another request");
+			}
+			else if (status == POWWorkerServer.STATUS_REJECTED)
+			{
+				throw new IOException("The POW worker server rejected the request because the target is too difficult");
+			}
+			else if (status == POWWorkerServer.STATUS_TIMED_OUT)
+			{
+				throw new IOException("The POW worker server gave up on the request because it took too long");
+			}
+			else if (status != POWWorkerServer.STATUS_OK || bodyLength != POWWorkerServer.RESPONSE_BODY_LENGTH)
+			{
+				throw new IOException("Received an invalid response from the POW worker server");
+			}
+			return in.readLong();
+		}
+		finally
+		{
+			socket.close();
+		}
+	}
+	
+	/**
+	 * Writes an authenticated POW request frame.
+	 * 
+	 * @param out - The DataOutputStream to write the request to
+	 * @param initialHash - A byte[] containing the SHA-512 hash of the payload
+	 * @param target - The POW target
+	 * 
+	 * @throws IOException if the request cannot be written
+	 */
+	void writeRequest(DataOutputStream out, byte[] initialHash, long target) throws IOException
+	{
+		byte[] mac = new byte[HmacKey.MAC_LENGTH];
+		POWWorkerServer.calculateRequestMac(requestKey, initialHash, target, mac);
+		
+		out.writeInt(POWWorkerServer.FRAME_MAGIC);
+		out.writeInt(POWWorkerServer.REQUEST_BODY_LENGTH);
+		out.write(initialHash);
+		out.writeLong(target);
+		out.write(mac);
+		out.flush();
+	}
+}
\ No newline at end of file
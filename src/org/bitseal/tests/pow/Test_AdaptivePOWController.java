@@ -0,0 +1,141 @@
+package org.bitseal.tests.pow;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import org.bitseal.pow.POWProcessor;
+
+/**
+ * Tests that the adaptive POW controller finds the number of worker threads
+ * with the highest trial rate, using synthetic trial rates, and that it can
+ * be used by ParallelPOWCalculator.
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_AdaptivePOWController extends TestCase
+{
+	private static final int MAX_WORKERS = 6;
+	
+	private static final int SAMPLES_TO_RUN = 20;
+	
+	/** The trial rates of a device that is throttled when more than 3 workers are used, indexed by the number of workers */
+	private static final double[] THROTTLED_ABOVE_THREE_RATES = {0, 1000, 1900, 2500, 2200, 1800, 1500};
+	
+	/** The trial rates of the same device once it has got hot enough to be throttled when more than 2 workers are used */
+	private static final double[] THROTTLED_ABOVE_TWO_RATES = {0, 1000, 1800, 1500, 1200, 1000, 900};
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testFindsBestWorkerCount()
+	{
+		AdaptivePOWController controller = new AdaptivePOWController();
+		int activeWorkers = controller.start(MAX_WORKERS);
+		assertEquals(MAX_WORKERS, activeWorkers);
+		
+		activeWorkers = runSamples(controller, activeWorkers, THROTTLED_ABOVE_THREE_RATES);
+		assertEquals(3, activeWorkers);
+		
+		// The device gets hotter, so the best number of workers falls
+		activeWorkers = runSamples(controller, activeWorkers, THROTTLED_ABOVE_TWO_RATES);
+		assertEquals(2, activeWorkers);
+		
+		// The device cools down again
+		activeWorkers = runSamples(controller, activeWorkers, THROTTLED_ABOVE_THREE_RATES);
+		assertEquals(3, activeWorkers);
+	}
+	
+	public void testBatteryPolicy()
+	{
+		AdaptivePOWController controller = new AdaptivePOWController();
+		final int[] batteryLimit = new int[]{MAX_WORKERS};
+		controller.setBatteryPolicy(new POWBatteryPolicy()
+		{
+			@Override
+			public int getMaxWorkers(int maxWorkers)
+			{
+				return batteryLimit[0];
+			}
+		});
+		
+		int activeWorkers = controller.start(MAX_WORKERS);
+		activeWorkers = runSamples(controller, activeWorkers, THROTTLED_ABOVE_THREE_RATES);
+		assertEquals(3, activeWorkers);
+		
+		// The battery runs low
+		batteryLimit[0] = 1;
+		for (int i = 0; i < SAMPLES_TO_RUN; i++)
+		{
+			activeWorkers = controller.onSample(THROTTLED_ABOVE_THREE_RATES[activeWorkers]);
+			assertEquals(1, activeWorkers);
+		}
+	}
+	
+	public void testMetricsListener()
+	{
+		final ArrayList<int[]> decisions = new ArrayList<int[]>();
+		AdaptivePOWController controller = new AdaptivePOWController();
+		controller.setMetricsListener(new AdaptivePOWController.MetricsListener()
+		{
+			@Override
+			public void onSample(int activeWorkers, double trialsPerSecond, int nextActiveWorkers)
+			{
+				decisions.add(new int[]{activeWorkers, (int) trialsPerSecond, nextActiveWorkers});
+			}
+		});
+		
+		int activeWorkers = controller.start(MAX_WORKERS);
+		for (int i = 0; i < SAMPLES_TO_RUN; i++)
+		{
+			int sampledWorkers = activeWorkers;
+			activeWorkers = controller.onSample(THROTTLED_ABOVE_THREE_RATES[activeWorkers]);
+			
+			int[] decision = decisions.get(i);
+			assertEquals(sampledWorkers, decision[0]);
+			assertEquals((int) THROTTLED_ABOVE_THREE_RATES[sampledWorkers], decision[1]);
+			assertEquals(activeWorkers, decision[2]);
+		}
+		assertEquals(SAMPLES_TO_RUN, decisions.size());
+	}
+	
+	public void testAdaptivePOW()
+	{
+		byte[] mockPayload = new byte[100];
+		new SecureRandom().nextBytes(mockPayload);
+		
+		// Set an expiration time of 1 hour from now
+		long expirationTime = (System.currentTimeMillis() / 1000) + 3600;
+		
+		AdaptivePOWController controller = new AdaptivePOWController();
+		controller.setSampleInterval(50);
+		ParallelPOWCalculator powCalc = new ParallelPOWCalculator(Runtime.getRuntime().availableProcessors() + 1);
+		powCalc.setAdaptiveController(controller);
+		
+		POWProcessor powProc = new POWProcessor();
+		long powNonce = powCalc.doPOW(mockPayload, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+		assertTrue(powProc.checkPOW(mockPayload, powNonce, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES));
+	}
+	
+	/**
+	 * Feeds the controller with the trial rate for the number of active workers it chooses.
+	 * 
+	 * @return The number of active workers after the last sample
+	 */
+	private int runSamples(AdaptivePOWController controller, int activeWorkers, double[] rates)
+	{
+		for (int i = 0; i < SAMPLES_TO_RUN; i++)
+		{
+			activeWorkers = controller.onSample(rates[activeWorkers]);
+		}
+		return activeWorkers;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,88 @@
+package org.bitseal.tests.pow;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import junit.framework.TestCase;
+
+import org.bitseal.pow.POWProcessor;
+
+/**
+ * Tests that batch POW verification gives the same result for each
+ * object as POWProcessor.checkPOW().
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_BatchPOWVerification extends TestCase
+{
+	private static final int NUMBER_OF_OBJECTS = 100;
+	private static final int PAYLOAD_LENGTH = 100;
+	
+	/** A lower difficulty than the network default, so that many objects can be created quickly */
+	private static final long NONCE_TRIALS_PER_BYTE = 10;
+	private static final long EXTRA_BYTES = 1000;
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testBatchPOWVerification()
+	{
+		SecureRandom secRand = new SecureRandom();
+		ParallelPOWCalculator powCalc = new ParallelPOWCalculator();
+		POWProcessor powProc = new POWProcessor();
+		
+		// Set an expiration time of 1 hour from now
+		long expirationTime = (System.currentTimeMillis() / 1000) + 3600;
+		
+		// Create a batch of objects with valid POW, then corrupt every third one
+		ArrayList<byte[]> objects = new ArrayList<byte[]>();
+		for (int i = 0; i < NUMBER_OF_OBJECTS; i++)
+		{
+			byte[] payload = new byte[PAYLOAD_LENGTH];
+			secRand.nextBytes(payload);
+			ByteBuffer.wrap(payload).putLong(expirationTime);
+			
+			long powNonce = powCalc.doPOW(payload, expirationTime, NONCE_TRIALS_PER_BYTE, EXTRA_BYTES);
+			byte[] object = ByteBuffer.allocate(8 + PAYLOAD_LENGTH).putLong(powNonce).put(payload).array();
+			
+			if (i % 3 == 0)
+			{
+				object[object.length - 1] ^= 0x01;
+			}
+			objects.add(object);
+		}
+		
+		// Add an object that is too short to hold a nonce and an expiration time
+		objects.add(new byte[10]);
+		
+		BitSet passed = powCalc.checkPOWBatch(objects, NONCE_TRIALS_PER_BYTE, EXTRA_BYTES);
+		
+		for (int i = 0; i < NUMBER_OF_OBJECTS; i++)
+		{
+			byte[] object = objects.get(i);
+			long nonce = ByteBuffer.wrap(object).getLong();
+			byte[] payload = new byte[PAYLOAD_LENGTH];
+			System.arraycopy(object, 8, payload, 0, PAYLOAD_LENGTH);
+			
+			assertEquals(powProc.checkPOW(payload, nonce, expirationTime, NONCE_TRIALS_PER_BYTE, EXTRA_BYTES), passed.get(i));
+			if (i % 3 != 0)
+			{
+				assertTrue(passed.get(i));
+			}
+		}
+		assertFalse(passed.get(NUMBER_OF_OBJECTS));
+		
+		// A single worker should give the same result as many
+		ParallelPOWCalculator singleWorkerCalc = new ParallelPOWCalculator(1);
+		assertEquals(passed, singleWorkerCalc.checkPOWBatch(objects, NONCE_TRIALS_PER_BYTE, EXTRA_BYTES));
+	}
+}
\ No newline at end of file
@@ -0,0 +1,123 @@
+package org.bitseal.tests.pow;
+
+import java.security.SecureRandom;
+
+import junit.framework.TestCase;
+
+import org.bitseal.pow.POWProcessor;
+
+import android.util.Log;
+
+/**
+ * Tests the proof of work cost estimator, including checking its
+ * predictions against the time actually taken to do POW.
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_POWCostEstimator extends TestCase
+{
+	private static final int PAYLOAD_LENGTH = 100;
+	private static final long TIME_TO_LIVE = 3600; // In seconds, so currently set to 1 hour
+	
+	/** A lower difficulty than the network default, so that many POW runs can be timed */
+	private static final long NONCE_TRIALS_PER_BYTE = 100;
+	private static final long EXTRA_BYTES = 1000;
+	
+	private static final int POW_RUNS = 20;
+	
+	/** How far the average time taken may be from the prediction. The average of 20 runs is very unlikely to be outside this. */
+	private static final double ALLOWED_ERROR_FACTOR = 3;
+	
+	private static final String TAG = "TEST_POW_COST_ESTIMATOR";
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testExpectedTrials()
+	{
+		long target = ParallelPOWCalculator.calculateTargetFromTimeToLive(PAYLOAD_LENGTH, TIME_TO_LIVE, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+		double expectedTrials = POWCostEstimator.calculateExpectedTrials(PAYLOAD_LENGTH, TIME_TO_LIVE, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+		assertEquals(Math.pow(2, 64) / target, expectedTrials, expectedTrials / 1000000);
+		
+		// Longer payloads and longer times to live should both need more trials
+		assertTrue(POWCostEstimator.calculateExpectedTrials(PAYLOAD_LENGTH * 10, TIME_TO_LIVE, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES) > expectedTrials);
+		assertTrue(POWCostEstimator.calculateExpectedTrials(PAYLOAD_LENGTH, TIME_TO_LIVE * 10, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES) > expectedTrials);
+		
+		// Times to live below the protocol minimum of 300 seconds should be treated as 300 seconds
+		assertEquals(POWCostEstimator.calculateExpectedTrials(PAYLOAD_LENGTH, 300, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES),
+				POWCostEstimator.calculateExpectedTrials(PAYLOAD_LENGTH, 1, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES));
+	}
+	
+	public void testEstimates()
+	{
+		assertTrue(POWCostEstimator.getTrialsPerSecond() > 0);
+		
+		POWCostEstimator singleWorkerEstimator = new POWCostEstimator(1);
+		long expectedTime = singleWorkerEstimator.estimateExpectedTime(PAYLOAD_LENGTH, TIME_TO_LIVE, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+		long percentileTime = singleWorkerEstimator.estimate95thPercentileTime(PAYLOAD_LENGTH, TIME_TO_LIVE, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+		assertTrue(expectedTime > 0);
+		assertTrue(percentileTime > expectedTime);
+		
+		// The estimate for two workers should use the rate measured with two workers, which
+		// may be anywhere from no faster than one worker to twice as fast, depending on the device
+		POWCostEstimator twoWorkerEstimator = new POWCostEstimator(2);
+		long twoWorkerExpectedTime = twoWorkerEstimator.estimateExpectedTime(PAYLOAD_LENGTH, TIME_TO_LIVE, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+		double expectedTrials = POWCostEstimator.calculateExpectedTrials(PAYLOAD_LENGTH, TIME_TO_LIVE, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+		assertEquals((long) Math.ceil(expectedTrials * 1000 / POWCostEstimator.getTrialsPerSecond(2)), twoWorkerExpectedTime);
+		
+		double scalingFactor = POWCostEstimator.getTrialsPerSecond(2) / POWCostEstimator.getTrialsPerSecond(1);
+		Log.i(TAG, "Trial rate of two workers relative to one worker: " + scalingFactor);
+		assertTrue(scalingFactor > 1 / ALLOWED_ERROR_FACTOR);
+		assertTrue(scalingFactor < 2 * ALLOWED_ERROR_FACTOR);
+	}
+	
+	public void testPredictionMatchesPOW()
+	{
+		checkPredictionMatchesPOW(1);
+		
+		int numberOfProcessors = Runtime.getRuntime().availableProcessors();
+		if (numberOfProcessors > 1)
+		{
+			checkPredictionMatchesPOW(numberOfProcessors);
+		}
+	}
+	
+	private void checkPredictionMatchesPOW(int numberOfWorkers)
+	{
+		byte[] payload = new byte[PAYLOAD_LENGTH];
+		SecureRandom secRand = new SecureRandom();
+		POWProcessor powProc = new POWProcessor();
+		ParallelPOWCalculator powCalc = new ParallelPOWCalculator(numberOfWorkers);
+		
+		POWCostEstimator estimator = new POWCostEstimator(numberOfWorkers);
+		long predictedTime = estimator.estimateExpectedTime(PAYLOAD_LENGTH, TIME_TO_LIVE, NONCE_TRIALS_PER_BYTE, EXTRA_BYTES);
+		
+		long sumOfTimes = 0;
+		for (int i = 0; i < POW_RUNS; i++)
+		{
+			secRand.nextBytes(payload);
+			long expirationTime = (System.currentTimeMillis() / 1000) + TIME_TO_LIVE;
+			
+			long startTime = System.nanoTime();
+			long powNonce = powCalc.doPOW(payload, expirationTime, NONCE_TRIALS_PER_BYTE, EXTRA_BYTES);
+			sumOfTimes += System.nanoTime() - startTime;
+			
+			assertTrue(powProc.checkPOW(payload, powNonce, expirationTime, NONCE_TRIALS_PER_BYTE, EXTRA_BYTES));
+		}
+		
+		double averageTime = sumOfTimes / (POW_RUNS * 1000000.0);
+		Log.i(TAG, "Number of workers:                    " + numberOfWorkers);
+		Log.i(TAG, "Predicted time in milliseconds:       " + predictedTime);
+		Log.i(TAG, "Average time taken in milliseconds:   " + averageTime);
+		
+		assertTrue(averageTime < predictedTime * ALLOWED_ERROR_FACTOR);
+		assertTrue(averageTime > predictedTime / ALLOWED_ERROR_FACTOR);
+	}
+}
\ No newline at end of file
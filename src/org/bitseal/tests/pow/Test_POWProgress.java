@@ -0,0 +1,166 @@
+package org.bitseal.tests.pow;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+
+import junit.framework.TestCase;
+
+import org.bitseal.pow.POWProcessor;
+
+import android.os.SystemClock;
+
+/**
+ * Tests the progress reports made during a POW calculation, and
+ * cancelling a POW calculation.
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_POWProgress extends TestCase
+{
+	/** A nonceTrialsPerByte value so large that the search will not finish during the test */
+	private static final long IMPOSSIBLE_NONCE_TRIALS_PER_BYTE = 1000000000L;
+	
+	private static final long PROGRESS_INTERVAL = 100;
+	
+	/** The time to let the calculation run for before cancelling it, in milliseconds */
+	private static final long TIME_BEFORE_CANCELLING = 1000;
+	
+	/** The maximum time that a cancelled calculation may take to stop, in milliseconds */
+	private static final long MAX_TIME_TO_STOP = 5000;
+	
+	private byte[] mockPayload;
+	private long expirationTime;
+	private ArrayList<POWProgress> reports;
+	private ParallelPOWCalculator powCalc;
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		
+		mockPayload = new byte[100];
+		new SecureRandom().nextBytes(mockPayload);
+		
+		// Set an expiration time of 1 hour from now
+		expirationTime = (System.currentTimeMillis() / 1000) + 3600;
+		
+		reports = new ArrayList<POWProgress>();
+		powCalc = new ParallelPOWCalculator(1);
+		powCalc.setProgressInterval(PROGRESS_INTERVAL);
+		powCalc.setProgressListener(new POWProgressListener()
+		{
+			@Override
+			public void onProgress(POWProgress progress)
+			{
+				reports.add(progress);
+			}
+		});
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testProgressReports()
+	{
+		POWJobHandle jobHandle = new POWJobHandle("progressTestJob");
+		long powNonce = powCalc.doPOW(mockPayload, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES, jobHandle);
+		
+		POWProcessor powProc = new POWProcessor();
+		assertTrue(powProc.checkPOW(mockPayload, powNonce, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES));
+		
+		long target = ParallelPOWCalculator.calculateTarget(mockPayload.length, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+		double expectedTrials = POWCostEstimator.calculateExpectedTrials(target);
+		
+		// There is always a final report, made once the nonce has been found
+		assertFalse(reports.isEmpty());
+		long previousTrialsDone = 0;
+		for (int i = 0; i < reports.size(); i++)
+		{
+			POWProgress progress = reports.get(i);
+			assertEquals("progressTestJob", progress.getJobId());
+			assertEquals(expectedTrials, progress.getExpectedTrials(), expectedTrials / 1000);
+			assertTrue(progress.getTrialsDone() >= previousTrialsDone);
+			assertEquals(i == reports.size() - 1, progress.isFinished());
+			previousTrialsDone = progress.getTrialsDone();
+		}
+		
+		// The nonce is at least as large as the number of trials done in completed chunks, since the search starts at 0
+		assertTrue(powNonce >= reports.get(reports.size() - 1).getTrialsDone());
+	}
+	
+	public void testCancellation()
+	{
+		final POWJobHandle jobHandle = new POWJobHandle("cancellationTestJob");
+		
+		Thread cancelThread = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				SystemClock.sleep(TIME_BEFORE_CANCELLING);
+				jobHandle.cancel();
+			}
+		};
+		cancelThread.start();
+		
+		long startTime = System.currentTimeMillis();
+		try
+		{
+			powCalc.doPOW(mockPayload, expirationTime, IMPOSSIBLE_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES, jobHandle);
+			fail("The POW calculation should have been cancelled");
+		}
+		catch (CancellationException e)
+		{
+			// Expected
+		}
+		long timeTaken = System.currentTimeMillis() - startTime;
+		assertTrue(timeTaken < TIME_BEFORE_CANCELLING + MAX_TIME_TO_STOP);
+		
+		// The progress reports should show trials being done, with the last report marking the end of the calculation
+		assertTrue(reports.size() > 1);
+		POWProgress lastProgress = reports.get(reports.size() - 1);
+		assertTrue(lastProgress.isFinished());
+		assertTrue(lastProgress.getTrialsDone() > 0);
+		assertTrue(lastProgress.getTrialsPerSecond() > 0);
+		assertTrue(lastProgress.getAverageTrialsPerSecond() > 0);
+		assertTrue(lastProgress.getExpectedRemainingTime() > 0);
+	}
+	
+	public void testListenerExceptionDoesNotStopSearch()
+	{
+		powCalc.setProgressListener(new POWProgressListener()
+		{
+			@Override
+			public void onProgress(POWProgress progress)
+			{
+				reports.add(progress);
+				throw new IllegalStateException("The listener failed");
+			}
+		});
+		
+		long powNonce = powCalc.doPOW(mockPayload, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES, new POWJobHandle("listenerTestJob"));
+		assertTrue(new POWProcessor().checkPOW(mockPayload, powNonce, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES));
+		assertTrue(reports.get(reports.size() - 1).isFinished());
+	}
+	
+	public void testNoFinalReportWhenSearchFails()
+	{
+		// An initial hash of the wrong length makes the worker throw an exception as soon as it starts
+		try
+		{
+			powCalc.findNonce(new byte[10], Long.MAX_VALUE, new POWJobHandle("failedJob"));
+			fail("The POW calculation should have failed");
+		}
+		catch (RuntimeException e)
+		{
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		
+		for (POWProgress progress : reports)
+		{
+			assertFalse(progress.isFinished());
+		}
+	}
+}
\ No newline at end of file
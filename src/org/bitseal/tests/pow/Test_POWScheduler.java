@@ -0,0 +1,126 @@
+package org.bitseal.tests.pow;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.bitseal.pow.POWProcessor;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Tests the ordering of POW jobs by POWScheduler, and checks that a
+ * msg sent by the user is not held up by long running pubkey POW jobs.
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_POWScheduler extends TestCase
+{
+	/** A nonceTrialsPerByte value which makes the POW take far longer than the test will run for */
+	private static final long VERY_HIGH_NONCE_TRIALS_PER_BYTE = 1000000000L;
+	
+	/** Low difficulty values which allow the POW to be done quickly */
+	private static final long LOW_NONCE_TRIALS_PER_BYTE = 10;
+	private static final long LOW_EXTRA_BYTES = 10;
+	
+	private static final long TIME_TO_LIVE = 3600; // In seconds, so currently set to 1 hour
+	
+	private static final long USER_MESSAGE_TIMEOUT_SECONDS = 60;
+	
+	private static final String TAG = "TEST_POW_SCHEDULER";
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testJobOrdering()
+	{
+		Callable<Long> dummyTask = new Callable<Long>()
+		{
+			@Override
+			public Long call()
+			{
+				return Long.valueOf(0);
+			}
+		};
+		
+		long currentTime = System.currentTimeMillis() / 1000;
+		
+		// Create several jobs, submitted in the opposite of the expected order
+		POWJob job0 = new POWJob(dummyTask, POWJob.PRIORITY_PUBKEY, currentTime + 600, 0);
+		POWJob job1 = new POWJob(dummyTask, POWJob.PRIORITY_ACK, currentTime + 1200, 1);
+		POWJob job2 = new POWJob(dummyTask, POWJob.PRIORITY_ACK, currentTime + 600, 2);
+		POWJob job3 = new POWJob(dummyTask, POWJob.PRIORITY_USER_MESSAGE, currentTime + 1200, 3);
+		POWJob job4 = new POWJob(dummyTask, POWJob.PRIORITY_USER_MESSAGE, currentTime + 600, 4);
+		POWJob job5 = new POWJob(dummyTask, POWJob.PRIORITY_USER_MESSAGE, currentTime + 600, 5);
+		
+		ArrayList<POWJob> jobs = new ArrayList<POWJob>();
+		jobs.add(job0);
+		jobs.add(job1);
+		jobs.add(job2);
+		jobs.add(job3);
+		jobs.add(job5);
+		jobs.add(job4);
+		
+		// User messages should come first, then acks, then pubkeys. Within each priority the
+		// earliest deadline should come first, and jobs with the same deadline should keep the order
+		// in which they were submitted
+		Collections.sort(jobs);
+		assertEquals(job4, jobs.get(0));
+		assertEquals(job5, jobs.get(1));
+		assertEquals(job3, jobs.get(2));
+		assertEquals(job2, jobs.get(3));
+		assertEquals(job1, jobs.get(4));
+		assertEquals(job0, jobs.get(5));
+	}
+	
+	public void testUserMessageNotBlockedByPubkeys() throws Exception
+	{
+		SecureRandom secRand = new SecureRandom();
+		long expirationTime = (System.currentTimeMillis() / 1000) + TIME_TO_LIVE;
+		
+		POWScheduler scheduler = new POWScheduler(2);
+		scheduler.start();
+		
+		// Submit two pubkey jobs which will not finish during the test
+		byte[] pubkeyPayload0 = new byte[300];
+		byte[] pubkeyPayload1 = new byte[300];
+		secRand.nextBytes(pubkeyPayload0);
+		secRand.nextBytes(pubkeyPayload1);
+		POWJob pubkeyJob0 = scheduler.submit(pubkeyPayload0, expirationTime, VERY_HIGH_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES, POWJob.PRIORITY_PUBKEY);
+		POWJob pubkeyJob1 = scheduler.submit(pubkeyPayload1, expirationTime, VERY_HIGH_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES, POWJob.PRIORITY_PUBKEY);
+		
+		// Give the first pubkey job time to start
+		SystemClock.sleep(1000);
+		
+		// Now submit a msg from the user, which should be started straight away on the worker that is kept free of pubkey jobs
+		byte[] msgPayload = new byte[300];
+		secRand.nextBytes(msgPayload);
+		POWJob msgJob = scheduler.submit(msgPayload, expirationTime, LOW_NONCE_TRIALS_PER_BYTE, LOW_EXTRA_BYTES, POWJob.PRIORITY_USER_MESSAGE);
+		long msgNonce = msgJob.get(USER_MESSAGE_TIMEOUT_SECONDS, TimeUnit.SECONDS).longValue();
+		Log.i(TAG, "POW nonce for the user's msg: " + msgNonce);
+		
+		POWProcessor powProc = new POWProcessor();
+		assertTrue(powProc.checkPOW(msgPayload, msgNonce, expirationTime, LOW_NONCE_TRIALS_PER_BYTE, LOW_EXTRA_BYTES));
+		
+		// Only one pubkey job should have been allowed to start
+		assertFalse(pubkeyJob0.isDone());
+		assertFalse(pubkeyJob1.isDone());
+		assertEquals(1, scheduler.getNumberOfWaitingJobs());
+		
+		// Cleaning up - stop the pubkey jobs
+		scheduler.shutdown();
+		assertTrue(pubkeyJob1.isCancelled());
+	}
+}
\ No newline at end of file
@@ -1,7 +1,10 @@
 package org.bitseal.tests.pow;
 
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.BitSet;
 
 import junit.framework.TestCase;
 
@@ -26,6 +29,10 @@ public class Test_POWTimeTrials extends TestCase
 	private static final long NONCE_TRIALS_PER_BYTE = 1000;
 	private static final long EXTRA_BYTES = 1000;
 	
+	private static final int TRIAL_RATE_TRIALS = 100000;
+	
+	private static final int VERIFICATION_RATE_OBJECTS = 10000;
+	
 	private static final String TAG = "POW_TIME_TRIALS";
 	
 	protected void setUp() throws Exception
@@ -49,6 +56,11 @@ public class Test_POWTimeTrials extends TestCase
 		long currentTime = System.currentTimeMillis() / 1000;
 		long expirationTime = currentTime + TIME_TO_LIVE;
 		
+		// Log the predicted times, so that they can be compared with the times actually taken
+		POWCostEstimator estimator = new POWCostEstimator(1);
+		Log.i(TAG, "Predicted average time in seconds:          " + (estimator.estimateExpectedTime(PAYLOAD_LENGTH, TIME_TO_LIVE, NONCE_TRIALS_PER_BYTE, EXTRA_BYTES) / 1000));
+		Log.i(TAG, "Predicted 95th percentile time in seconds:  " + (estimator.estimate95thPercentileTime(PAYLOAD_LENGTH, TIME_TO_LIVE, NONCE_TRIALS_PER_BYTE, EXTRA_BYTES) / 1000));
+		
 		for (int i = 0; i < TRIALS_TO_RUN; i++)
 		{
  			long startTime = 0;
@@ -82,4 +94,159 @@ public class Test_POWTimeTrials extends TestCase
  		long averageTime = sumOfTimes / times.size();
  		Log.d(TAG, "Average time taken in seconds:  " + averageTime);
 	}
+	
+	public void testParallelPOWTimeTrials()
+	{
+		byte[] payload = new byte[PAYLOAD_LENGTH];
+		SecureRandom secRand = new SecureRandom();
+		POWProcessor powProc = new POWProcessor();
+		
+		// Set the expiration time for this payload
+		long currentTime = System.currentTimeMillis() / 1000;
+		long expirationTime = currentTime + TIME_TO_LIVE;
+		
+		// Compare the time taken by a single worker with the time taken by one worker per processor
+		int numberOfProcessors = Runtime.getRuntime().availableProcessors();
+		ParallelPOWCalculator singleWorkerCalc = new ParallelPOWCalculator(1);
+		ParallelPOWCalculator multiWorkerCalc = new ParallelPOWCalculator(numberOfProcessors);
+		Log.i(TAG, "Number of processors available: " + numberOfProcessors);
+		
+		POWCostEstimator singleWorkerEstimator = new POWCostEstimator(1);
+		POWCostEstimator multiWorkerEstimator = new POWCostEstimator(numberOfProcessors);
+		Log.i(TAG, "Predicted single worker time in milliseconds: " + singleWorkerEstimator.estimateExpectedTime(PAYLOAD_LENGTH, TIME_TO_LIVE, NONCE_TRIALS_PER_BYTE, EXTRA_BYTES));
+		Log.i(TAG, "Predicted multi worker time in milliseconds:  " + multiWorkerEstimator.estimateExpectedTime(PAYLOAD_LENGTH, TIME_TO_LIVE, NONCE_TRIALS_PER_BYTE, EXTRA_BYTES));
+		
+		// Record the final progress report of each calculation
+		final POWProgress[] lastProgress = new POWProgress[1];
+		POWProgressListener progressListener = new POWProgressListener()
+		{
+			@Override
+			public void onProgress(POWProgress progress)
+			{
+				lastProgress[0] = progress;
+			}
+		};
+		singleWorkerCalc.setProgressListener(progressListener);
+		multiWorkerCalc.setProgressListener(progressListener);
+		
+		double singleWorkerSumOfRates = 0;
+		double multiWorkerSumOfRates = 0;
+		for (int i = 0; i < TRIALS_TO_RUN; i++)
+		{
+ 			secRand.nextBytes(payload);
+ 			
+ 			long singleWorkerNonce = singleWorkerCalc.doPOW(payload, expirationTime, NONCE_TRIALS_PER_BYTE, EXTRA_BYTES, new POWJobHandle("singleWorker" + i));
+ 			POWProgress singleWorkerProgress = lastProgress[0];
+ 			assertTrue(powProc.checkPOW(payload, singleWorkerNonce, expirationTime, NONCE_TRIALS_PER_BYTE, EXTRA_BYTES));
+ 			
+ 			long multiWorkerNonce = multiWorkerCalc.doPOW(payload, expirationTime, NONCE_TRIALS_PER_BYTE, EXTRA_BYTES, new POWJobHandle("multiWorker" + i));
+ 			POWProgress multiWorkerProgress = lastProgress[0];
+ 			assertTrue(powProc.checkPOW(payload, multiWorkerNonce, expirationTime, NONCE_TRIALS_PER_BYTE, EXTRA_BYTES));
+ 			
+ 			logProgress(singleWorkerProgress);
+ 			logProgress(multiWorkerProgress);
+ 			singleWorkerSumOfRates += singleWorkerProgress.getAverageTrialsPerSecond();
+ 			multiWorkerSumOfRates += multiWorkerProgress.getAverageTrialsPerSecond();
+		}
+		
+		// The time taken for a single payload varies a lot, because the number of trials needed
+		// is random. The trial rates give a much steadier measure of the speedup.
+		Log.d(TAG, "Average single worker trials per second: " + (long) (singleWorkerSumOfRates / TRIALS_TO_RUN));
+		Log.d(TAG, "Average multi worker trials per second:  " + (long) (multiWorkerSumOfRates / TRIALS_TO_RUN));
+		Log.d(TAG, "Speedup:                                 " + (multiWorkerSumOfRates / singleWorkerSumOfRates));
+	}
+	
+	public void testTrialRates()
+	{
+		byte[] initialHash = new byte[64];
+		new SecureRandom().nextBytes(initialHash);
+		
+		// Time the straightforward trial calculation, which allocates new digest output and byte arrays for each trial
+		MessageDigest sha512 = ParallelPOWCalculator.createSHA512Digest();
+		long startTime = System.nanoTime();
+		for (long nonce = 0; nonce < TRIAL_RATE_TRIALS; nonce++)
+		{
+			ParallelPOWCalculator.calculateTrialValue(nonce, initialHash, sha512);
+		}
+		long referenceTime = System.nanoTime() - startTime;
+		
+		// Time the allocation-free trial engine
+		POWTrialEngine engine = new POWTrialEngine(initialHash);
+		startTime = System.nanoTime();
+		for (long nonce = 0; nonce < TRIAL_RATE_TRIALS; nonce++)
+		{
+			engine.calculateTrialValue(nonce);
+		}
+		long engineTime = System.nanoTime() - startTime;
+		
+		// Time the multi-buffer trial engine, with both two and four lanes
+		long[] trialValues = new long[4];
+		MultiBufferPOWTrialEngine twoLaneEngine = new MultiBufferPOWTrialEngine(initialHash, 2);
+		startTime = System.nanoTime();
+		for (long nonce = 0; nonce < TRIAL_RATE_TRIALS; nonce += 2)
+		{
+			twoLaneEngine.calculateTrialValues(nonce, trialValues);
+		}
+		long twoLaneTime = System.nanoTime() - startTime;
+		
+		MultiBufferPOWTrialEngine fourLaneEngine = new MultiBufferPOWTrialEngine(initialHash, 4);
+		startTime = System.nanoTime();
+		for (long nonce = 0; nonce < TRIAL_RATE_TRIALS; nonce += 4)
+		{
+			fourLaneEngine.calculateTrialValues(nonce, trialValues);
+		}
+		long fourLaneTime = System.nanoTime() - startTime;
+		
+		long referenceTrialsPerSecond = (TRIAL_RATE_TRIALS * 1000000000L) / referenceTime;
+		long engineTrialsPerSecond = (TRIAL_RATE_TRIALS * 1000000000L) / engineTime;
+		long twoLaneTrialsPerSecond = (TRIAL_RATE_TRIALS * 1000000000L) / twoLaneTime;
+		long fourLaneTrialsPerSecond = (TRIAL_RATE_TRIALS * 1000000000L) / fourLaneTime;
+		Log.d(TAG, "Trials per second before (MessageDigest):         " + referenceTrialsPerSecond);
+		Log.d(TAG, "Trials per second after (POWTrialEngine):         " + engineTrialsPerSecond);
+		Log.d(TAG, "Trials per second with two multi-buffer lanes:    " + twoLaneTrialsPerSecond);
+		Log.d(TAG, "Trials per second with four multi-buffer lanes:   " + fourLaneTrialsPerSecond);
+	}
+	
+	public void testBatchVerificationRates()
+	{
+		// Create a backlog of objects. The time taken to check an object does not depend on whether its POW is valid, so random nonces are used.
+		SecureRandom secRand = new SecureRandom();
+		long expirationTime = (System.currentTimeMillis() / 1000) + TIME_TO_LIVE;
+		ArrayList<byte[]> objects = new ArrayList<byte[]>();
+		for (int i = 0; i < VERIFICATION_RATE_OBJECTS; i++)
+		{
+			byte[] object = new byte[8 + PAYLOAD_LENGTH];
+			secRand.nextBytes(object);
+			ByteBuffer.wrap(object).putLong(8, expirationTime);
+			objects.add(object);
+		}
+		
+		// Time checking the objects one at a time with POWProcessor
+		POWProcessor powProc = new POWProcessor();
+		long startTime = System.nanoTime();
+		for (byte[] object : objects)
+		{
+			long nonce = ByteBuffer.wrap(object).getLong();
+			byte[] payload = new byte[PAYLOAD_LENGTH];
+			System.arraycopy(object, 8, payload, 0, PAYLOAD_LENGTH);
+			powProc.checkPOW(payload, nonce, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+		}
+		long singleTime = System.nanoTime() - startTime;
+		
+		// Time checking the whole batch at once
+		ParallelPOWCalculator powCalc = new ParallelPOWCalculator();
+		startTime = System.nanoTime();
+		BitSet passed = powCalc.checkPOWBatch(objects, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+		long batchTime = System.nanoTime() - startTime;
+		
+		Log.d(TAG, "Objects with valid POW:                           " + passed.cardinality());
+		Log.d(TAG, "Objects verified per second one at a time:        " + ((VERIFICATION_RATE_OBJECTS * 1000000000L) / singleTime));
+		Log.d(TAG, "Objects verified per second in a batch:           " + ((VERIFICATION_RATE_OBJECTS * 1000000000L) / batchTime));
+	}
+	
+	private void logProgress(POWProgress progress)
+	{
+		Log.i(TAG, "Job " + progress.getJobId() + ": " + progress.getTrialsDone() + " trials in " + progress.getElapsedTime() + " milliseconds, " +
+				(long) progress.getAverageTrialsPerSecond() + " trials per second");
+	}
 }
\ No newline at end of file
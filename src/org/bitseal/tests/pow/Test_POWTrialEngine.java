@@ -0,0 +1,103 @@
+package org.bitseal.tests.pow;
+
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import junit.framework.TestCase;
+
+import org.bitseal.pow.POWProcessor;
+
+/**
+ * Tests that the allocation-free POW trial engines produce the same
+ * trial values as a straightforward double SHA-512 calculation, and that
+ * their results agree with POWProcessor.
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_POWTrialEngine extends TestCase
+{
+	private static final int NUMBER_OF_PAYLOADS = 10;
+	private static final int TRIALS_PER_PAYLOAD = 1000;
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testTrialValues()
+	{
+		SecureRandom secRand = new SecureRandom();
+		MessageDigest sha512 = ParallelPOWCalculator.createSHA512Digest();
+		long[] edgeCaseNonces = new long[]{0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE};
+		
+		for (int i = 0; i < NUMBER_OF_PAYLOADS; i++)
+		{
+			byte[] initialHash = new byte[64];
+			secRand.nextBytes(initialHash);
+			POWTrialEngine engine = new POWTrialEngine(initialHash);
+			
+			for (long nonce : edgeCaseNonces)
+			{
+				assertEquals(ParallelPOWCalculator.calculateTrialValue(nonce, initialHash, sha512), engine.calculateTrialValue(nonce));
+			}
+			
+			long startNonce = secRand.nextLong();
+			for (long nonce = startNonce; nonce < startNonce + TRIALS_PER_PAYLOAD; nonce++)
+			{
+				assertEquals(ParallelPOWCalculator.calculateTrialValue(nonce, initialHash, sha512), engine.calculateTrialValue(nonce));
+			}
+		}
+	}
+	
+	public void testMultiBufferTrialValues()
+	{
+		SecureRandom secRand = new SecureRandom();
+		
+		for (int i = 0; i < NUMBER_OF_PAYLOADS; i++)
+		{
+			byte[] initialHash = new byte[64];
+			secRand.nextBytes(initialHash);
+			POWTrialEngine scalarEngine = new POWTrialEngine(initialHash);
+			
+			for (int lanes = 2; lanes <= 4; lanes += 2)
+			{
+				MultiBufferPOWTrialEngine multiBufferEngine = new MultiBufferPOWTrialEngine(initialHash, lanes);
+				long[] trialValues = new long[lanes];
+				
+				long startNonce = secRand.nextLong();
+				for (long firstNonce = startNonce; firstNonce < startNonce + TRIALS_PER_PAYLOAD; firstNonce += lanes)
+				{
+					multiBufferEngine.calculateTrialValues(firstNonce, trialValues);
+					for (int lane = 0; lane < lanes; lane++)
+					{
+						assertEquals(scalarEngine.calculateTrialValue(firstNonce + lane), trialValues[lane]);
+					}
+				}
+			}
+		}
+	}
+	
+	public void testCheckPOW()
+	{
+		byte[] mockPayload = new byte[100];
+		new SecureRandom().nextBytes(mockPayload);
+		
+		// Set an expiration time of 1 hour from now
+		long expirationTime = (System.currentTimeMillis() / 1000) + 3600;
+		
+		POWProcessor powProc = new POWProcessor();
+		long powNonce = powProc.doPOW(mockPayload, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+		
+		ParallelPOWCalculator powCalc = new ParallelPOWCalculator();
+		assertTrue(powCalc.checkPOW(mockPayload, powNonce, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES));
+		
+		// Check that the nonce is not accepted for a different payload
+		mockPayload[0] ^= 0x01;
+		assertFalse(powCalc.checkPOW(mockPayload, powNonce, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES));
+	}
+}
\ No newline at end of file
@@ -0,0 +1,84 @@
+package org.bitseal.tests.pow;
+
+import java.security.SecureRandom;
+
+import junit.framework.TestCase;
+
+import org.bitseal.pow.POWProcessor;
+
+/**
+ * Tests that the nonces found by the multi-core proof of work
+ * calculator are accepted by POWProcessor.checkPOW().
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_ParallelPOW extends TestCase
+{
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testParallelPOW()
+	{
+		byte[] mockPayload = new byte[100];
+		new SecureRandom().nextBytes(mockPayload);
+		
+		// Set an expiration time of 1 hour from now
+		long expirationTime = (System.currentTimeMillis() / 1000) + 3600;
+		
+		POWProcessor powProc = new POWProcessor();
+		
+		// Check the result using a single worker thread
+		ParallelPOWCalculator singleWorkerCalc = new ParallelPOWCalculator(1);
+		long singleWorkerNonce = singleWorkerCalc.doPOW(mockPayload, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+		assertTrue(powProc.checkPOW(mockPayload, singleWorkerNonce, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES));
+		
+		// Check the result using one worker thread per processor, plus one extra to make sure there is always more than one worker
+		int numberOfWorkers = Runtime.getRuntime().availableProcessors() + 1;
+		ParallelPOWCalculator multiWorkerCalc = new ParallelPOWCalculator(numberOfWorkers);
+		long multiWorkerNonce = multiWorkerCalc.doPOW(mockPayload, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+		assertTrue(powProc.checkPOW(mockPayload, multiWorkerNonce, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES));
+	}
+	
+	public void testMultiBufferStrategies()
+	{
+		byte[] mockPayload = new byte[100];
+		new SecureRandom().nextBytes(mockPayload);
+		
+		// Set an expiration time of 1 hour from now
+		long expirationTime = (System.currentTimeMillis() / 1000) + 3600;
+		
+		POWProcessor powProc = new POWProcessor();
+		ParallelPOWCalculator powCalc = new ParallelPOWCalculator();
+		
+		powCalc.setTrialStrategy(ParallelPOWCalculator.TRIAL_STRATEGY_MULTI_BUFFER_2);
+		long twoLaneNonce = powCalc.doPOW(mockPayload, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+		assertTrue(powProc.checkPOW(mockPayload, twoLaneNonce, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES));
+		
+		powCalc.setTrialStrategy(ParallelPOWCalculator.TRIAL_STRATEGY_MULTI_BUFFER_4);
+		long fourLaneNonce = powCalc.doPOW(mockPayload, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+		assertTrue(powProc.checkPOW(mockPayload, fourLaneNonce, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES));
+	}
+	
+	public void testWorkerFailureIsReported()
+	{
+		// An initial hash of the wrong length makes each worker throw an exception as soon as it starts
+		byte[] invalidInitialHash = new byte[10];
+		ParallelPOWCalculator powCalc = new ParallelPOWCalculator(2);
+		try
+		{
+			powCalc.findNonce(invalidInitialHash, Long.MAX_VALUE);
+			fail("The failure of the POW workers should have been reported");
+		}
+		catch (RuntimeException e)
+		{
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+	}
+}
\ No newline at end of file
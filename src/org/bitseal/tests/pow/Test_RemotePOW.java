@@ -0,0 +1,258 @@
+package org.bitseal.tests.pow;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.SecureRandom;
+
+import junit.framework.TestCase;
+
+import org.bitseal.pow.POWProcessor;
+
+/**
+ * Tests remote proof of work against a POWWorkerServer running on this
+ * device, including falling back to local POW when the remote POW fails.
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_RemotePOW extends TestCase
+{
+	private static final String LOOPBACK_ADDRESS = "127.0.0.1";
+	
+	/** The time to wait for the server, in milliseconds */
+	private static final int TIMEOUT = 60000;
+	
+	/** A timeout that is used when the server is not expected to answer, in milliseconds */
+	private static final int SHORT_TIMEOUT = 1000;
+	
+	private static final byte[] SHARED_SECRET = "test shared secret".getBytes();
+	
+	/** A POW target so low that the search will not finish during the test */
+	private static final long IMPOSSIBLE_TARGET = 1000;
+	
+	private byte[] mockPayload;
+	private long expirationTime;
+	private POWProcessor powProc;
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		
+		mockPayload = new byte[100];
+		new SecureRandom().nextBytes(mockPayload);
+		
+		// Set an expiration time of 1 hour from now
+		expirationTime = (System.currentTimeMillis() / 1000) + 3600;
+		
+		powProc = new POWProcessor();
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testRemotePOW() throws Exception
+	{
+		POWWorkerServer server = new POWWorkerServer(0, SHARED_SECRET);
+		server.start();
+		try
+		{
+			RemotePOWClient client = new RemotePOWClient(LOOPBACK_ADDRESS, server.getPort(), SHARED_SECRET, TIMEOUT, new ParallelPOWCalculator(1));
+			long powNonce = client.doPOW(mockPayload, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+			
+			assertTrue(powProc.checkPOW(mockPayload, powNonce, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES));
+			assertEquals(1, server.getRequestsHandled());
+		}
+		finally
+		{
+			server.stop();
+		}
+	}
+	
+	public void testFallbackWhenServerUnavailable() throws Exception
+	{
+		// Find a port that nothing is listening on
+		POWWorkerServer server = new POWWorkerServer(0, SHARED_SECRET);
+		int port = server.getPort();
+		server.stop();
+		
+		RemotePOWClient client = new RemotePOWClient(LOOPBACK_ADDRESS, port, SHARED_SECRET, TIMEOUT, new ParallelPOWCalculator());
+		long powNonce = client.doPOW(mockPayload, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+		
+		assertTrue(powProc.checkPOW(mockPayload, powNonce, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES));
+	}
+	
+	public void testFallbackOnTimeout() throws Exception
+	{
+		// Open a server socket but never answer. Connections are still accepted by the operating system.
+		ServerSocket silentServerSocket = new ServerSocket(0, 50, InetAddress.getByName(LOOPBACK_ADDRESS));
+		try
+		{
+			RemotePOWClient client = new RemotePOWClient(LOOPBACK_ADDRESS, silentServerSocket.getLocalPort(), SHARED_SECRET, SHORT_TIMEOUT, new ParallelPOWCalculator());
+			long powNonce = client.doPOW(mockPayload, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+			
+			assertTrue(powProc.checkPOW(mockPayload, powNonce, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES));
+		}
+		finally
+		{
+			silentServerSocket.close();
+		}
+	}
+	
+	public void testInvalidRemoteNonceRejected() throws Exception
+	{
+		// Start a server that answers every request with a nonce of 0, which is almost certainly not valid
+		final ServerSocket badServerSocket = new ServerSocket(0, 50, InetAddress.getByName(LOOPBACK_ADDRESS));
+		Thread badServerThread = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					Socket socket = badServerSocket.accept();
+					DataInputStream in = new DataInputStream(socket.getInputStream());
+					in.readFully(new byte[8 + POWWorkerServer.REQUEST_BODY_LENGTH]);
+					
+					DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+					out.writeInt(POWWorkerServer.FRAME_MAGIC);
+					out.writeInt(POWWorkerServer.RESPONSE_BODY_LENGTH);
+					out.writeByte(POWWorkerServer.STATUS_OK);
+					out.writeLong(0);
+					out.flush();
+					socket.close();
+				}
+				catch (Exception e)
+				{
+					// The test will fail when the client does not receive a response
+				}
+			}
+		};
+		badServerThread.start();
+		
+		try
+		{
+			RemotePOWClient client = new RemotePOWClient(LOOPBACK_ADDRESS, badServerSocket.getLocalPort(), SHARED_SECRET, TIMEOUT, new ParallelPOWCalculator());
+			long powNonce = client.doPOW(mockPayload, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+			
+			assertTrue(powProc.checkPOW(mockPayload, powNonce, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES));
+		}
+		finally
+		{
+			badServerSocket.close();
+			badServerThread.join();
+		}
+	}
+	
+	public void testUnauthenticatedRequestDropped() throws Exception
+	{
+		POWWorkerServer server = new POWWorkerServer(0, SHARED_SECRET);
+		server.start();
+		try
+		{
+			RemotePOWClient client = new RemotePOWClient(LOOPBACK_ADDRESS, server.getPort(), "a different shared secret".getBytes(), TIMEOUT, new ParallelPOWCalculator(1));
+			long powNonce = client.doPOW(mockPayload, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+			
+			// The POW is done locally instead
+			assertTrue(powProc.checkPOW(mockPayload, powNonce, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES));
+			assertEquals(0, server.getRequestsHandled());
+		}
+		finally
+		{
+			server.stop();
+		}
+	}
+	
+	public void testTooDifficultRequestRejected() throws Exception
+	{
+		POWWorkerServer server = new POWWorkerServer(0, SHARED_SECRET);
+		server.start();
+		try
+		{
+			Socket socket = sendRequest(server.getPort(), IMPOSSIBLE_TARGET);
+			assertEquals(POWWorkerServer.STATUS_REJECTED, readStatus(socket));
+			socket.close();
+		}
+		finally
+		{
+			server.stop();
+		}
+	}
+	
+	public void testRequestTimesOut() throws Exception
+	{
+		POWWorkerServer server = new POWWorkerServer(0, SHARED_SECRET);
+		server.setMaxExpectedTrials(Double.MAX_VALUE);
+		server.setMaxRequestTime(SHORT_TIMEOUT);
+		server.start();
+		try
+		{
+			Socket socket = sendRequest(server.getPort(), IMPOSSIBLE_TARGET);
+			assertEquals(POWWorkerServer.STATUS_TIMED_OUT, readStatus(socket));
+			socket.close();
+		}
+		finally
+		{
+			server.stop();
+		}
+	}
+	
+	public void testBusyUntilClientDisconnects() throws Exception
+	{
+		POWWorkerServer server = new POWWorkerServer(0, SHARED_SECRET);
+		server.setMaxExpectedTrials(Double.MAX_VALUE);
+		server.start();
+		try
+		{
+			// While the first request is being worked on, a second one is turned away
+			Socket firstSocket = sendRequest(server.getPort(), IMPOSSIBLE_TARGET);
+			Thread.sleep(SHORT_TIMEOUT);
+			Socket secondSocket = sendRequest(server.getPort(), IMPOSSIBLE_TARGET);
+			assertEquals(POWWorkerServer.STATUS_BUSY, readStatus(secondSocket));
+			secondSocket.close();
+			
+			// Closing the first connection cancels its request, so that the server can take another
+			firstSocket.close();
+			RemotePOWClient client = new RemotePOWClient(LOOPBACK_ADDRESS, server.getPort(), SHARED_SECRET, TIMEOUT, new ParallelPOWCalculator(1));
+			long startTime = System.currentTimeMillis();
+			while (server.getRequestsHandled() == 0 && System.currentTimeMillis() - startTime < TIMEOUT)
+			{
+				client.doPOW(mockPayload, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+			}
+			assertEquals(1, server.getRequestsHandled());
+		}
+		finally
+		{
+			server.stop();
+		}
+	}
+	
+	/**
+	 * Sends a POW request for a random initial hash, and returns the socket so that the response can be read.
+	 */
+	private Socket sendRequest(int port, long target) throws Exception
+	{
+		byte[] initialHash = new byte[64];
+		new SecureRandom().nextBytes(initialHash);
+		
+		Socket socket = new Socket(LOOPBACK_ADDRESS, port);
+		socket.setSoTimeout(TIMEOUT);
+		RemotePOWClient client = new RemotePOWClient(LOOPBACK_ADDRESS, port, SHARED_SECRET, TIMEOUT, null);
+		client.writeRequest(new DataOutputStream(socket.getOutputStream()), initialHash, target);
+		return socket;
+	}
+	
+	/**
+	 * Reads a response which has no nonce, and returns its status.
+	 */
+	private byte readStatus(Socket socket) throws Exception
+	{
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		assertEquals(POWWorkerServer.FRAME_MAGIC, in.readInt());
+		assertEquals(POWWorkerServer.STATUS_RESPONSE_BODY_LENGTH, in.readInt());
+		return in.readByte();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,150 @@
+package org.bitseal.tests.pow;
+
+import java.security.SecureRandom;
+
+import junit.framework.TestCase;
+
+import org.bitseal.core.App;
+import org.bitseal.pow.POWProcessor;
+
+import android.os.SystemClock;
+
+/**
+ * Tests that POW checkpoints are saved while a nonce is being searched for,
+ * and that a search which has been stopped is resumed from its checkpoint.
+ * 
+ * @author Jonathan Coe
+ */
+public class Test_ResumablePOW extends TestCase
+{
+	/** A nonceTrialsPerByte value so large that the search will not finish during the test */
+	private static final long IMPOSSIBLE_NONCE_TRIALS_PER_BYTE = 1000000000L;
+	
+	private static final long SEARCH_TIME = 2000;
+	
+	private POWCheckpointStore checkpointStore;
+	
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		checkpointStore = new POWCheckpointStore(App.getContext());
+	}
+	
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+	}
+	
+	public void testResumeFromCheckpoint()
+	{
+		byte[] mockPayload = new byte[100];
+		new SecureRandom().nextBytes(mockPayload);
+		byte[] initialHash = ParallelPOWCalculator.sha512(mockPayload);
+		
+		// Set an expiration time of 1 hour from now
+		long expirationTime = (System.currentTimeMillis() / 1000) + 3600;
+		
+		POWProcessor powProc = new POWProcessor();
+		ParallelPOWCalculator powCalc = new ParallelPOWCalculator();
+		powCalc.setCheckpointStore(checkpointStore);
+		
+		long firstNonce = powCalc.doPOW(mockPayload, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+		assertTrue(powProc.checkPOW(mockPayload, firstNonce, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES));
+		
+		// The checkpoint should be deleted once a nonce has been found
+		assertNull(checkpointStore.loadCheckpoint(initialHash));
+		
+		// Save a checkpoint which says that the nonce we just found has already been searched
+		checkpointStore.saveCheckpoint(initialHash, new POWCheckpoint(expirationTime, firstNonce + 1));
+		
+		long resumedNonce = powCalc.doPOW(mockPayload, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+		assertTrue(resumedNonce > firstNonce);
+		assertTrue(powProc.checkPOW(mockPayload, resumedNonce, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES));
+		assertNull(checkpointStore.loadCheckpoint(initialHash));
+	}
+	
+	public void testCheckpointSavedWhenStopped() throws Exception
+	{
+		final byte[] mockPayload = new byte[100];
+		new SecureRandom().nextBytes(mockPayload);
+		byte[] initialHash = ParallelPOWCalculator.sha512(mockPayload);
+		
+		// Set an expiration time of 1 hour from now
+		final long expirationTime = (System.currentTimeMillis() / 1000) + 3600;
+		
+		final ParallelPOWCalculator powCalc = new ParallelPOWCalculator();
+		powCalc.setCheckpointStore(checkpointStore);
+		powCalc.setCheckpointInterval(0);
+		
+		// Start a search that will not finish, then stop it in the same way as if the app was being shut down
+		Thread powThread = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					powCalc.doPOW(mockPayload, expirationTime, IMPOSSIBLE_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+				}
+				catch (RuntimeException e)
+				{
+					// Expected, as the thread is interrupted
+				}
+			}
+		};
+		powThread.start();
+		SystemClock.sleep(SEARCH_TIME);
+		powThread.interrupt();
+		powThread.join();
+		
+		POWCheckpoint checkpoint = checkpointStore.loadCheckpoint(initialHash);
+		assertNotNull(checkpoint);
+		assertTrue(checkpoint.getSearchedUpTo() > 0);
+		assertEquals(expirationTime, checkpoint.getExpirationTime());
+		
+		// Resume the search with the normal network difficulty. The nonces that were searched before should be skipped.
+		POWProcessor powProc = new POWProcessor();
+		long resumedNonce = powCalc.doPOW(mockPayload, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+		assertTrue(resumedNonce >= checkpoint.getSearchedUpTo());
+		assertTrue(powProc.checkPOW(mockPayload, resumedNonce, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES));
+		assertNull(checkpointStore.loadCheckpoint(initialHash));
+	}
+	
+	public void testExpiredCheckpointRemoved()
+	{
+		byte[] expiredHash = ParallelPOWCalculator.sha512(new byte[]{1});
+		byte[] currentHash = ParallelPOWCalculator.sha512(new byte[]{2});
+		long currentTime = System.currentTimeMillis() / 1000;
+		
+		checkpointStore.saveCheckpoint(expiredHash, new POWCheckpoint(currentTime - 1, 4096));
+		checkpointStore.saveCheckpoint(currentHash, new POWCheckpoint(currentTime + 3600, 4096));
+		
+		assertNull(checkpointStore.loadCheckpoint(expiredHash));
+		assertEquals(4096, checkpointStore.loadCheckpoint(currentHash).getSearchedUpTo());
+		checkpointStore.deleteCheckpoint(currentHash);
+	}
+	
+	public void testFailedCheckpointSaveDoesNotStopSearch()
+	{
+		byte[] mockPayload = new byte[100];
+		new SecureRandom().nextBytes(mockPayload);
+		long expirationTime = (System.currentTimeMillis() / 1000) + 3600;
+		
+		// A store whose saves always fail, for example because the storage is full
+		POWCheckpointStore failingStore = new POWCheckpointStore(App.getContext())
+		{
+			@Override
+			public synchronized void saveCheckpoint(byte[] initialHash, POWCheckpoint checkpoint)
+			{
+				throw new RuntimeException("The checkpoint could not be saved");
+			}
+		};
+		
+		ParallelPOWCalculator powCalc = new ParallelPOWCalculator();
+		powCalc.setCheckpointStore(failingStore);
+		powCalc.setCheckpointInterval(0);
+		
+		long nonce = powCalc.doPOW(mockPayload, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES);
+		assertTrue(new POWProcessor().checkPOW(mockPayload, nonce, expirationTime, POWProcessor.NETWORK_NONCE_TRIALS_PER_BYTE, POWProcessor.NETWORK_EXTRA_BYTES));
+	}
+}
\ No newline at end of file